@@ -0,0 +1,146 @@
+package UPKmodder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Thin client forwarding command line arguments to a running
+ * {@link BatchDaemon} and printing its response. Requests are authenticated
+ * by the token the daemon has written to its token file.
+ *
+ * @author XMS
+ */
+public class BatchClient
+{
+    /**
+     * The daemon port.
+     */
+    private final int port;
+
+    /**
+     * The stream results are printed to.
+     */
+    private final PrintStream out;
+
+    /**
+     * The stream errors are printed to.
+     */
+    private final PrintStream err;
+
+    /**
+     * Constructs a client printing to standard output and standard error.
+     * @param port the daemon port
+     */
+    public BatchClient(int port)
+    {
+        this(port, System.out, System.err);
+    }
+
+    /**
+     * Constructs a client.
+     * @param port the daemon port
+     * @param out the stream results are printed to
+     * @param err the stream errors are printed to
+     */
+    public BatchClient(int port, PrintStream out, PrintStream err)
+    {
+        this.port = port;
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Lets the daemon run the batch operation specified by the command line
+     * arguments. Relative paths are resolved against the current working
+     * directory.
+     * @param args the command line arguments
+     * @return the exit code
+     */
+    public int run(String[] args)
+    {
+        StringBuilder request = new StringBuilder(BatchDaemon.REQUEST_RUN);
+        request.append(BatchDaemon.SEPARATOR).append(Paths.get("").toAbsolutePath());
+        for(String arg : args) {
+            if(arg.contains(BatchDaemon.SEPARATOR) || arg.contains("\n") || arg.contains("\r")) {
+                err.println("Arguments must not contain tabs or line breaks.");
+                return BatchEngine.EXIT_USAGE;
+            }
+            request.append(BatchDaemon.SEPARATOR).append(arg);
+        }
+        return send(request.toString());
+    }
+
+    /**
+     * Asks the daemon to stop.
+     * @return the exit code
+     */
+    public int stopDaemon()
+    {
+        return send(BatchDaemon.REQUEST_STOP);
+    }
+
+    /**
+     * Sends the specified request line preceded by the daemon token and
+     * prints the response.
+     * @param request the request line
+     * @return the exit code sent by the daemon
+     */
+    private int send(String request)
+    {
+        Path tokenPath = BatchDaemon.getTokenPath(port);
+        String token;
+        try {
+            token = new String(Files.readAllBytes(tokenPath), BatchDaemon.CHARSET).trim();
+        }
+        catch(IOException x)
+        {
+            err.println("No daemon token readable at " + tokenPath + ".");
+            return BatchEngine.EXIT_FAILURE;
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), BatchDaemon.CHARSET);
+            writer.write(token + BatchDaemon.SEPARATOR + request + "\n");
+            writer.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), BatchDaemon.CHARSET));
+            String line;
+            while((line = reader.readLine()) != null) {
+                String[] fields = line.split(BatchDaemon.SEPARATOR, 2);
+                String value = (fields.length > 1) ? fields[1] : "";
+                switch(fields[0]) {
+                    case BatchDaemon.RESPONSE_OUT:
+                        out.println(value);
+                        break;
+                    case BatchDaemon.RESPONSE_ERR:
+                        err.println(value);
+                        break;
+                    case BatchDaemon.RESPONSE_EXIT:
+                        out.flush();
+                        return Integer.parseInt(value);
+                    default:
+                        err.println("Invalid response: " + line);
+                }
+            }
+            err.println("Daemon closed the connection unexpectedly.");
+        }
+        catch(ConnectException x)
+        {
+            err.println("No daemon listening on port " + port + ".");
+        }
+        catch(IOException | NumberFormatException x)
+        {
+            err.println("Communication with daemon failed: " + x);
+        }
+        return BatchEngine.EXIT_FAILURE;
+    }
+}
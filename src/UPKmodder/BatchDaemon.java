@@ -0,0 +1,526 @@
+package UPKmodder;
+
+import io.upk.Fingerprint;
+import io.upk.UpkFileLoader;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+
+import model.upk.UpkFile;
+import parser.unrealhex.OperandTable;
+
+/**
+ * Long-running local server keeping the configured UPK files and the operand
+ * table loaded between batch runs. Requests of {@link BatchClient}s are
+ * served one at a time by a {@link BatchEngine}, which itself processes
+ * mod files concurrently.<br>
+ * The daemon only listens on the loopback interface. On start it writes a
+ * random token to a file only readable by its owner, see
+ * {@link #getTokenPath(int)}, and only serves clients presenting that token.
+ * UPK files are loaded again if the UPK config file or any loaded UPK file
+ * has been changed by other means since the previous request.
+ * <p>
+ * The protocol is line-based and UTF-8 encoded, fields are separated by
+ * tabs. A client sends a single request line starting with the token,
+ * either <code>&lt;token&gt; RUN &lt;working directory&gt;
+ * &lt;argument&gt;...</code> or <code>&lt;token&gt; STOP</code>. The
+ * daemon answers with any number of
+ * <code>OUT &lt;line&gt;</code> and <code>ERR &lt;line&gt;</code> lines
+ * and a final <code>EXIT &lt;exit code&gt;</code> line.
+ *
+ * @author XMS
+ */
+public class BatchDaemon
+{
+    /**
+     * The request running a batch operation.
+     */
+    public static final String REQUEST_RUN = "RUN";
+
+    /**
+     * The request stopping the daemon.
+     */
+    public static final String REQUEST_STOP = "STOP";
+
+    /**
+     * The response line type for standard output.
+     */
+    public static final String RESPONSE_OUT = "OUT";
+
+    /**
+     * The response line type for error output.
+     */
+    public static final String RESPONSE_ERR = "ERR";
+
+    /**
+     * The response line type for the exit code, ending the response.
+     */
+    public static final String RESPONSE_EXIT = "EXIT";
+
+    /**
+     * The field separator.
+     */
+    public static final String SEPARATOR = "\t";
+
+    /**
+     * The protocol charset.
+     */
+    public static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * The default directory of the token files.
+     */
+    public static final Path DEFAULT_TOKEN_DIRECTORY = Paths.get(System.getProperty("user.home"), ".upkmodder");
+
+    /**
+     * The time in milliseconds a connected client may take to send its request.
+     */
+    private static final int REQUEST_TIMEOUT = 30000;
+
+    /**
+     * The number of random bytes of a token.
+     */
+    private static final int TOKEN_LENGTH = 32;
+
+    /**
+     * The directory of the token files.
+     */
+    private static Path tokenDirectory = DEFAULT_TOKEN_DIRECTORY;
+
+    /**
+     * The daemon configuration.
+     */
+    private final UpkConfigData configData;
+
+    /**
+     * The loader holding the resident UPK files.
+     */
+    private UpkFileLoader upkLoader;
+
+    /**
+     * The modification time of the UPK config file when the UPK files were loaded.
+     */
+    private FileTime configModified;
+
+    /**
+     * The fingerprints of the loaded UPK files after the previous request.
+     */
+    private final Map<Path, Fingerprint> fingerprints = new HashMap<>();
+
+    /**
+     * The server socket, <code>null</code> if not started.
+     */
+    private ServerSocket serverSocket;
+
+    /**
+     * The token clients have to present, <code>null</code> if not started.
+     */
+    private String token;
+
+    /**
+     * The file the token has been written to, <code>null</code> if not started.
+     */
+    private Path tokenPath;
+
+    /**
+     * Flag denoting whether the daemon has been asked to stop.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Constructs a daemon for the specified configuration.
+     * @param configData the daemon configuration providing port, UPK
+     *  config file and default thread count
+     */
+    public BatchDaemon(UpkConfigData configData)
+    {
+        this.configData = configData;
+    }
+
+    /**
+     * Sets the directory the token files are written to.
+     * @param directory the token directory
+     */
+    public static synchronized void setTokenDirectory(Path directory)
+    {
+        tokenDirectory = directory;
+    }
+
+    /**
+     * Returns the path of the token file of the daemon listening on the
+     * specified port.
+     * @param port the daemon port
+     * @return the token file path
+     */
+    public static synchronized Path getTokenPath(int port)
+    {
+        return tokenDirectory.resolve("daemon-" + port + ".token");
+    }
+
+    /**
+     * Binds the server socket, writes the token file and loads the operand
+     * table and all configured UPK files.
+     * @throws IOException if the socket could not be bound or the token file
+     *  could not be written
+     */
+    public void start() throws IOException
+    {
+        serverSocket = new ServerSocket(configData.m_iPort, 50, InetAddress.getLoopbackAddress());
+        try {
+            writeToken();
+        }
+        catch(IOException x)
+        {
+            serverSocket.close();
+            throw x;
+        }
+        if(!OperandTable.preload()) {
+            System.err.println("Operand data could not be loaded.");
+        }
+        getUpkLoader(System.err);
+    }
+
+    /**
+     * Returns the port the daemon is listening on.
+     * @return the local port
+     */
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Serves client requests until a stop request is received.
+     * @throws IOException if the server socket fails
+     */
+    public void serve() throws IOException
+    {
+        try {
+            while(!stopped) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                }
+                catch(SocketException x)
+                {
+                    if(stopped) {
+                        // closed by stop()
+                        break;
+                    }
+                    throw x;
+                }
+                try (Socket client = socket) {
+                    handle(client);
+                }
+                catch(IOException | RuntimeException x)
+                {
+                    System.err.println("Client connection failed: " + x);
+                }
+            }
+        }
+        finally
+        {
+            serverSocket.close();
+            Files.deleteIfExists(tokenPath);
+        }
+    }
+
+    /**
+     * Stops serving requests.
+     */
+    public void stop()
+    {
+        stopped = true;
+        try {
+            serverSocket.close();
+        }
+        catch(IOException x)
+        {
+            // nothing left to do
+        }
+    }
+
+    /**
+     * Reads and executes a single client request.
+     * @param socket the client connection
+     * @throws IOException if an I/O error occurs
+     */
+    private void handle(Socket socket) throws IOException
+    {
+        socket.setSoTimeout(REQUEST_TIMEOUT);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), CHARSET));
+        Writer writer = new OutputStreamWriter(socket.getOutputStream(), CHARSET);
+        String request = reader.readLine();
+        if(request == null) {
+            return;
+        }
+        String[] fields = request.split(SEPARATOR, -1);
+        if(!MessageDigest.isEqual(token.getBytes(CHARSET), fields[0].getBytes(CHARSET))) {
+            writer.write(RESPONSE_ERR + SEPARATOR + "Invalid token\n");
+            writer.write(RESPONSE_EXIT + SEPARATOR + BatchEngine.EXIT_FAILURE + "\n");
+            writer.flush();
+            return;
+        }
+
+        int exitCode;
+        if(fields.length >= 2 && fields[1].equals(REQUEST_STOP)) {
+            stopped = true;
+            exitCode = BatchEngine.EXIT_OK;
+        } else if(fields.length >= 3 && fields[1].equals(REQUEST_RUN)) {
+            try (PrintStream out = new PrintStream(new LineOutputStream(writer, RESPONSE_OUT), true, CHARSET.name());
+                    PrintStream err = new PrintStream(new LineOutputStream(writer, RESPONSE_ERR), true, CHARSET.name())) {
+                try {
+                    exitCode = run(Paths.get(fields[2]), Arrays.copyOfRange(fields, 3, fields.length), out, err);
+                }
+                catch(RuntimeException x)
+                {
+                    // keep serving other requests
+                    err.println("Request failed: " + x);
+                    exitCode = BatchEngine.EXIT_FAILURE;
+                }
+            }
+        } else {
+            writer.write(RESPONSE_ERR + SEPARATOR + "Invalid request\n");
+            exitCode = BatchEngine.EXIT_USAGE;
+        }
+        writer.write(RESPONSE_EXIT + SEPARATOR + exitCode + "\n");
+        writer.flush();
+    }
+
+    /**
+     * Generates a random token and writes it to a token file only readable
+     * by the owner.
+     * @throws IOException if the token file could not be written
+     */
+    private void writeToken() throws IOException
+    {
+        byte[] bytes = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder();
+        for(byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        token = hex.toString();
+
+        tokenPath = getTokenPath(getPort());
+        Files.createDirectories(tokenPath.getParent());
+        // never reuse a token file others may have been able to open
+        Files.deleteIfExists(tokenPath);
+        FileAttribute<?>[] attributes = new FileAttribute<?>[0];
+        if(tokenPath.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            attributes = new FileAttribute<?>[] {
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))
+            };
+        }
+        try (SeekableByteChannel channel = Files.newByteChannel(tokenPath,
+                EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), attributes)) {
+            ByteBuffer buf = ByteBuffer.wrap(token.getBytes(CHARSET));
+            while(buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+
+    /**
+     * Runs the batch operation specified by the command line arguments of
+     * a client.
+     * @param workingDir the working directory of the client
+     * @param args the command line arguments
+     * @param out the stream results are printed to
+     * @param err the stream errors are printed to
+     * @return the exit code
+     */
+    private int run(Path workingDir, String[] args, PrintStream out, PrintStream err)
+    {
+        UpkConfigData requestData = new CommandLineArgHandler().Init(args, new UpkConfigData());
+        if(requestData.m_bShowVersion) {
+            out.println(requestData.m_sVersion);
+            return BatchEngine.EXIT_OK;
+        }
+        if(requestData.m_bShowHelp || !BatchEngine.hasOperation(requestData)) {
+            out.println(requestData.m_sHelpText);
+            return (requestData.m_bShowHelp) ? BatchEngine.EXIT_OK : BatchEngine.EXIT_USAGE;
+        }
+        // resolve paths relative to the client
+        if(!requestData.m_mod_filename_input.isEmpty()) {
+            requestData.m_mod_filename_input = workingDir.resolve(requestData.m_mod_filename_input).toString();
+        }
+        if(!requestData.m_mod_filename_output.isEmpty()) {
+            requestData.m_mod_filename_output = workingDir.resolve(requestData.m_mod_filename_output).toString();
+        }
+        if(requestData.m_iThreads == 0) {
+            requestData.m_iThreads = configData.m_iThreads;
+        }
+        requestData.upkConfig = configData.upkConfig;
+
+        try {
+            return new BatchEngine(requestData, getUpkLoader(err), out, err).run();
+        }
+        finally
+        {
+            rememberFingerprints();
+        }
+    }
+
+    /**
+     * Returns the loader holding the resident UPK files, loading all
+     * configured UPK files again if any of them or the UPK config file have
+     * been changed since the previous request.
+     * @param log the stream verbose progress output is printed to
+     * @return the loader
+     */
+    private UpkFileLoader getUpkLoader(PrintStream log)
+    {
+        if(upkLoader == null || isStale()) {
+            if(configData.m_bVerbose) {
+                log.println("Loading configured upks.");
+            }
+            upkLoader = new UpkFileLoader(configData, log);
+            try {
+                // wait for all packages so fingerprints cover every loaded file
+                upkLoader.getCompletion().get();
+            }
+            catch(InterruptedException x)
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch(ExecutionException x)
+            {
+                // failures are reported per package
+            }
+            configModified = getConfigModified();
+            rememberFingerprints();
+        }
+        return upkLoader;
+    }
+
+    /**
+     * Returns whether the UPK config file or any loaded UPK file has been
+     * changed since the previous request.
+     * @return <code>true</code> if the UPK files need to be loaded again
+     */
+    private boolean isStale()
+    {
+        FileTime modified = getConfigModified();
+        if(modified == null ? configModified != null : !modified.equals(configModified)) {
+            return true;
+        }
+        for(Entry<Path, Fingerprint> entry : fingerprints.entrySet()) {
+            try {
+                if(!entry.getValue().equals(Fingerprint.of(entry.getKey()))) {
+                    return true;
+                }
+            }
+            catch(IOException x)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the current fingerprints of all loaded UPK files.
+     */
+    private void rememberFingerprints()
+    {
+        fingerprints.clear();
+        for(UpkFile upk : upkLoader.getLoadedUpks()) {
+            try {
+                fingerprints.put(upk.getPath(), Fingerprint.of(upk.getPath()));
+            }
+            catch(IOException x)
+            {
+                // file vanished, force reload
+                configModified = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the modification time of the UPK config file.
+     * @return the modification time or <code>null</code> if the file does not exist
+     */
+    private FileTime getConfigModified()
+    {
+        try {
+            return Files.getLastModifiedTime(Paths.get(configData.upkConfig));
+        }
+        catch(IOException x)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Output stream sending each written line as a response line of the
+     * specified type.
+     */
+    private static final class LineOutputStream extends OutputStream
+    {
+        private final Writer writer;
+        private final String type;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        public LineOutputStream(Writer writer, String type)
+        {
+            this.writer = writer;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            if(b == '\n') {
+                writeLine();
+            } else if(b != '\r') {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if(line.size() > 0) {
+                writeLine();
+            }
+        }
+
+        private void writeLine() throws IOException
+        {
+            synchronized(writer) {
+                writer.write(type + SEPARATOR + new String(line.toByteArray(), CHARSET) + "\n");
+                writer.flush();
+            }
+            line.reset();
+        }
+    }
+}
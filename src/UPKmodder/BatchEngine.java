@@ -0,0 +1,845 @@
+package UPKmodder;
+
+import io.upk.UpkFileLoader;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.text.BadLocationException;
+
+import model.modtree.ModReferenceLeaf;
+import model.modtree.ModTree;
+import model.upk.UpkFile;
+import parser.unrealhex.BytecodeDecoder.DecodeException;
+import parser.unrealhex.OperandTable;
+import parser.unrealhex.ReferenceParser;
+import ui.ApplyStatus;
+import util.unrealhex.BulkApplyRevert;
+import util.unrealhex.HexSearchAndReplace;
+import util.unrealhex.HexStringLibrary;
+import util.unrealhex.ModStatusCache;
+import util.unrealhex.ReferenceUpdate;
+
+/**
+ * Headless engine running status tests, apply, revert and reference
+ * conversion across mod files without starting the GUI.<br>
+ * The input is either a single mod file or a directory which is scanned
+ * recursively for mod files, skipping files and folders whose names start
+ * with a double underscore. Target UPK files are resolved through the UPK
+ * config file. Mod files are parsed, converted, tagged and tested
+ * concurrently, applying and reverting is performed concurrently per target
+ * package. Rolling back undoes the most recent journaled changes of each
+ * target package. Reference tagging writes the tagged byte code of each mod file to
+ * the output file or, for input directories, to a <code>.tagged</code> file
+ * in the mirrored output directory.
+ * <p>
+ * For each mod file and operation one tab-separated result line
+ * <code>&lt;operation&gt; &lt;result&gt; &lt;mod file&gt; [&lt;message&gt;]</code>
+ * is printed, followed by a single summary line
+ * <code>SUMMARY files=&lt;n&gt; succeeded=&lt;n&gt; failed=&lt;n&gt; time=&lt;n&gt;ms</code>.
+ *
+ * @author XMS
+ */
+public class BatchEngine
+{
+    /**
+     * Exit code signalling that all operations succeeded.
+     */
+    public static final int EXIT_OK = 0;
+
+    /**
+     * Exit code signalling that at least one operation failed.
+     */
+    public static final int EXIT_FAILURE = 1;
+
+    /**
+     * Exit code signalling invalid command line arguments.
+     */
+    public static final int EXIT_USAGE = 2;
+
+    /**
+     * The mod file extension.
+     */
+    private static final String MOD_FILE_EXTENSION = ".upk_mod";
+
+    /**
+     * The extension appended to tagged hex files written for input directories.
+     */
+    private static final String TAGGED_FILE_EXTENSION = ".tagged";
+
+    /**
+     * The file name prefix marking files and folders excluded from processing.
+     */
+    private static final String EXCLUDED_PREFIX = "__";
+
+    /**
+     * The command line configuration.
+     */
+    private final UpkConfigData configData;
+
+    /**
+     * The loader resolving target UPK files.
+     */
+    private final UpkFileLoader upkLoader;
+
+    /**
+     * The stream results are printed to.
+     */
+    private final PrintStream out;
+
+    /**
+     * The stream errors and progress messages are printed to.
+     */
+    private final PrintStream err;
+
+    /**
+     * The number of worker threads.
+     */
+    private final int numThreads;
+
+    /**
+     * The result lines of all operations performed so far.
+     */
+    private final List<Result> results = new ArrayList<>();
+
+    /**
+     * Constructs an engine for the specified configuration, resolving UPK
+     * files through the configured UPK config file and printing results to
+     * standard output.
+     * @param configData the command line configuration
+     */
+    public BatchEngine(UpkConfigData configData)
+    {
+        this(configData, new UpkFileLoader(configData, System.err), System.out);
+    }
+
+    /**
+     * Constructs an engine for the specified configuration.
+     * @param configData the command line configuration
+     * @param upkLoader the loader resolving target UPK files
+     * @param out the stream results are printed to
+     */
+    public BatchEngine(UpkConfigData configData, UpkFileLoader upkLoader, PrintStream out)
+    {
+        this(configData, upkLoader, out, System.err);
+    }
+
+    /**
+     * Constructs an engine for the specified configuration.
+     * @param configData the command line configuration
+     * @param upkLoader the loader resolving target UPK files
+     * @param out the stream results are printed to
+     * @param err the stream errors and progress messages are printed to
+     */
+    public BatchEngine(UpkConfigData configData, UpkFileLoader upkLoader, PrintStream out, PrintStream err)
+    {
+        this.configData = configData;
+        this.upkLoader = upkLoader;
+        this.out = out;
+        this.err = err;
+        this.numThreads = (configData.m_iThreads > 0) ?
+                configData.m_iThreads : Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns whether the specified configuration requests any operation
+     * handled by the batch engine.
+     * @param configData the command line configuration
+     * @return <code>true</code> if there is something to do
+     */
+    public static boolean hasOperation(UpkConfigData configData)
+    {
+        return configData.m_bTestStatus || configData.m_bWriteToUpks || configData.m_bRevertUpks
+                || configData.m_bRefsTag || (configData.m_iRollback > 0) || isConvertingReferences(configData);
+    }
+
+    /**
+     * Returns whether the specified configuration requests reference conversion.
+     * @param configData the command line configuration
+     * @return <code>true</code> if references shall be converted
+     */
+    private static boolean isConvertingReferences(UpkConfigData configData)
+    {
+        return configData.m_bRefsHexToString || configData.m_bRefsStringToHex || configData.m_bUpdateReferences;
+    }
+
+    /**
+     * Runs all requested operations and prints their results.
+     * @return the process exit code
+     */
+    public int run()
+    {
+        if(configData.m_bRefsUntag || configData.m_bCompressedOutput || configData.m_bMirroredOutput) {
+            err.println("Removing reference tags and compressed or mirrored output are not supported in batch mode.");
+            return EXIT_USAGE;
+        }
+        if(configData.m_bRefsTag && configData.m_mod_filename_output.isEmpty()) {
+            err.println("Reference tagging requires an output file or directory.");
+            return EXIT_USAGE;
+        }
+        if(configData.m_mod_filename_input.isEmpty()) {
+            err.println("No input file or directory specified.");
+            return EXIT_USAGE;
+        }
+        Path input = Paths.get(configData.m_mod_filename_input);
+        if(!Files.exists(input)) {
+            err.println("Input " + input + " does not exist.");
+            return EXIT_USAGE;
+        }
+        if(configData.m_bRefsTag && !OperandTable.preload()) {
+            err.println("Operand data could not be loaded.");
+            return EXIT_FAILURE;
+        }
+
+        long startTime = System.currentTimeMillis();
+        List<Path> modPaths;
+        try {
+            modPaths = findModFiles(input);
+        }
+        catch(IOException x)
+        {
+            err.println("Could not scan " + input + ": " + x);
+            return EXIT_FAILURE;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "BatchEngine");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<ModTree> trees = parseModFiles(executor, modPaths);
+            if(isConvertingReferences(configData)) {
+                convertReferences(executor, input, modPaths, trees);
+            }
+            if(configData.m_bRefsTag) {
+                tagReferences(executor, input, modPaths, trees);
+            }
+            if(configData.m_iRollback > 0) {
+                rollback(modPaths, trees, configData.m_iRollback);
+            }
+            if(configData.m_bTestStatus) {
+                testStatus(executor, modPaths, trees);
+            }
+            if(configData.m_bWriteToUpks || configData.m_bRevertUpks) {
+                applyRevert(executor, modPaths, trees, configData.m_bWriteToUpks);
+            }
+        }
+        catch(InterruptedException x)
+        {
+            Thread.currentThread().interrupt();
+            err.println("Interrupted.");
+            return EXIT_FAILURE;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        int failed = 0;
+        for(Result result : results) {
+            out.println(result);
+            if(!result.success) {
+                failed++;
+            }
+        }
+        out.println("SUMMARY\tfiles=" + modPaths.size() + "\tsucceeded=" + (results.size() - failed)
+                + "\tfailed=" + failed + "\ttime=" + (System.currentTimeMillis() - startTime) + "ms");
+        out.flush();
+        return (failed == 0) ? EXIT_OK : EXIT_FAILURE;
+    }
+
+    /**
+     * Returns the results of all operations performed so far.
+     * @return the results
+     */
+    public List<Result> getResults()
+    {
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * Collects the mod files to process.
+     * @param input a mod file or a directory to scan recursively
+     * @return the sorted mod file paths
+     * @throws IOException if the directory could not be scanned
+     */
+    private static List<Path> findModFiles(Path input) throws IOException
+    {
+        final List<Path> modPaths = new ArrayList<>();
+        if(!Files.isDirectory(input)) {
+            modPaths.add(input);
+            return modPaths;
+        }
+        final Path root = input;
+        Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+            {
+                if(!dir.equals(root) && dir.getFileName().toString().startsWith(EXCLUDED_PREFIX)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+            {
+                String fileName = file.getFileName().toString();
+                if(fileName.endsWith(MOD_FILE_EXTENSION) && !fileName.startsWith(EXCLUDED_PREFIX)) {
+                    modPaths.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(modPaths);
+        return modPaths;
+    }
+
+    /**
+     * Reads and parses the specified mod files concurrently and resolves
+     * their target UPK files.
+     * @param executor the executor to run on
+     * @param modPaths the mod file paths
+     * @return the mod trees, <code>null</code> entries denote unreadable files
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private List<ModTree> parseModFiles(ExecutorService executor, List<Path> modPaths) throws InterruptedException
+    {
+        List<Future<ModTree>> futures = new ArrayList<>();
+        for(final Path modPath : modPaths) {
+            futures.add(executor.submit(new Callable<ModTree>() {
+                @Override
+                public ModTree call() throws IOException
+                {
+                    return createModTree(new String(Files.readAllBytes(modPath)));
+                }
+            }));
+        }
+        List<ModTree> trees = new ArrayList<>();
+        for(int i = 0; i < futures.size(); i++) {
+            try {
+                trees.add(futures.get(i).get());
+            }
+            catch(ExecutionException x)
+            {
+                results.add(new Result("READ", "FAILED", modPaths.get(i), false, x.getCause().toString()));
+                trees.add(null);
+            }
+        }
+        if(configData.m_bVerbose) {
+            err.println("Parsed " + modPaths.size() + " mod files.");
+        }
+        return trees;
+    }
+
+    /**
+     * Parses the specified mod file text and resolves its target UPK file.
+     * @param modText the mod file text
+     * @return the mod tree
+     */
+    private ModTree createModTree(String modText)
+    {
+        ModTree tree = new ModTree(modText, true);
+        tree.setTargetUpk(resolveUpk(tree));
+        return tree;
+    }
+
+    /**
+     * Looks up the UPK file the specified mod tree targets. Falls back to
+     * the only configured version of the package if its GUID is not
+     * specified or not configured.
+     * @param tree the mod tree
+     * @return the UPK file or <code>null</code> if it could not be resolved
+     */
+    private UpkFile resolveUpk(ModTree tree)
+    {
+        String upkName = tree.getUpkName();
+        if(upkName == null || upkName.isEmpty()) {
+            return null;
+        }
+        UpkFile upk = null;
+        if(tree.getGuid() != null) {
+            upk = upkLoader.getUpk(upkName, tree.getGuid());
+        }
+        if(upk == null) {
+            upk = upkLoader.getUpk(upkName);
+        }
+        return upk;
+    }
+
+    /**
+     * Converts the references of the specified mod files concurrently and
+     * writes the converted files. Converted trees replace the original ones.
+     * @param executor the executor to run on
+     * @param input the input mod file or directory
+     * @param modPaths the mod file paths
+     * @param trees the mod trees
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void convertReferences(ExecutorService executor, final Path input, List<Path> modPaths, List<ModTree> trees)
+            throws InterruptedException
+    {
+        List<Future<Result>> futures = new ArrayList<>();
+        for(int i = 0; i < modPaths.size(); i++) {
+            final Path modPath = modPaths.get(i);
+            final ModTree tree = trees.get(i);
+            if(tree == null) {
+                futures.add(null);
+                continue;
+            }
+            futures.add(executor.submit(new Callable<Result>() {
+                @Override
+                public Result call() throws Exception
+                {
+                    return convertReferences(tree, modPath, getOutputPath(input, modPath));
+                }
+            }));
+        }
+        for(int i = 0; i < futures.size(); i++) {
+            if(futures.get(i) == null) {
+                continue;
+            }
+            Result result;
+            try {
+                result = futures.get(i).get();
+            }
+            catch(ExecutionException x)
+            {
+                result = new Result("REFS", "FAILED", modPaths.get(i), false, x.getCause().toString());
+            }
+            if(result.success) {
+                // continue with the converted mod file
+                trees.set(i, createModTree(trees.get(i).getRoot().getFullText()));
+            }
+            results.add(result);
+        }
+    }
+
+    /**
+     * Converts the references of a single mod tree and writes the result.
+     * The file is only written if all references could be converted.
+     * @param tree the mod tree
+     * @param modPath the mod file path
+     * @param outputPath the path to write the converted mod file to
+     * @return the conversion result
+     * @throws IOException if the converted mod file could not be written
+     * @throws BadLocationException if the GUID line could not be replaced
+     */
+    private Result convertReferences(ModTree tree, Path modPath, Path outputPath) throws IOException, BadLocationException
+    {
+        UpkFile srcUpk = tree.getTargetUpk();
+        UpkFile dstUpk = srcUpk;
+        if(configData.m_bUpdateReferences) {
+            // map references onto the only configured version of the package
+            srcUpk = (tree.getGuid() == null) ? null : upkLoader.getUpk(tree.getUpkName(), tree.getGuid());
+            dstUpk = upkLoader.getUpk(tree.getUpkName());
+        }
+        boolean toNames = configData.m_bRefsHexToString;
+        if(toNames ? (srcUpk == null) : (dstUpk == null)) {
+            if(!toNames && upkLoader.getVersionCount(tree.getUpkName()) > 1) {
+                return new Result("REFS", "FAILED", modPath, false, "several configured versions of " + tree.getUpkName());
+            }
+            return new Result("REFS", "FAILED", modPath, false, "no configured package for " + tree.getUpkName());
+        }
+
+        int converted = 0;
+        int unresolved = 0;
+        for(ModReferenceLeaf leaf : ReferenceUpdate.getReferences(tree)) {
+            boolean vfRef = leaf.isVirtualFunctionRef();
+            // determine reference name
+            String refName;
+            if(leaf.isName()) {
+                if(toNames) {
+                    continue;
+                }
+                refName = leaf.getTextNoTags();
+            } else {
+                if(leaf.getRefValue() == 0 || srcUpk == null || srcUpk == dstUpk && !toNames) {
+                    // null reference or nothing to remap
+                    continue;
+                }
+                refName = (vfRef) ? srcUpk.getVFRefName(leaf.getRefValue()) : srcUpk.getRefName(leaf.getRefValue());
+                if(refName.isEmpty()) {
+                    unresolved++;
+                    continue;
+                }
+            }
+            if(toNames) {
+                leaf.setText(ReferenceUpdate.tagReference(refName, leaf));
+            } else {
+                int refValue = (vfRef) ? dstUpk.findVFRefByName(refName) : dstUpk.findRefByName(refName);
+                if((vfRef) ? (refValue < 0) : (refValue == 0)) {
+                    unresolved++;
+                    continue;
+                }
+                leaf.setText(HexStringLibrary.convertIntToHexString(refValue));
+                leaf.setRefValue(refValue);
+            }
+            converted++;
+        }
+        if(unresolved > 0) {
+            return new Result("REFS", "FAILED", modPath, false, unresolved + " unresolved references");
+        }
+        ReferenceUpdate.replaceGUID(tree, (toNames) ? null : dstUpk);
+
+        if(outputPath.getParent() != null) {
+            Files.createDirectories(outputPath.getParent());
+        }
+        Files.write(outputPath, tree.getRoot().getFullText().getBytes());
+        return new Result("REFS", "CONVERTED", modPath, true, converted + " references");
+    }
+
+    /**
+     * Tags the references of the byte code of the specified mod files
+     * concurrently and writes the tagged hex.
+     * @param executor the executor to run on
+     * @param input the input mod file or directory
+     * @param modPaths the mod file paths
+     * @param trees the mod trees
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void tagReferences(ExecutorService executor, final Path input, List<Path> modPaths, List<ModTree> trees)
+            throws InterruptedException
+    {
+        List<Future<Result>> futures = new ArrayList<>();
+        for(int i = 0; i < modPaths.size(); i++) {
+            final Path modPath = modPaths.get(i);
+            final ModTree tree = trees.get(i);
+            if(tree == null) {
+                futures.add(null);
+                continue;
+            }
+            futures.add(executor.submit(new Callable<Result>() {
+                @Override
+                public Result call() throws IOException
+                {
+                    Path outputPath = getOutputPath(input, modPath);
+                    if(Files.isDirectory(input)) {
+                        outputPath = outputPath.resolveSibling(outputPath.getFileName() + TAGGED_FILE_EXTENSION);
+                    }
+                    return tagReferences(tree, modPath, outputPath);
+                }
+            }));
+        }
+        for(int i = 0; i < futures.size(); i++) {
+            if(futures.get(i) == null) {
+                continue;
+            }
+            try {
+                results.add(futures.get(i).get());
+            }
+            catch(ExecutionException x)
+            {
+                results.add(new Result("TAG", "FAILED", modPaths.get(i), false, x.getCause().toString()));
+            }
+        }
+    }
+
+    /**
+     * Tags the references of the byte code of a single mod tree and streams
+     * the tagged hex of each code block as one line to the output file.
+     * @param tree the mod tree
+     * @param modPath the mod file path
+     * @param outputPath the path to write the tagged hex to
+     * @return the tagging result
+     * @throws IOException if the tagged hex could not be written
+     */
+    private Result tagReferences(ModTree tree, Path modPath, Path outputPath) throws IOException
+    {
+        if(outputPath.equals(modPath)) {
+            return new Result("TAG", "FAILED", modPath, false, "output would overwrite the mod file");
+        }
+        List<byte[]> codeBlocks = HexSearchAndReplace.consolidateCodeHex(tree);
+        if(codeBlocks == null) {
+            return new Result("TAG", "FAILED", modPath, false, "unresolved references");
+        }
+        if(outputPath.getParent() != null) {
+            Files.createDirectories(outputPath.getParent());
+        }
+        ReferenceParser parser = new ReferenceParser();
+        String error = null;
+        try (Writer writer = Files.newBufferedWriter(outputPath, Charset.defaultCharset())) {
+            for(int i = 0; i < codeBlocks.size(); i++) {
+                try {
+                    parser.parse(ByteBuffer.wrap(codeBlocks.get(i)), writer);
+                }
+                catch(DecodeException x)
+                {
+                    // remainder of the block is written untagged
+                    if(error == null) {
+                        error = "code block " + i + " offset " + x.getOffset() + ": " + x.getMessage();
+                    }
+                }
+                writer.write(System.lineSeparator());
+            }
+        }
+        if(error != null) {
+            return new Result("TAG", "FAILED", modPath, false, error);
+        }
+        return new Result("TAG", "TAGGED", modPath, true, codeBlocks.size() + " code blocks");
+    }
+
+    /**
+     * Returns the path converted mod files are written to. Without output
+     * option files are converted in place, otherwise the output denotes the
+     * converted file for a single input file or the output directory
+     * mirroring the input directory.
+     * @param input the input mod file or directory
+     * @param modPath the mod file path
+     * @return the output path
+     */
+    private Path getOutputPath(Path input, Path modPath)
+    {
+        if(configData.m_mod_filename_output.isEmpty()) {
+            return modPath;
+        }
+        Path output = Paths.get(configData.m_mod_filename_output);
+        if(!Files.isDirectory(input)) {
+            return output;
+        }
+        return output.resolve(input.relativize(modPath).toString());
+    }
+
+    /**
+     * Tests the status of the specified mod files concurrently.
+     * @param executor the executor to run on
+     * @param modPaths the mod file paths
+     * @param trees the mod trees
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void testStatus(ExecutorService executor, List<Path> modPaths, List<ModTree> trees) throws InterruptedException
+    {
+        List<Future<ApplyStatus>> futures = new ArrayList<>();
+        for(final ModTree tree : trees) {
+            if(tree == null || tree.getTargetUpk() == null) {
+                futures.add(null);
+                continue;
+            }
+            futures.add(executor.submit(new Callable<ApplyStatus>() {
+                @Override
+                public ApplyStatus call()
+                {
+                    return HexSearchAndReplace.testFileStatus(tree);
+                }
+            }));
+        }
+        for(int i = 0; i < futures.size(); i++) {
+            if(trees.get(i) == null) {
+                continue;
+            }
+            if(futures.get(i) == null) {
+                results.add(new Result("STATUS", ApplyStatus.UNKNOWN.name(), modPaths.get(i), false,
+                        "no configured package for " + trees.get(i).getUpkName()));
+                continue;
+            }
+            try {
+                ApplyStatus status = futures.get(i).get();
+                boolean success = (status != ApplyStatus.APPLY_ERROR) && (status != ApplyStatus.UNKNOWN);
+                results.add(new Result("STATUS", status.name(), modPaths.get(i), success, null));
+            }
+            catch(ExecutionException x)
+            {
+                results.add(new Result("STATUS", ApplyStatus.APPLY_ERROR.name(), modPaths.get(i), false, x.getCause().toString()));
+            }
+        }
+    }
+
+    /**
+     * Rolls back the specified number of most recent journaled changes of
+     * each target package of the specified mod files. The result of each
+     * package is reported for the first mod file targeting it.
+     * @param modPaths the mod file paths
+     * @param trees the mod trees
+     * @param count the number of changes to roll back per package
+     */
+    private void rollback(List<Path> modPaths, List<ModTree> trees, int count)
+    {
+        Set<UpkFile> rolledBack = new HashSet<>();
+        for(int i = 0; i < trees.size(); i++) {
+            ModTree tree = trees.get(i);
+            if(tree == null) {
+                continue;
+            }
+            UpkFile upk = tree.getTargetUpk();
+            if(upk == null) {
+                results.add(new Result("ROLLBACK", "FAILED", modPaths.get(i), false,
+                        "no configured package for " + tree.getUpkName()));
+                continue;
+            }
+            if(!rolledBack.add(upk)) {
+                continue;
+            }
+            try {
+                int changes = upk.rollback(count);
+                results.add(new Result("ROLLBACK", "ROLLED_BACK", modPaths.get(i), true,
+                        changes + " changes of " + upk.getPath()));
+            }
+            catch(IOException x)
+            {
+                results.add(new Result("ROLLBACK", "FAILED", modPaths.get(i), false, x.toString()));
+            }
+            finally
+            {
+                ModStatusCache.invalidate(upk.getPath());
+            }
+        }
+    }
+
+    /**
+     * Applies or reverts the specified mod files, processing different
+     * target packages concurrently.
+     * @param executor the executor to run on
+     * @param modPaths the mod file paths
+     * @param trees the mod trees
+     * @param apply <code>true</code> to apply, <code>false</code> to revert
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void applyRevert(ExecutorService executor, List<Path> modPaths, List<ModTree> trees, final boolean apply)
+            throws InterruptedException
+    {
+        String operation = (apply) ? "APPLY" : "REVERT";
+        ApplyStatus expected = (apply) ? ApplyStatus.AFTER_HEX_PRESENT : ApplyStatus.BEFORE_HEX_PRESENT;
+
+        // group mod trees by target package
+        Map<UpkFile, List<ModTree>> upkTrees = new LinkedHashMap<>();
+        for(ModTree tree : trees) {
+            if(tree == null || tree.getTargetUpk() == null) {
+                continue;
+            }
+            List<ModTree> list = upkTrees.get(tree.getTargetUpk());
+            if(list == null) {
+                list = new ArrayList<>();
+                upkTrees.put(tree.getTargetUpk(), list);
+            }
+            list.add(tree);
+        }
+
+        List<Future<Map<ModTree, ApplyStatus>>> futures = new ArrayList<>();
+        for(final List<ModTree> list : upkTrees.values()) {
+            futures.add(executor.submit(new Callable<Map<ModTree, ApplyStatus>>() {
+                @Override
+                public Map<ModTree, ApplyStatus> call()
+                {
+                    BulkApplyRevert bulk = new BulkApplyRevert(apply);
+                    for(ModTree tree : list) {
+                        bulk.add(tree);
+                    }
+                    return bulk.execute();
+                }
+            }));
+        }
+        Map<ModTree, ApplyStatus> statuses = new LinkedHashMap<>();
+        Map<ModTree, String> failures = new LinkedHashMap<>();
+        int index = 0;
+        for(List<ModTree> list : upkTrees.values()) {
+            try {
+                statuses.putAll(futures.get(index).get());
+            }
+            catch(ExecutionException x)
+            {
+                for(ModTree tree : list) {
+                    failures.put(tree, x.getCause().toString());
+                }
+            }
+            index++;
+        }
+
+        for(int i = 0; i < trees.size(); i++) {
+            ModTree tree = trees.get(i);
+            if(tree == null) {
+                continue;
+            }
+            if(tree.getTargetUpk() == null) {
+                results.add(new Result(operation, ApplyStatus.UNKNOWN.name(), modPaths.get(i), false,
+                        "no configured package for " + tree.getUpkName()));
+            } else if(failures.containsKey(tree)) {
+                results.add(new Result(operation, ApplyStatus.APPLY_ERROR.name(), modPaths.get(i), false, failures.get(tree)));
+            } else {
+                ApplyStatus status = statuses.get(tree);
+                results.add(new Result(operation, status.name(), modPaths.get(i), status == expected, null));
+            }
+        }
+        if(configData.m_bVerbose) {
+            err.println(((apply) ? "Applied " : "Reverted ") + trees.size() + " mod files to "
+                    + upkTrees.size() + " packages.");
+        }
+    }
+
+    /**
+     * The result of a single operation on a single mod file.
+     */
+    public static final class Result
+    {
+        private final String operation;
+        private final String result;
+        private final Path modPath;
+        private final boolean success;
+        private final String message;
+
+        public Result(String operation, String result, Path modPath, boolean success, String message)
+        {
+            this.operation = operation;
+            this.result = result;
+            this.modPath = modPath;
+            this.success = success;
+            this.message = message;
+        }
+
+        public String getOperation()
+        {
+            return operation;
+        }
+
+        public String getResult()
+        {
+            return result;
+        }
+
+        public Path getModPath()
+        {
+            return modPath;
+        }
+
+        public boolean isSuccess()
+        {
+            return success;
+        }
+
+        @Override
+        public String toString()
+        {
+            String line = operation + "\t" + result + "\t" + modPath;
+            if(message != null) {
+                line += "\t" + message.replaceAll("\\s", " ");
+            }
+            return line;
+        }
+    }
+}
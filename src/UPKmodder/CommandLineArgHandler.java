@@ -39,6 +39,42 @@ public class CommandLineArgHandler
                 kConfigData.m_mod_filename_output = sToken;
                 m_kLastCommand = "";
             }
+            else if (m_kLastCommand.equalsIgnoreCase("THREADS"))
+            {
+                try
+                {
+                    kConfigData.m_iThreads = Math.max(0, Integer.parseInt(sToken));
+                }
+                catch (NumberFormatException x)
+                {
+                    System.err.println("Invalid Thread Count");
+                }
+                m_kLastCommand = "";
+            }
+            else if (m_kLastCommand.equalsIgnoreCase("ROLLBACK"))
+            {
+                try
+                {
+                    kConfigData.m_iRollback = Math.max(0, Integer.parseInt(sToken));
+                }
+                catch (NumberFormatException x)
+                {
+                    System.err.println("Invalid Rollback Count");
+                }
+                m_kLastCommand = "";
+            }
+            else if (m_kLastCommand.equalsIgnoreCase("PORT"))
+            {
+                try
+                {
+                    kConfigData.m_iPort = Integer.parseInt(sToken);
+                }
+                catch (NumberFormatException x)
+                {
+                    System.err.println("Invalid Port");
+                }
+                m_kLastCommand = "";
+            }
             else
             {
                 System.out.println("Invalid Command");
@@ -64,13 +100,11 @@ public class CommandLineArgHandler
             {
                 case "VERSION" :
                 case "V" :
-                    System.out.println(kConfigData.m_sVersion);
-                    System.exit(0);
+                    kConfigData.m_bShowVersion = true;
                     break;
                 case "HELP" :
                 case "h" :
-                    System.out.println(kConfigData.m_sHelpText);
-                    System.exit(0);
+                    kConfigData.m_bShowHelp = true;
                     break;
                 case "VERBOSE" :
                 case "v" :
@@ -86,6 +120,35 @@ public class CommandLineArgHandler
                     kConfigData.m_bWriteToUpks = false;
                     kConfigData.m_bRevertUpks = true;
                     break;
+                case "STATUS":
+                case "S":
+                    kConfigData.m_bTestStatus = true;
+                    break;
+                case "ROLLBACK":
+                case "R":
+                    m_kLastCommand = "ROLLBACK";
+                    break;
+                case "THREADS":
+                case "T":
+                    m_kLastCommand = "THREADS";
+                    break;
+                case "DAEMON":
+                case "D":
+                    kConfigData.m_bDaemon = true;
+                    break;
+                case "CLIENT":
+                case "C":
+                    kConfigData.m_bClient = true;
+                    break;
+                case "STOPDAEMON":
+                case "K":
+                    kConfigData.m_bClient = true;
+                    kConfigData.m_bStopDaemon = true;
+                    break;
+                case "PORT":
+                case "P":
+                    m_kLastCommand = "PORT";
+                    break;
                 case "COMPRESSEDOUTPUT":
                 case "c":
                     kConfigData.m_bMirroredOutput = false;
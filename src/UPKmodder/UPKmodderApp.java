@@ -17,7 +17,6 @@
 
 package UPKmodder;
 
-import parser.unrealhex.ReferenceParser;
 import java.io.*;
 
 /**
@@ -42,188 +41,40 @@ public class UPKmodderApp {
     
     public static void main(String[] args) throws IOException 
     {
-		// configure LAF and locale
-//		configureLookAndFeel();
-		// init main frame instance
-//		MainFrame.getInstance();
-//        UpkConfigData kConfigData = new UpkConfigData();
-        
-//        if(args.length == 0)
-//        {
-////            kConfigData.m_mod_filename_input = "C:/Games/sample_modfile_no_refs.txt";
-////            kConfigData.m_mod_filename_output = "C:/Games/test_compressed_out.txt";
-//        }
-//        else
-//        {
-//            CommandLineArgHandler kCLHandler = new CommandLineArgHandler();
-//            kConfigData = kCLHandler.Init(args, kConfigData);
-//        }
-        
-//        UpkFileHandler kUpkFileHandler = new UpkFileHandler();
-//        kUpkFileHandler.Init(kConfigData.m_sUpkConfig, kConfigData.m_bVerbose);
-        
-        
-//        OperandTableParser kOpParser = new OperandTableParser(Paths.get(kConfigData.m_sOperandData));
-		ReferenceParser kRefParser = new ReferenceParser();
-//        
-//        MemorySizeCalculator calc = new MemorySizeCalculator();
-//        
-//        // reference parser test cases:
-//        if(kRefParser.parseString("07 DA 01 9B 38 3A 35 36 00 00 00 38 00 00 00 00 00 10 00 0F A0 00 00 35 3B 00 00 00 3C 00 00 00 00 00 01 AE 9F 00 00 38 3A 24 00 16 ").equals("07 DA 01 9B 38 3A 35 {{ 36 00 00 00 }} {{ 38 00 00 00 }} 00 00 10 00 {{ 0F A0 00 00 }} 35 {{ 3B 00 00 00 }} {{ 3C 00 00 00 }} 00 00 01 {{ AE 9F 00 00 }} 38 3A 24 00 16 "))
-//        {
-//            System.out.println("Reference Parser : Test 1 passed");
-//        }
-//        if(kRefParser.parseString("55 35 97 9F 00 00 98 9F 00 00 00 00 1A 00 10 A0 00 00 01 BF 9F 00 00 7D 00 1B 82 0D 00 00 00 00 00 00 35 36 00 00 00 38 00 00 00 00 00 10 00 0F A0 00 00 35 3B 00 00 00 3C 00 00 00 00 00 01 AE 9F 00 00 35 33 00 00 00 38 00 00 00 00 00 10 00 0F A0 00 00 35 3B 00 00 00 3C 00 00 00 00 00 01 AE 9F 00 00 16 16 ").equals("55 35 {{ 97 9F 00 00 }} {{ 98 9F 00 00 }} 00 00 1A 00 {{ 10 A0 00 00 }} 01 {{ BF 9F 00 00 }} 7D 00 1B << 82 0D 00 00 >> 00 00 00 00 35 {{ 36 00 00 00 }} {{ 38 00 00 00 }} 00 00 10 00 {{ 0F A0 00 00 }} 35 {{ 3B 00 00 00 }} {{ 3C 00 00 00 }} 00 00 01 {{ AE 9F 00 00 }} 35 {{ 33 00 00 00 }} {{ 38 00 00 00 }} 00 00 10 00 {{ 0F A0 00 00 }} 35 {{ 3B 00 00 00 }} {{ 3C 00 00 00 }} 00 00 01 {{ AE 9F 00 00 }} 16 16 "))
-//        {
-//            System.out.println("Reference Parser : Test 2 passed");
-//        }
-//        if(kRefParser.parseString("07 45 03 19 19 2E FE 2C 00 00 19 12 20 4F FE FF FF 0A 00 D8 F9 FF FF 00 1C F6 FB FF FF 16 09 00 98 F9 FF FF 00 01 98 F9 FF FF 09 00 F0 2C 00 00 00 01 F0 2C 00 00 01 00 F0 2C 00 00 00 28 ").equals("07 45 03 19 19 2E {{ FE 2C 00 00 }} 19 12 20 {{ 4F FE FF FF }} 0A 00 {{ D8 F9 FF FF }} 00 1C {{ F6 FB FF FF }} 16 09 00 {{ 98 F9 FF FF }} 00 01 {{ 98 F9 FF FF }} 09 00 {{ F0 2C 00 00 }} 00 01 {{ F0 2C 00 00 }} 01 00 {{ F0 2C 00 00 }} 00 28 "))
-//        {
-//            System.out.println("Reference Parser : Test 3 passed");
-//        }
-////        UpkFile kUpkFile = new UpkFile(new File("C:/Games/XComGame_EU_patch4.upk"));
-//        
-//        ModFile2 myfile = new ModFile2();
-//
-//        String encoding = System.getProperty("file.encoding");
-//        try (Scanner s = new Scanner(Files.newBufferedReader(Paths.get("test_mod.upk_mod"), Charset.forName(encoding))))
-//        {
-//            while(s.hasNext())
-//            {
-//                myfile.addLine(s.nextLine());
-//            }
-//        }
-//        catch (IOException x) 
-//        {
-//            System.out.println("caught exception: " + x);
-//        }
-//        System.out.println(myfile.getNumLines());
-//        for(int i = 0; i < myfile.getNumLines(); i++)
-//        {
-//            LineNode line = myfile.getLine(i);
-//            if(line != null)
-//            {
-//                if(line.isCode())
-//                {
-//                    System.out.print(String.format("%3s", i) + ":" + String.format("%4s",calc.parseString(line.toHex())) + ": ");
-//                    for(int j=0;j<line.getIndentation();j++)
-//                        System.out.print("\t");
-//
-//                    System.out.println(line.toHex());
-//                }
-//                else
-//                {
-//                    System.out.print(String.format("%3s",i) + ":      ");
-//                }
-//                if(line.isCode())
-//                {
-//                    System.out.print("    " + String.format("%4s", line.getMemorySize()) + ": ");
-//                    for(int j=0;j<line.getIndentation();j++)
-//                        System.out.print("\t");
-//                }
-//                if(line.isValidCode())
-//                {
-//                    for(int j = 0; j < line.getNumTokens(); j++)
-//                    {
-//                        System.out.print(line.getToken(j).getData().trim() + " ");
-//                    }
-//                    System.out.println();
-//                }
-//                else
-//                {
-//                    System.out.println(line.toString());
-//                }
-//            }
-//            else
-//            {
-//                System.out.println("Line is null");
-//            }
-//        }
-//        
-//        // test iterating through references:
-//        int iCount = 0;
-//        for(int i = 0; i < myfile.getNumLines(); i++)
-//        {
-//            LineNode line = myfile.getLine(i);
-//            if(line.isValidCode())
-//            {
-//                for(int j = 0; j < line.getNumTokens(); j++)
-//                {
-//                    OperandNode token = line.getToken(j);
-//                    if(token.getClass().getSimpleName().equals("ReferenceNode"))
-//                    {
-//                        System.out.print(("Ref " + iCount++ + ": " + token.getData()));
-//                        if(token.isFunctionRef())
-//                        {
-//                            System.out.println("  -- function");
-//                        }
-//                        else
-//                        {
-//                            System.out.println();
-//                        }
-//                    }
-//                }
-//            }
-//        }
-//        for(int i = 0; i < myfile.getNumLines(); i++)
-//        {
-//            LineNode line = myfile.getLine(i);
-//            if(line != null)
-//            {
-//                System.out.print(String.format("%3s", i) + ":  ");
-//                if(line.isCode())
-//                {
-//                    for(int j=0;j<line.getIndentation();j++)
-//                        System.out.print("\t");
-//                    System.out.println(kRefParser.parseString(line.asHex()));
-//                }
-//                else
-//                {
-//                    System.out.println(line.asString());
-//                }
-//            }
-//            else
-//            {
-//                System.out.println("Null");
-//            }
-//        }
+        // batch mode never shows any UI
+        System.setProperty("java.awt.headless", "true");
+        UpkConfigData kConfigData = new UpkConfigData();
+        CommandLineArgHandler kCLHandler = new CommandLineArgHandler();
+        kConfigData = kCLHandler.Init(args, kConfigData);
 
-//        ModFile m_kModFile = new ModFile();
-        
-//        m_kModFile.setReferenceFinder(kRefParser);
-//        m_kModFile.setUpkHandler(kUpkFileHandler);
-                
-//        if(m_kModFile.openReadFile(kConfigData.m_mod_filename_input, kConfigData.m_bVerbose))
-//        {
-//            m_kModFile.setReferenceChanges(kConfigData);
-//
-//            m_kModFile.readFile();
-//            m_kModFile.closeReadFile();
-//
-//            if(kConfigData.m_bCompressedOutput)
-//            {
-//                if(m_kModFile.openWriteFile(kConfigData.m_mod_filename_output, kConfigData.m_bVerbose))
-//                {            
-//                    m_kModFile.writeCompressedHex(kConfigData.m_bVerbose);
-//                    m_kModFile.closeWriteFile();
-//                }
-//            }
-//            else if(kConfigData.m_bMirroredOutput)
-//            {
-//                if(m_kModFile.openWriteFile(kConfigData.m_mod_filename_output, kConfigData.m_bVerbose))
-//                {
-//                    m_kModFile.writeMirroredOutput(kConfigData.m_bVerbose);
-//                    m_kModFile.closeWriteFile();
-//                }
-//            }
-//            else if(kConfigData.m_bWriteToUpks)
-//            {
-//                m_kModFile.writeUpks(kConfigData.m_bVerbose);
-//            }
-//            else if(kConfigData.m_bRevertUpks)
-//            {
-//                m_kModFile.revertUpks(kConfigData.m_bVerbose);
-//            }
-//        }        
+        if(kConfigData.m_bShowVersion)
+        {
+            System.out.println(kConfigData.m_sVersion);
+            System.exit(0);
+        }
+        if(kConfigData.m_bShowHelp)
+        {
+            System.out.println(kConfigData.m_sHelpText);
+            System.exit(0);
+        }
+        if(kConfigData.m_bDaemon)
+        {
+            BatchDaemon kDaemon = new BatchDaemon(kConfigData);
+            kDaemon.start();
+            System.out.println("Listening on port " + kDaemon.getPort() + ".");
+            kDaemon.serve();
+            System.exit(0);
+        }
+        if(kConfigData.m_bClient)
+        {
+            BatchClient kClient = new BatchClient(kConfigData.m_iPort);
+            System.exit((kConfigData.m_bStopDaemon) ? kClient.stopDaemon() : kClient.run(args));
+        }
+        if(!BatchEngine.hasOperation(kConfigData))
+        {
+            System.out.println(kConfigData.m_sHelpText);
+            System.exit(BatchEngine.EXIT_USAGE);
+        }
+        System.exit(new BatchEngine(kConfigData).run());
     }  
 }
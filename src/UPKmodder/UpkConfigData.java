@@ -33,6 +33,15 @@ public class UpkConfigData
     public boolean m_bRefsStringToHex;
     public boolean m_bRefsTag;
     public boolean m_bRefsUntag;
+    public boolean m_bTestStatus;
+    public int m_iRollback;
+    public int m_iThreads;
+    public boolean m_bShowVersion;
+    public boolean m_bShowHelp;
+    public boolean m_bDaemon;
+    public boolean m_bClient;
+    public boolean m_bStopDaemon;
+    public int m_iPort;
 
     public String m_mod_filename_input;
     public String m_mod_filename_output;
@@ -56,6 +65,15 @@ public class UpkConfigData
         this.m_bRefsStringToHex = false;
         this.m_bRefsTag = false;
         this.m_bRefsUntag = false;
+        this.m_bTestStatus = false;
+        this.m_iRollback = 0;
+        this.m_iThreads = 0;
+        this.m_bShowVersion = false;
+        this.m_bShowHelp = false;
+        this.m_bDaemon = false;
+        this.m_bClient = false;
+        this.m_bStopDaemon = false;
+        this.m_iPort = 47632;
 //        this.m_mod_filename_input = "C:/Games/sample_modfile_no_refs.txt";
 //        this.m_mod_filename_input = "C:/Games/test_modfile_refs_added.txt";
 //        this.m_mod_filename_output = "C:/Games/test_modfile_refs_updated.txt";
@@ -66,13 +84,20 @@ public class UpkConfigData
         this.upkConfig = "config/upk_config.ini";
         this.m_sOperandData = "config/operand_data.ini";
         this.m_sHelpText = "XCOMMOD helper tool \n"
-                + "Usage: XComModTool <options> -i <InputFile> -o <OutputFile>\n"
+                + "Usage: XComModTool <options> -i <InputFile|InputDir> -o <OutputFile|OutputDir>\n"
                 + "Options:\n"
                 + "-V, --VERSION : version info\n"
                 + "-h, --HELP : this help file\n"
                 + "-v, --VERBOSE : verbose output\n"
                 + "-w, --WRITETOUPKS : write hex to configured upks (before->after)\n"
                 + "-r, --REVERTUPKS : revert hex in configured upks (after->before)\n"
+                + "-S, --STATUS : tests the status of modfiles against configured upks\n"
+                + "-R, --ROLLBACK <n> : rolls back the n most recent journaled changes of the modfiles' target upks\n"
+                + "-T, --THREADS <n> : number of worker threads (default: number of processors)\n"
+                + "-D, --DAEMON : keeps upks loaded and serves requests of local clients\n"
+                + "-C, --CLIENT : sends the request to a running daemon\n"
+                + "-K, --STOPDAEMON : stops a running daemon\n"
+                + "-P, --PORT <n> : local daemon port (default: 47632)\n"
                 + "-c, --COMPRESSEDOUTPUT : outputs compressed modfile\n"
                 + "-m, --MIRROREDOUTPUT : outputs mirrored modfile\n"
                 + "-U, --UPDATE_REFS : updates any tagged references or named references\n"
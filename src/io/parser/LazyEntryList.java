@@ -0,0 +1,117 @@
+package io.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list view of an UPK header table which decodes its entries on
+ * demand.<br>
+ * The view holds a copy of the raw table bytes and an offset index built in
+ * a single scan. An entry is decoded the first time it is requested and
+ * cached afterwards, so that modifications to mutable entries persist.
+ *
+ * @author XMS
+ *
+ * @param <E> the entry type
+ */
+public abstract class LazyEntryList<E> extends AbstractList<E> implements RandomAccess {
+
+	/**
+	 * The buffer wrapping the raw table bytes.
+	 */
+	private ByteBuffer tableBuf;
+
+	/**
+	 * The byte position of the table inside the *.upk file.
+	 */
+	private int tablePos;
+
+	/**
+	 * The byte offsets of the entries relative to the table position.
+	 */
+	private int[] offsets;
+
+	/**
+	 * The number of leading dummy <code>null</code> elements.
+	 */
+	private int numDummies;
+
+	/**
+	 * The already decoded entries.
+	 */
+	private Object[] entries;
+
+	/**
+	 * Constructs a lazy table view from the specified raw table bytes.
+	 * @param tableBytes the raw table bytes
+	 * @param tablePos the byte position of the table inside the *.upk file
+	 * @param offsets the byte offsets of the entries relative to the table position
+	 * @param dummy <code>true</code> if the list shall start with a dummy
+	 *  <code>null</code> element so that the entry count starts at 1
+	 */
+	public LazyEntryList(byte[] tableBytes, int tablePos, int[] offsets, boolean dummy) {
+		this.tableBuf = ByteBuffer.wrap(tableBytes);
+		this.tableBuf.order(ByteOrder.LITTLE_ENDIAN);
+		this.tablePos = tablePos;
+		this.offsets = offsets;
+		this.numDummies = dummy ? 1 : 0;
+		this.entries = new Object[offsets.length];
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized E get(int index) {
+		if ((index < this.numDummies) && (index >= 0)) {
+			return null;
+		}
+		int i = index - this.numDummies;
+		Object entry = this.entries[i];
+		if (entry == null) {
+			this.tableBuf.position(this.offsets[i]);
+			entry = this.decode(this.tableBuf, this.tablePos + this.offsets[i]);
+			this.entries[i] = entry;
+		}
+		return (E) entry;
+	}
+
+	@Override
+	public int size() {
+		return this.offsets.length + this.numDummies;
+	}
+
+	/**
+	 * Returns the raw table bytes. The returned array must not be modified.
+	 * @return the raw table bytes
+	 */
+	public byte[] getTableBytes() {
+		return this.tableBuf.array();
+	}
+
+	/**
+	 * Returns the byte position of the table inside the *.upk file.
+	 * @return the table position
+	 */
+	public int getTablePosition() {
+		return this.tablePos;
+	}
+
+	/**
+	 * Returns the byte offsets of the entries relative to the table position.
+	 * The returned array must not be modified.
+	 * @return the entry offsets
+	 */
+	public int[] getOffsets() {
+		return this.offsets;
+	}
+
+	/**
+	 * Decodes a single entry at the specified byte buffer's current position.
+	 * @param byteBuf the byte buffer containing the raw table bytes
+	 * @param filePosition the byte position of the entry inside the *.upk file
+	 * @return the decoded entry
+	 */
+	protected abstract E decode(ByteBuffer byteBuf, int filePosition);
+
+}
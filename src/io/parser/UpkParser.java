@@ -4,11 +4,13 @@ import static model.modtree.ModTree.logger;
 import io.model.upk.ImportEntry;
 import io.model.upk.NameEntry;
 import io.model.upk.ObjectEntry;
+import io.upk.MappedBuffers;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -41,11 +43,29 @@ public class UpkParser {
 	private int bufSize = 10240;
 	
 	/**
-	 * Constructs an UPK parser from the specified UPK file path.
+	 * The flag determining whether the UPK file is memory-mapped for parsing
+	 * instead of being streamed through a double buffer.
+	 */
+	private boolean mapped;
+	
+	/**
+	 * Constructs an UPK parser from the specified UPK file path which parses
+	 * the header using a memory-mapped view of the file.
 	 * @param upkFile the path to the file to parse
 	 */
 	public UpkParser(Path upkPath) {
+		this(upkPath, true);
+	}
+	
+	/**
+	 * Constructs an UPK parser from the specified UPK file path.
+	 * @param upkFile the path to the file to parse
+	 * @param mapped <code>true</code> if the file shall be memory-mapped for
+	 *  parsing, <code>false</code> if it shall be streamed through a buffer
+	 */
+	public UpkParser(Path upkPath, boolean mapped) {
 		this.upkPath = upkPath;
+		this.mapped = mapped;
 	}
 
 	/**
@@ -54,6 +74,9 @@ public class UpkParser {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public UpkHeader parseHeader() throws IOException {
+		if (this.mapped) {
+			return this.parseMappedHeader();
+		}
 		List<NameEntry> nameList;
 		List<ObjectEntry> objectList;
 		List<ImportEntry> importList;
@@ -88,6 +111,45 @@ public class UpkParser {
 		return new UpkHeader(nameList, ints[1], objectList, ints[3], importList, ints[5], aGUID);
 	}
 
+	/**
+	 * Parses the specified *.upk file's header using a read-only memory-mapped
+	 * view of the file. The tables are indexed in a single pass directly from
+	 * the mapping, their entries are decoded lazily on first access.
+	 * @return the parsed header
+	 * @throws IOException if an I/O error occurs
+	 */
+	private UpkHeader parseMappedHeader() throws IOException {
+		List<NameEntry> nameList;
+		List<ObjectEntry> objectList;
+		List<ImportEntry> importList;
+		int[] ints = new int[6];
+		byte[] aGUID = new byte[16];
+		
+		MappedByteBuffer byteBuf = MappedBuffers.map(upkPath);
+		try {
+			byteBuf.position(0x19);
+			byteBuf.asIntBuffer().get(ints);
+
+			long startTime = System.currentTimeMillis();
+			nameList = this.parseNameList(ints[1], ints[0], byteBuf);
+			logger.log(Level.FINE, "Indexed name list, took " + (System.currentTimeMillis() - startTime) + "ms");
+			startTime = System.currentTimeMillis();
+			objectList = this.parseObjectList(ints[3], ints[2], byteBuf);
+			logger.log(Level.FINE, "Indexed object list, took " + (System.currentTimeMillis() - startTime) + "ms");
+			startTime = System.currentTimeMillis();
+			importList = this.parseImportList(ints[5], ints[4], byteBuf);
+			logger.log(Level.FINE, "Indexed import list, took " + (System.currentTimeMillis() - startTime) + "ms");
+
+			byteBuf.position(0x45);
+			byteBuf.get(aGUID);
+		} finally {
+			// all tables hold copies, release mapping so the file can be modified
+			MappedBuffers.unmap(byteBuf);
+		}
+
+		return new UpkHeader(nameList, ints[1], objectList, ints[3], importList, ints[5], aGUID);
+	}
+
 	/**
 	 * Parses the namelist entries located after the specified byte position. 
 	 * @param nameListPos the byte position of the namelist
@@ -128,6 +190,41 @@ public class UpkParser {
 		return entryList;
 	}
 
+	/**
+	 * Creates a lazy view of the namelist located at the specified byte
+	 * position of the memory-mapped file. 
+	 * @param nameListPos the byte position of the namelist
+	 * @param nameListSize the expected number of namelist entries
+	 * @param byteBuf the mapped file buffer
+	 * @return the namelist
+	 */
+	private List<NameEntry> parseNameList(int nameListPos, int nameListSize, ByteBuffer byteBuf) {
+		int[] offsets = new int[nameListSize];
+		int offset = 0;
+		for (int i = 0; i < nameListSize; i++) {
+			offsets[i] = offset;
+			// skip length int, string incl. termination character and 8 extra flag bytes
+			offset += 4 + byteBuf.getInt(nameListPos + offset) + 8;
+		}
+		return this.createNameList(this.copyTable(byteBuf, nameListPos, offset), nameListPos, offsets);
+	}
+
+	/**
+	 * Creates a lazy view of the namelist from the specified raw table bytes.
+	 * @param tableBytes the raw namelist bytes
+	 * @param nameListPos the byte position of the namelist
+	 * @param offsets the byte offsets of the namelist entries
+	 * @return the namelist
+	 */
+	public LazyEntryList<NameEntry> createNameList(byte[] tableBytes, int nameListPos, int[] offsets) {
+		return new LazyEntryList<NameEntry>(tableBytes, nameListPos, offsets, false) {
+			@Override
+			protected NameEntry decode(ByteBuffer byteBuf, int filePosition) {
+				return readNameEntry(byteBuf);
+			}
+		};
+	}
+
 	/**
 	 * Reads a single namelist entry at the specified byte buffer's current position.
 	 * @param byteBuf the byte buffer to extract the namelist entry from
@@ -170,7 +267,8 @@ public class UpkParser {
 		byteBuf.rewind();
 		for (int i = 0; i < objectListSize; i++) {
 			// extract object entry from buffer
-			objectList.add(this.readObjectEntry(byteBuf, sbc.position()));
+			long filePosition = sbc.position() + byteBuf.position() - byteBuf.capacity();
+			objectList.add(this.readObjectEntry(byteBuf, filePosition));
 
 			// check whether we reached into back buffer range
 			int position = byteBuf.position();
@@ -190,18 +288,51 @@ public class UpkParser {
 		return objectList;
 	}
 
+	/**
+	 * Creates a lazy view of the objectlist located at the specified byte
+	 * position of the memory-mapped file. 
+	 * @param objectListPos the byte position of the objectlist
+	 * @param objectListSize the expected number of objectlist entries
+	 * @param byteBuf the mapped file buffer
+	 * @return the objectlist
+	 */
+	private List<ObjectEntry> parseObjectList(int objectListPos, int objectListSize, ByteBuffer byteBuf) {
+		int[] offsets = new int[objectListSize];
+		int offset = 0;
+		for (int i = 0; i < objectListSize; i++) {
+			offsets[i] = offset;
+			// number of ints of objectlist entry is 17 plus whatever is encoded in the eleventh int
+			offset += (17 + byteBuf.getInt(objectListPos + offset + 44)) * 4;
+		}
+		return this.createObjectList(this.copyTable(byteBuf, objectListPos, offset), objectListPos, offsets);
+	}
+
+	/**
+	 * Creates a lazy view of the objectlist from the specified raw table bytes.
+	 * @param tableBytes the raw objectlist bytes
+	 * @param objectListPos the byte position of the objectlist
+	 * @param offsets the byte offsets of the objectlist entries
+	 * @return the objectlist
+	 */
+	public LazyEntryList<ObjectEntry> createObjectList(byte[] tableBytes, int objectListPos, int[] offsets) {
+		return new LazyEntryList<ObjectEntry>(tableBytes, objectListPos, offsets, true) {
+			@Override
+			protected ObjectEntry decode(ByteBuffer byteBuf, int filePosition) {
+				return readObjectEntry(byteBuf, filePosition);
+			}
+		};
+	}
+
 	/**
 	 * Reads a single objectlist entry at the specified byte buffer's current position.
 	 * @param byteBuf the byte buffer to extract the objectlist entry from
-	 * @param pos the file offset
+	 * @param filePosition the file offset of the entry
 	 * @return the objectlist entry
 	 */
-	private ObjectEntry readObjectEntry(ByteBuffer byteBuf, long pos) {
+	private ObjectEntry readObjectEntry(ByteBuffer byteBuf, long filePosition) {
 		// create int buffer view of byte buffer
 		IntBuffer intBuf = byteBuf.asIntBuffer();
 		
-		long filePosition = pos + byteBuf.position() - byteBuf.capacity();
-		
 		// number of ints of objectlist entry is 17 plus whatever is encoded in the eleventh int
 		int numInts = 17 + intBuf.get(11);
 		int[] ints = new int[numInts];
@@ -256,6 +387,54 @@ public class UpkParser {
 		return importList;
 	}
 
+	/**
+	 * Creates a lazy view of the importlist located at the specified byte
+	 * position of the memory-mapped file. 
+	 * @param importListPos the byte position of the importlist
+	 * @param importListSize the expected number of importlist entries
+	 * @param byteBuf the mapped file buffer
+	 * @return the importlist
+	 */
+	private List<ImportEntry> parseImportList(int importListPos, int importListSize, ByteBuffer byteBuf) {
+		// importlist entries always consist of 7 ints
+		int[] offsets = new int[importListSize];
+		for (int i = 0; i < importListSize; i++) {
+			offsets[i] = i * 28;
+		}
+		return this.createImportList(this.copyTable(byteBuf, importListPos, importListSize * 28), importListPos, offsets);
+	}
+
+	/**
+	 * Creates a lazy view of the importlist from the specified raw table bytes.
+	 * @param tableBytes the raw importlist bytes
+	 * @param importListPos the byte position of the importlist
+	 * @param offsets the byte offsets of the importlist entries
+	 * @return the importlist
+	 */
+	public LazyEntryList<ImportEntry> createImportList(byte[] tableBytes, int importListPos, int[] offsets) {
+		return new LazyEntryList<ImportEntry>(tableBytes, importListPos, offsets, true) {
+			@Override
+			protected ImportEntry decode(ByteBuffer byteBuf, int filePosition) {
+				return readImportEntry(byteBuf);
+			}
+		};
+	}
+
+	/**
+	 * Copies the specified range of the memory-mapped file onto the heap so
+	 * that the mapping can be released.
+	 * @param byteBuf the mapped file buffer
+	 * @param tablePos the byte position of the table
+	 * @param tableLength the byte length of the table
+	 * @return the copied table bytes
+	 */
+	private byte[] copyTable(ByteBuffer byteBuf, int tablePos, int tableLength) {
+		byte[] tableBytes = new byte[tableLength];
+		byteBuf.position(tablePos);
+		byteBuf.get(tableBytes);
+		return tableBytes;
+	}
+
 	/**
 	 * Reads a single importlist entry at the specified byte buffer's current position.
 	 * @param byteBuf the byte buffer to extract the importlist entry from
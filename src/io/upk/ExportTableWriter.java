@@ -0,0 +1,297 @@
+package io.upk;
+
+import io.model.upk.ObjectEntry;
+import io.upk.UpkJournal.Transaction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Bulk writer for object (export) table entries.<br>
+ * Changes to any number of entries are collected first. On writing, the
+ * table region spanning all changed entries is read once, patched in a heap
+ * buffer at the known entry offsets and written back in a single
+ * operation. The overwritten words are recorded in the package's
+ * {@link UpkJournal} beforehand. Afterwards the in-memory entries are
+ * updated accordingly.
+ *
+ * @author XMS
+ */
+public class ExportTableWriter {
+
+	/**
+	 * The byte offset of the object type inside an object entry.
+	 */
+	private static final int TYPE_OFFSET = 0;
+
+	/**
+	 * The byte offset of the object parent inside an object entry.
+	 */
+	private static final int PARENT_OFFSET = 4;
+
+	/**
+	 * The byte offset of the object outer inside an object entry.
+	 */
+	private static final int OUTER_OFFSET = 8;
+
+	/**
+	 * The byte offset of the name index inside an object entry.
+	 */
+	private static final int NAME_OFFSET = 12;
+
+	/**
+	 * The byte offset of the object file size inside an object entry.
+	 */
+	private static final int SIZE_OFFSET = 32;
+
+	/**
+	 * The byte offset of the object file position inside an object entry.
+	 */
+	private static final int POS_OFFSET = 36;
+
+	/**
+	 * The pending entry changes.
+	 */
+	private List<Patch> patches = new ArrayList<>();
+
+	/**
+	 * Returns whether there are no pending changes.
+	 * @return <code>true</code> if there are no pending changes
+	 */
+	public boolean isEmpty() {
+		return this.patches.isEmpty();
+	}
+
+	/**
+	 * Sets the object type of the specified entry.
+	 * @param entry the object entry
+	 * @param type the new type
+	 */
+	public void setType(ObjectEntry entry, int type) {
+		this.patches.add(new Patch(entry, TYPE_OFFSET, type));
+	}
+
+	/**
+	 * Sets the object parent of the specified entry.
+	 * @param entry the object entry
+	 * @param parent the new parent
+	 */
+	public void setParent(ObjectEntry entry, int parent) {
+		this.patches.add(new Patch(entry, PARENT_OFFSET, parent));
+	}
+
+	/**
+	 * Sets the object outer (or owner) of the specified entry.
+	 * @param entry the object entry
+	 * @param outer the new outer (or owner)
+	 */
+	public void setOuter(ObjectEntry entry, int outer) {
+		this.patches.add(new Patch(entry, OUTER_OFFSET, outer));
+	}
+
+	/**
+	 * Sets the name index of the specified entry.
+	 * @param entry the object entry
+	 * @param nameIdx the new index into the name list
+	 */
+	public void setNamePtr(ObjectEntry entry, int nameIdx) {
+		this.patches.add(new Patch(entry, NAME_OFFSET, nameIdx));
+	}
+
+	/**
+	 * Sets the upk file size of the object the specified entry describes.
+	 * @param entry the object entry
+	 * @param size the new size
+	 */
+	public void setUpkSize(ObjectEntry entry, int size) {
+		this.patches.add(new Patch(entry, SIZE_OFFSET, size));
+	}
+
+	/**
+	 * Sets the upk file position of the object the specified entry describes.
+	 * @param entry the object entry
+	 * @param pos the new position
+	 */
+	public void setUpkPos(ObjectEntry entry, int pos) {
+		this.patches.add(new Patch(entry, POS_OFFSET, pos));
+	}
+
+	/**
+	 * Writes all pending changes to the specified *.upk file as a single
+	 * journaled transaction and updates the in-memory entries, then clears
+	 * the pending changes.
+	 * @param upkPath the *.upk file path
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(Path upkPath) throws IOException {
+		if (this.patches.isEmpty()) {
+			return;
+		}
+		UpkJournal journal = UpkJournal.get(upkPath);
+		Transaction tx = journal.begin("Change object table");
+		try {
+			this.write(upkPath, journal, tx);
+		} catch (IOException ex) {
+			try {
+				journal.rollback(tx);
+			} catch (IOException ex2) {
+				ex.addSuppressed(ex2);
+			}
+			throw ex;
+		}
+		journal.commit(tx);
+	}
+
+	/**
+	 * Writes all pending changes to the specified *.upk file as part of the
+	 * specified journal transaction and updates the in-memory entries, then
+	 * clears the pending changes. The written bytes are forced to the
+	 * storage device, so the transaction may be committed afterwards.
+	 * @param upkPath the *.upk file path
+	 * @param journal the package journal
+	 * @param tx the transaction to record the changes in
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(Path upkPath, UpkJournal journal, Transaction tx) throws IOException {
+		if (this.patches.isEmpty()) {
+			return;
+		}
+
+		// determine table region spanning all changes
+		long regionStart = Long.MAX_VALUE;
+		long regionEnd = Long.MIN_VALUE;
+		for (Patch patch : this.patches) {
+			regionStart = Math.min(regionStart, patch.getPosition());
+			regionEnd = Math.max(regionEnd, patch.getPosition() + 4);
+		}
+
+		ByteBuffer regionBuf = ByteBuffer.allocate((int) (regionEnd - regionStart));
+		regionBuf.order(ByteOrder.LITTLE_ENDIAN);
+		try (FileChannel fc = FileChannel.open(upkPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// read region once
+			while (regionBuf.hasRemaining()) {
+				if (fc.read(regionBuf, regionStart + regionBuf.position()) < 0) {
+					throw new IOException("Unexpected end of file inside object table");
+				}
+			}
+
+			// patch region, remembering changed words
+			byte[] oldRegion = regionBuf.array().clone();
+			BitSet changed = new BitSet(oldRegion.length);
+			for (Patch patch : this.patches) {
+				int offset = (int) (patch.getPosition() - regionStart);
+				regionBuf.putInt(offset, patch.value);
+				changed.set(offset, offset + 4);
+			}
+
+			// journal runs of changed words only, unchanged entry data in between is not journaled
+			for (int start = changed.nextSetBit(0); start >= 0; start = changed.nextSetBit(start)) {
+				int end = changed.nextClearBit(start);
+				journal.recordWrite(tx, regionStart + start, Arrays.copyOfRange(oldRegion, start, end),
+						Arrays.copyOfRange(regionBuf.array(), start, end));
+				start = end;
+			}
+			journal.flush();
+
+			// write region back once
+			regionBuf.rewind();
+			while (regionBuf.hasRemaining()) {
+				fc.write(regionBuf, regionStart + regionBuf.position());
+			}
+			// the transaction must not be committed before the data reaches the device
+			fc.force(false);
+		}
+
+		// update data in memory model of UPK
+		this.apply();
+	}
+
+	/**
+	 * Updates the in-memory entries without writing to the file, then clears
+	 * the pending changes. Used when the file has already been restored by
+	 * other means, e.g. by rolling back a journaled change.
+	 */
+	public void apply() {
+		for (Patch patch : this.patches) {
+			patch.apply();
+		}
+		this.patches.clear();
+	}
+
+	/**
+	 * A single pending change of an object entry word.
+	 */
+	private static class Patch {
+
+		/**
+		 * The object entry to change.
+		 */
+		private ObjectEntry entry;
+
+		/**
+		 * The byte offset of the changed word inside the entry.
+		 */
+		private int offset;
+
+		/**
+		 * The new value.
+		 */
+		private int value;
+
+		/**
+		 * Constructs an entry change.
+		 * @param entry the object entry to change
+		 * @param offset the byte offset of the changed word inside the entry
+		 * @param value the new value
+		 */
+		public Patch(ObjectEntry entry, int offset, int value) {
+			this.entry = entry;
+			this.offset = offset;
+			this.value = value;
+		}
+
+		/**
+		 * Returns the absolute file position of the changed word.
+		 * @return the file position
+		 */
+		public long getPosition() {
+			return (long) this.entry.getObjectEntryPos() + this.offset;
+		}
+
+		/**
+		 * Applies the change to the in-memory entry.
+		 */
+		public void apply() {
+			switch (this.offset) {
+				case TYPE_OFFSET:
+					this.entry.setType(this.value);
+					break;
+				case PARENT_OFFSET:
+					this.entry.setParent(this.value);
+					break;
+				case OUTER_OFFSET:
+					this.entry.setOuter(this.value);
+					break;
+				case NAME_OFFSET:
+					this.entry.setNamePtr(this.value);
+					break;
+				case SIZE_OFFSET:
+					this.entry.setUpkSize(this.value);
+					break;
+				case POS_OFFSET:
+					this.entry.setUpkPos(this.value);
+					break;
+			}
+		}
+
+	}
+
+}
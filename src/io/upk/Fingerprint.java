@@ -0,0 +1,113 @@
+package io.upk;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The fingerprint of a UPK file, consisting of its GUID, file size and
+ * modification time. Used to tell whether a package changed since it has
+ * been parsed or tested.
+ *
+ * @author XMS
+ */
+public class Fingerprint {
+
+	/**
+	 * The file position of the GUID inside the package header.
+	 */
+	private static final long GUID_POSITION = 0x45L;
+
+	/**
+	 * The GUID.
+	 */
+	private byte[] guid;
+
+	/**
+	 * The file size.
+	 */
+	private long size;
+
+	/**
+	 * The modification time.
+	 */
+	private long modified;
+
+	/**
+	 * Constructs a fingerprint.
+	 * @param guid the GUID
+	 * @param size the file size
+	 * @param modified the modification time
+	 */
+	private Fingerprint(byte[] guid, long size, long modified) {
+		this.guid = guid;
+		this.size = size;
+		this.modified = modified;
+	}
+
+	/**
+	 * Takes the fingerprint of the specified UPK file.
+	 * @param upkPath the *.upk file path
+	 * @return the fingerprint
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static Fingerprint of(Path upkPath) throws IOException {
+		long size = Files.size(upkPath);
+		long modified = Files.getLastModifiedTime(upkPath).toMillis();
+		byte[] guid = new byte[16];
+		try (SeekableByteChannel sbc = Files.newByteChannel(upkPath)) {
+			sbc.position(GUID_POSITION);
+			ByteBuffer buf = ByteBuffer.wrap(guid);
+			while (buf.hasRemaining()) {
+				if (sbc.read(buf) < 0) {
+					throw new IOException("Unexpected end of file inside header of " + upkPath);
+				}
+			}
+		}
+		return new Fingerprint(guid, size, modified);
+	}
+
+	/**
+	 * Reads a fingerprint from the specified stream.
+	 * @param dis the stream to read from
+	 * @return the fingerprint
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static Fingerprint read(DataInputStream dis) throws IOException {
+		byte[] guid = new byte[16];
+		dis.readFully(guid);
+		return new Fingerprint(guid, dis.readLong(), dis.readLong());
+	}
+
+	/**
+	 * Writes the fingerprint to the specified stream.
+	 * @param dos the stream to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(DataOutputStream dos) throws IOException {
+		dos.write(this.guid);
+		dos.writeLong(this.size);
+		dos.writeLong(this.modified);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof Fingerprint) {
+			Fingerprint that = (Fingerprint) obj;
+			return (this.size == that.size) && (this.modified == that.modified)
+					&& Arrays.equals(this.guid, that.guid);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(this.guid) ^ Long.valueOf(this.size ^ this.modified).hashCode();
+	}
+
+}
@@ -0,0 +1,70 @@
+package io.upk;
+
+import static model.modtree.ModTree.logger;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+
+/**
+ * Utility class for memory-mapping *.upk files.
+ * 
+ * @author XMS
+ */
+public class MappedBuffers {
+	
+	/**
+	 * Empty default constructor to prevent instantiation.
+	 */
+	private MappedBuffers() { }
+
+	/**
+	 * Maps the whole specified file read-only into memory. The returned buffer
+	 * uses little endian byte order and stays valid after this method returns.
+	 * @param path the path of the file to map
+	 * @return the mapped buffer
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static MappedByteBuffer map(Path path) throws IOException {
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = fc.map(MapMode.READ_ONLY, 0L, fc.size());
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			return buf;
+		}
+	}
+
+	/**
+	 * Attempts to release the specified mapping immediately instead of waiting
+	 * for it to be garbage collected. Windows refuses to truncate or replace a
+	 * file while a mapped section of it is open, so every mapping has to be
+	 * released before a package is rewritten.<br>
+	 * The buffer (and any views of it) must not be accessed afterwards. If the
+	 * running JVM does not allow releasing mappings this does nothing.
+	 * @param buf the mapped buffer to release, may be <code>null</code>
+	 */
+	public static void unmap(MappedByteBuffer buf) {
+		if (buf == null) {
+			return;
+		}
+		try {
+			Method cleanerMethod = buf.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buf);
+			if (cleaner != null) {
+				Method cleanMethod = cleaner.getClass().getMethod("clean");
+				cleanMethod.setAccessible(true);
+				cleanMethod.invoke(cleaner);
+			}
+		} catch (Exception | LinkageError e) {
+			// not supported by this JVM, mapping will be released by the garbage collector
+			logger.log(Level.FINE, "Could not release mapped buffer", e);
+		}
+	}
+
+}
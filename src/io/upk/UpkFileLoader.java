@@ -1,11 +1,27 @@
 package io.upk;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import model.upk.UpkFile;
 import UPKmodder.UpkConfigData;
@@ -20,48 +36,266 @@ public class UpkFileLoader
 {
     public UpkConfigData configData;
     private boolean verbose;
+
+    /**
+     * The stream verbose progress output is printed to.
+     */
+    private final PrintStream log;
     
-    private ArrayList<String> baseUpkNames;
-    private ArrayList<ArrayList<String>> guidMatrix;
-    private ArrayList<ArrayList<UpkFile>> upkMatrix;
+    /**
+     * The configured UPK files mapped by base name and GUID.
+     */
+    private final Map<UpkVersion, Future<UpkFile>> upkVersions = new HashMap<>();
+
+    /**
+     * The maximum number of UPK files loaded concurrently.
+     */
+    private static final int MAX_LOADER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The failures that occurred while loading UPK files, mapped by file path.
+     */
+    private final Map<Path, Throwable> failures = Collections.synchronizedMap(new LinkedHashMap<Path, Throwable>());
 
+    /**
+     * The future signalling that all configured UPK files have been loaded.
+     */
+    private FutureTask<Map<Path, Throwable>> completion;
+
+    /**
+     * Returns the UPK file of the specified base name and GUID, blocking until
+     * it has been loaded.
+     * @param upkName the base UPK file name, e.g. "XComGame.upk"
+     * @param GUID the GUID as space-separated hex string
+     * @return the UPK file or <code>null</code> if it is not configured or
+     *  could not be loaded
+     */
     public UpkFile getUpk(String upkName, String GUID)
     {
-        if(baseUpkNames == null || guidMatrix == null || upkMatrix == null) {
+        byte[] aGUID = parseGUID(GUID);
+        if(aGUID == null) {
             return null;
         }
-        int upkIndex = baseUpkNames.indexOf(upkName);
-        if(guidMatrix.get(upkIndex) == null){
+        return getUpk(upkName, aGUID);
+    }
+
+    /**
+     * Returns the UPK file of the specified base name and GUID, blocking until
+     * it has been loaded.
+     * @param upkName the base UPK file name, e.g. "XComGame.upk"
+     * @param aGUID the 16 GUID bytes
+     * @return the UPK file or <code>null</code> if it is not configured or
+     *  could not be loaded
+     */
+    public UpkFile getUpk(String upkName, byte[] aGUID)
+    {
+        Future<UpkFile> future = upkVersions.get(new UpkVersion(upkName, aGUID));
+        if(future == null) {
             return null;
         }
-        if(upkIndex < 0 || upkIndex >= guidMatrix.get(upkIndex).size()) {
-            return null;
+        return awaitUpk(future);
+    }
+
+    /**
+     * Returns the UPK file of the specified base name, blocking until it has
+     * been loaded. Only succeeds if exactly one version of the file is
+     * configured.
+     * @param upkName the base UPK file name, e.g. "XComGame.upk"
+     * @return the UPK file or <code>null</code> if no or several versions are
+     *  configured or it could not be loaded
+     */
+    public UpkFile getUpk(String upkName)
+    {
+        Future<UpkFile> future = null;
+        for(Map.Entry<UpkVersion, Future<UpkFile>> entry : upkVersions.entrySet()) {
+            if(entry.getKey().upkName.equals(upkName)) {
+                if(future != null) {
+                    // ambiguous
+                    return null;
+                }
+                future = entry.getValue();
+            }
         }
-        int guidIndex = guidMatrix.get(upkIndex).indexOf(GUID);
-        
-        // TODO -- add GUID check
-        if(guidIndex < 0 || guidIndex >= upkMatrix.get(upkIndex).size()) {
+        if(future == null) {
             return null;
         }
-        else {
-            return upkMatrix.get(upkIndex).get(guidIndex);
+        return awaitUpk(future);
+    }
+
+    /**
+     * Returns the number of configured versions of the specified UPK file.
+     * @param upkName the base UPK file name, e.g. "XComGame.upk"
+     * @return the number of configured versions
+     */
+    public int getVersionCount(String upkName)
+    {
+        int count = 0;
+        for(UpkVersion version : upkVersions.keySet()) {
+            if(version.upkName.equals(upkName)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the configured UPK files which have been loaded successfully
+     * so far, without waiting for pending loads.
+     * @return the loaded UPK files
+     */
+    public List<UpkFile> getLoadedUpks()
+    {
+        List<UpkFile> upks = new ArrayList<>();
+        for(Future<UpkFile> future : upkVersions.values()) {
+            if(future.isDone()) {
+                UpkFile upk = awaitUpk(future);
+                if(upk != null) {
+                    upks.add(upk);
+                }
+            }
         }
+        return upks;
+    }
+
+    /**
+     * Returns a future which completes once all configured UPK files have
+     * been loaded. Its result are the failures that occurred while loading,
+     * mapped by file path.
+     * @return the completion future
+     */
+    public Future<Map<Path, Throwable>> getCompletion()
+    {
+        return completion;
+    }
+
+    /**
+     * Returns the failures that occurred while loading UPK files so far,
+     * mapped by file path.
+     * @return the failures
+     */
+    public Map<Path, Throwable> getFailures()
+    {
+        synchronized(failures) {
+            return new LinkedHashMap<>(failures);
+        }
+    }
+
+    /**
+     * Waits for the specified UPK file to be loaded.
+     * @param future the future of the UPK file
+     * @return the UPK file or <code>null</code> if it could not be loaded
+     */
+    private UpkFile awaitUpk(Future<UpkFile> future)
+    {
+        try {
+            return future.get();
+        }
+        catch(InterruptedException x)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch(ExecutionException x)
+        {
+            // failure has already been recorded
+        }
+        return null;
+    }
+
+    /**
+     * Creates the task loading the UPK file at the specified path. The
+     * completion future is run once the last pending task is done, i.e.
+     * after its result has been set.
+     * @param upkPath the UPK file path
+     * @param aGUID the configured GUID the UPK file is verified against
+     * @param pending the number of loads still pending
+     * @return the load task
+     */
+    private FutureTask<UpkFile> createLoadTask(final Path upkPath, final byte[] aGUID, final AtomicInteger pending)
+    {
+        Callable<UpkFile> load = new Callable<UpkFile>() {
+            @Override
+            public UpkFile call() throws Exception
+            {
+                try {
+                    UpkFile upkFile = new UpkFile(upkPath);
+                    if(upkFile.getHeader() == null) {
+                        throw new IOException("Could not parse header of " + upkPath);
+                    }
+                    if(!Arrays.equals(aGUID, upkFile.getHeader().getGUID())) {
+                        throw new IOException("GUID of " + upkPath + " does not match configured GUID");
+                    }
+                    if(verbose) {
+                        log.println("Read " + upkPath + ".");
+                    }
+                    return upkFile;
+                }
+                catch(Exception | Error x)
+                {
+                    failures.put(upkPath, x);
+                    if(verbose) {
+                        log.println("Failed to read " + upkPath + ": " + x);
+                    }
+                    throw x;
+                }
+            }
+        };
+        return new FutureTask<UpkFile>(load) {
+            @Override
+            protected void done()
+            {
+                if(pending.decrementAndGet() == 0) {
+                    completion.run();
+                }
+            }
+        };
     }
     
     public UpkFileLoader()
     {
-        this.configData = new UpkConfigData();
+        this(new UpkConfigData());
+    }
+
+    /**
+     * Constructs a loader for the UPK files listed in the UPK config file of
+     * the specified configuration, printing verbose progress output to
+     * standard error.
+     * @param configData the configuration
+     */
+    public UpkFileLoader(UpkConfigData configData)
+    {
+        this(configData, System.err);
+    }
+
+    /**
+     * Constructs a loader for the UPK files listed in the UPK config file of
+     * the specified configuration.
+     * @param configData the configuration
+     * @param log the stream verbose progress output is printed to, it must
+     *  stay open until all UPK files have been loaded
+     */
+    public UpkFileLoader(UpkConfigData configData, PrintStream log)
+    {
+        this.configData = configData;
+        this.log = log;
         verbose = configData.m_bVerbose;
-        ArrayList<UpkFile> upkList = null;
-        ArrayList<String> guidList = null;
+        String baseUpkName = null;
+        ArrayList<FutureTask<UpkFile>> loadTasks = new ArrayList<>();
+        // keep one pending count until all tasks have been submitted
+        final AtomicInteger pending = new AtomicInteger(1);
+        this.completion = new FutureTask<>(new Callable<Map<Path, Throwable>>() {
+            @Override
+            public Map<Path, Throwable> call()
+            {
+                return getFailures();
+            }
+        });
 
         String encoding = System.getProperty("file.encoding");
         String currLine;
-        boolean firstUpkType = true;
 
         if(Files.exists(Paths.get(configData.upkConfig))) {
             if(verbose) {
-                System.out.println("m_kConfigFile: " + Paths.get(configData.upkConfig)); 
+                log.println("m_kConfigFile: " + Paths.get(configData.upkConfig)); 
             }
             try (Scanner kScanner = new Scanner(Files.newBufferedReader(Paths.get(configData.upkConfig), Charset.forName(encoding))))
             {
@@ -76,61 +310,124 @@ public class UpkFileLoader
                         int numUpkTypes = Integer.parseInt(currLine.split("=",2)[1]);
                         if(configData.m_bVerbose)
                         {
-                            System.out.println("Attempting to read " + numUpkTypes + " types of upk files.");
+                            log.println("Attempting to read " + numUpkTypes + " types of upk files.");
                         }
-                        baseUpkNames = new ArrayList<>(numUpkTypes);
-                        guidMatrix = new ArrayList<>(numUpkTypes);
-                        upkMatrix = new ArrayList<>(numUpkTypes);
                     }
                     else if(currLine.startsWith("UPKFILE="))
                     {
-                        if(firstUpkType) {
-                            firstUpkType = false;
-                        } else {
-                            guidMatrix.add(guidList);
-                            upkMatrix.add(upkList);
-                        }
-                        
-                        baseUpkNames.add(currLine.split("=",2)[1]);
+                        baseUpkName = currLine.split("=",2)[1];
                         if(verbose)
                         {
-                            System.out.println("Attempting to read " + currLine.split("=",2)[1] + " files.");
+                            log.println("Attempting to read " + currLine.split("=",2)[1] + " files.");
                         }
                     }
-                    else if(currLine.startsWith("NUM_VERSIONS="))
-                    {
-                        int numVersions = Integer.parseInt(currLine.split("=",2)[1]);
-                        upkList = new ArrayList<>(numVersions);
-                        guidList = new ArrayList<>(numVersions);
-                    }
                     else if(currLine.startsWith("FILE="))
                     {
                         String upkPath = currLine.split("::")[0].split("=",2)[1].trim();
                         String GUID = currLine.split("::")[1].split("=",2)[1].trim();
-                        try {
-//                            File file = new File(upkPath);		
-                            upkList.add(new UpkFile(Paths.get(upkPath)));
-                            guidList.add(GUID);
-                        }
-                        catch(Throwable x)
-                        {
-                            // TODO -- add exception handling
-                        }
-                        if(verbose) {
-                            System.out.println("Read " + upkPath + ".");
+                        byte[] aGUID = parseGUID(GUID);
+                        if(baseUpkName == null || aGUID == null) {
+                            failures.put(Paths.get(upkPath), new IllegalArgumentException("Invalid config entry: " + currLine));
+                            continue;
                         }
-                        
-                        // TODO -- add GUID check
-
+                        // files are loaded concurrently once the whole config has been read
+                        FutureTask<UpkFile> loadTask = createLoadTask(Paths.get(upkPath), aGUID, pending);
+                        loadTasks.add(loadTask);
+                        upkVersions.put(new UpkVersion(baseUpkName, aGUID), loadTask);
                     }
                 }
-                guidMatrix.add(guidList);
-                upkMatrix.add(upkList);
             }
             catch (IOException x)
             {
-                System.out.println("caught exception: " + x);
+                log.println("caught exception: " + x);
+            }
+        }
+        submitLoadTasks(loadTasks, pending);
+    }
+
+    /**
+     * Runs the specified load tasks on a bounded thread pool.
+     * @param loadTasks the load tasks
+     * @param pending the number of loads still pending, including one for
+     *  the submission itself
+     */
+    private void submitLoadTasks(ArrayList<FutureTask<UpkFile>> loadTasks, AtomicInteger pending)
+    {
+        if(!loadTasks.isEmpty()) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_LOADER_THREADS, loadTasks.size()), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "UpkFileLoader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pending.addAndGet(loadTasks.size());
+            for(FutureTask<UpkFile> loadTask : loadTasks) {
+                executor.execute(loadTask);
+            }
+            // threads terminate once all tasks are done
+            executor.shutdown();
+        }
+        if(pending.decrementAndGet() == 0) {
+            completion.run();
+        }
+    }
+
+    /**
+     * Parses the specified GUID string consisting of 16 space-separated hex
+     * bytes.
+     * @param GUID the GUID string
+     * @return the GUID bytes or <code>null</code> if the string is malformed
+     */
+    private static byte[] parseGUID(String GUID)
+    {
+        String[] tokens = GUID.trim().split("\\s+");
+        if(tokens.length != 16) {
+            return null;
+        }
+        byte[] aGUID = new byte[16];
+        try {
+            for(int i = 0; i < 16; i++) {
+                aGUID[i] = (byte) Integer.parseInt(tokens[i], 16);
             }
         }
+        catch(NumberFormatException x)
+        {
+            return null;
+        }
+        return aGUID;
+    }
+
+    /**
+     * Key identifying a specific version of an UPK file by base name and GUID.
+     */
+    private static final class UpkVersion
+    {
+        private final String upkName;
+        private final byte[] aGUID;
+
+        public UpkVersion(String upkName, byte[] aGUID)
+        {
+            this.upkName = upkName;
+            this.aGUID = aGUID;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if(!(obj instanceof UpkVersion)) {
+                return false;
+            }
+            UpkVersion that = (UpkVersion) obj;
+            return upkName.equals(that.upkName) && Arrays.equals(aGUID, that.aGUID);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * upkName.hashCode() + Arrays.hashCode(aGUID);
+        }
     }
 }
@@ -0,0 +1,275 @@
+package io.upk;
+
+import static model.modtree.ModTree.logger;
+import io.model.upk.ImportEntry;
+import io.model.upk.NameEntry;
+import io.model.upk.ObjectEntry;
+import io.parser.LazyEntryList;
+import io.parser.UpkParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.List;
+import java.util.logging.Level;
+
+import model.upk.UpkHeader;
+
+/**
+ * Persistent binary cache of parsed UPK headers.<br>
+ * For each package one cache file is stored inside the cache directory
+ * containing the raw name, object and import tables and their entry offsets.
+ * Full object and import names are not stored, they are resolved on demand
+ * like for freshly parsed headers. A cache file is only used if
+ * the GUID, file size and modification time of the package still match the
+ * values recorded when it was written.
+ *
+ * @author XMS
+ */
+public class UpkHeaderCache {
+
+	/**
+	 * The default cache directory inside the application directory, so it
+	 * does not depend on the working directory.
+	 */
+	public static final Path DEFAULT_CACHE_DIRECTORY = getApplicationDirectory().resolve("cache");
+
+	/**
+	 * The magic number identifying cache files ('UPKH').
+	 */
+	private static final int MAGIC = 0x55504B48;
+
+	/**
+	 * The cache file format version.
+	 */
+	private static final int VERSION = 2;
+
+	/**
+	 * The cache directory, <code>null</code> if caching is disabled.
+	 */
+	private static Path cacheDirectory = DEFAULT_CACHE_DIRECTORY;
+
+	/**
+	 * Empty default constructor to prevent instantiation.
+	 */
+	private UpkHeaderCache() { }
+
+	/**
+	 * Returns the directory containing the application's JAR file or class
+	 * folder. Falls back to the working directory if it cannot be determined.
+	 * @return the absolute application directory
+	 */
+	private static Path getApplicationDirectory() {
+		try {
+			CodeSource codeSource = UpkHeaderCache.class.getProtectionDomain().getCodeSource();
+			if (codeSource != null) {
+				Path parent = Paths.get(codeSource.getLocation().toURI()).toAbsolutePath().getParent();
+				if (parent != null) {
+					return parent;
+				}
+			}
+		} catch (URISyntaxException | RuntimeException e) {
+			logger.log(Level.FINE, "Could not determine application directory", e);
+		}
+		return Paths.get("").toAbsolutePath();
+	}
+
+	/**
+	 * Returns the directory cache files are stored in.
+	 * @return the cache directory or <code>null</code> if caching is disabled
+	 */
+	public static synchronized Path getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	/**
+	 * Sets the directory cache files are stored in.
+	 * @param directory the cache directory or <code>null</code> to disable caching
+	 */
+	public static synchronized void setCacheDirectory(Path directory) {
+		cacheDirectory = directory;
+	}
+
+	/**
+	 * Loads the cached header of the specified *.upk file.
+	 * @param upkPath the *.upk file path
+	 * @return the cached header or <code>null</code> if no valid cache file exists
+	 */
+	public static UpkHeader load(Path upkPath) {
+		try {
+			Path cachePath = getCachePath(upkPath);
+			if ((cachePath == null) || !Files.exists(cachePath)) {
+				return null;
+			}
+			long startTime = System.currentTimeMillis();
+			long size = Files.size(upkPath);
+			long modified = Files.getLastModifiedTime(upkPath).toMillis();
+			try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(cachePath)))) {
+				if ((dis.readInt() != MAGIC) || (dis.readInt() != VERSION)
+						|| (dis.readLong() != size) || (dis.readLong() != modified)) {
+					logger.log(Level.FINE, "Header cache of " + upkPath + " is out of date");
+					return null;
+				}
+				byte[] aGUID = new byte[16];
+				dis.readFully(aGUID);
+
+				UpkParser parser = new UpkParser(upkPath);
+				int nameListPos = dis.readInt();
+				List<NameEntry> nameList = parser.createNameList(readBytes(dis), nameListPos, readInts(dis));
+				int objectListPos = dis.readInt();
+				List<ObjectEntry> objectList = parser.createObjectList(readBytes(dis), objectListPos, readInts(dis));
+				int importListPos = dis.readInt();
+				List<ImportEntry> importList = parser.createImportList(readBytes(dis), importListPos, readInts(dis));
+
+				logger.log(Level.FINE, "Loaded cached header of " + upkPath + ", took " + (System.currentTimeMillis() - startTime) + "ms");
+				return new UpkHeader(nameList, nameListPos, objectList, objectListPos,
+						importList, importListPos, aGUID);
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.INFO, "Could not load header cache of " + upkPath, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the specified freshly parsed header of the specified *.upk file
+	 * inside the cache. Headers whose tables are not backed by lazy table
+	 * views are not cached. Only the raw tables are written, so storing does
+	 * not resolve any names.
+	 * @param upkPath the *.upk file path
+	 * @param header the header to store
+	 * @param size the file size of the *.upk file at the time of parsing
+	 * @param modified the modification time of the *.upk file at the time of parsing
+	 */
+	public static void store(Path upkPath, UpkHeader header, long size, long modified) {
+		if (!(header.getNameList() instanceof LazyEntryList)
+				|| !(header.getObjectList() instanceof LazyEntryList)
+				|| !(header.getImportList() instanceof LazyEntryList)) {
+			return;
+		}
+		try {
+			Path cachePath = getCachePath(upkPath, header.getGUID());
+			if (cachePath == null) {
+				return;
+			}
+			long startTime = System.currentTimeMillis();
+			Files.createDirectories(cachePath.getParent());
+			// write to temporary file first so readers never see partial files
+			Path tempPath = Files.createTempFile(cachePath.getParent(), cachePath.getFileName().toString(), ".tmp");
+			try {
+				try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+					dos.writeInt(MAGIC);
+					dos.writeInt(VERSION);
+					dos.writeLong(size);
+					dos.writeLong(modified);
+					dos.write(header.getGUID());
+					writeTable(dos, (LazyEntryList<?>) header.getNameList());
+					writeTable(dos, (LazyEntryList<?>) header.getObjectList());
+					writeTable(dos, (LazyEntryList<?>) header.getImportList());
+				}
+				Files.move(tempPath, cachePath, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tempPath);
+			}
+			logger.log(Level.FINE, "Stored header cache of " + upkPath + ", took " + (System.currentTimeMillis() - startTime) + "ms");
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.INFO, "Could not store header cache of " + upkPath, e);
+		}
+	}
+
+	/**
+	 * Returns the cache file path of the specified *.upk file.
+	 * @param upkPath the *.upk file path
+	 * @return the cache file path or <code>null</code> if caching is disabled
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static Path getCachePath(Path upkPath) throws IOException {
+		byte[] aGUID = new byte[16];
+		try (SeekableByteChannel sbc = Files.newByteChannel(upkPath)) {
+			sbc.position(0x45L);
+			ByteBuffer buf = ByteBuffer.wrap(aGUID);
+			while (buf.hasRemaining()) {
+				if (sbc.read(buf) < 0) {
+					return null;
+				}
+			}
+		}
+		return getCachePath(upkPath, aGUID);
+	}
+
+	/**
+	 * Returns the cache file path of the specified *.upk file.
+	 * @param upkPath the *.upk file path
+	 * @param aGUID the GUID of the *.upk file
+	 * @return the cache file path or <code>null</code> if caching is disabled
+	 */
+	private static Path getCachePath(Path upkPath, byte[] aGUID) {
+		Path directory = getCacheDirectory();
+		if (directory == null) {
+			return null;
+		}
+		// include hash of absolute path to tell apart copies of the same package version
+		int pathHash = upkPath.toAbsolutePath().normalize().toString().hashCode();
+		StringBuilder sb = new StringBuilder(upkPath.getFileName().toString()).append('_');
+		for (byte b : aGUID) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		sb.append('_').append(Integer.toHexString(pathHash)).append(".hdr");
+		return directory.resolve(sb.toString());
+	}
+
+	/**
+	 * Writes the raw bytes and entry offsets of the specified table.
+	 * @param dos the stream to write to
+	 * @param table the table to write
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void writeTable(DataOutputStream dos, LazyEntryList<?> table) throws IOException {
+		dos.writeInt(table.getTablePosition());
+		byte[] tableBytes = table.getTableBytes();
+		dos.writeInt(tableBytes.length);
+		dos.write(tableBytes);
+		int[] offsets = table.getOffsets();
+		dos.writeInt(offsets.length);
+		for (int offset : offsets) {
+			dos.writeInt(offset);
+		}
+	}
+
+	/**
+	 * Reads a length-prefixed byte array.
+	 * @param dis the stream to read from
+	 * @return the byte array
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static byte[] readBytes(DataInputStream dis) throws IOException {
+		byte[] bytes = new byte[dis.readInt()];
+		dis.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Reads a length-prefixed int array.
+	 * @param dis the stream to read from
+	 * @return the int array
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static int[] readInts(DataInputStream dis) throws IOException {
+		int[] ints = new int[dis.readInt()];
+		for (int i = 0; i < ints.length; i++) {
+			ints[i] = dis.readInt();
+		}
+		return ints;
+	}
+
+}
@@ -0,0 +1,1206 @@
+package io.upk;
+
+import static model.modtree.ModTree.logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of modifications made to a single *.upk
+ * file.<br>
+ * Each modification is recorded as a transaction consisting of a
+ * <code>BEGIN</code> record, any number of undo records and a
+ * <code>COMMIT</code> record. Undo records are collected and must be forced
+ * to the storage device using {@link #flush()} before the modification they
+ * describe is made, so any number of transactions can be rolled back and
+ * transactions interrupted by a crash can be recovered without keeping a
+ * backup copy of the whole package. Rolled back transactions are marked by a
+ * <code>ROLLBACK</code> record.<br>
+ * Once the journal file grows beyond a threshold while no transaction is
+ * uncompleted, committing checkpoints the journal: it is rewritten keeping
+ * only the most recent active transactions, older ones can no longer be
+ * rolled back.<br>
+ * Each record is framed by its length and a CRC-32 checksum. A record torn
+ * by a crash ends the journal, it is cut off before further records are
+ * appended. Reading the journal only keeps the record headers, the
+ * journaled bytes are read from the journal file when needed.<br>
+ * The journal is stored next to the package as <code>&lt;file&gt;.journal</code>,
+ * a single journal instance is shared per package, see {@link #get(Path)}.
+ *
+ * @author XMS
+ */
+public class UpkJournal {
+
+	/**
+	 * The magic number identifying journal files ('UPKJ').
+	 */
+	private static final int MAGIC = 0x55504B4A;
+
+	/**
+	 * The journal file format version.
+	 */
+	private static final int VERSION = 2;
+
+	/**
+	 * The size of the journal file header.
+	 */
+	private static final long HEADER_SIZE = 8L;
+
+	/**
+	 * The size of the length and checksum framing each record.
+	 */
+	private static final int FRAME_SIZE = 8;
+
+	/**
+	 * The default journal file length beyond which committing checkpoints
+	 * the journal.
+	 */
+	private static final long CHECKPOINT_LENGTH = 16L << 20;
+
+	/**
+	 * The maximum number of active transactions kept by a checkpoint.
+	 */
+	private static final int CHECKPOINT_HISTORY = 32;
+
+	/**
+	 * Enumeration of journal record types.
+	 */
+	public enum RecordType {
+		/** Starts a transaction. */
+		BEGIN,
+		/** Overwrite of a byte range, holds the old and new bytes. */
+		WRITE,
+		/** Growth of the file, holds the old and new file length. */
+		APPEND,
+		/** Successful completion of a transaction. */
+		COMMIT,
+		/** Rollback of a previously committed transaction. */
+		ROLLBACK,
+		/** Replacement of a byte range by a differently sized one, holds the old and new bytes. */
+		SPLICE
+	}
+
+	/**
+	 * The size of the buffer used for shifting file contents.
+	 */
+	private static final int SHIFT_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The journals mapped to the normalized paths of their *.upk files.
+	 */
+	private static final Map<Path, UpkJournal> journals = new HashMap<>();
+
+	/**
+	 * The *.upk file path.
+	 */
+	private Path upkPath;
+
+	/**
+	 * The journal file path.
+	 */
+	private Path journalPath;
+
+	/**
+	 * The ID of the next transaction, <code>-1</code> until read from the journal.
+	 */
+	private long nextId = -1L;
+
+	/**
+	 * The records not written to the journal file yet.
+	 */
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	/**
+	 * The length of the journal file up to the end of the last complete
+	 * record, <code>-1</code> until read from the journal.
+	 */
+	private long validLength = -1L;
+
+	/**
+	 * The IDs of the transactions begun but not completed yet.
+	 */
+	private Set<Long> openIds = new HashSet<>();
+
+	/**
+	 * The journal file length beyond which committing checkpoints the journal.
+	 */
+	private long checkpointLength;
+
+	/**
+	 * The number of checkpoints made, records read before a checkpoint
+	 * point to outdated journal file positions.
+	 */
+	private int generation;
+
+	/**
+	 * Constructs a journal for the specified *.upk file.
+	 * @param upkPath the *.upk file path
+	 */
+	UpkJournal(Path upkPath) {
+		this(upkPath, CHECKPOINT_LENGTH);
+	}
+
+	/**
+	 * Constructs a journal for the specified *.upk file.
+	 * @param upkPath the *.upk file path
+	 * @param checkpointLength the journal file length beyond which
+	 *  committing checkpoints the journal
+	 */
+	UpkJournal(Path upkPath, long checkpointLength) {
+		this.upkPath = upkPath;
+		this.journalPath = upkPath.resolveSibling(upkPath.getFileName() + ".journal");
+		this.checkpointLength = checkpointLength;
+	}
+
+	/**
+	 * Returns the journal of the specified *.upk file.
+	 * @param upkPath the *.upk file path
+	 * @return the shared journal instance
+	 */
+	public static synchronized UpkJournal get(Path upkPath) {
+		Path key = upkPath.toAbsolutePath().normalize();
+		UpkJournal journal = journals.get(key);
+		if (journal == null) {
+			journal = new UpkJournal(upkPath);
+			journals.put(key, journal);
+		}
+		return journal;
+	}
+
+	/**
+	 * Returns the journal file path.
+	 * @return the journal file path
+	 */
+	public Path getJournalPath() {
+		return this.journalPath;
+	}
+
+	/**
+	 * Starts a new transaction.
+	 * @param description a short description of the modification
+	 * @return the transaction
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized Transaction begin(String description) throws IOException {
+		if (this.nextId < 0L) {
+			this.nextId = 0L;
+			for (Transaction tx : this.readTransactions()) {
+				this.nextId = Math.max(this.nextId, tx.getId() + 1L);
+			}
+		}
+		Transaction tx = new Transaction(this.nextId++, description);
+		this.openIds.add(tx.getId());
+		this.appendRecord(new Record(RecordType.BEGIN, tx.getId(), description));
+		return tx;
+	}
+
+	/**
+	 * Records the overwrite of the specified byte range. Must be followed by
+	 * {@link #flush()} before the bytes are written.
+	 * @param tx the transaction
+	 * @param position the absolute file position of the byte range
+	 * @param oldBytes the bytes being overwritten
+	 * @param newBytes the bytes being written
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void recordWrite(Transaction tx, long position, byte[] oldBytes, byte[] newBytes) throws IOException {
+		Record record = new Record(RecordType.WRITE, tx.getId(), null);
+		record.position = position;
+		record.setBytes(oldBytes, newBytes);
+		tx.records.add(record);
+		this.appendRecord(record);
+	}
+
+	/**
+	 * Records the growth of the file. Must be followed by {@link #flush()}
+	 * before the bytes are appended.
+	 * @param tx the transaction
+	 * @param oldLength the file length before appending
+	 * @param newLength the file length after appending
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void recordAppend(Transaction tx, long oldLength, long newLength) throws IOException {
+		Record record = new Record(RecordType.APPEND, tx.getId(), null);
+		record.position = oldLength;
+		record.length = newLength;
+		tx.records.add(record);
+		this.appendRecord(record);
+	}
+
+	/**
+	 * Records the replacement of the specified byte range by a differently
+	 * sized one. The splices of a transaction must be recorded in ascending
+	 * position order using positions prior to the transaction and must be
+	 * followed by {@link #flush()} before the file is modified.
+	 * @param tx the transaction
+	 * @param position the absolute file position of the byte range
+	 * @param oldBytes the bytes being replaced
+	 * @param newBytes the replacement bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void recordSplice(Transaction tx, long position, byte[] oldBytes, byte[] newBytes) throws IOException {
+		Record record = new Record(RecordType.SPLICE, tx.getId(), null);
+		record.position = position;
+		record.setBytes(oldBytes, newBytes);
+		tx.records.add(record);
+		this.appendRecord(record);
+	}
+
+	/**
+	 * Writes all collected records to the journal file and forces them to
+	 * the storage device. A record torn by a crash at the end of the journal
+	 * file is cut off first.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void flush() throws IOException {
+		if (this.pending.size() == 0) {
+			return;
+		}
+		long fileLength = Files.exists(this.journalPath) ? Files.size(this.journalPath) : 0L;
+		if (fileLength != this.validLength) {
+			// not written by this instance, determine end of last complete record
+			this.readTransactions();
+		}
+		try (FileChannel fc = FileChannel.open(this.journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			long position = this.validLength;
+			if (position < HEADER_SIZE) {
+				position = 0L;
+			}
+			if (fc.size() > position) {
+				if (position > 0L) {
+					logger.log(Level.WARNING, "Cutting off torn record at " + position + " of " + this.journalPath);
+				}
+				fc.truncate(position);
+			}
+			if (position == 0L) {
+				ByteBuffer headerBuf = ByteBuffer.allocate((int) HEADER_SIZE);
+				headerBuf.putInt(MAGIC).putInt(VERSION).flip();
+				while (headerBuf.hasRemaining()) {
+					fc.write(headerBuf, headerBuf.position());
+				}
+				position = HEADER_SIZE;
+			}
+			ByteBuffer buf = ByteBuffer.wrap(this.pending.toByteArray());
+			while (buf.hasRemaining()) {
+				fc.write(buf, position + buf.position());
+			}
+			fc.force(false);
+			this.validLength = position + buf.limit();
+		}
+		this.pending.reset();
+	}
+
+	/**
+	 * Marks the specified transaction as completed. Checkpoints the journal
+	 * if its file has grown beyond the threshold and no other transaction is
+	 * open.
+	 * @param tx the transaction
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void commit(Transaction tx) throws IOException {
+		tx.committed = true;
+		this.openIds.remove(tx.getId());
+		this.appendRecord(new Record(RecordType.COMMIT, tx.getId(), null));
+		this.flush();
+		if (this.openIds.isEmpty() && (this.validLength > this.checkpointLength)) {
+			this.checkpoint();
+		}
+	}
+
+	/**
+	 * Rewrites the journal file keeping only the most recent active
+	 * transactions, at most {@link #CHECKPOINT_HISTORY} of them taking up at
+	 * most half the checkpoint threshold. Rolled back transactions are
+	 * dropped. Nothing is done while a transaction is left uncompleted, as it
+	 * must remain recoverable.
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void checkpoint() throws IOException {
+		List<Transaction> transactions = this.readTransactions();
+		List<Transaction> kept = new ArrayList<>();
+		long keptLength = HEADER_SIZE;
+		boolean full = false;
+		for (int i = transactions.size() - 1; i >= 0; i--) {
+			Transaction tx = transactions.get(i);
+			if (!tx.committed && !tx.rolledBack) {
+				return;
+			}
+			if (full || tx.rolledBack) {
+				continue;
+			}
+			long txLength = 0L;
+			for (Record frame : tx.frames) {
+				txLength += frame.frameLength;
+			}
+			if ((kept.size() >= CHECKPOINT_HISTORY) || (keptLength + txLength > this.checkpointLength / 2L)) {
+				// only the most recent transactions may be kept, older ones are rolled back last
+				full = true;
+				continue;
+			}
+			kept.add(tx);
+			keptLength += txLength;
+		}
+		Collections.reverse(kept);
+
+		Path tempPath = this.journalPath.resolveSibling(this.journalPath.getFileName() + ".tmp");
+		try (FileChannel source = FileChannel.open(this.journalPath, StandardOpenOption.READ);
+				FileChannel target = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer headerBuf = ByteBuffer.allocate((int) HEADER_SIZE);
+			headerBuf.putInt(MAGIC).putInt(VERSION).flip();
+			while (headerBuf.hasRemaining()) {
+				target.write(headerBuf);
+			}
+			// copy the records of the kept transactions without reading them into memory
+			for (Transaction tx : kept) {
+				for (Record frame : tx.frames) {
+					long copied = 0L;
+					while (copied < frame.frameLength) {
+						copied += source.transferTo(frame.frameStart + copied, frame.frameLength - copied, target);
+					}
+				}
+			}
+			target.force(false);
+		}
+		try {
+			Files.move(tempPath, this.journalPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(tempPath, this.journalPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+		this.validLength = keptLength;
+		this.generation++;
+		logger.log(Level.FINE, "Checkpointed " + this.journalPath + ", kept " + kept.size() + " of "
+				+ transactions.size() + " transactions");
+	}
+
+	/**
+	 * Marks the specified uncompleted transaction as rolled back without
+	 * modifying the file, e.g. because the caller has restored it already.
+	 * @param tx the transaction
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void abort(Transaction tx) throws IOException {
+		tx.rolledBack = true;
+		this.openIds.remove(tx.getId());
+		this.appendRecord(new Record(RecordType.ROLLBACK, tx.getId(), null));
+		this.flush();
+	}
+
+	/**
+	 * Returns all committed transactions which have not been rolled back
+	 * yet, in the order they were started.
+	 * @return the active transactions
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized List<Transaction> getTransactions() throws IOException {
+		this.flush();
+		List<Transaction> active = new ArrayList<>();
+		for (Transaction tx : this.readTransactions()) {
+			if (tx.committed && !tx.rolledBack) {
+				active.add(tx);
+			}
+		}
+		return active;
+	}
+
+	/**
+	 * Rolls back the specified number of most recent active transactions,
+	 * newest first.
+	 * @param count the number of transactions to roll back
+	 * @return the number of transactions rolled back, less than
+	 *  <code>count</code> if there are not enough active transactions
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized int rollback(int count) throws IOException {
+		List<Transaction> active = this.getTransactions();
+		int rolledBack = 0;
+		for (int i = active.size() - 1; (i >= 0) && (rolledBack < count); i--) {
+			this.rollback(active.get(i));
+			rolledBack++;
+		}
+		return rolledBack;
+	}
+
+	/**
+	 * Undoes the modifications of the specified transaction in reverse
+	 * order and marks it as rolled back. Overwritten byte ranges are
+	 * restored, spliced byte ranges are spliced back in place, appended bytes
+	 * are truncated unless further bytes have been appended since.
+	 * @param tx the transaction to roll back
+	 * @throws IOException if an I/O error occurs or the file does not
+	 *  match the journaled modifications
+	 */
+	public synchronized void rollback(Transaction tx) throws IOException {
+		this.flush();
+		try (FileChannel fc = FileChannel.open(this.upkPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			this.undo(fc, tx);
+			fc.force(false);
+		}
+		tx.rolledBack = true;
+		this.openIds.remove(tx.getId());
+		this.appendRecord(new Record(RecordType.ROLLBACK, tx.getId(), null));
+		this.flush();
+		logger.log(Level.FINE, "Rolled back '" + tx.getDescription() + "' of " + this.upkPath);
+	}
+
+	/**
+	 * Rolls back all transactions left uncompleted, e.g. by a crash. Open
+	 * transactions of this process are left alone.
+	 * @return the number of recovered transactions
+	 * @throws IOException if an I/O error occurs or the file does not
+	 *  match the journaled modifications
+	 */
+	public synchronized int recover() throws IOException {
+		if (!Files.exists(this.journalPath)) {
+			return 0;
+		}
+		this.flush();
+		int recovered = 0;
+		for (Transaction tx : this.readTransactions()) {
+			if (!tx.committed && !tx.rolledBack && !this.openIds.contains(tx.getId())) {
+				this.rollback(tx);
+				logger.log(Level.WARNING, "Recovered uncompleted '" + tx.getDescription() + "' of " + this.upkPath);
+				recovered++;
+			}
+		}
+		return recovered;
+	}
+
+	/**
+	 * Undoes the modifications of the specified transaction.
+	 * @param fc the channel of the *.upk file
+	 * @param tx the transaction
+	 * @throws IOException if an I/O error occurs or the file does not
+	 *  match the journaled modifications
+	 */
+	private void undo(FileChannel fc, Transaction tx) throws IOException {
+		// determine positions of spliced byte ranges after the transaction
+		List<Record> splices = new ArrayList<>();
+		List<Long> splicePositions = new ArrayList<>();
+		long shift = 0L;
+		boolean spliced = true;
+		boolean unspliced = true;
+		for (Record record : tx.records) {
+			if (record.type == RecordType.SPLICE) {
+				splices.add(record);
+				splicePositions.add(record.position + shift);
+				spliced &= this.matches(fc, record.position + shift, record.getNewBytes());
+				unspliced &= this.matches(fc, record.position, record.getOldBytes());
+				shift += record.newLength - record.oldLength;
+			}
+		}
+		if (!splices.isEmpty() && !spliced && !(unspliced && !tx.committed)) {
+			throw new IOException("Spliced bytes of '" + tx.getDescription() + "' not found in " + this.upkPath);
+		}
+
+		List<Record> records = new ArrayList<>(tx.records);
+		Collections.reverse(records);
+		for (Record record : records) {
+			switch (record.type) {
+				case WRITE:
+					ByteBuffer buf = ByteBuffer.wrap(record.getOldBytes());
+					while (buf.hasRemaining()) {
+						fc.write(buf, record.position + buf.position());
+					}
+					break;
+				case APPEND:
+					if (tx.committed ? (fc.size() == record.length) : (fc.size() > record.position)) {
+						fc.truncate(record.position);
+					}
+					break;
+				case SPLICE:
+					if (spliced) {
+						int index = splices.indexOf(record);
+						this.replace(fc, splicePositions.get(index), record.newLength, record.getOldBytes());
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the file contains the specified bytes at the specified position.
+	 * @param fc the channel of the *.upk file
+	 * @param position the file position
+	 * @param bytes the expected bytes
+	 * @return true if the bytes are present, false otherwise
+	 * @throws IOException if an I/O error occurs
+	 */
+	private boolean matches(FileChannel fc, long position, byte[] bytes) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(bytes.length);
+		while (buf.hasRemaining()) {
+			if (fc.read(buf, position + buf.position()) < 0) {
+				return false;
+			}
+		}
+		return Arrays.equals(bytes, buf.array());
+	}
+
+	/**
+	 * Replaces the specified byte range by the specified bytes in place,
+	 * shifting all following bytes.
+	 * @param fc the channel of the *.upk file
+	 * @param position the file position of the byte range
+	 * @param length the length of the byte range
+	 * @param bytes the replacement bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void replace(FileChannel fc, long position, int length, byte[] bytes) throws IOException {
+		long tailStart = position + length;
+		long tailLength = fc.size() - tailStart;
+		long shift = bytes.length - length;
+		ByteBuffer shiftBuf = ByteBuffer.allocate((int) Math.min(SHIFT_BUFFER_SIZE, Math.max(tailLength, 1L)));
+		if (shift > 0L) {
+			// move tail backwards starting at its end
+			long remaining = tailLength;
+			while (remaining > 0L) {
+				int chunk = (int) Math.min(shiftBuf.capacity(), remaining);
+				remaining -= chunk;
+				this.move(fc, shiftBuf, tailStart + remaining, chunk, shift);
+			}
+		} else if (shift < 0L) {
+			// move tail forwards starting at its beginning
+			long moved = 0L;
+			while (moved < tailLength) {
+				int chunk = (int) Math.min(shiftBuf.capacity(), tailLength - moved);
+				this.move(fc, shiftBuf, tailStart + moved, chunk, shift);
+				moved += chunk;
+			}
+			fc.truncate(tailStart + tailLength + shift);
+		}
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		while (buf.hasRemaining()) {
+			fc.write(buf, position + buf.position());
+		}
+	}
+
+	/**
+	 * Moves the specified chunk of bytes by the specified distance.
+	 * @param fc the channel of the *.upk file
+	 * @param buf the buffer to use, at least <code>length</code> bytes large
+	 * @param position the file position of the chunk
+	 * @param length the length of the chunk
+	 * @param shift the distance to move the chunk by
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void move(FileChannel fc, ByteBuffer buf, long position, int length, long shift) throws IOException {
+		buf.clear().limit(length);
+		while (buf.hasRemaining()) {
+			if (fc.read(buf, position + buf.position()) < 0) {
+				throw new IOException("Unexpected end of file at " + (position + buf.position()));
+			}
+		}
+		buf.flip();
+		while (buf.hasRemaining()) {
+			fc.write(buf, position + shift + buf.position());
+		}
+	}
+
+	/**
+	 * Reads all transactions from the journal file up to the first
+	 * incomplete or corrupt record and remembers where that record starts.
+	 * Only the record headers are kept, journaled bytes are skipped.
+	 * @return the transactions in the order they were started
+	 * @throws IOException if an I/O error occurs
+	 */
+	private List<Transaction> readTransactions() throws IOException {
+		List<Transaction> transactions = new ArrayList<>();
+		this.validLength = 0L;
+		if (!Files.exists(this.journalPath)) {
+			return transactions;
+		}
+		long fileLength = Files.size(this.journalPath);
+		if (fileLength < HEADER_SIZE) {
+			// header torn by crash
+			return transactions;
+		}
+		Map<Long, Transaction> txMap = new HashMap<>();
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.journalPath)))) {
+			if ((dis.readInt() != MAGIC) || (dis.readInt() != VERSION)) {
+				throw new IOException("Invalid journal file " + this.journalPath);
+			}
+			long position = HEADER_SIZE;
+			while (true) {
+				Record record = this.readRecord(dis, position, fileLength - position);
+				if (record == null) {
+					break;
+				}
+				position += record.frameLength;
+				Transaction tx = txMap.get(record.txId);
+				if (record.type == RecordType.BEGIN) {
+					tx = new Transaction(record.txId, record.description);
+					txMap.put(record.txId, tx);
+					transactions.add(tx);
+				}
+				if (tx != null) {
+					tx.frames.add(record);
+					switch (record.type) {
+						case BEGIN:
+							break;
+						case COMMIT:
+							tx.committed = true;
+							break;
+						case ROLLBACK:
+							tx.rolledBack = true;
+							break;
+						default:
+							tx.records.add(record);
+							break;
+					}
+				}
+			}
+			this.validLength = position;
+		}
+		return transactions;
+	}
+
+	/**
+	 * Reads the header of the next record and verifies its checksum,
+	 * skipping the journaled bytes.
+	 * @param dis the stream to read from
+	 * @param position the journal file position of the record
+	 * @param remaining the number of bytes left in the journal file
+	 * @return the record or <code>null</code> if the journal ends or the
+	 *  record is incomplete or corrupt
+	 * @throws IOException if an I/O error occurs
+	 */
+	private Record readRecord(DataInputStream dis, long position, long remaining) throws IOException {
+		if (remaining == 0L) {
+			return null;
+		}
+		if (remaining >= FRAME_SIZE) {
+			int length = dis.readInt();
+			if ((length >= 0) && (length <= remaining - FRAME_SIZE)) {
+				PayloadInputStream payload = new PayloadInputStream(dis, position + 4L, length);
+				Record record;
+				try {
+					record = Record.read(payload, this);
+					payload.skipBytes(payload.getRemaining());
+				} catch (IOException ex) {
+					// malformed payload, cannot be told apart from a corrupt one
+					record = null;
+				}
+				if ((record != null) && (dis.readInt() == payload.getChecksum())) {
+					record.frameStart = position;
+					record.frameLength = FRAME_SIZE + length;
+					return record;
+				}
+			}
+		}
+		logger.log(Level.WARNING, "Ignoring incomplete or corrupt record at " + position + " of " + this.journalPath);
+		return null;
+	}
+
+	/**
+	 * Reads journaled bytes from the journal file.
+	 * @param record the record the bytes belong to
+	 * @param offset the journal file position of the bytes
+	 * @param length the number of bytes
+	 * @return the journaled bytes
+	 * @throws IOException if an I/O error occurs or the journal has been
+	 *  checkpointed since the record was read
+	 */
+	private synchronized byte[] readBytes(Record record, long offset, int length) throws IOException {
+		if (record.generation != this.generation) {
+			throw new IOException("Journal " + this.journalPath + " has been checkpointed since the record was read");
+		}
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		try (FileChannel fc = FileChannel.open(this.journalPath, StandardOpenOption.READ)) {
+			while (buf.hasRemaining()) {
+				if (fc.read(buf, offset + buf.position()) < 0) {
+					throw new IOException("Unexpected end of journal file " + this.journalPath);
+				}
+			}
+		}
+		return buf.array();
+	}
+
+	/**
+	 * Computes the checksum of the specified record payload.
+	 * @param payload the record payload
+	 * @return the CRC-32 checksum
+	 */
+	private static int checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Adds the specified record to the records not written to the journal
+	 * file yet.
+	 * @param record the record to add
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void appendRecord(Record record) throws IOException {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream payloadDos = new DataOutputStream(payload);
+		record.write(payloadDos);
+		payloadDos.flush();
+		byte[] bytes = payload.toByteArray();
+
+		DataOutputStream dos = new DataOutputStream(this.pending);
+		dos.writeInt(bytes.length);
+		dos.write(bytes);
+		dos.writeInt(checksum(bytes));
+		dos.flush();
+	}
+
+	/**
+	 * A journaled transaction.
+	 */
+	public static class Transaction {
+
+		/**
+		 * The transaction ID.
+		 */
+		private long id;
+
+		/**
+		 * The description of the modification.
+		 */
+		private String description;
+
+		/**
+		 * The undo records in the order they were recorded.
+		 */
+		private List<Record> records = new ArrayList<>();
+
+		/**
+		 * All records of the transaction read from the journal file,
+		 * including the <code>BEGIN</code> and <code>COMMIT</code> records.
+		 */
+		private List<Record> frames = new ArrayList<>();
+
+		/**
+		 * Flag denoting whether the transaction has been committed.
+		 */
+		private boolean committed;
+
+		/**
+		 * Flag denoting whether the transaction has been rolled back.
+		 */
+		private boolean rolledBack;
+
+		/**
+		 * Constructs a transaction.
+		 * @param id the transaction ID
+		 * @param description the description of the modification
+		 */
+		private Transaction(long id, String description) {
+			this.id = id;
+			this.description = description;
+		}
+
+		/**
+		 * Returns the transaction ID.
+		 * @return the ID
+		 */
+		public long getId() {
+			return this.id;
+		}
+
+		/**
+		 * Returns the description of the modification.
+		 * @return the description
+		 */
+		public String getDescription() {
+			return this.description;
+		}
+
+		/**
+		 * Returns the undo records of the transaction.
+		 * @return the records in the order they were recorded
+		 */
+		public List<Record> getRecords() {
+			return Collections.unmodifiableList(this.records);
+		}
+
+	}
+
+	/**
+	 * A single journal record.
+	 */
+	public static class Record {
+
+		/**
+		 * The record type.
+		 */
+		private RecordType type;
+
+		/**
+		 * The ID of the transaction the record belongs to.
+		 */
+		private long txId;
+
+		/**
+		 * The transaction description of <code>BEGIN</code> records.
+		 */
+		private String description;
+
+		/**
+		 * The absolute file position of <code>WRITE</code> and <code>SPLICE</code>
+		 * records, the old file length of <code>APPEND</code> records.
+		 */
+		private long position;
+
+		/**
+		 * The new file length of <code>APPEND</code> records.
+		 */
+		private long length;
+
+		/**
+		 * The overwritten bytes of <code>WRITE</code> and <code>SPLICE</code>
+		 * records, <code>null</code> if read from the journal file.
+		 */
+		private byte[] oldBytes;
+
+		/**
+		 * The written bytes of <code>WRITE</code> and <code>SPLICE</code>
+		 * records, <code>null</code> if read from the journal file.
+		 */
+		private byte[] newBytes;
+
+		/**
+		 * The number of overwritten bytes.
+		 */
+		private int oldLength;
+
+		/**
+		 * The number of written bytes.
+		 */
+		private int newLength;
+
+		/**
+		 * The journal file position of the overwritten bytes.
+		 */
+		private long oldOffset;
+
+		/**
+		 * The journal file position of the written bytes.
+		 */
+		private long newOffset;
+
+		/**
+		 * The journal file position of the record frame.
+		 */
+		private long frameStart;
+
+		/**
+		 * The length of the record frame.
+		 */
+		private int frameLength;
+
+		/**
+		 * The journal the record has been read from, <code>null</code> if it
+		 * has been recorded by this process.
+		 */
+		private UpkJournal journal;
+
+		/**
+		 * The journal generation the record has been read in.
+		 */
+		private int generation;
+
+		/**
+		 * Constructs a record.
+		 * @param type the record type
+		 * @param txId the ID of the transaction the record belongs to
+		 * @param description the transaction description, may be <code>null</code>
+		 */
+		private Record(RecordType type, long txId, String description) {
+			this.type = type;
+			this.txId = txId;
+			this.description = description;
+		}
+
+		/**
+		 * Returns the record type.
+		 * @return the record type
+		 */
+		public RecordType getType() {
+			return this.type;
+		}
+
+		/**
+		 * Returns the absolute file position of <code>WRITE</code> records or
+		 * the old file length of <code>APPEND</code> records.
+		 * @return the position
+		 */
+		public long getPosition() {
+			return this.position;
+		}
+
+		/**
+		 * Returns the new file length of <code>APPEND</code> records.
+		 * @return the new file length
+		 */
+		public long getLength() {
+			return this.length;
+		}
+
+		/**
+		 * Returns the overwritten bytes of <code>WRITE</code> records, reading
+		 * them from the journal file if necessary.
+		 * The returned array must not be modified.
+		 * @return the old bytes
+		 * @throws IOException if an I/O error occurs
+		 */
+		public byte[] getOldBytes() throws IOException {
+			if ((this.oldBytes == null) && (this.journal != null)) {
+				return this.journal.readBytes(this, this.oldOffset, this.oldLength);
+			}
+			return this.oldBytes;
+		}
+
+		/**
+		 * Returns the written bytes of <code>WRITE</code> records, reading
+		 * them from the journal file if necessary.
+		 * The returned array must not be modified.
+		 * @return the new bytes
+		 * @throws IOException if an I/O error occurs
+		 */
+		public byte[] getNewBytes() throws IOException {
+			if ((this.newBytes == null) && (this.journal != null)) {
+				return this.journal.readBytes(this, this.newOffset, this.newLength);
+			}
+			return this.newBytes;
+		}
+
+		/**
+		 * Sets the overwritten and written bytes of a recorded modification.
+		 * @param oldBytes the old bytes
+		 * @param newBytes the new bytes
+		 */
+		private void setBytes(byte[] oldBytes, byte[] newBytes) {
+			this.oldBytes = oldBytes;
+			this.newBytes = newBytes;
+			this.oldLength = oldBytes.length;
+			this.newLength = newBytes.length;
+		}
+
+		/**
+		 * Writes the record to the specified stream.
+		 * @param dos the stream to write to
+		 * @throws IOException if an I/O error occurs
+		 */
+		private void write(DataOutputStream dos) throws IOException {
+			dos.writeByte(this.type.ordinal());
+			dos.writeLong(this.txId);
+			switch (this.type) {
+				case BEGIN:
+					dos.writeUTF(this.description);
+					break;
+				case WRITE:
+				case SPLICE:
+					dos.writeLong(this.position);
+					dos.writeInt(this.oldBytes.length);
+					dos.write(this.oldBytes);
+					dos.writeInt(this.newBytes.length);
+					dos.write(this.newBytes);
+					break;
+				case APPEND:
+					dos.writeLong(this.position);
+					dos.writeLong(this.length);
+					break;
+				default:
+					break;
+			}
+		}
+
+		/**
+		 * Reads a record from the specified payload stream, remembering the
+		 * journal file positions of journaled bytes instead of reading them.
+		 * @param payload the payload stream to read from
+		 * @param journal the journal being read
+		 * @return the record
+		 * @throws IOException if an I/O error occurs or the record is malformed
+		 */
+		private static Record read(PayloadInputStream payload, UpkJournal journal) throws IOException {
+			DataInputStream dis = new DataInputStream(payload);
+			int ordinal = dis.readUnsignedByte();
+			if (ordinal >= RecordType.values().length) {
+				throw new IOException("Invalid journal record type " + ordinal);
+			}
+			Record record = new Record(RecordType.values()[ordinal], dis.readLong(), null);
+			record.journal = journal;
+			record.generation = journal.generation;
+			switch (record.type) {
+				case BEGIN:
+					record.description = dis.readUTF();
+					break;
+				case WRITE:
+				case SPLICE:
+					record.position = dis.readLong();
+					record.oldLength = dis.readInt();
+					record.oldOffset = payload.getPosition();
+					payload.skipBytes(record.oldLength);
+					record.newLength = dis.readInt();
+					record.newOffset = payload.getPosition();
+					payload.skipBytes(record.newLength);
+					break;
+				case APPEND:
+					record.position = dis.readLong();
+					record.length = dis.readLong();
+					break;
+				default:
+					break;
+			}
+			return record;
+		}
+
+	}
+
+	/**
+	 * Stream reading the payload of a single record from the journal file
+	 * while computing its checksum.
+	 */
+	private static class PayloadInputStream extends FilterInputStream {
+
+		/**
+		 * The checksum of the bytes read so far.
+		 */
+		private CRC32 crc = new CRC32();
+
+		/**
+		 * The journal file position of the next byte.
+		 */
+		private long position;
+
+		/**
+		 * The number of payload bytes left.
+		 */
+		private int remaining;
+
+		/**
+		 * Constructs a payload stream.
+		 * @param in the journal file stream positioned at the payload
+		 * @param position the journal file position of the payload
+		 * @param length the payload length
+		 */
+		private PayloadInputStream(InputStream in, long position, int length) {
+			super(in);
+			this.position = position;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (this.remaining == 0) {
+				return -1;
+			}
+			int b = this.in.read();
+			if (b >= 0) {
+				this.crc.update(b);
+				this.position++;
+				this.remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (this.remaining == 0) {
+				return -1;
+			}
+			int read = this.in.read(b, off, Math.min(len, this.remaining));
+			if (read > 0) {
+				this.crc.update(b, off, read);
+				this.position += read;
+				this.remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			byte[] buf = new byte[(int) Math.min(Math.max(n, 0L), 8192L)];
+			int read = this.read(buf, 0, buf.length);
+			return Math.max(read, 0);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return Math.min(this.in.available(), this.remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// the journal file stream is closed by the caller
+		}
+
+		/**
+		 * Skips the specified number of payload bytes, including them in the checksum.
+		 * @param length the number of bytes to skip
+		 * @throws IOException if an I/O error occurs or the length is invalid
+		 */
+		private void skipBytes(int length) throws IOException {
+			if ((length < 0) || (length > this.remaining)) {
+				throw new IOException("Invalid journal record length " + length);
+			}
+			while (length > 0) {
+				long skipped = this.skip(length);
+				if (skipped <= 0L) {
+					throw new EOFException();
+				}
+				length -= skipped;
+			}
+		}
+
+		/**
+		 * Returns the journal file position of the next byte.
+		 * @return the position
+		 */
+		private long getPosition() {
+			return this.position;
+		}
+
+		/**
+		 * Returns the number of payload bytes left.
+		 * @return the remaining length
+		 */
+		private int getRemaining() {
+			return this.remaining;
+		}
+
+		/**
+		 * Returns the checksum of the bytes read so far.
+		 * @return the CRC-32 checksum
+		 */
+		private int getChecksum() {
+			return (int) this.crc.getValue();
+		}
+
+	}
+
+}
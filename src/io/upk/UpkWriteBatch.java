@@ -0,0 +1,159 @@
+package io.upk;
+
+import io.upk.UpkJournal.Transaction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Collection of in-place byte edits to one or more *.upk files.<br>
+ * Edits are only recorded when added. On flushing them the edits of each
+ * file are sorted by their file position and written through a single
+ * channel, so that applying many blocks, e.g. during a bulk operation, does
+ * not open and close the file once per block. The edits of each file form
+ * a single transaction of the file's {@link UpkJournal}.
+ *
+ * @author XMS
+ */
+public class UpkWriteBatch {
+
+	/**
+	 * Comparator sorting edits by ascending file position.
+	 */
+	private static final Comparator<Edit> POSITION_ORDER = new Comparator<Edit>() {
+		@Override
+		public int compare(Edit e1, Edit e2) {
+			return Long.compare(e1.position, e2.position);
+		}
+	};
+
+	/**
+	 * The pending edits mapped to the paths of the files they belong to.
+	 */
+	private Map<Path, List<Edit>> edits = new LinkedHashMap<>();
+
+	/**
+	 * Adds an edit overwriting the bytes at the specified position of the
+	 * specified file.
+	 * @param upkPath the *.upk file path
+	 * @param position the absolute file position to write to
+	 * @param bytes the bytes to write
+	 */
+	public void add(Path upkPath, long position, byte[] bytes) {
+		List<Edit> fileEdits = this.edits.get(upkPath);
+		if (fileEdits == null) {
+			fileEdits = new ArrayList<>();
+			this.edits.put(upkPath, fileEdits);
+		}
+		fileEdits.add(new Edit(position, bytes));
+	}
+
+	/**
+	 * Returns the number of pending edits.
+	 * @return the edit count
+	 */
+	public int size() {
+		int size = 0;
+		for (List<Edit> fileEdits : this.edits.values()) {
+			size += fileEdits.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns whether there are no pending edits.
+	 * @return <code>true</code> if the batch is empty
+	 */
+	public boolean isEmpty() {
+		return this.edits.isEmpty();
+	}
+
+	/**
+	 * Writes all pending edits and clears the batch. The edits of each file
+	 * are journaled and written in ascending position order, edits at the
+	 * same position in the order they were added. Written bytes are forced
+	 * to the storage device before the transaction is committed.
+	 * @throws IOException if an I/O error occurs, the edits of the failed
+	 *  file are rolled back, edits of files not written yet remain pending
+	 */
+	public void flush() throws IOException {
+		for (Iterator<Entry<Path, List<Edit>>> iter = this.edits.entrySet().iterator(); iter.hasNext();) {
+			Entry<Path, List<Edit>> entry = iter.next();
+			List<Edit> fileEdits = entry.getValue();
+			Collections.sort(fileEdits, POSITION_ORDER);
+			UpkJournal journal = UpkJournal.get(entry.getKey());
+			Transaction tx = journal.begin("Write " + fileEdits.size() + " blocks");
+			try (FileChannel channel = FileChannel.open(entry.getKey(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				// journal overwritten bytes first
+				for (Edit edit : fileEdits) {
+					ByteBuffer oldBuf = ByteBuffer.allocate(edit.bytes.length);
+					while (oldBuf.hasRemaining()) {
+						if (channel.read(oldBuf, edit.position + oldBuf.position()) < 0) {
+							throw new IOException("Unexpected end of file at " + (edit.position + oldBuf.position()));
+						}
+					}
+					journal.recordWrite(tx, edit.position, oldBuf.array(), edit.bytes);
+				}
+				journal.flush();
+
+				for (Edit edit : fileEdits) {
+					ByteBuffer buf = ByteBuffer.wrap(edit.bytes);
+					long position = edit.position;
+					while (buf.hasRemaining()) {
+						position += channel.write(buf, position);
+					}
+				}
+				// the commit record must not reach the device before the data
+				channel.force(false);
+			} catch (IOException ex) {
+				try {
+					journal.rollback(tx);
+				} catch (IOException ex2) {
+					ex.addSuppressed(ex2);
+				}
+				throw ex;
+			}
+			journal.commit(tx);
+			iter.remove();
+		}
+	}
+
+	/**
+	 * A single pending edit.
+	 */
+	private static class Edit {
+
+		/**
+		 * The absolute file position to write to.
+		 */
+		private long position;
+
+		/**
+		 * The bytes to write.
+		 */
+		private byte[] bytes;
+
+		/**
+		 * Constructs an edit.
+		 * @param position the absolute file position to write to
+		 * @param bytes the bytes to write
+		 */
+		public Edit(long position, byte[] bytes) {
+			this.position = position;
+			this.bytes = bytes;
+		}
+
+	}
+
+}
@@ -1,6 +1,14 @@
 package model.modtree;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
 import model.modtree.ModContext.ModContextType;
+import parser.unrealhex.BytecodeDecoder;
+import parser.unrealhex.BytecodeDecoder.DecodeException;
+import parser.unrealhex.Operand;
+import parser.unrealhex.Operand.OperandToken.OperandTokenType;
 import parser.unrealhex.OperandTable;
 
 /**
@@ -53,114 +61,40 @@ public class ModOperandNode extends ModTreeNode {
 
     /**
      * Parses a passed string into ModTokens.
-     * TODO -- optimize this code
+     * The string is converted to byte code once and decoded by a
+     * {@link BytecodeDecoder}, the decoding events are turned into the
+     * branches of this node.
      * @param s
      * @return - the unparsed string remnant
 	 * @throws java.lang.Exception for error in Unreal parsing
      */
-	//public String parseUnrealHex(String s) {
-	//	return this.parseUnrealHex(s, 0);
-	//}
-	
 	@Override
 	public String parseUnrealHex(String s, int num) throws Exception {
-		boolean isOperand = true;
-		int lastEnd = this.getStartOffset();
-		String currOperand = s.split("\\s")[0];
-		if (currOperand.isEmpty()) {
+		if (s.isEmpty()) {
 			throw new Exception("No operand to parse.");
 		}
-		this.operand = currOperand;
-
-		String sOpCodes = OperandTable.getOperandString(currOperand);
-//		if (!operand.equalsIgnoreCase(sOpCodes.split("\\s", 2)[0])) {
-//			System.out.println("/* opcode mismatch */");
-//			return "ERROR";
-//		}
-//		s = s.split("\\s", 2)[1];
-		String[] sParseItems = sOpCodes.split("\\s", 2)[1].split("\\s");
-		for (String sParseItem : sParseItems) {
-			sParseItem = sParseItem.toUpperCase();
-			if (sParseItem.matches("[0-9]")) {
-				ModGenericLeaf n;
-				if (isOperand) {
-					n = new ModGenericLeaf(this, true);
-					isOperand = false;
-				} else {
-					n = new ModGenericLeaf(this);
-				}
-				n.setRange(lastEnd, lastEnd);
-				addNode(n);
-				s = n.parseUnrealHex(s, Integer.parseInt(sParseItem));
-				lastEnd = n.getEndOffset();
-			} else if (sParseItem.equals("G")) {
-				ModOperandNode n = new ModOperandNode(this);
-				n.setRange(lastEnd, lastEnd);
-				addNode(n);
-				s = n.parseUnrealHex(s, 0);
-				lastEnd = n.getEndOffset();
-			} else if (sParseItem.equals("P")) {
-				while (!s.split("\\s")[0].equals("16")) {
-					ModOperandNode n = new ModOperandNode(this);
-					n.setRange(lastEnd, lastEnd);
-					addNode(n);
-					s = n.parseUnrealHex(s, 0);
-					lastEnd = n.getEndOffset();
-				}
-			} else if (sParseItem.equals("R")) {
-				ModReferenceLeaf n = new ModReferenceLeaf(this, false);
-				n.setRange(lastEnd, lastEnd);
-				addNode(n);
-				s = n.parseUnrealHex(s, 0);
-				lastEnd = n.getEndOffset();
-			} else if (sParseItem.equals("NR")) {
-				ModReferenceLeaf n = new ModReferenceLeaf(this, true);
-				n.setRange(lastEnd, lastEnd);
-				addNode(n);
-				s = n.parseUnrealHex(s, 0);
-				lastEnd = n.getEndOffset();
-			} else if (sParseItem.equals("N")) {
-				ModStringLeaf n = new ModStringLeaf(this);
-				n.setRange(lastEnd, lastEnd);
-				addNode(n);
-				s = n.parseUnrealHex(s, 0);
-				lastEnd = n.getEndOffset();
-			} else if (sParseItem.startsWith("S")) {
-				ModOffsetLeaf n = new ModOffsetLeaf(this, sParseItem);
-				n.setRange(lastEnd, lastEnd);
-				addNode(n);
-				s = n.parseUnrealHex(s);
-				lastEnd = n.getEndOffset();
-			} else if (sParseItem.equals("J")) {
-				ModOffsetLeaf n = new ModOffsetLeaf(this);
-				n.setRange(lastEnd, lastEnd);
-				addNode(n);
-				s = n.parseUnrealHex(s);
-				lastEnd = n.getEndOffset();
-			} else if (sParseItem.equals("C")) {
-				if (s.split("\\s")[0].equalsIgnoreCase("FF") && s.split("\\s")[1].equalsIgnoreCase("FF")) {
-					ModGenericLeaf n = new ModGenericLeaf(this);
-					n.setRange(lastEnd, lastEnd);
-					addNode(n);
-					s = n.parseUnrealHex(s, 2);
-					lastEnd = n.getEndOffset();
-				} else {
-					ModOffsetLeaf n1 = new ModOffsetLeaf(this);
-					n1.setRange(lastEnd, lastEnd);
-					addNode(n1);
-					s = n1.parseUnrealHex(s);
-					lastEnd = n1.getEndOffset();
-
-					ModOperandNode n2 = new ModOperandNode(this);
-					n2.setRange(lastEnd, lastEnd);
-					addNode(n2);
-					s = n2.parseUnrealHex(s, 0);
-					lastEnd = n2.getEndOffset();
-				}
-			}
+		HexTokens tokens = new HexTokens(s);
+		BytecodeDecoder decoder = new BytecodeDecoder(tokens.bytes);
+		try {
+			decoder.decodeObject(new TreeBuilder(this, tokens));
+		} catch (DecodeException e) {
+			throw new Exception(e.getMessage(), e);
 		}
-		this.setRange(this.getStartOffset(), lastEnd);
-		return s;
+		return s.substring(tokens.getCharOffset(decoder.getPosition()));
+	}
+
+	/**
+	 * Returns the position of the next whitespace character.
+	 * @param s the string to search
+	 * @param from the position to start searching at
+	 * @return the position of the next whitespace or the string length if there is none
+	 */
+	private static int nextWhitespace(String s, int from) {
+		int pos = from;
+		while ((pos < s.length()) && !Character.isWhitespace(s.charAt(pos))) {
+			pos++;
+		}
+		return pos;
 	}
 
 	@Override
@@ -173,4 +107,232 @@ public class ModOperandNode extends ModTreeNode {
 		// return nothing
 		return "";
 	}
+
+	/**
+	 * Whitespace-separated hex text converted to byte code. Name tags stand
+	 * for 4 bytes of a reference and are converted to placeholder bytes.
+	 */
+	private static final class HexTokens {
+
+		/**
+		 * The byte value used for the bytes of name tags.
+		 */
+		private static final byte NAME_PLACEHOLDER = (byte) 0xFF;
+
+		/**
+		 * The hex text.
+		 */
+		private final String text;
+
+		/**
+		 * The byte code.
+		 */
+		private final byte[] bytes;
+
+		/**
+		 * The text offsets of the tokens containing each byte.
+		 */
+		private final int[] starts;
+
+		/**
+		 * Flags denoting the bytes of name tags.
+		 */
+		private final boolean[] names;
+
+		/**
+		 * Converts the specified hex text.
+		 * @param text the hex text
+		 * @throws Exception if the text contains malformed tokens
+		 */
+		HexTokens(String text) throws Exception {
+			this.text = text;
+			// no token yields more bytes than it has characters
+			byte[] bytes = new byte[text.length()];
+			int[] starts = new int[text.length()];
+			boolean[] names = new boolean[text.length()];
+			int count = 0;
+			int pos = 0;
+			while (pos < text.length()) {
+				if (Character.isWhitespace(text.charAt(pos))) {
+					pos++;
+					continue;
+				}
+				int end = nextWhitespace(text, pos);
+				if (text.startsWith("{|", pos) || text.startsWith("<|", pos)) {
+					for (int i = 0; i < 4; i++) {
+						bytes[count] = NAME_PLACEHOLDER;
+						starts[count] = pos;
+						names[count] = true;
+						count++;
+					}
+				} else {
+					int hi = Character.digit(text.charAt(pos), 16);
+					int lo = (end - pos == 2) ? Character.digit(text.charAt(pos + 1), 16) : -1;
+					if (hi < 0 || lo < 0) {
+						throw new Exception("Malformed hex token " + text.substring(pos, end) + ".");
+					}
+					bytes[count] = (byte) ((hi << 4) | lo);
+					starts[count] = pos;
+					count++;
+				}
+				pos = end;
+			}
+			this.bytes = Arrays.copyOf(bytes, count);
+			this.starts = starts;
+			this.names = names;
+		}
+
+		/**
+		 * Returns the text offset of the token starting at the specified byte.
+		 * @param offset the byte offset
+		 * @return the text offset or the text length if the offset is the end
+		 *  of the byte code
+		 * @throws DecodeException if the offset is not the first byte of a token
+		 */
+		int getCharOffset(int offset) throws DecodeException {
+			if (offset >= bytes.length) {
+				return text.length();
+			}
+			if (offset > 0 && starts[offset] == starts[offset - 1]) {
+				throw new DecodeException("Misplaced name reference.", offset);
+			}
+			return starts[offset];
+		}
+
+		/**
+		 * Returns the text of the specified byte range including trailing whitespace.
+		 * @param offset the byte offset
+		 * @param length the number of bytes
+		 * @param reference flag denoting whether the range is a reference,
+		 *  which may be represented by a name tag
+		 * @return the text, or the remaining text if a reference is represented
+		 *  by a name tag
+		 * @throws DecodeException if the range does not cover whole tokens or
+		 *  contains name tags outside of a reference
+		 */
+		String getText(int offset, int length, boolean reference) throws DecodeException {
+			int start = getCharOffset(offset);
+			int end = getCharOffset(offset + length);
+			if (names[offset] && reference) {
+				// name tags are parsed from the remaining text
+				return text.substring(start);
+			}
+			for (int i = offset; i < offset + length; i++) {
+				if (names[i]) {
+					throw new DecodeException("Misplaced name reference.", i);
+				}
+			}
+			return text.substring(start, end);
+		}
+	}
+
+	/**
+	 * Decoding listener building the branches of a node.
+	 */
+	private static final class TreeBuilder implements BytecodeDecoder.Listener {
+
+		/**
+		 * The hex text being decoded.
+		 */
+		private final HexTokens tokens;
+
+		/**
+		 * The operand nodes containing the current position, innermost first.
+		 */
+		private final Deque<ModOperandNode> nodes = new ArrayDeque<>();
+
+		/**
+		 * The node of the outermost operand.
+		 */
+		private final ModOperandNode root;
+
+		/**
+		 * The byte offset of the most recent operand.
+		 */
+		private int operandOffset = -1;
+
+		/**
+		 * The document offset following the most recent branch.
+		 */
+		private int lastEnd;
+
+		/**
+		 * Constructs a builder for the specified node.
+		 * @param root the node of the outermost operand
+		 * @param tokens the hex text being decoded
+		 */
+		TreeBuilder(ModOperandNode root, HexTokens tokens) {
+			this.root = root;
+			this.tokens = tokens;
+			this.lastEnd = root.getStartOffset();
+		}
+
+		@Override
+		public void startOperand(int offset, Operand operand) throws DecodeException {
+			ModOperandNode node;
+			if (nodes.isEmpty()) {
+				node = root;
+			} else {
+				node = new ModOperandNode(nodes.peek());
+				node.setRange(lastEnd, lastEnd);
+				nodes.peek().addNode(node);
+			}
+			String opcode = tokens.getText(offset, 1, false);
+			node.operand = opcode.trim();
+			operandOffset = offset;
+			nodes.push(node);
+		}
+
+		@Override
+		public void token(int offset, int length, OperandTokenType type) throws DecodeException {
+			ModOperandNode parent = nodes.peek();
+			boolean reference = (type == OperandTokenType.REFERENCE) || (type == OperandTokenType.NAME_REFERENCE);
+			String text = tokens.getText(offset, length, reference);
+			try {
+				ModTreeLeaf n;
+				switch (type) {
+					case ABSOLUTE_SKIP:
+						n = new ModGenericLeaf(parent, offset == operandOffset);
+						break;
+					case REFERENCE:
+					case NAME_REFERENCE:
+						n = new ModReferenceLeaf(parent, type == OperandTokenType.NAME_REFERENCE);
+						length = 0;
+						break;
+					case INDETERMINATE_00:
+						n = new ModStringLeaf(parent);
+						length = 0;
+						break;
+					case CONTEXT_SKIP:
+					case OBJECT_SKIP:
+					case PARAMETER_SKIP:
+						n = new ModOffsetLeaf(parent, type.getSymbol());
+						break;
+					case CASE:
+						if (tokens.bytes[offset] == (byte) 0xFF && tokens.bytes[offset + 1] == (byte) 0xFF) {
+							// default case
+							n = new ModGenericLeaf(parent);
+						} else {
+							n = new ModOffsetLeaf(parent);
+						}
+						break;
+					default:
+						// JUMP
+						n = new ModOffsetLeaf(parent);
+				}
+				n.setRange(lastEnd, lastEnd);
+				parent.addNode(n);
+				n.parseUnrealHex(text, length);
+				lastEnd = n.getEndOffset();
+			} catch (Exception e) {
+				throw new DecodeException(e.getMessage(), offset, e);
+			}
+		}
+
+		@Override
+		public void endOperand(int offset, Operand operand, int memorySize) throws DecodeException {
+			ModOperandNode node = nodes.pop();
+			node.setRange(node.getStartOffset(), lastEnd);
+		}
+	}
 }
@@ -1,7 +1,10 @@
 package model.modtree;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -10,7 +13,9 @@ import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
 
+import model.modtree.ModContext.ModContextType;
 import model.upk.UpkFile;
+import model.upk.UpkHeader;
 
 /**
  *
@@ -95,6 +100,16 @@ public class ModTree implements TreeModel {
 	 */
 	private UpkFile targetUpk = null;
 	
+	/**
+	 * The cached consolidated hex blocks per context.
+	 */
+	private Map<ModContextType, List<byte[]>> hexBlocks = new EnumMap<>(ModContextType.class);
+	
+	/**
+	 * The target upk header the cached hex blocks were consolidated against.
+	 */
+	private UpkHeader hexBlocksHeader = null;
+	
 //	/**
 //	 * Flag indicating whether the tree is listening to document updates
 //	 */
@@ -196,6 +211,7 @@ public class ModTree implements TreeModel {
 	 */
 	public void setTargetUpk(UpkFile upk) {
 		this.targetUpk = upk;
+		this.clearHexBlocks();
 	}
 	
 	/**
@@ -522,6 +538,7 @@ public class ModTree implements TreeModel {
 	 */
 	public void setRoot(ModTreeRootNode root) {
 		this.currRootNode = root;
+		this.clearHexBlocks();
 		this.fireTreeStructureChanged();
 	}
 
@@ -650,6 +667,52 @@ public class ModTree implements TreeModel {
 	}
 
 	
+	/**
+	 * Returns the cached hex blocks of the specified context.
+	 * @param context the context the blocks were consolidated for
+	 * @return the cached blocks or <code>null</code> if there are none for
+	 *  the current tree structure and target upk
+	 */
+	public synchronized List<byte[]> getHexBlocks(ModContextType context) {
+		UpkHeader header = (this.targetUpk != null) ? this.targetUpk.getHeader() : null;
+		if (header != this.hexBlocksHeader) {
+			// target upk was reloaded since
+			this.clearHexBlocks();
+			return null;
+		}
+		return this.hexBlocks.get(context);
+	}
+	
+	/**
+	 * Caches the specified hex blocks consolidated against the specified upk.
+	 * Blocks consolidated against any upk other than the current target upk are ignored.
+	 * @param context the context the blocks were consolidated for
+	 * @param upk the upk used for resolving references
+	 * @param blocks the consolidated blocks
+	 * @return an unmodifiable view of the blocks
+	 */
+	public synchronized List<byte[]> putHexBlocks(ModContextType context, UpkFile upk, List<byte[]> blocks) {
+		List<byte[]> unmodifiable = Collections.unmodifiableList(blocks);
+		if (upk == this.targetUpk) {
+			UpkHeader header = (upk != null) ? upk.getHeader() : null;
+			if (header != this.hexBlocksHeader) {
+				this.clearHexBlocks();
+				this.hexBlocksHeader = header;
+			}
+			this.hexBlocks.put(context, unmodifiable);
+		}
+		return unmodifiable;
+	}
+	
+	/**
+	 * Discards all cached hex blocks. Called whenever the tree structure,
+	 * the text of any of its leaves or the target upk changes.
+	 */
+	synchronized void clearHexBlocks() {
+		this.hexBlocks.clear();
+		this.hexBlocksHeader = (this.targetUpk != null) ? this.targetUpk.getHeader() : null;
+	}
+	
 	/**
 	 * Returns the action for this modfile.
 	 * @return the function name
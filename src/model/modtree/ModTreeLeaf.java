@@ -122,6 +122,11 @@ public class ModTreeLeaf extends ModTreeNode {
 	public void setText(String text) {
 		this.getLineParent().setPlainText(true);
 		this.text = text;
+		ModTree tree = this.getTree();
+		if (tree != null) {
+			// consolidated hex of the tree is outdated
+			tree.clearHexBlocks();
+		}
 	}
 
 	@Override
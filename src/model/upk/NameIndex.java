@@ -0,0 +1,172 @@
+package model.upk;
+
+import java.util.List;
+
+/**
+ * Open-addressing hash index mapping names to their (first) list index.
+ *
+ * @author XMS
+ */
+class NameIndex {
+
+	/**
+	 * The value marking a removed mapping.
+	 */
+	private static final int REMOVED = -1;
+
+	/**
+	 * The hashed names.
+	 */
+	private String[] keys;
+
+	/**
+	 * The list indices of the hashed names.
+	 */
+	private int[] values;
+
+	/**
+	 * The flags marking names which occur multiple times inside the list.
+	 */
+	private boolean[] duplicates;
+
+	/**
+	 * The bit mask used for mapping hash codes to slots.
+	 */
+	private int mask;
+
+	/**
+	 * The number of slots holding a key, including removed mappings.
+	 */
+	private int occupied;
+
+	/**
+	 * Constructs a hash index of the specified names.
+	 * @param names the names to index
+	 */
+	public NameIndex(List<String> names) {
+		int size = names.size();
+		// keep load factor at or below 0.5
+		this.allocate(Integer.highestOneBit(Math.max(size, 1)) << 2);
+		for (int i = 0; i < size; i++) {
+			this.put(names.get(i), i);
+		}
+	}
+
+	/**
+	 * Returns the first list index of the specified name.
+	 * @param name the name to look up
+	 * @return the list index or <code>-1</code> if the name is not indexed
+	 */
+	public int get(String name) {
+		int slot = this.findSlot(name);
+		if (this.keys[slot] == null) {
+			return -1;
+		}
+		return this.values[slot];
+	}
+
+	/**
+	 * Maps the specified name to the specified list index unless it is
+	 * already mapped to a lower index.
+	 * @param name the name to add
+	 * @param index the list index of the name
+	 */
+	public void put(String name, int index) {
+		int slot = this.findSlot(name);
+		if (this.keys[slot] == null) {
+			this.keys[slot] = name;
+			this.values[slot] = index;
+			this.occupied++;
+			if (2 * this.occupied > this.keys.length) {
+				// removed mappings keep their slots, rebuild to free them
+				this.rehash();
+			}
+		} else if (this.values[slot] == REMOVED) {
+			this.values[slot] = index;
+		} else {
+			this.duplicates[slot] = true;
+			if (index < this.values[slot]) {
+				this.values[slot] = index;
+			}
+		}
+	}
+
+	/**
+	 * Removes the mapping of the specified name to the specified list index.
+	 * @param name the name to remove
+	 * @param index the list index of the name
+	 * @return <code>true</code> if the index is still valid afterwards,
+	 *  <code>false</code> if the name occurs multiple times and the index
+	 *  needs to be rebuilt
+	 */
+	public boolean remove(String name, int index) {
+		int slot = this.findSlot(name);
+		if ((this.keys[slot] == null) || (this.values[slot] != index)) {
+			return true;
+		}
+		if (this.duplicates[slot]) {
+			return false;
+		}
+		this.values[slot] = REMOVED;
+		return true;
+	}
+
+	/**
+	 * Allocates empty tables of the specified capacity.
+	 * @param capacity the number of slots, a power of two
+	 */
+	private void allocate(int capacity) {
+		this.keys = new String[capacity];
+		this.values = new int[capacity];
+		this.duplicates = new boolean[capacity];
+		this.mask = capacity - 1;
+		this.occupied = 0;
+	}
+
+	/**
+	 * Rebuilds the tables without removed mappings, growing them if more
+	 * than a quarter of the slots hold live mappings.
+	 */
+	private void rehash() {
+		String[] oldKeys = this.keys;
+		int[] oldValues = this.values;
+		boolean[] oldDuplicates = this.duplicates;
+		int live = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if ((oldKeys[i] != null) && (oldValues[i] != REMOVED)) {
+				live++;
+			}
+		}
+		int capacity = oldKeys.length;
+		while (4 * live > capacity) {
+			capacity <<= 1;
+		}
+		this.allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if ((oldKeys[i] != null) && (oldValues[i] != REMOVED)) {
+				int slot = this.findSlot(oldKeys[i]);
+				this.keys[slot] = oldKeys[i];
+				this.values[slot] = oldValues[i];
+				this.duplicates[slot] = oldDuplicates[i];
+				this.occupied++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot containing the specified name or the empty slot where
+	 * it would be inserted.
+	 * @param name the name to look up
+	 * @return the slot
+	 */
+	private int findSlot(String name) {
+		int hash = name.hashCode();
+		int slot = (hash ^ (hash >>> 16)) & this.mask;
+		String key;
+		while (((key = this.keys[slot]) != null) && !key.equals(name)) {
+			slot = (slot + 1) & this.mask;
+		}
+		return slot;
+	}
+
+}
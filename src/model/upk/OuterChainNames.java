@@ -0,0 +1,134 @@
+package model.upk;
+
+/**
+ * Resolver for <code>Name@Outer@Outer...</code> paths of header table
+ * entries.<br>
+ * Each resolved path is memoized, so the path of an entry is built from its
+ * name and the already resolved path of its outer entry instead of walking
+ * the whole outer chain again. Entries without outer share the name string
+ * of their namelist entry.
+ *
+ * @author XMS
+ */
+abstract class OuterChainNames {
+
+	/**
+	 * The memoized paths.
+	 */
+	private String[] paths;
+
+	/**
+	 * Scratch array holding the outer chain currently being resolved.
+	 */
+	private int[] chain = new int[16];
+
+	/**
+	 * Constructs a path resolver for a table of the specified size.
+	 * @param size the table size including the dummy element at index 0
+	 */
+	public OuterChainNames(int size) {
+		this.paths = new String[size];
+	}
+
+	/**
+	 * Returns the path of the entry at the specified index.
+	 * @param index the table index
+	 * @return the path
+	 */
+	public synchronized String getPath(int index) {
+		String path = this.paths[index];
+		if (path != null) {
+			return path;
+		}
+
+		// collect outer chain up to the first entry with a known path
+		int depth = 0;
+		int current = index;
+		String tail = null;
+		while (true) {
+			if (depth == this.chain.length) {
+				if (depth >= this.paths.length) {
+					// malformed cyclic chain
+					return this.walkPath(index);
+				}
+				int[] newChain = new int[depth * 2];
+				System.arraycopy(this.chain, 0, newChain, 0, depth);
+				this.chain = newChain;
+			}
+			this.chain[depth++] = current;
+			int outer = this.getOuter(current);
+			if (!this.isValidOuter(outer, current, index)) {
+				if (outer == index) {
+					// chain loops back to start entry
+					return this.walkPath(index);
+				}
+				break;
+			}
+			tail = this.paths[outer];
+			if (tail != null) {
+				break;
+			}
+			current = outer;
+		}
+
+		// build paths back to front, the outermost entry first
+		for (int i = depth - 1; i >= 0; i--) {
+			String name = this.getName(this.chain[i]);
+			if (tail == null) {
+				path = name;
+			} else {
+				path = new StringBuilder(name.length() + 1 + tail.length())
+						.append(name).append('@').append(tail).toString();
+			}
+			this.paths[this.chain[i]] = path;
+			tail = path;
+		}
+		return path;
+	}
+
+	/**
+	 * Builds the path of the entry at the specified index by walking its
+	 * outer chain step-wise without memoization.
+	 * @param index the table index
+	 * @return the path
+	 */
+	private String walkPath(int index) {
+		StringBuilder sb = new StringBuilder(this.getName(index));
+		int prevOuter = index;
+		int outer = this.getOuter(index);
+		int steps = 0;
+		while (this.isValidOuter(outer, prevOuter, index) && (steps++ < this.paths.length)) {
+			sb.append('@').append(this.getName(outer));
+			prevOuter = outer;
+			outer = this.getOuter(outer);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns whether the specified outer index continues the chain.
+	 * @param outer the outer index
+	 * @param current the index of the entry the outer index belongs to
+	 * @param start the index of the entry whose path is being resolved
+	 * @return <code>true</code> if the outer index continues the chain
+	 */
+	private boolean isValidOuter(int outer, int current, int start) {
+		return (outer > 0) && (outer < this.paths.length)
+				&& (outer != start) && (outer != current);
+	}
+
+	/**
+	 * Returns the (short) name of the entry at the specified index.
+	 * @param index the table index
+	 * @return the name
+	 */
+	protected abstract String getName(int index);
+
+	/**
+	 * Returns the table index of the outer of the entry at the specified index.
+	 * @param index the table index
+	 * @return the outer index, values <= 0 denote no outer
+	 */
+	protected abstract int getOuter(int index);
+
+}
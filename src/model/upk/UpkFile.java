@@ -1,9 +1,21 @@
 package model.upk;
 
+import static model.modtree.ModTree.logger;
 import io.parser.UpkParser;
+import io.upk.Fingerprint;
+import io.upk.MappedBuffers;
+import io.upk.UpkHeaderCache;
+import io.upk.UpkJournal;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
 
 /**
  * Model class for UPK files.
@@ -21,10 +33,28 @@ public class UpkFile {
 	/**
 	 * The header of this UPK file.
 	 */
-	private UpkHeader header;
+	private volatile UpkHeader header;
 
 	/**
-	 * Constructs a UPK file model class from the specified file.
+	 * The fingerprint of the *.upk file taken when the header was parsed,
+	 * <code>null</code> if it could not be taken.
+	 */
+	private volatile Fingerprint fingerprint;
+
+	/**
+	 * The shared read-only mapping of the *.upk file.
+	 */
+	private MappedByteBuffer buffer;
+
+	/**
+	 * The lock guarding the shared mapping. The read lock is held while a
+	 * mapped view is in use, the write lock while the mapping is released.
+	 */
+	private final ReadWriteLock bufferLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Constructs a UPK file model class from the specified file. Changes
+	 * left uncompleted by a crash are rolled back first.
 	 * @param upkPath the path pointing to the referenced *.upk file
 	 */
 	public UpkFile(Path upkPath) {
@@ -33,14 +63,39 @@ public class UpkFile {
 	}
 
 	/**
-	 * Parses the header of the specified *.upk file
+	 * Parses the header of the specified *.upk file. If the header cache
+	 * contains an up-to-date copy of the header that one is used instead.
+	 * Changes left uncompleted by a crash are rolled back first, the file is
+	 * not parsed if that fails.
 	 * @param upkPath the *.upk file path
-	 * @return the parsed header or <code>null</code> if a parsing error occurred
+	 * @return the parsed header or <code>null</code> if the file could not
+	 *  be recovered or a parsing error occurred
 	 */
 	private UpkHeader parseHeader(Path upkPath) {
+		try {
+			UpkJournal.get(upkPath).recover();
+		} catch(IOException e) {
+			logger.log(Level.SEVERE, "Could not roll back uncompleted changes of " + upkPath, e);
+			this.fingerprint = null;
+			return null;
+		}
+		// take the fingerprint first so changes made while parsing are noticed later
+		try {
+			this.fingerprint = Fingerprint.of(upkPath);
+		} catch(IOException e) {
+			this.fingerprint = null;
+		}
+		UpkHeader cachedHeader = UpkHeaderCache.load(upkPath);
+		if (cachedHeader != null) {
+			return cachedHeader;
+		}
 		UpkParser parser = new UpkParser(upkPath);
 		try {
-			return parser.parseHeader();
+			long size = Files.size(upkPath);
+			long modified = Files.getLastModifiedTime(upkPath).toMillis();
+			UpkHeader parsedHeader = parser.parseHeader();
+			UpkHeaderCache.store(upkPath, parsedHeader, size, modified);
+			return parsedHeader;
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
@@ -52,8 +107,124 @@ public class UpkFile {
 	 */
 	public void reload()
 	{
+		this.invalidateBuffer();
 		this.header = this.parseHeader(this.upkPath);
 	}
+
+	/**
+	 * Rolls back the specified number of most recent journaled changes of
+	 * the file and reloads the header.
+	 * @param count the number of changes to roll back
+	 * @return the number of changes rolled back
+	 * @throws IOException if an I/O error occurs
+	 */
+	public int rollback(int count) throws IOException {
+		this.invalidateBuffer();
+		try {
+			return UpkJournal.get(this.upkPath).rollback(count);
+		} finally {
+			this.header = this.parseHeader(this.upkPath);
+		}
+	}
+
+	/**
+	 * Returns a read-only, little endian view of the whole *.upk file backed
+	 * by a mapping shared by all callers. The view is only valid until
+	 * {@link #releaseBuffer()} is called, each call of this method must be
+	 * paired with a call of {@link #releaseBuffer()} in a finally block.<br>
+	 * If the file has been changed by other means since the header was
+	 * parsed, e.g. by another process, the mapping is released and the header
+	 * is reloaded first, so header entries must be looked up after calling
+	 * this method.
+	 * @return a mapped view of the file
+	 * @throws IOException if the file could not be mapped
+	 */
+	public ByteBuffer acquireBuffer() throws IOException {
+		this.revalidate();
+		this.bufferLock.readLock().lock();
+		try {
+			MappedByteBuffer mapping;
+			synchronized (this) {
+				if (this.buffer == null) {
+					this.buffer = MappedBuffers.map(this.upkPath);
+				}
+				mapping = this.buffer;
+			}
+			ByteBuffer view = mapping.duplicate();
+			view.order(ByteOrder.LITTLE_ENDIAN);
+			return view;
+		} catch (IOException | RuntimeException e) {
+			this.bufferLock.readLock().unlock();
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases the mapping and reloads the header if the *.upk file has been
+	 * changed since the header was parsed. A stale mapping of a shrunk file
+	 * would crash the JVM on access.
+	 * @throws IOException if the file could not be examined
+	 */
+	private void revalidate() throws IOException {
+		Fingerprint parsed = this.fingerprint;
+		if (Fingerprint.of(this.upkPath).equals(parsed)) {
+			return;
+		}
+		this.bufferLock.writeLock().lock();
+		try {
+			synchronized (this) {
+				if (this.fingerprint != parsed) {
+					// reloaded by another thread meanwhile
+					return;
+				}
+				MappedBuffers.unmap(this.buffer);
+				this.buffer = null;
+			}
+			this.header = this.parseHeader(this.upkPath);
+		} finally {
+			this.bufferLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Takes a new fingerprint of the *.upk file after this tool has modified
+	 * it and updated the header accordingly, e.g. by a journaled write, so
+	 * the next call of {@link #acquireBuffer()} does not reparse the header.
+	 */
+	public void updateFingerprint() {
+		synchronized (this) {
+			try {
+				this.fingerprint = Fingerprint.of(this.upkPath);
+			} catch(IOException e) {
+				this.fingerprint = null;
+			}
+		}
+	}
+
+	/**
+	 * Releases a view previously obtained via {@link #acquireBuffer()}.
+	 */
+	public void releaseBuffer() {
+		this.bufferLock.readLock().unlock();
+	}
+
+	/**
+	 * Releases the shared mapping of the *.upk file, e.g. because the file is
+	 * about to be rewritten or has grown. Blocks until no view is in use
+	 * anymore. The file is mapped again on the next call of
+	 * {@link #acquireBuffer()}.
+	 */
+	public void invalidateBuffer() {
+		this.bufferLock.writeLock().lock();
+		try {
+			synchronized (this) {
+				MappedBuffers.unmap(this.buffer);
+				this.buffer = null;
+			}
+		} finally {
+			this.bufferLock.writeLock().unlock();
+		}
+	}
 	
 	/**
 	 * Returns the UPK header instance.
@@ -85,13 +256,13 @@ public class UpkFile {
 		String s = "";
 		if(ref > 0) {
 			try {
-				s = header.getObjectList().get(ref).getName();
+				s = header.getObjectName(ref);
 			} catch(Throwable x) {
 			}
 		} else if(ref < 0) {
 			try {
 				int i = -ref;
-				s = header.getImportList().get(i).getName();
+				s = header.getImportName(i);
 			} catch(Throwable x) {
 			}
 		}
@@ -27,8 +27,9 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.logging.Level;
 
 /**
@@ -72,21 +73,29 @@ public class UpkHeader {
         
 	/**
 	 * Searchable list of basic names.
-         * TODO : construct object that can be searched faster
 	 */
-	public ArrayList<String> nameListStrings;
+	public List<String> nameListStrings;
 
 	/**
 	 * Searchable list of import names.
-         * TODO : construct object that can be searched faster
 	 */
-	public ArrayList<String> importListStrings;
+	public List<String> importListStrings;
 
 	/**
-	 * Searchable list of import names.
-         * TODO : construct object that can be searched faster
+	 * Searchable list of object names.
+	 */
+	public List<String> objectListStrings;
+
+	/**
+	 * The memoized <code>Name@Outer...</code> paths of the objectlist entries.
 	 */
-	public ArrayList<String> objectListStrings;
+	private OuterChainNames objectPaths;
+
+	/**
+	 * The memoized <code>Name@Outer...</code> paths of the importlist entries,
+	 * without package prefix.
+	 */
+	private OuterChainNames importPaths;
 
 	/**
 	 * The GUID (Global Unique ID).
@@ -103,6 +112,21 @@ public class UpkHeader {
 	public UpkHeader(List<NameEntry> nameList, int nameListPos,
 			List<ObjectEntry> objectList, int objectListPos,
 			List<ImportEntry> importList, int importListPos, byte[] aGUID) {
+		this(nameList, nameListPos, objectList, objectListPos, importList, importListPos, aGUID, null, null);
+	}
+
+	/**
+	 * Constructs an UPK header using the specified already resolved full
+	 * object and import names, e.g. restored from a header cache.
+	 * @param objectNames the full objectlist names or <code>null</code> if
+	 *  they shall be resolved on demand
+	 * @param importNames the full importlist names or <code>null</code> if
+	 *  they shall be resolved on demand
+	 */
+	public UpkHeader(List<NameEntry> nameList, int nameListPos,
+			List<ObjectEntry> objectList, int objectListPos,
+			List<ImportEntry> importList, int importListPos, byte[] aGUID,
+			String[] objectNames, String[] importNames) {
 		this.nameList = nameList;
 		this.nameListPos = nameListPos;
 		this.objectList = objectList;
@@ -110,75 +134,81 @@ public class UpkHeader {
 		this.importList = importList;
 		this.importListPos = importListPos;
 		this.aGUID = aGUID;
-		long startTime = System.currentTimeMillis();
-		constructImportNames(importList);
-		logger.log(Level.FINE, "Constructed import list names, took " + (System.currentTimeMillis() - startTime) + "ms");
-		startTime = System.currentTimeMillis();
-		constructObjectNames(objectList);
-		logger.log(Level.FINE, "Constructed object list names, took " + (System.currentTimeMillis() - startTime) + "ms");
-		startTime = System.currentTimeMillis();
-		constructNames(nameList);
-		logger.log(Level.FINE, "Constructed searchable names, took " + (System.currentTimeMillis() - startTime) + "ms");
-	}
-
-        private void constructNames(List<NameEntry> list){
-            nameListStrings = new ArrayList<>(list.size());
-            for(int i = 0; i < list.size(); i++){
-                nameListStrings.add(nameList.get(i).getName());
-            }
-        }
-        
-        private void constructObjectNames(List<ObjectEntry> list) {
-            int iPrevOuterIndex, iOuterIndex;
-
-            objectListStrings = new ArrayList(list.size());
-            objectListStrings.add("");
-            for(int i = 1; i < list.size(); i++) {
-                String name;
-                iPrevOuterIndex = -1;
-                name = "";
-                name += nameList.get(list.get(i).getNameIdx()).getName();
-                iOuterIndex = list.get(i).getOuterIdx();
-                while ((iOuterIndex <= list.size())
-                                && (iOuterIndex > 0)
-                                && (iOuterIndex != i)
-                                && (iPrevOuterIndex != iOuterIndex))  {
-                    name += "@" + nameList.get(list.get(iOuterIndex).getNameIdx()).getName();
-                    iPrevOuterIndex = iOuterIndex;
-                    iOuterIndex = list.get(iOuterIndex).getOuterIdx();
-                }
-                objectListStrings.add(name);
-                list.get(i).setName(name);
-            }
-        }
-        
-	private void constructImportNames(List<ImportEntry> list) {
-		int iPrevOuterIndex, iOuterIndex;
-
-		importListStrings = new ArrayList(list.size());
-		importListStrings.add("");
-		for(int i = 1; i < list.size(); i ++) {
-			String name;
-			iPrevOuterIndex = -1;
-			if(list.get(i).getPackageIdx() != 0) {
-				name = nameList.get(list.get(i).getPackageIdx()).getName() + ":";
-			} else {
-				name = "";
+		// names are resolved lazily on first access
+		this.objectPaths = new OuterChainNames(objectList.size()) {
+			@Override
+			protected String getName(int index) {
+				return UpkHeader.this.nameList.get(UpkHeader.this.objectList.get(index).getNameIdx()).getName();
+			}
+			@Override
+			protected int getOuter(int index) {
+				return UpkHeader.this.objectList.get(index).getOuterIdx();
+			}
+		};
+		this.importPaths = new OuterChainNames(importList.size()) {
+			@Override
+			protected String getName(int index) {
+				return UpkHeader.this.nameList.get(UpkHeader.this.importList.get(index).getNameIdx()).getName();
+			}
+			@Override
+			protected int getOuter(int index) {
+				return -UpkHeader.this.importList.get(index).getOuterIdx();
+			}
+		};
+		this.nameListStrings = new NameStringList("name list", nameList.size(), null) {
+			@Override
+			protected String resolve(int index) {
+				return UpkHeader.this.nameList.get(index).getName();
+			}
+		};
+		this.importListStrings = new NameStringList("import list", importList.size(), importNames) {
+			@Override
+			protected String resolve(int index) {
+				return UpkHeader.this.constructImportName(index);
 			}
-			name += nameList.get(list.get(i).getNameIdx()).getName();
-			iOuterIndex =  - list.get(i).getOuterIdx();
-			while((iOuterIndex <= list.size())
-					&& (iOuterIndex > 0)
-					&& (iOuterIndex != i)
-					&& (iPrevOuterIndex != iOuterIndex)) {
-				name += "@" + nameList.get(list.get(iOuterIndex).getNameIdx()).getName();
-				iPrevOuterIndex = iOuterIndex;
-				iOuterIndex =  - list.get(iOuterIndex).getOuterIdx();
+		};
+		this.objectListStrings = new NameStringList("object list", objectList.size(), objectNames) {
+			@Override
+			protected String resolve(int index) {
+				return UpkHeader.this.constructObjectName(index);
 			}
-			importListStrings.add(name);
-			list.get(i).setName(name);
-//			System.out.println(i + " : " + name);
+		};
+	}
+
+	/**
+	 * Constructs the full name of the objectlist entry at the specified index
+	 * and stores it inside the entry.
+	 * @param i the objectlist index
+	 * @return the full name
+	 */
+	private String constructObjectName(int i) {
+		if (i == 0) {
+			return "";
+		}
+		String name = this.objectPaths.getPath(i);
+		this.objectList.get(i).setName(name);
+		return name;
+	}
+
+	/**
+	 * Constructs the full name of the importlist entry at the specified index
+	 * and stores it inside the entry.
+	 * @param i the importlist index
+	 * @return the full name
+	 */
+	private String constructImportName(int i) {
+		if (i == 0) {
+			return "";
 		}
+		String name = this.importPaths.getPath(i);
+		int packageIdx = this.importList.get(i).getPackageIdx();
+		if (packageIdx != 0) {
+			String packageName = this.nameList.get(packageIdx).getName();
+			name = new StringBuilder(packageName.length() + 1 + name.length())
+					.append(packageName).append(':').append(name).toString();
+		}
+		this.importList.get(i).setName(name);
+		return name;
 	}
 
 	public byte[] getGUID() {
@@ -235,6 +265,25 @@ public class UpkHeader {
 		m_sUpkName = sName;
 	}
 
+	/**
+	 * Returns the full name of the objectlist entry at the specified index.
+	 * @param index the objectlist index
+	 * @return the full name
+	 */
+	public String getObjectName(int index) {
+		return this.objectListStrings.get(index);
+	}
+
+	/**
+	 * Returns the full name of the importlist entry at the specified
+	 * (positive) index.
+	 * @param index the importlist index
+	 * @return the full name
+	 */
+	public String getImportName(int index) {
+		return this.importListStrings.get(index);
+	}
+
 	@Deprecated
 	public void parseUPKHeader(Path thisfile, boolean bVerbose)
 			throws IOException {
@@ -266,4 +315,91 @@ public class UpkHeader {
 			System.out.println("caught exception: " + x);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Searchable list of names which are resolved on first access. Resolved
+	 * names may be replaced to keep the list in sync with table changes.<br>
+	 * Look-ups via {@link #indexOf(Object)} are served by a hash index which
+	 * is built on the first look-up.
+	 */
+	private abstract class NameStringList extends AbstractList<String> implements RandomAccess {
+		
+		/**
+		 * The list description used for logging.
+		 */
+		private String description;
+		
+		/**
+		 * The resolved names.
+		 */
+		private String[] names;
+		
+		/**
+		 * The hash index of the names.
+		 */
+		private NameIndex nameIndex;
+		
+		/**
+		 * Constructs a lazy name list of the specified size.
+		 * @param description the list description used for logging
+		 * @param size the list size
+		 * @param names the already resolved names, may be <code>null</code>
+		 */
+		public NameStringList(String description, int size, String[] names) {
+			this.description = description;
+			this.names = (names != null) ? names : new String[size];
+		}
+
+		@Override
+		public synchronized String get(int index) {
+			String name = this.names[index];
+			if (name == null) {
+				name = this.resolve(index);
+				this.names[index] = name;
+			}
+			return name;
+		}
+
+		@Override
+		public synchronized String set(int index, String element) {
+			String oldName = this.get(index);
+			this.names[index] = element;
+			if (this.nameIndex != null) {
+				if (this.nameIndex.remove(oldName, index)) {
+					this.nameIndex.put(element, index);
+				} else {
+					// old name is not unique, rebuild index on next look-up
+					this.nameIndex = null;
+				}
+			}
+			return oldName;
+		}
+
+		@Override
+		public synchronized int indexOf(Object o) {
+			if (!(o instanceof String)) {
+				return -1;
+			}
+			if (this.nameIndex == null) {
+				long startTime = System.currentTimeMillis();
+				this.nameIndex = new NameIndex(this);
+				logger.log(Level.FINE, "Built " + this.description + " index, took " + (System.currentTimeMillis() - startTime) + "ms");
+			}
+			return this.nameIndex.get((String) o);
+		}
+
+		@Override
+		public int size() {
+			return this.names.length;
+		}
+		
+		/**
+		 * Resolves the name at the specified index.
+		 * @param index the list index
+		 * @return the resolved name
+		 */
+		protected abstract String resolve(int index);
+		
+	}
+	
+}
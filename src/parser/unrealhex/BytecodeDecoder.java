@@ -0,0 +1,381 @@
+package parser.unrealhex;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import parser.unrealhex.Operand.OperandToken;
+import parser.unrealhex.Operand.OperandToken.OperandTokenType;
+
+/**
+ * Decoder walking raw UnrealScript byte code as driven by the operand
+ * descriptors of the {@link OperandTable}. Instead of building any output
+ * itself the decoder reports a compact stream of events to a
+ * {@link Listener}: the start and end of each (possibly nested) operand and
+ * every fixed-size byte range consumed by an operand token.<br>
+ * Offsets are relative to the position of the byte buffer the decoder has
+ * been constructed with. Memory sizes follow the in-memory layout of the
+ * Unreal engine, i.e. object references occupy 8 bytes in memory instead of
+ * their serialized 4 bytes.
+ * @author XMS
+ */
+public class BytecodeDecoder {
+
+	/**
+	 * The opcode terminating indeterminate parameter lists.
+	 */
+	public static final int END_FUNCTION_PARAMS = 0x16;
+
+	/**
+	 * The byte code to decode, little-endian.
+	 */
+	private final ByteBuffer code;
+
+	/**
+	 * The operand descriptors indexed by opcode, <code>null</code> to use the
+	 * global operand table.
+	 */
+	private final Operand[] operands;
+
+	/**
+	 * The current decoding position.
+	 */
+	private int position;
+
+	/**
+	 * Constructs a decoder for the specified byte code using the global
+	 * operand table.
+	 * @param code the byte code to decode
+	 */
+	public BytecodeDecoder(byte[] code) {
+		this(ByteBuffer.wrap(code));
+	}
+
+	/**
+	 * Constructs a decoder for the remaining bytes of the specified buffer
+	 * using the global operand table. The buffer itself is not modified.
+	 * @param code the byte code to decode
+	 */
+	public BytecodeDecoder(ByteBuffer code) {
+		this(code, null);
+	}
+
+	/**
+	 * Constructs a decoder for the remaining bytes of the specified buffer
+	 * using the specified operand descriptors.
+	 * @param code the byte code to decode
+	 * @param operands the operand descriptors indexed by opcode or
+	 *  <code>null</code> to use the global operand table
+	 */
+	BytecodeDecoder(ByteBuffer code, Operand[] operands) {
+		this.code = code.slice().order(ByteOrder.LITTLE_ENDIAN);
+		this.operands = operands;
+	}
+
+	/**
+	 * Returns the current decoding position.
+	 * @return the offset of the next byte to decode
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns the number of bytes to decode.
+	 * @return the byte code length
+	 */
+	public int getLength() {
+		return code.limit();
+	}
+
+	/**
+	 * Returns whether there are bytes left to decode.
+	 * @return <code>true</code> if the end of the byte code has not been reached
+	 */
+	public boolean hasRemaining() {
+		return position < code.limit();
+	}
+
+	/**
+	 * Returns the unsigned byte at the specified offset.
+	 * @param offset the byte offset
+	 * @return the byte value
+	 */
+	public int getByte(int offset) {
+		return code.get(offset) & 0xFF;
+	}
+
+	/**
+	 * Returns the unsigned little-endian 2-byte value at the specified offset,
+	 * e.g. a jump offset.
+	 * @param offset the byte offset
+	 * @return the short value
+	 */
+	public int getShort(int offset) {
+		return code.getShort(offset) & 0xFFFF;
+	}
+
+	/**
+	 * Returns the little-endian 4-byte value at the specified offset, e.g. a
+	 * reference.
+	 * @param offset the byte offset
+	 * @return the int value
+	 */
+	public int getInt(int offset) {
+		return code.getInt(offset);
+	}
+
+	/**
+	 * Decodes all remaining byte code.
+	 * @param listener the listener to notify
+	 * @return the memory size of the decoded byte code
+	 * @throws DecodeException if the byte code is malformed
+	 */
+	public int decode(Listener listener) throws DecodeException {
+		int memorySize = 0;
+		while (hasRemaining()) {
+			memorySize += decodeObject(listener);
+		}
+		return memorySize;
+	}
+
+	/**
+	 * Decodes a single operand including its nested operands.
+	 * @param listener the listener to notify
+	 * @return the memory size of the decoded operand
+	 * @throws DecodeException if the byte code is malformed
+	 */
+	public int decodeObject(Listener listener) throws DecodeException {
+		int start = position;
+		Operand operand = getOperand();
+		listener.startOperand(start, operand);
+		int memorySize = 0;
+		for (int i = 0; i < operand.getTokenCount(); i++) {
+			OperandToken token = operand.getToken(i);
+			switch (token.getType()) {
+				case ABSOLUTE_SKIP:
+					memorySize += consume(listener, token.getType(), token.getSize());
+					break;
+				case GENERIC:
+					memorySize += decodeObject(listener);
+					break;
+				case INDETERMINATE_16:
+					while (peek() != END_FUNCTION_PARAMS) {
+						memorySize += decodeObject(listener);
+					}
+					break;
+				case REFERENCE:
+					// object references are pointers in memory
+					memorySize += consume(listener, token.getType(), 4) + 4;
+					break;
+				case INDETERMINATE_00: {
+					int end = position;
+					while (true) {
+						require(end, 1);
+						if (getByte(end) == 0x00) {
+							break;
+						}
+						end++;
+					}
+					memorySize += consume(listener, token.getType(), end + 1 - position);
+					break;
+				}
+				case CASE:
+					require(position, 2);
+					if (getShort(position) == 0xFFFF) {
+						// default case
+						memorySize += consume(listener, token.getType(), 2);
+					} else {
+						memorySize += consume(listener, token.getType(), 2);
+						memorySize += decodeObject(listener);
+					}
+					break;
+				default:
+					// NAME_REFERENCE, JUMP and skips
+					memorySize += consume(listener, token.getType(), token.getSize());
+			}
+		}
+		listener.endOperand(position, operand, memorySize);
+		return memorySize;
+	}
+
+	/**
+	 * Returns the operand descriptor of the opcode at the current position.
+	 * @return the operand descriptor
+	 * @throws DecodeException if the end of the byte code has been reached or
+	 *  the opcode is unknown
+	 */
+	private Operand getOperand() throws DecodeException {
+		int opcode = peek();
+		Operand operand = (operands != null) ? operands[opcode] : OperandTable.getOperand(opcode);
+		if (operand == null) {
+			throw new DecodeException(String.format("Unknown operand %02X.", opcode), position);
+		}
+		return operand;
+	}
+
+	/**
+	 * Returns the byte at the current position without consuming it.
+	 * @return the byte value
+	 * @throws DecodeException if the end of the byte code has been reached
+	 */
+	private int peek() throws DecodeException {
+		require(position, 1);
+		return getByte(position);
+	}
+
+	/**
+	 * Consumes the specified number of bytes as a single token.
+	 * @param listener the listener to notify
+	 * @param type the token type
+	 * @param length the number of bytes
+	 * @return the number of consumed bytes
+	 * @throws DecodeException if there are not enough bytes left
+	 */
+	private int consume(Listener listener, OperandTokenType type, int length) throws DecodeException {
+		require(position, length);
+		listener.token(position, length, type);
+		position += length;
+		return length;
+	}
+
+	/**
+	 * Checks whether the specified byte range lies within the byte code.
+	 * @param offset the range offset
+	 * @param length the range length
+	 * @throws DecodeException if the range exceeds the byte code
+	 */
+	private void require(int offset, int length) throws DecodeException {
+		if (offset + length > code.limit()) {
+			throw new DecodeException("Insufficient remaining bytes.", offset);
+		}
+	}
+
+	/**
+	 * Converts the specified whitespace-separated hex string into bytes.
+	 * @param hex the hex string, e.g. <code>"0F 00 2A"</code>
+	 * @return the byte code
+	 * @throws IllegalArgumentException if a token is not a two-digit hex number
+	 */
+	public static byte[] toBytes(String hex) {
+		byte[] bytes = new byte[(hex.length() + 1) / 2];
+		int count = 0;
+		int pos = 0;
+		int len = hex.length();
+		while (pos < len) {
+			if (Character.isWhitespace(hex.charAt(pos))) {
+				pos++;
+				continue;
+			}
+			int hi = Character.digit(hex.charAt(pos), 16);
+			int lo = (pos + 1 < len) ? Character.digit(hex.charAt(pos + 1), 16) : -1;
+			if (hi < 0 || lo < 0 || (pos + 2 < len && !Character.isWhitespace(hex.charAt(pos + 2)))) {
+				throw new IllegalArgumentException("Malformed hex token at " + pos + ".");
+			}
+			bytes[count++] = (byte) ((hi << 4) | lo);
+			pos += 2;
+		}
+		byte[] res = new byte[count];
+		System.arraycopy(bytes, 0, res, 0, count);
+		return res;
+	}
+
+	/**
+	 * Listener interface for decoding events.
+	 */
+	public interface Listener {
+
+		/**
+		 * Invoked when an operand starts, before its opcode byte is reported.
+		 * @param offset the offset of the opcode byte
+		 * @param operand the operand descriptor
+		 * @throws DecodeException to abort decoding
+		 */
+		void startOperand(int offset, Operand operand) throws DecodeException;
+
+		/**
+		 * Invoked for each fixed-size byte range consumed by an operand token.
+		 * The opcode byte itself is reported as the first
+		 * {@link OperandTokenType#ABSOLUTE_SKIP ABSOLUTE_SKIP} token of its
+		 * operand, so every decoded byte is reported exactly once. Object
+		 * references are reported as {@link OperandTokenType#REFERENCE
+		 * REFERENCE}, name references as {@link OperandTokenType#NAME_REFERENCE
+		 * NAME_REFERENCE}, zero-terminated strings as
+		 * {@link OperandTokenType#INDETERMINATE_00 INDETERMINATE_00} tokens
+		 * including the terminator and case labels as
+		 * {@link OperandTokenType#CASE CASE} tokens.
+		 * @param offset the offset of the first byte
+		 * @param length the number of bytes
+		 * @param type the token type
+		 * @throws DecodeException to abort decoding
+		 */
+		void token(int offset, int length, OperandTokenType type) throws DecodeException;
+
+		/**
+		 * Invoked when an operand including all of its nested operands has
+		 * been decoded.
+		 * @param offset the offset following the last byte of the operand
+		 * @param operand the operand descriptor
+		 * @param memorySize the memory size of the operand
+		 * @throws DecodeException to abort decoding
+		 */
+		void endOperand(int offset, Operand operand, int memorySize) throws DecodeException;
+	}
+
+	/**
+	 * Listener implementation ignoring all events, to be extended by
+	 * listeners only interested in some of the events.
+	 */
+	public static class Adapter implements Listener {
+
+		@Override
+		public void startOperand(int offset, Operand operand) throws DecodeException { }
+
+		@Override
+		public void token(int offset, int length, OperandTokenType type) throws DecodeException { }
+
+		@Override
+		public void endOperand(int offset, Operand operand, int memorySize) throws DecodeException { }
+	}
+
+	/**
+	 * Exception thrown for malformed byte code.
+	 */
+	public static class DecodeException extends Exception {
+
+		private static final long serialVersionUID = 2406118330287522349L;
+
+		/**
+		 * The offset at which decoding failed.
+		 */
+		private final int offset;
+
+		/**
+		 * Constructs a decode exception.
+		 * @param message the detail message
+		 * @param offset the offset at which decoding failed
+		 */
+		public DecodeException(String message, int offset) {
+			super(message);
+			this.offset = offset;
+		}
+
+		/**
+		 * Constructs a decode exception caused by the specified throwable.
+		 * @param message the detail message
+		 * @param offset the offset at which decoding failed
+		 * @param cause the cause
+		 */
+		public DecodeException(String message, int offset, Throwable cause) {
+			super(message, cause);
+			this.offset = offset;
+		}
+
+		/**
+		 * Returns the offset at which decoding failed.
+		 * @return the byte offset
+		 */
+		public int getOffset() {
+			return offset;
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package parser.unrealhex;
 
 /**
- * Model class representing an UnrealScript byte code operand
+ * Immutable model class representing an UnrealScript byte code operand,
+ * i.e. the decoding descriptor of a single opcode as defined in the operand
+ * data file.
  * @author XMS
  */
 public class Operand implements Comparable<Operand> {
@@ -9,33 +11,57 @@ public class Operand implements Comparable<Operand> {
 	/**
 	 * The opcode identifier.
 	 */
-	private String opcode;
+	private final String opcode;
 
 	/**
 	 * The operand name.
 	 */
-	private String name;
+	private final String name;
 
 	/**
 	 * The operand description.
 	 */
-	private String description;
+	private final String description;
 	
 	/**
 	 * The operand tokens. 
 	 */
-	private OperandToken[] tokens;
+	private final OperandToken[] tokens;
 	
 	/**
 	 * Constructs an operand from the specified opcode and operand tokens.
 	 * @param opcode the opcode
+	 * @param name the operand name
+	 * @param description the operand description
 	 * @param tokens the operand tokens
 	 */
 	public Operand(String opcode, String name, String description, OperandToken... tokens) {
 		this.opcode = opcode;
 		this.name = name;
 		this.description = description;
-		this.tokens = tokens;
+		this.tokens = tokens.clone();
+	}
+
+	/**
+	 * Parses an operand from the specified line of the operand data file,
+	 * e.g. <code>"00 1 R ; LocalVar ; &lt;R1&gt; ; local variable"</code>.
+	 * @param line the operand data line
+	 * @return the operand
+	 * @throws IllegalArgumentException if the line is malformed
+	 */
+	public static Operand parse(String line) {
+		String[] split = line.split(";", 4);
+		String[] items = split[0].trim().split("\\s+");
+		String opcode = items[0].toUpperCase();
+		// validate opcode
+		Integer.parseInt(opcode, 16);
+		OperandToken[] tokens = new OperandToken[items.length - 1];
+		for (int i = 1; i < items.length; i++) {
+			tokens[i - 1] = OperandToken.parse(items[i]);
+		}
+		String name = (split.length > 1) ? split[1].trim() : "";
+		String description = (split.length > 3) ? split[3].trim() : "";
+		return new Operand(opcode, name, description, tokens);
 	}
 
 	/**
@@ -63,11 +89,28 @@ public class Operand implements Comparable<Operand> {
 	}
 	
 	/**
-	 * Returns the operand tokens.
+	 * Returns a copy of the operand tokens.
 	 * @return the operand tokens
 	 */
 	public OperandToken[] getTokens() {
-		return tokens;
+		return tokens.clone();
+	}
+
+	/**
+	 * Returns the number of operand tokens.
+	 * @return the token count
+	 */
+	public int getTokenCount() {
+		return tokens.length;
+	}
+
+	/**
+	 * Returns the operand token at the specified index.
+	 * @param index the token index
+	 * @return the operand token
+	 */
+	public OperandToken getToken(int index) {
+		return tokens[index];
 	}
 	
 	@Override
@@ -76,7 +119,7 @@ public class Operand implements Comparable<Operand> {
 	}
 
 	/**
-	 * Basic model class representing an operand token.
+	 * Basic immutable model class representing an operand token.
 	 * @author XMS
 	 */
 	public static class OperandToken {
@@ -86,27 +129,78 @@ public class Operand implements Comparable<Operand> {
 		 * @author XMS
 		 */
 		public enum OperandTokenType {
-			REFERENCE,
-			GENERIC,
-			INDETERMINATE_00,
-			INDETERMINATE_16,
-			CASE,
-			JUMP,
-			ABSOLUTE_SKIP,
-			CONTEXT_SKIP,
-			OBJECT_SKIP,
-			PARAMETER_SKIP;
+			/** A 4 byte object reference ("R"). */
+			REFERENCE("R", 4),
+			/** A 4 byte name reference, e.g. of a virtual function ("NR"). */
+			NAME_REFERENCE("NR", 4),
+			/** A generic object ("G"). */
+			GENERIC("G", 0),
+			/** Bytes up to and including the next 00 token ("N"). */
+			INDETERMINATE_00("N", 0),
+			/** Generic objects up to the next 16 token ("P"). */
+			INDETERMINATE_16("P", 0),
+			/** A case statement, a 2 byte offset followed by a generic object unless FF FF ("C"). */
+			CASE("C", 0),
+			/** A 2 byte jump offset relative to the start of the function ("J"). */
+			JUMP("J", 2),
+			/** A fixed number of bytes (e.g. "1" or "3"). */
+			ABSOLUTE_SKIP(null, 0),
+			/** A 2 byte context-type relative skip ("S0"). */
+			CONTEXT_SKIP("S0", 2),
+			/** A 2 byte object-type relative skip ("S1"). */
+			OBJECT_SKIP("S1", 2),
+			/** A 2 byte parameter-type relative skip ("S2"). */
+			PARAMETER_SKIP("S2", 2);
+			
+			/**
+			 * The symbol used in the operand data file.
+			 */
+			private final String symbol;
+			
+			/**
+			 * The fixed byte size.
+			 */
+			private final int size;
+			
+			/**
+			 * Constructs a token type.
+			 * @param symbol the symbol used in the operand data file
+			 * @param size the fixed byte size
+			 */
+			private OperandTokenType(String symbol, int size) {
+				this.symbol = symbol;
+				this.size = size;
+			}
+			
+			/**
+			 * Returns the symbol used in the operand data file.
+			 * @return the symbol or <code>null</code> for numeric skips
+			 */
+			public String getSymbol() {
+				return symbol;
+			}
+		}
+		
+		/**
+		 * The shared instances of all token types of fixed size.
+		 */
+		private static final OperandToken[] SHARED = new OperandToken[OperandTokenType.values().length];
+		
+		static {
+			for (OperandTokenType type : OperandTokenType.values()) {
+				SHARED[type.ordinal()] = new OperandToken(type, type.size);
+			}
 		}
 		
 		/**
 		 * The token type.
 		 */
-		private OperandTokenType type;
+		private final OperandTokenType type;
 		
 		/**
 		 * The token byte size.
 		 */
-		private int size;
+		private final int size;
 		
 		/**
 		 * Constructs an operand token of the specified type with the specified
@@ -119,6 +213,25 @@ public class Operand implements Comparable<Operand> {
 			this.type = type;
 			this.size = size;
 		}
+		
+		/**
+		 * Parses an operand token from the specified operand data file symbol.
+		 * @param item the symbol, e.g. "R", "S2" or "3"
+		 * @return the operand token
+		 * @throws IllegalArgumentException if the symbol is unknown
+		 */
+		public static OperandToken parse(String item) {
+			item = item.toUpperCase();
+			if (item.matches("[0-9]")) {
+				return new OperandToken(OperandTokenType.ABSOLUTE_SKIP, Integer.parseInt(item));
+			}
+			for (OperandTokenType type : OperandTokenType.values()) {
+				if (item.equals(type.symbol)) {
+					return SHARED[type.ordinal()];
+				}
+			}
+			throw new IllegalArgumentException("Unknown operand token " + item);
+		}
 
 		/**
 		 * Returns the token type.
@@ -130,12 +243,17 @@ public class Operand implements Comparable<Operand> {
 		
 		/**
 		 * Returns the token byte size.
-		 * @return the token byte size
+		 * @return the token byte size, 0 if variable
 		 */
 		public int getSize() {
 			return this.size;
 		}
 		
+		@Override
+		public String toString() {
+			return (type.symbol == null) ? String.valueOf(size) : type.symbol;
+		}
+		
 	}
 
 }
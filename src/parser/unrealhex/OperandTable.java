@@ -26,10 +26,9 @@ import java.util.List;
 import ui.Constants;
 
 /**
- * Class holding global operand code strings.
+ * Class holding the global operand descriptors, indexed by opcode.
  * @author Amineri, XMS
  */
-// TODO: instead of storing an array strings that need to be decoded further store opcode data in map using opcode (int) as key and parsed Opcode token class as value (needs to be created)
 public class OperandTable {
 	
 	/**
@@ -38,32 +37,70 @@ public class OperandTable {
 	private OperandTable() { }
 	
 	/**
-	 * The list of operand names (for display only).
+	 * The operand descriptors indexed by opcode.
 	 */
-	private static String[] operandNames;
-	
+	private static Operand[] operands;
+
 	/**
-	 * The list of operand codes.
+	 * Flag denoting whether the operand data has been initialized. Written
+	 * last so that threads observing it also observe the complete data.
 	 */
-	private static String[] operandDecodes;
+	private static volatile boolean initialized;
 
 	/**
-	 * Method used to lazily initialize the operand data.
+	 * Method used to lazily initialize the operand data. Safe to be called
+	 * concurrently, the data is parsed once.
 	 */
 	private static void initialize() {
+		initialize(Constants.OPERAND_DATA_FILE);
+	}
+
+	/**
+	 * Initializes the operand data from the specified file unless already
+	 * done. Safe to be called concurrently, the data is parsed once.
+	 * @param filePath the path pointing to the operand data file
+	 */
+	private static synchronized void initialize(Path filePath) {
+		if (initialized) {
+			return;
+		}
 		try {
-			operandNames = new String[256];
-			operandDecodes = new String[256];
-			parseFile(Constants.OPERAND_DATA_FILE);
-		} catch (IOException e) {
+			operands = new Operand[256];
+			parseFile(filePath);
+			initialized = true;
+		} catch (IOException | IllegalArgumentException e) {
 			System.err.println("Failed to read operand data.");
 			e.printStackTrace();
 			// reset variables
-			operandNames = null;
-			operandDecodes = null;
+			operands = null;
 		}
 	}
 
+	/**
+	 * Parses the operand data unless already done, e.g. to avoid the delay
+	 * when parsing the first mod file.
+	 * @return <code>true</code> if the operand data is available
+	 */
+	public static boolean preload() {
+		if (!initialized) {
+			initialize();
+		}
+		return initialized;
+	}
+
+	/**
+	 * Parses the operand data from the specified file unless already done,
+	 * e.g. when running outside of the application directory.
+	 * @param filePath the path pointing to the operand data file
+	 * @return <code>true</code> if the operand data is available
+	 */
+	public static boolean preload(Path filePath) {
+		if (!initialized) {
+			initialize(filePath);
+		}
+		return initialized;
+	}
+
 	/**
 	 * Parses the specified operand data file and extract operand token data from it.
 	 * @param filePath the path pointing to the operand data file
@@ -82,68 +119,63 @@ public class OperandTable {
 	/**
 	 * Parses the specified string and stores its contents in the list of operand codes.
 	 * @param line the operand code string to parse
+	 * @throws IllegalArgumentException if the line is malformed
 	 */
 	public static void parseLine(String line) {
-		int iOpIndex = Integer.parseInt(line.split("\\s", 2)[0], 16);
-		if (operandDecodes[iOpIndex] == null) {
-			operandDecodes[iOpIndex] = line.split(";", 2)[0];
+		Operand operand = Operand.parse(line);
+		int iOpIndex = Integer.parseInt(operand.getOpcode(), 16);
+		if (operands[iOpIndex] == null) {
+			operands[iOpIndex] = operand;
 		} else {
 			System.out.println("Duplicate opcode " + iOpIndex);
-			System.out.println(operandDecodes[iOpIndex]);
+			System.out.println(operands[iOpIndex].getOpcode() + " " + operands[iOpIndex].getName());
 			System.out.println(line);
 			System.exit(1);
 		}
-		operandNames[iOpIndex] = line.split(";", 3)[1];
 	}
 	
 	/**
-	 * Returns the operand code string associated with the specified opcode.
-	 * @param opcode the opcode
-	 * @return the operand code string
+	 * Returns the operand descriptor associated with the specified opcode.
+	 * @param opcode the opcode byte
+	 * @return the operand or <code>null</code> if the opcode is unknown or
+	 *  the operand data could not be read
 	 */
-	public static String getOperandString(String opcode) {
-		if (operandNames == null) {
+	public static Operand getOperand(int opcode) {
+		if (!initialized) {
 			initialize();
-		}
-		try {
-			int i = Integer.parseInt(opcode, 16);
-			if (i >= 0 && i < 256) {
-				if (operandDecodes[i] != null) {
-					return operandDecodes[i];
-				} else {
-					return "";
-				}
-			} else {
-				return "";
+			if (!initialized) {
+				return null;
 			}
-		} catch (NumberFormatException x) {
-			return "";
 		}
+		return operands[opcode & 0xFF];
 	}
-
+	
 	/**
-	 * TODO: API
-	 * @param opcode
-	 * @return
+	 * Returns the operand descriptor associated with the specified opcode.
+	 * @param opcode the opcode as hex string
+	 * @return the operand or <code>null</code> if the opcode is unknown or
+	 *  malformed or the operand data could not be read
 	 */
-	public static String getOperandName(String opcode) {
-		if (operandNames == null) {
-			initialize();
+	public static Operand getOperand(String opcode) {
+		if (opcode.length() != 2) {
+			return null;
 		}
-		try {
-			int i = Integer.parseInt(opcode, 16);
-			if (i >= 0 && i < 256) {
-				if (operandNames[i] != null) {
-					return operandNames[i];
-				} else {
-					return "";
-				}
-			} else {
-				return "";
-			}
-		} catch (NumberFormatException x) {
-			return "";
+		int hi = Character.digit(opcode.charAt(0), 16);
+		int lo = Character.digit(opcode.charAt(1), 16);
+		if (hi < 0 || lo < 0) {
+			return null;
 		}
+		return getOperand((hi << 4) | lo);
+	}
+
+	/**
+	 * Returns the display name of the operand associated with the specified opcode.
+	 * @param opcode the opcode as hex string
+	 * @return the operand name or an empty string if the opcode is unknown
+	 */
+	public static String getOperandName(String opcode) {
+		Operand operand = getOperand(opcode);
+		return (operand != null) ? operand.getName() : "";
 	}
 	
 }
@@ -17,16 +17,25 @@
 
 package parser.unrealhex;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import parser.unrealhex.BytecodeDecoder.DecodeException;
+import parser.unrealhex.Operand.OperandToken.OperandTokenType;
 
 /**
- *
+ * Tags the object and name references of byte code, e.g. for reviewing
+ * references to be updated. The tagged hex text is streamed to an
+ * {@link Appendable} as the byte code is decoded, so tagging whole
+ * functions or packages takes linear time and, when writing to a
+ * {@link java.io.Writer}, no more memory than the byte code itself.
  * @author Amineri
  */
 public class ReferenceParser 
 {
-    String m_sInputString;
-    String[] m_sTokens;
-    String m_sOutputString;
+    BytecodeDecoder m_kDecoder;
+    Appendable m_kOutput;
+    Operand[] m_kOperands;
     
     private int m_iInputPosition;
     
@@ -37,103 +46,108 @@ public class ReferenceParser
 //        m_kOpTable = kOpTable;
     }
     
+    ReferenceParser(Operand[] kOperands)
+    {
+        m_kOperands = kOperands;
+    }
+    
 	public String parseString(String sHex) {
-		m_sInputString=sHex;
-		m_sTokens=m_sInputString.split("\\s");
-		m_iInputPosition=0;
-		m_sOutputString="";
-
-		while (m_iInputPosition < m_sTokens.length) {
-			parseGenericObject();
-		}
-		return m_sOutputString;
+		return parseBytes(BytecodeDecoder.toBytes(sHex));
 	}
     
-	private void parseGenericObject() {
-		String sOpCodes=OperandTable.getOperandString(m_sTokens[m_iInputPosition]);
-		if(!m_sTokens[m_iInputPosition].equalsIgnoreCase(sOpCodes.split("\\s", 2)[0])) {
-			System.out.println("/* opcode mismatch */");
-		} else {
-			String[] sParseItems=sOpCodes.split("\\s", 2)[1].split("\\s");
-			for(String sParseItem : sParseItems) {
-				sParseItem=sParseItem.toUpperCase();
-				if(sParseItem.matches("[0-9]")) {
-					mirrorTokens(Integer.parseInt(sParseItem));
-					continue;
-				}
-				if(sParseItem.equals("G")) {
-					parseGenericObject();
-					continue;
-				}
-				if(sParseItem.equals("P")) {
-					while(!m_sTokens[m_iInputPosition].equals("16")) {
-						parseGenericObject();
-					}
-					continue;
-				}
-				if(sParseItem.equals("R")) {
-					tagReference();
-					continue;
-				}
-				if(sParseItem.equals("NR")) {
-					tagVFReference();
-					continue;
-				}
-				if(sParseItem.equals("N")) {
-					while(!m_sTokens[m_iInputPosition].equals("00")) {
-						mirrorTokens(1);
-					}
-					mirrorTokens(1);
-					continue;
-				}
-				if(sParseItem.startsWith("S")||sParseItem.equals("J")) {
-					mirrorTokens(2);
-				}
-				if(sParseItem.equals("C")) {
-					if(m_sTokens[m_iInputPosition].equalsIgnoreCase("FF")&&m_sTokens[m_iInputPosition+1].equalsIgnoreCase("FF")) {
-						mirrorTokens(2);
-					} else {
-						mirrorTokens(2);
-						parseGenericObject();
+	public String parseBytes(byte[] kCode) {
+		StringBuilder kOutput=new StringBuilder(kCode.length*3+32);
+		try {
+			parse(ByteBuffer.wrap(kCode), kOutput);
+		} catch(IOException x) {
+			// cannot happen for string builders
+			throw new IllegalStateException(x);
+		} catch(DecodeException x) {
+			// undecodable remainder has been mirrored untagged
+		}
+		return kOutput.toString();
+	}
+
+	public void parseString(String sHex, Appendable kOutput) throws IOException, DecodeException {
+		parse(ByteBuffer.wrap(BytecodeDecoder.toBytes(sHex)), kOutput);
+	}
+
+	/**
+	 * Writes the tagged hex text of the remaining bytes of the specified
+	 * buffer to the specified output. The buffer itself is not modified.
+	 * @param kCode the byte code
+	 * @param kOutput the output to append to
+	 * @throws IOException if appending to the output fails
+	 * @throws DecodeException if the byte code could not be decoded
+	 *  completely, the undecodable remainder has been mirrored untagged
+	 */
+	public void parse(ByteBuffer kCode, Appendable kOutput) throws IOException, DecodeException {
+		m_kDecoder=new BytecodeDecoder(kCode, m_kOperands);
+		m_kOutput=kOutput;
+		m_iInputPosition=0;
+
+		DecodeException kError=null;
+		try {
+			m_kDecoder.decode(new BytecodeDecoder.Adapter() {
+				@Override
+				public void token(int iOffset, int iLength, OperandTokenType kType) throws DecodeException {
+					try {
+						switch(kType) {
+							case REFERENCE:
+								tagReference();
+								break;
+							case NAME_REFERENCE:
+								tagVFReference();
+								break;
+							default:
+								mirrorTokens(iLength);
+						}
+					} catch(IOException x) {
+						throw new DecodeException(x.getMessage(), iOffset, x);
 					}
 				}
+			});
+		} catch(DecodeException x) {
+			if(x.getCause() instanceof IOException) {
+				throw (IOException) x.getCause();
 			}
+			kError=x;
+		}
+		// mirror anything left undecoded
+		mirrorTokens(m_kDecoder.getLength()-m_iInputPosition);
+		if(kError!=null) {
+			throw kError;
 		}
 	}
 
-    public void mirrorTokens(int iNum) {
+    public void mirrorTokens(int iNum) throws IOException {
 		for(int I=0; I<iNum; I++) {
-			m_sOutputString+=(m_sTokens[m_iInputPosition]+" ");
+			int iByte=m_kDecoder.getByte(m_iInputPosition);
+			m_kOutput.append(HEX_DIGITS[iByte>>4]).append(HEX_DIGITS[iByte&0xF]).append(' ');
 			m_iInputPosition++;
 		}
 	}
     
-    public void tagReference() {
-		int iReference=0;
-		for(int I=0; I<4; I++) {
-			iReference+=Integer.parseInt(m_sTokens[m_iInputPosition+I], 16)<<(8*I);
-		}
-		if(iReference!=0) {
-			m_sOutputString+="{{ ";
+    public void tagReference() throws IOException {
+		if(m_kDecoder.getInt(m_iInputPosition)!=0) {
+			m_kOutput.append("{{ ");
 			mirrorTokens(4);
-			m_sOutputString+="}} ";
+			m_kOutput.append("}} ");
 		} else {
 			mirrorTokens(4);
 		}
 	}
     
-    public void tagVFReference() {
-		int iReference=0;
-		for(int I=0; I<4; I++) {
-			iReference+=Integer.parseInt(m_sTokens[m_iInputPosition+I], 16)<<(8*I);
-		}
-		if(iReference!=0) {
-			m_sOutputString+="<< ";
+    public void tagVFReference() throws IOException {
+		if(m_kDecoder.getInt(m_iInputPosition)!=0) {
+			m_kOutput.append("<< ");
 			mirrorTokens(4);
-			m_sOutputString+=">> ";
+			m_kOutput.append(">> ");
 		} else {
 			mirrorTokens(4);
 		}
 	}
 
+	private static final char[] HEX_DIGITS="0123456789ABCDEF".toCharArray();
+
 }
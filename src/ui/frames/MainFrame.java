@@ -18,9 +18,9 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -99,7 +99,7 @@ public class MainFrame extends JFrame {
 	/**
 	 * The cache of shared UPK files.
 	 */
-	private Map<Path, UpkFile> upkCache = new HashMap<>();
+	private Map<Path, UpkFile> upkCache = new ConcurrentHashMap<>();
 	
 	/**
 	 * Constructs the application's main frame.
@@ -935,38 +935,88 @@ public class MainFrame extends JFrame {
 			ApplyStatus status = modTabPane.testModFileStatus(modFilePath);
 			this.setEditActionsEnabled(status);
 		} else {
-			// if not opened, create a temporary ModTree for testing,
-			// this modTree is not hooked up to a document and so cannot be
-			// updated,
-			// create parsed ModTree directly from supplied path
-			ModTree modTree = null;
-			try {
-				modTree = new ModTree(new String(Files.readAllBytes(modFilePath)), true);
-			} catch (IOException ex) {
-				Logger.getLogger(MainFrame.class.getName()).log(Level.SEVERE, null, ex);
-			}
-			
+			// if not opened, create a temporary ModTree for testing
+			ModTree modTree = this.createModTree(modNode);
 			if(modTree != null) {
-				// find upk for tree, if possible
-				ProjectNode project = modNode.getProject();
-				if (project != null) {
-					// get targeted generic UPK file name
-					String upkName = modTree.getUpkName();
-					// look up path in project's UPK file associations
-					Path upkPath = project.getUpkPath(upkName);
-					if (upkPath != null) {
-						UpkFile upkFile = this.getUpkFile(upkPath);
-						//set the target upk in the ModTree
-						modTree.setTargetUpk(upkFile);
-					}
-				}
-
 				// perform the test on the file
 				modNode.setStatus(HexSearchAndReplace.testFileStatus(modTree));
 			}
 		}
 	}
 	
+	/**
+	 * Creates a parsed ModTree directly from the file of the specified
+	 * (possibly not opened) mod file node. The target UPK file is looked up in
+	 * the UPK file associations of the node's project. This ModTree is not
+	 * hooked up to a document and so cannot be updated.
+	 * @param modNode the mod file node
+	 * @return the ModTree or <code>null</code> if the mod file could not be read
+	 */
+	public ModTree createModTree(ModFileNode modNode) {
+		byte[] modBytes;
+		try {
+			modBytes = Files.readAllBytes(modNode.getFilePath());
+		} catch (IOException ex) {
+			Logger.getLogger(MainFrame.class.getName()).log(Level.SEVERE, null, ex);
+			return null;
+		}
+		return this.createModTree(modNode, modBytes);
+	}
+
+	/**
+	 * Creates a parsed ModTree from the specified already read contents of
+	 * the file of the specified (possibly not opened) mod file node. The
+	 * target UPK file is looked up in the UPK file associations of the node's
+	 * project. This ModTree is not hooked up to a document and so cannot be
+	 * updated.
+	 * @param modNode the mod file node
+	 * @param modBytes the contents of the mod file
+	 * @return the ModTree
+	 */
+	public ModTree createModTree(ModFileNode modNode, byte[] modBytes) {
+		ModTree modTree = new ModTree(new String(modBytes), true);
+
+		// find UPK for tree, if possible
+		ProjectNode project = modNode.getProject();
+		if (project != null) {
+			// get targeted generic UPK file name
+			String upkName = modTree.getUpkName();
+			// look up path in project's UPK file associations
+			Path upkPath = project.getUpkPath(upkName);
+			if (upkPath != null) {
+				UpkFile upkFile = this.getUpkFile(upkPath);
+				//set the target upk in the ModTree
+				modTree.setTargetUpk(upkFile);
+			}
+		}
+		return modTree;
+	}
+
+	/**
+	 * Returns whether the specified mod file is opened in a tab.
+	 * @param modNode the mod file node
+	 * @return <code>true</code> if the mod file is opened
+	 */
+	public boolean isModFileOpened(ModFileNode modNode) {
+		Path modFilePath = modNode.getFilePath();
+		return (modFilePath != null) && (modTabPane.getTab(modFilePath) != null);
+	}
+
+	/**
+	 * Returns the ModTree of the specified mod file if it is opened in a tab.
+	 * @param modNode the mod file node
+	 * @return the ModTree of the tab or <code>null</code> if the mod file is
+	 *  not opened
+	 */
+	public ModTree getOpenedModTree(ModFileNode modNode) {
+		Path modFilePath = modNode.getFilePath();
+		if (modFilePath == null) {
+			return null;
+		}
+		ModFileTab tab = modTabPane.getTab(modFilePath);
+		return (tab != null) ? tab.getModTree() : null;
+	}
+
 	/**
 	 * Attempts to bulk apply as called from the project tree
 	 */
@@ -990,31 +1040,9 @@ public class MainFrame extends JFrame {
 			}
 			this.setEditActionsEnabled(status);
 		} else {
-			// if not opened, create a temporary ModTree for application,
-			// this modTree is not hooked up to a document and so cannot be
-			// updated, create parsed ModTree directly from supplied path
-			ModTree modTree = null;
-			try {
-				modTree = new ModTree(new String(Files.readAllBytes(modFilePath)), true);
-			} catch (IOException ex) {
-				Logger.getLogger(MainFrame.class.getName()).log(Level.SEVERE, null, ex);
-			}
-
+			// if not opened, create a temporary ModTree for application
+			ModTree modTree = this.createModTree(modNode);
 			if (modTree != null) {
-				// find UPK for tree, if possible
-				ProjectNode project = modNode.getProject();
-				if (project != null) {
-					// get targeted generic UPK file name
-					String upkName = modTree.getUpkName();
-					// look up path in project's UPK file associations
-					Path upkPath = project.getUpkPath(upkName);
-					if (upkPath != null) {
-						UpkFile upkFile = this.getUpkFile(upkPath);
-						//set the target upk in the ModTree
-						modTree.setTargetUpk(upkFile);
-					}
-				}
-
 				if (apply) {
 					// attempt to apply
 					if (HexSearchAndReplace.applyRevertChanges(true, modTree)) {
@@ -1045,14 +1073,20 @@ public class MainFrame extends JFrame {
 	/**
 	 * Convenience method to get a UPK file from the local cache or, if no
 	 * matching reference is present, to store a new reference in the cache.
+	 * Safe to be called from background threads, each UPK file is parsed once.
 	 * @param upkPath the path to the UPK file
 	 * @return the UpkFile instance
 	 */
 	private UpkFile getUpkFile(Path upkPath) {
 		UpkFile upkFile = upkCache.get(upkPath);
 		if (upkFile == null) {
-			upkFile = new UpkFile(upkPath);
-			upkCache.put(upkPath, upkFile);
+			synchronized (upkCache) {
+				upkFile = upkCache.get(upkPath);
+				if (upkFile == null) {
+					upkFile = new UpkFile(upkPath);
+					upkCache.put(upkPath, upkFile);
+				}
+			}
 		}
 		return upkFile;
 	}
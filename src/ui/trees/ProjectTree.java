@@ -1,5 +1,7 @@
 package ui.trees;
 
+import io.upk.Fingerprint;
+
 import java.awt.Component;
 import java.awt.Font;
 import java.awt.datatransfer.DataFlavor;
@@ -20,8 +22,20 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.WatchKey;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,6 +61,9 @@ import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
 
+import model.modtree.ModTree;
+import model.upk.UpkFile;
+
 import org.jdesktop.swingx.JXTree;
 import org.jdesktop.swingx.decorator.AbstractHighlighter;
 import org.jdesktop.swingx.decorator.ComponentAdapter;
@@ -59,6 +76,9 @@ import ui.frames.MainFrame;
 import ui.trees.ProjectTreeModel.FileNode;
 import ui.trees.ProjectTreeModel.ModFileNode;
 import ui.trees.ProjectTreeModel.ProjectNode;
+import util.unrealhex.BulkApplyRevert;
+import util.unrealhex.HexSearchAndReplace;
+import util.unrealhex.ModStatusCache;
 
 /**
  * Tree view implementation for the application's project pane.
@@ -67,6 +87,11 @@ import ui.trees.ProjectTreeModel.ProjectNode;
 @SuppressWarnings("serial")
 public class ProjectTree extends JXTree {
 	
+	/**
+	 * The maximum number of mod files tested concurrently.
+	 */
+	private static final int STATUS_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+	
 	ProjectTreeModel theTreeModel;
 	
 	/**
@@ -665,65 +690,141 @@ public class ProjectTree extends JXTree {
 	}
 
 	/**
-	 * Background worker for determining apply states of mod files.
+	 * Background worker for determining apply states of mod files. Mod files
+	 * not opened in tabs are tested concurrently on a bounded thread pool,
+	 * their results are published to the event dispatch thread in batches.
+	 * Mod files opened in tabs are tested through their tabs on the event
+	 * dispatch thread once all other mod files have been tested.
 	 * @author Amineri
 	 */
 	@SuppressWarnings("unchecked")
-	public class ModFileStatusWorker extends SwingWorker<Object, Object> {
+	public class ModFileStatusWorker extends SwingWorker<Object, StatusResult> {
 		
 		/** The parent file node. */
 		private FileNode parentNode;
+		/** The mod files opened in tabs. */
+		private List<ModFileNode> openedNodes = new ArrayList<>();
+		/** The mod files not opened in tabs. */
+		private List<ModFileNode> closedNodes = new ArrayList<>();
 
 		/**
 		 * Creates a status-determining worker for mod files below the specified
-		 * parent file node.
+		 * parent file node. Must be called on the event dispatch thread.
 		 * @param parentNode the parent file node
 		 */
 		public ModFileStatusWorker(FileNode parentNode) {
 			super();
 			this.parentNode = parentNode;
-		}
-
-		@Override
-		protected Object doInBackground() throws Exception {
-			// TODO: make application appear busy
-			this.setProgress(0);
 			
-			// determine total mod file count
-			double total = 0.0;
+			// collect mod files, mod files opened in tabs are tested through
+			// their tabs to keep editors in sync
 			Enumeration<FileNode> dfe = parentNode.depthFirstEnumeration();
 			while (dfe.hasMoreElements()) {
 				FileNode fileNode = (FileNode) dfe.nextElement();
 				if (fileNode instanceof ModFileNode) {
-					total++;
+					ModFileNode modFileNode = (ModFileNode) fileNode;
+					if (MainFrame.getInstance().isModFileOpened(modFileNode)) {
+						this.openedNodes.add(modFileNode);
+					} else {
+						this.closedNodes.add(modFileNode);
+					}
 				}
 			}
+		}
+
+		@Override
+		protected Object doInBackground() throws Exception {
+			// TODO: make application appear busy
+			this.setProgress(0);
 			
-			// update mod file status and fire progress events
+			if (closedNodes.isEmpty()) {
+				return null;
+			}
+			double total = closedNodes.size();
 			int current = 0;
-			dfe = parentNode.depthFirstEnumeration();
-			while (dfe.hasMoreElements()) {
-				FileNode fileNode = (FileNode) dfe.nextElement();
-				if (fileNode instanceof ModFileNode) {
-					MainFrame.getInstance().testModFileStatus((ModFileNode) fileNode);
-					this.setProgress((int) (++current / total * 100.0));
-				} else {
-					if (!fileNode.isLeaf()) {
-						try {
-//							fileNode.setStatus(ProjectTree.this.determineStatus(fileNode));
-							fileNode.determineStatus();
-						} catch (Exception ex) {
-							Logger.getLogger(ProjectTree.class.getName()).log(Level.SEVERE, null, ex);
+			
+			// test remaining mod files concurrently, status tests are read-only,
+			// mod files whose contents and target UPK did not change since they
+			// were tested last are not tested again
+			final Set<ModStatusCache> caches = Collections.synchronizedSet(new HashSet<ModStatusCache>());
+			int numThreads = Math.min(STATUS_THREADS, closedNodes.size());
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			try {
+				CompletionService<StatusResult> completion = new ExecutorCompletionService<>(executor);
+				for (final ModFileNode modFileNode : closedNodes) {
+					completion.submit(new Callable<StatusResult>() {
+						@Override
+						public StatusResult call() throws Exception {
+							byte[] modBytes = Files.readAllBytes(modFileNode.getFilePath());
+							byte[] modHash = ModStatusCache.hash(modBytes);
+							ProjectNode project = modFileNode.getProject();
+							ModStatusCache cache = null;
+							if (project != null) {
+								cache = ModStatusCache.forProject(project.getProjectFile());
+								caches.add(cache);
+								ApplyStatus status = cache.get(modFileNode.getFilePath(), modHash);
+								if (status != null) {
+									return new StatusResult(modFileNode, status);
+								}
+							}
+							ModTree modTree = MainFrame.getInstance().createModTree(modFileNode, modBytes);
+							UpkFile upk = modTree.getTargetUpk();
+							if ((cache == null) || (upk == null)) {
+								return new StatusResult(modFileNode, HexSearchAndReplace.testFileStatus(modTree));
+							}
+							Fingerprint fingerprint = Fingerprint.of(upk.getPath());
+							ApplyStatus status = HexSearchAndReplace.testFileStatus(modTree);
+							cache.put(modFileNode.getFilePath(), modHash, upk.getPath(), fingerprint, status);
+							return new StatusResult(modFileNode, status);
 						}
+					});
+				}
+				for (int i = 0; i < closedNodes.size(); i++) {
+					try {
+						this.publish(completion.take().get());
+					} catch (ExecutionException ex) {
+						Logger.getLogger(ProjectTree.class.getName()).log(Level.SEVERE, null, ex.getCause());
 					}
+					this.setProgress((int) (++current / total * 100.0));
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+			synchronized (caches) {
+				for (ModStatusCache cache : caches) {
+					cache.save();
 				}
 			}
 			
 			return null;
 		}
 		
+		@Override
+		protected void process(List<StatusResult> results) {
+			for (StatusResult result : results) {
+				if (result.status != null) {
+					result.node.setStatus(result.status);
+				}
+			}
+		}
+		
 		@Override
 		protected void done() {
+			// update tabs of opened mod files
+			for (ModFileNode modFileNode : this.openedNodes) {
+				MainFrame.getInstance().testModFileStatus(modFileNode);
+			}
+			// update states of folders containing changed mod files once all
+			// published results have been processed
+			FileNode topNode = parentNode.getProject();
+			if (topNode == null) {
+				topNode = parentNode;
+			}
+			try {
+				topNode.updateStatus();
+			} catch (Exception ex) {
+				Logger.getLogger(ProjectTree.class.getName()).log(Level.SEVERE, null, ex);
+			}
 			// TODO: make application stop appearing busy
 			this.setProgress(100);
 		}
@@ -731,20 +832,52 @@ public class ProjectTree extends JXTree {
 	}
 
 	/**
-	 * Background worker for batch-applying/reverting mod files.
+	 * The tested status of a single mod file as published by background
+	 * workers to the event dispatch thread.
+	 */
+	protected static class StatusResult {
+		
+		/** The mod file node. */
+		private ModFileNode node;
+		/** The tested status or <code>null</code> if the mod file could not be read. */
+		private ApplyStatus status;
+		
+		/**
+		 * Creates a status result.
+		 * @param node the mod file node
+		 * @param status the tested status
+		 */
+		public StatusResult(ModFileNode node, ApplyStatus status) {
+			this.node = node;
+			this.status = status;
+		}
+		
+	}
+
+	/**
+	 * Background worker for batch-applying/reverting mod files. The mod files
+	 * to process and the contents of those opened in tabs are collected on
+	 * the event dispatch thread, the resulting states are published to it.
 	 * @author Amineri
 	 */
 	@SuppressWarnings("unchecked")
-	public class ModFileBulkApplyRevertWorker extends SwingWorker<Object, Object> {
+	public class ModFileBulkApplyRevertWorker extends SwingWorker<Object, StatusResult> {
 		
 		/** The root of the sub-tree to perform operations on. */
 		private FileNode root;
 		/** Flag denoting whether an apply or a revert operation shall be performed. */
 		private boolean apply;
+		/** The mod files to process in project order. */
+		private List<ModFileNode> modFileNodes = new ArrayList<>();
+		/** The mod files which are excluded and only need to be tested. */
+		private Set<ModFileNode> excludedNodes = new HashSet<>();
+		/** The editor contents of mod files opened in tabs. */
+		private Map<ModFileNode, String> openedTexts = new HashMap<>();
 
 		/**
 		 * Creates a bulk processing worker for mod files in the subtree rooted
-		 * at the specified file node.
+		 * at the specified file node. Must be called on the event dispatch
+		 * thread.
 		 * @param root the parent file node
 		 * @param apply <code>true</code> if apply operations shall be performed,
 		 *  <code>false</code> for revert operations
@@ -753,15 +886,9 @@ public class ProjectTree extends JXTree {
 			super();
 			this.root = root;
 			this.apply = apply;
-		}
-
-		@Override
-		protected Object doInBackground() throws Exception {
-			// TODO: make application appear busy
-			this.setProgress(0);
 			
-			// determine total mod file count
-			double total = 0.0;
+			// collect mod files in project order, mod files opened in tabs are
+			// processed using the current contents of their tabs
 			Enumeration<FileNode> dfe = root.depthFirstEnumeration();
 			while (dfe.hasMoreElements()) {
 				FileNode fileNode = (FileNode) dfe.nextElement();
@@ -772,54 +899,81 @@ public class ProjectTree extends JXTree {
 					continue;
 				}
 				if (fileNode instanceof ModFileNode) {
-					total++;
+					ModFileNode modFileNode = (ModFileNode) fileNode;
+					this.modFileNodes.add(modFileNode);
+					if (fileNode.isExcluded()) {
+						this.excludedNodes.add(modFileNode);
+					}
+					ModTree modTree = MainFrame.getInstance().getOpenedModTree(modFileNode);
+					if (modTree != null) {
+						this.openedTexts.put(modFileNode, modTree.getRoot().getFullText());
+					}
 				}
 			}
+		}
+
+		@Override
+		protected Object doInBackground() throws Exception {
+			// TODO: make application appear busy
+			this.setProgress(0);
 			
-			// update mod file status and fire progress events
+			// parse mod files and fire progress events, the trees of opened
+			// tabs are not touched, their tabs are tested again when done
+			BulkApplyRevert bulk = new BulkApplyRevert(this.apply);
+			Map<ModTree, ModFileNode> treeNodes = new HashMap<>();
+			double total = this.modFileNodes.size();
 			int current = 0;
-			dfe = root.depthFirstEnumeration();
-			while (dfe.hasMoreElements()) {
-				FileNode fileNode = (FileNode) dfe.nextElement();
-				FileNode parentNode = (FileNode) fileNode.getParent();
-				if (!(fileNode instanceof ProjectNode)
-						&& (parentNode != null)
-						&& parentNode.isExcluded()) {
-					continue;
-				}
-				if (fileNode instanceof ModFileNode) {
-					ModFileNode modFileNode = (ModFileNode) fileNode;
-					MainFrame.getInstance().testModFileStatus(modFileNode);
-					if (!fileNode.isExcluded()) {
-						if (this.apply) {
-							if(fileNode.getStatus() == ApplyStatus.BEFORE_HEX_PRESENT) {
-								// @Amineri if the MainFrame's doing the actual heavy lifting why not move the worker there? That way it can also be added to the global action cache for use in menu/toolbar items
-								MainFrame.getInstance().bulkApplyRevertModFile(modFileNode, true);
-							}
-						} else {
-							if(fileNode.getStatus() == ApplyStatus.AFTER_HEX_PRESENT) {
-								MainFrame.getInstance().bulkApplyRevertModFile(modFileNode, false);
-							}
-						}
-					}
-					this.setProgress((int) (++current / total * 100.0));
-				} else {
-					if (!fileNode.isLeaf()) {
-						try {
-//							fileNode.setStatus(ProjectTree.this.determineStatus(fileNode));
-							fileNode.determineStatus();
-						} catch (Exception ex) {
-							Logger.getLogger(ProjectTree.class.getName()).log(Level.SEVERE, null, ex);
-						}
+			for (ModFileNode modFileNode : this.modFileNodes) {
+				String openedText = this.openedTexts.get(modFileNode);
+				ModTree modTree = (openedText != null)
+						? MainFrame.getInstance().createModTree(modFileNode, openedText.getBytes())
+						: MainFrame.getInstance().createModTree(modFileNode);
+				if (modTree != null) {
+					if (this.excludedNodes.contains(modFileNode)) {
+						this.publish(new StatusResult(modFileNode, HexSearchAndReplace.testFileStatus(modTree)));
+					} else {
+						bulk.add(modTree);
+						treeNodes.put(modTree, modFileNode);
 					}
 				}
+				this.setProgress((int) (++current / total * 50.0));
+			}
+			
+			// apply/revert all parsed mod files grouped by target upk
+			for (Entry<ModTree, ApplyStatus> result : bulk.execute().entrySet()) {
+				this.publish(new StatusResult(treeNodes.get(result.getKey()), result.getValue()));
 			}
+			this.setProgress(90);
 			
 			return null;
 		}
 		
+		@Override
+		protected void process(List<StatusResult> results) {
+			for (StatusResult result : results) {
+				if (result.status != null) {
+					result.node.setStatus(result.status);
+				}
+			}
+		}
+		
 		@Override
 		protected void done() {
+			// update tabs of opened mod files
+			for (ModFileNode modFileNode : this.openedTexts.keySet()) {
+				MainFrame.getInstance().testModFileStatus(modFileNode);
+			}
+			// update states of folders containing changed mod files once all
+			// published results have been processed
+			FileNode topNode = root.getProject();
+			if (topNode == null) {
+				topNode = root;
+			}
+			try {
+				topNode.updateStatus();
+			} catch (Exception ex) {
+				Logger.getLogger(ProjectTree.class.getName()).log(Level.SEVERE, null, ex);
+			}
 			// TODO: make application stop appearing busy
 			this.setProgress(100);
 		}
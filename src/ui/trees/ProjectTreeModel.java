@@ -52,6 +52,7 @@ import org.xml.sax.SAXException;
 
 import ui.ApplyStatus;
 import ui.Constants;
+import util.unrealhex.ModStatusCache;
 
 /**
  * A hybrid tree model combining a tree node-based setup with a file tree model.
@@ -519,6 +520,13 @@ public class ProjectTreeModel extends DefaultTreeModel {
 		 */
 		protected ApplyStatus status;
 		
+		/**
+		 * Flag denoting whether the aggregated status of this node is out of
+		 * date because the status of a descendant node or the set of child
+		 * nodes changed. If set, it is also set for all ancestor nodes.
+		 */
+		protected boolean dirty = true;
+		
 		/**
 		 * Constructs a generic file node from the specified file or directory path.
 		 * @param path the path to wrap
@@ -577,11 +585,39 @@ public class ProjectTreeModel extends DefaultTreeModel {
 		 * @param status the apply state to set
 		 */
 		public void setStatus(ApplyStatus status) {
+			boolean changed = (status != this.status);
 			this.status = status;
 			// notify model to force the tree to update
 			DefaultMutableTreeNode parent = (DefaultMutableTreeNode) this.getParent();
 			ProjectTreeModel.this.fireTreeNodesChanged(ProjectTreeModel.this, parent.getPath(),
 					new int[] { parent.getIndex(this) }, new Object[] { this });
+			if (changed && (parent instanceof FileNode)) {
+				((FileNode) parent).markDirty();
+			}
+		}
+		
+		/**
+		 * Marks the aggregated status of this node and all its ancestor nodes
+		 * as out of date.
+		 */
+		protected void markDirty() {
+			TreeNode node = this;
+			while ((node instanceof FileNode) && !((FileNode) node).dirty) {
+				((FileNode) node).dirty = true;
+				node = node.getParent();
+			}
+		}
+		
+		@Override
+		public void insert(MutableTreeNode newChild, int childIndex) {
+			super.insert(newChild, childIndex);
+			this.markDirty();
+		}
+		
+		@Override
+		public void remove(int childIndex) {
+			super.remove(childIndex);
+			this.markDirty();
 		}
 
 		@Override
@@ -659,6 +695,25 @@ public class ProjectTreeModel extends DefaultTreeModel {
 			this.setStatus(tempStatus);
 		}
 		
+		/**
+		 * Recomputes the aggregated states of this node and all descendant
+		 * directory nodes whose states are out of date. Subtrees without
+		 * status changes are skipped.
+		 */
+		public void updateStatus() {
+			if (!this.dirty) {
+				return;
+			}
+			for (int i = 0; i < this.getChildCount(); i++) {
+				FileNode child = (FileNode) this.getChildAt(i);
+				if (!(child instanceof ModFileNode) && !child.isLeaf()) {
+					child.updateStatus();
+				}
+			}
+			this.determineStatus();
+			this.dirty = false;
+		}
+		
 	}
 	
 	
@@ -796,6 +851,8 @@ public class ProjectTreeModel extends DefaultTreeModel {
 		 */
 		public Path addUpkPath(String upkName, Path upkPath) {
 			Path prevPath = this.upkAssociations.put(upkName, upkPath);
+			// cached states may have been tested against the previous UPK file
+			ModStatusCache.forProject(this.xmlPath).clear();
 			// re-create project XML using new associations
 			this.writeProjectXml();
 			return prevPath;
@@ -839,6 +896,11 @@ public class ProjectTreeModel extends DefaultTreeModel {
 			this.status = ApplyStatus.UNKNOWN;
 		}
 		
+		@Override
+		public void updateStatus() {
+			// the status of mod files is tested, not aggregated
+		}
+		
 	}
 
 }
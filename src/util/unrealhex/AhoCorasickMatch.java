@@ -0,0 +1,251 @@
+package util.unrealhex;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick multi-pattern matcher for byte arrays.<br>
+ * Finds the first occurrence of each of a set of patterns in a single pass
+ * over the searched data, e.g. the positions of all BEFORE and AFTER blocks
+ * of a mod file within a function body.
+ *
+ * @author XMS
+ */
+public class AhoCorasickMatch {
+
+	/**
+	 * The root state of the automaton.
+	 */
+	private static final int ROOT = 0;
+
+	/**
+	 * The patterns to search for.
+	 */
+	private byte[][] patterns;
+
+	/**
+	 * The dense transition table of the root state.
+	 */
+	private int[] rootTransitions = new int[256];
+
+	/**
+	 * The transition bytes of each non-root state.
+	 */
+	private byte[][] edgeBytes;
+
+	/**
+	 * The transition targets of each non-root state.
+	 */
+	private int[][] edgeTargets;
+
+	/**
+	 * The number of transitions of each state.
+	 */
+	private int[] edgeCounts;
+
+	/**
+	 * The failure link of each state.
+	 */
+	private int[] failures;
+
+	/**
+	 * The nearest state reachable via failure links which completes a
+	 * pattern, <code>ROOT</code> if there is none.
+	 */
+	private int[] outputLinks;
+
+	/**
+	 * The indices of the patterns completed in each state.
+	 */
+	private int[][] outputs;
+
+	/**
+	 * The number of states.
+	 */
+	private int numStates;
+
+	/**
+	 * Constructs a matcher for the specified patterns.
+	 * @param patterns the patterns to search for
+	 */
+	public AhoCorasickMatch(List<byte[]> patterns) {
+		this.patterns = patterns.toArray(new byte[patterns.size()][]);
+		int maxStates = 1;
+		for (byte[] pattern : this.patterns) {
+			maxStates += pattern.length;
+		}
+		this.edgeBytes = new byte[maxStates][];
+		this.edgeTargets = new int[maxStates][];
+		this.edgeCounts = new int[maxStates];
+		this.failures = new int[maxStates];
+		this.outputLinks = new int[maxStates];
+		this.outputs = new int[maxStates][];
+		this.numStates = 1;
+
+		for (int i = 0; i < this.patterns.length; i++) {
+			this.addPattern(i);
+		}
+		this.computeFailures();
+	}
+
+	/**
+	 * Finds the first occurrence of each pattern in the data.
+	 * @param data byte array to search within
+	 * @return the index of the first occurrence of each pattern, -1 for
+	 *  patterns which were not found
+	 */
+	public int[] indexOf(byte[] data) {
+		return this.indexOf(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Finds the first occurrence of each pattern in the remaining bytes of the
+	 * specified buffer, i.e. between its position and limit. The buffer's
+	 * position is not modified.
+	 * @param data byte buffer to search within
+	 * @return the index of the first occurrence of each pattern relative to
+	 *  the buffer's position, -1 for patterns which were not found
+	 */
+	public int[] indexOf(ByteBuffer data) {
+		int[] indices = new int[this.patterns.length];
+		Arrays.fill(indices, -1);
+
+		// empty patterns are never found
+		int remaining = 0;
+		for (byte[] pattern : this.patterns) {
+			if (pattern.length > 0) {
+				remaining++;
+			}
+		}
+
+		int start = data.position();
+		int end = data.limit();
+		int state = ROOT;
+		for (int i = start; (i < end) && (remaining > 0); i++) {
+			int b = data.get(i) & 0xFF;
+			while ((state != ROOT) && (this.getTransition(state, b) < 0)) {
+				state = this.failures[state];
+			}
+			state = (state == ROOT) ? this.rootTransitions[b] : this.getTransition(state, b);
+
+			// report all patterns ending at the current byte
+			int outState = (this.outputs[state] != null) ? state : this.outputLinks[state];
+			while (outState != ROOT) {
+				for (int patternIdx : this.outputs[outState]) {
+					if (indices[patternIdx] < 0) {
+						indices[patternIdx] = i - start - this.patterns[patternIdx].length + 1;
+						remaining--;
+					}
+				}
+				outState = this.outputLinks[outState];
+			}
+		}
+		return indices;
+	}
+
+	/**
+	 * Adds the pattern of the specified index to the trie.
+	 * @param patternIdx the pattern index
+	 */
+	private void addPattern(int patternIdx) {
+		byte[] pattern = this.patterns[patternIdx];
+		if (pattern.length == 0) {
+			return;
+		}
+		int state = ROOT;
+		for (byte value : pattern) {
+			int b = value & 0xFF;
+			int next = (state == ROOT) ? this.rootTransitions[b] : this.getTransition(state, b);
+			if (next <= ROOT) {
+				next = this.numStates++;
+				this.addTransition(state, b, next);
+			}
+			state = next;
+		}
+		int[] output = this.outputs[state];
+		if (output == null) {
+			this.outputs[state] = new int[] { patternIdx };
+		} else {
+			output = Arrays.copyOf(output, output.length + 1);
+			output[output.length - 1] = patternIdx;
+			this.outputs[state] = output;
+		}
+	}
+
+	/**
+	 * Computes the failure and output links of all states in breadth-first order.
+	 */
+	private void computeFailures() {
+		int[] queue = new int[this.numStates];
+		int head = 0;
+		int tail = 0;
+		for (int b = 0; b < 256; b++) {
+			int child = this.rootTransitions[b];
+			if (child != ROOT) {
+				this.failures[child] = ROOT;
+				this.outputLinks[child] = ROOT;
+				queue[tail++] = child;
+			}
+		}
+		while (head < tail) {
+			int state = queue[head++];
+			for (int i = 0; i < this.edgeCounts[state]; i++) {
+				int b = this.edgeBytes[state][i] & 0xFF;
+				int child = this.edgeTargets[state][i];
+
+				// follow failure links of parent until a state continues with the same byte
+				int failure = this.failures[state];
+				while ((failure != ROOT) && (this.getTransition(failure, b) < 0)) {
+					failure = this.failures[failure];
+				}
+				failure = (failure == ROOT) ? this.rootTransitions[b] : this.getTransition(failure, b);
+				this.failures[child] = failure;
+				this.outputLinks[child] = (this.outputs[failure] != null) ? failure : this.outputLinks[failure];
+				queue[tail++] = child;
+			}
+		}
+	}
+
+	/**
+	 * Returns the target of the transition of the specified non-root state
+	 * via the specified byte.
+	 * @param state the state
+	 * @param b the unsigned byte value
+	 * @return the target state or -1 if there is no such transition
+	 */
+	private int getTransition(int state, int b) {
+		byte[] bytes = this.edgeBytes[state];
+		for (int i = 0; i < this.edgeCounts[state]; i++) {
+			if ((bytes[i] & 0xFF) == b) {
+				return this.edgeTargets[state][i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a transition to the specified state.
+	 * @param state the source state
+	 * @param b the unsigned byte value
+	 * @param target the target state
+	 */
+	private void addTransition(int state, int b, int target) {
+		if (state == ROOT) {
+			this.rootTransitions[b] = target;
+			return;
+		}
+		int count = this.edgeCounts[state];
+		if (count == 0) {
+			this.edgeBytes[state] = new byte[1];
+			this.edgeTargets[state] = new int[1];
+		} else if (count == this.edgeBytes[state].length) {
+			this.edgeBytes[state] = Arrays.copyOf(this.edgeBytes[state], count * 2);
+			this.edgeTargets[state] = Arrays.copyOf(this.edgeTargets[state], count * 2);
+		}
+		this.edgeBytes[state][count] = (byte) b;
+		this.edgeTargets[state][count] = target;
+		this.edgeCounts[state] = count + 1;
+	}
+
+}
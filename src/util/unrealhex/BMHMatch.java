@@ -0,0 +1,78 @@
+package util.unrealhex;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Boyer-Moore-Horspool byte pattern matcher.<br>
+ * Has the same contract as {@link KMPMatch}, but compares the pattern from
+ * its last byte backwards and skips ahead by up to the pattern length on a
+ * mismatch, so on average only a fraction of the searched bytes is examined.
+ *
+ * @author XMS
+ */
+public class BMHMatch {
+
+	/**
+	 * Finds the first occurrence of the pattern in the data.
+	 * @param data byte array to search within
+	 * @param pattern byte array to search with
+	 * @return the index of the first occurrence, or -1 if not found
+	 */
+	public static int indexOf(byte[] data, byte[] pattern) {
+		return indexOf(ByteBuffer.wrap(data), pattern);
+	}
+
+	/**
+	 * Finds the first occurrence of the pattern in the remaining bytes of the
+	 * specified buffer, i.e. between its position and limit. The buffer's
+	 * position is not modified.
+	 * @param data byte buffer to search within
+	 * @param pattern byte array to search with
+	 * @return the index relative to the buffer's position, or -1 if not found
+	 */
+	public static int indexOf(ByteBuffer data, byte[] pattern) {
+		int start = data.position();
+		int end = data.limit();
+		int last = pattern.length - 1;
+		if (start == end) return -1;
+		if (last < 0) return 0;
+
+		int[] shifts = computeShifts(pattern);
+		
+		int pos = start;
+		while (pos + last < end) {
+			byte b = data.get(pos + last);
+			if (b == pattern[last]) {
+				int j = last - 1;
+				while ((j >= 0) && (data.get(pos + j) == pattern[j])) {
+					j--;
+				}
+				if (j < 0) {
+					return pos - start;
+				}
+			}
+			pos += shifts[b & 0xFF];
+		}
+		return -1;
+	}
+
+	/**
+	 * Computes the bad character shift table, i.e. the distance of the last
+	 * occurrence of each byte value from the end of the pattern, not counting
+	 * the last byte itself.
+	 * @param pattern byte array being searched for
+	 * @return the shift table
+	 */
+	private static int[] computeShifts(byte[] pattern) {
+		int[] shifts = new int[256];
+		int last = pattern.length - 1;
+		for (int i = 0; i < shifts.length; i++) {
+			shifts[i] = pattern.length;
+		}
+		for (int i = 0; i < last; i++) {
+			shifts[pattern[i] & 0xFF] = last - i;
+		}
+		return shifts;
+	}
+
+}
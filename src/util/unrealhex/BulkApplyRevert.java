@@ -0,0 +1,313 @@
+package util.unrealhex;
+
+import static model.modtree.ModTree.logger;
+import io.upk.UpkWriteBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
+
+import model.modtree.ModContext.ModContextType;
+import model.modtree.ModTree;
+import model.upk.UpkFile;
+import ui.ApplyStatus;
+
+/**
+ * Engine for applying or reverting many mod files at once.<br>
+ * Mod files are grouped by their target UPK file. For each package the
+ * blocks of all same-size mod files are located first and overlapping edits
+ * of different mod files are rejected as conflicts, then all remaining
+ * edits are written in a single pass. Afterwards the package is rewritten
+ * once for all resizing mod files using a {@link ResizePlan}, special
+ * actions are processed one by one.<br>
+ * Mod files whose status does not allow the operation are tested again
+ * after each such pass until no further mod file could be processed, so
+ * chained mod files building on the <code>AFTER</code> hex of other mod
+ * files are processed once their predecessors are.
+ *
+ * @author XMS
+ */
+public class BulkApplyRevert {
+
+	/**
+	 * Comparator sorting edits by ascending file position.
+	 */
+	private static final Comparator<Edit> POSITION_ORDER = new Comparator<Edit>() {
+		@Override
+		public int compare(Edit e1, Edit e2) {
+			return Long.compare(e1.position, e2.position);
+		}
+	};
+
+	/**
+	 * Flag denoting whether mod files shall be applied or reverted.
+	 */
+	private boolean apply;
+
+	/**
+	 * The mod trees grouped by target UPK file.
+	 */
+	private Map<UpkFile, List<ModTree>> upkTrees = new LinkedHashMap<>();
+
+	/**
+	 * The mod trees without target UPK file.
+	 */
+	private List<ModTree> untargetedTrees = new ArrayList<>();
+
+	/**
+	 * Constructs an empty bulk operation.
+	 * @param apply <code>true</code> if mod files shall be applied,
+	 *  <code>false</code> if they shall be reverted
+	 */
+	public BulkApplyRevert(boolean apply) {
+		this.apply = apply;
+	}
+
+	/**
+	 * Adds the specified mod tree to the operation. The tree's target UPK
+	 * file must have been set beforehand.
+	 * @param tree the mod tree to add
+	 */
+	public void add(ModTree tree) {
+		UpkFile upk = tree.getTargetUpk();
+		if (upk == null) {
+			this.untargetedTrees.add(tree);
+			return;
+		}
+		List<ModTree> trees = this.upkTrees.get(upk);
+		if (trees == null) {
+			trees = new ArrayList<>();
+			this.upkTrees.put(upk, trees);
+		}
+		trees.add(tree);
+	}
+
+	/**
+	 * Applies or reverts all added mod trees. Only trees whose status allows
+	 * the operation are modified, i.e. trees with <code>BEFORE</code> hex
+	 * present when applying and trees with <code>AFTER</code> hex present
+	 * when reverting.
+	 * @return the resulting status of each added mod tree
+	 */
+	public Map<ModTree, ApplyStatus> execute() {
+		Map<ModTree, ApplyStatus> results = new LinkedHashMap<>();
+		for (ModTree tree : this.untargetedTrees) {
+			results.put(tree, ApplyStatus.UNKNOWN);
+		}
+		for (Entry<UpkFile, List<ModTree>> entry : this.upkTrees.entrySet()) {
+			long startTime = System.currentTimeMillis();
+			this.execute(entry.getKey(), entry.getValue(), results);
+			logger.log(Level.FINE, "Bulk " + (this.apply ? "apply" : "revert") + " of " + entry.getValue().size()
+					+ " mod files to " + entry.getKey().getPath() + ", took " + (System.currentTimeMillis() - startTime) + "ms");
+		}
+		return results;
+	}
+
+	/**
+	 * Applies or reverts the specified mod trees targeting the specified UPK
+	 * file in passes until no further tree could be processed.
+	 * @param upk the target UPK file
+	 * @param trees the mod trees in the order they were added
+	 * @param results the map to store the resulting status of each tree in
+	 */
+	private void execute(UpkFile upk, List<ModTree> trees, Map<ModTree, ApplyStatus> results) {
+		List<ModTree> remainingTrees = new ArrayList<>(trees);
+		while (!remainingTrees.isEmpty()) {
+			Set<ModTree> processedTrees = this.executePass(upk, remainingTrees, results);
+			if (processedTrees.isEmpty()) {
+				break;
+			}
+			remainingTrees.removeAll(processedTrees);
+		}
+		// the package changed in place, its cached mod file states are outdated
+		ModStatusCache.invalidate(upk.getPath());
+	}
+
+	/**
+	 * Applies or reverts all specified mod trees whose current status allows
+	 * the operation in a single pass.
+	 * @param upk the target UPK file
+	 * @param trees the mod trees in the order they were added
+	 * @param results the map to store the resulting status of each tree in
+	 * @return the mod trees which have been applied or reverted
+	 */
+	private Set<ModTree> executePass(UpkFile upk, List<ModTree> trees, Map<ModTree, ApplyStatus> results) {
+		ApplyStatus requiredStatus = (this.apply) ? ApplyStatus.BEFORE_HEX_PRESENT : ApplyStatus.AFTER_HEX_PRESENT;
+		ApplyStatus resultStatus = (this.apply) ? ApplyStatus.AFTER_HEX_PRESENT : ApplyStatus.BEFORE_HEX_PRESENT;
+		ModContextType findContext = (this.apply) ? ModContextType.BEFORE_HEX : ModContextType.AFTER_HEX;
+		ModContextType replaceContext = (this.apply) ? ModContextType.AFTER_HEX : ModContextType.BEFORE_HEX;
+
+		// locate blocks of all same-size mod files
+		List<Edit> edits = new ArrayList<>();
+		List<ModTree> sequentialTrees = new ArrayList<>();
+		List<ModTree> candidateTrees = new ArrayList<>();
+		for (ModTree tree : trees) {
+			ApplyStatus status = HexSearchAndReplace.testFileStatus(tree);
+			results.put(tree, status);
+			if (status != requiredStatus) {
+				continue;
+			}
+			candidateTrees.add(tree);
+			if (!tree.getAction().isEmpty() || (tree.getResizeAmount() != 0)) {
+				sequentialTrees.add(tree);
+				continue;
+			}
+			try {
+				List<byte[]> patterns = HexSearchAndReplace.consolidateHex(tree, findContext);
+				List<byte[]> replacements = HexSearchAndReplace.consolidateHex(tree, replaceContext);
+				long[] filePositions = HexSearchAndReplace.testBeforeAndAfterBlocks(patterns, replacements, tree);
+				if (filePositions != null) {
+					for (int i = 0; i < filePositions.length; i++) {
+						edits.add(new Edit(tree, filePositions[i], replacements.get(i)));
+					}
+				}
+			} catch (IOException ex) {
+				logger.log(Level.SEVERE, "File error", ex);
+			}
+		}
+
+		// write all non-conflicting edits in a single pass
+		Set<ModTree> conflicts = this.findConflicts(upk, edits);
+		UpkWriteBatch batch = new UpkWriteBatch();
+		Set<ModTree> batchedTrees = new LinkedHashSet<>();
+		for (Edit edit : edits) {
+			if (!conflicts.contains(edit.tree)) {
+				batch.add(upk.getPath(), edit.position, edit.bytes);
+				batchedTrees.add(edit.tree);
+			}
+		}
+		try {
+			batch.flush();
+			upk.updateFingerprint();
+			for (ModTree tree : batchedTrees) {
+				results.put(tree, resultStatus);
+			}
+		} catch (IOException ex) {
+			logger.log(Level.SEVERE, "File error", ex);
+			// determine which edits made it into the file
+			for (ModTree tree : batchedTrees) {
+				results.put(tree, HexSearchAndReplace.testFileStatus(tree));
+			}
+		}
+
+		// rewrite package once for all resizing mod files
+		ResizePlan resizePlan = new ResizePlan(upk);
+		List<ModTree> resizeTrees = new ArrayList<>();
+		for (Iterator<ModTree> iter = sequentialTrees.iterator(); iter.hasNext();) {
+			ModTree tree = iter.next();
+			if (tree.getAction().isEmpty()) {
+				iter.remove();
+				if (resizePlan.add(this.apply, tree)) {
+					resizeTrees.add(tree);
+				}
+			}
+		}
+		if (resizePlan.execute()) {
+			for (ModTree tree : resizeTrees) {
+				results.put(tree, resultStatus);
+			}
+		} else {
+			for (ModTree tree : resizeTrees) {
+				results.put(tree, HexSearchAndReplace.testFileStatus(tree));
+			}
+		}
+
+		// process special actions one by one
+		for (ModTree tree : sequentialTrees) {
+			if ((HexSearchAndReplace.testFileStatus(tree) == requiredStatus)
+					&& HexSearchAndReplace.applyRevertChanges(this.apply, tree)) {
+				results.put(tree, resultStatus);
+			}
+		}
+
+		Set<ModTree> processedTrees = new LinkedHashSet<>();
+		for (ModTree tree : candidateTrees) {
+			if (results.get(tree) == resultStatus) {
+				processedTrees.add(tree);
+			}
+		}
+		return processedTrees;
+	}
+
+	/**
+	 * Determines the mod trees whose edits overlap edits of other mod trees.
+	 * @param upk the target UPK file
+	 * @param edits the edits of all mod trees
+	 * @return the conflicting mod trees
+	 */
+	private Set<ModTree> findConflicts(UpkFile upk, List<Edit> edits) {
+		Set<ModTree> conflicts = new HashSet<>();
+		List<Edit> sortedEdits = new ArrayList<>(edits);
+		Collections.sort(sortedEdits, POSITION_ORDER);
+		List<Edit> activeEdits = new ArrayList<>();
+		for (Edit edit : sortedEdits) {
+			for (Iterator<Edit> iter = activeEdits.iterator(); iter.hasNext();) {
+				Edit activeEdit = iter.next();
+				if (activeEdit.getEnd() <= edit.position) {
+					iter.remove();
+				} else if (activeEdit.tree != edit.tree) {
+					conflicts.add(activeEdit.tree);
+					conflicts.add(edit.tree);
+					logger.log(Level.WARNING, "Conflicting edits of " + activeEdit.tree.getFunctionName()
+							+ " and " + edit.tree.getFunctionName() + " at 0x" + Long.toHexString(edit.position)
+							+ " in " + upk.getPath());
+				}
+			}
+			activeEdits.add(edit);
+		}
+		return conflicts;
+	}
+
+	/**
+	 * A single located block replacement.
+	 */
+	private static class Edit {
+
+		/**
+		 * The mod tree the edit belongs to.
+		 */
+		private ModTree tree;
+
+		/**
+		 * The absolute file position of the block.
+		 */
+		private long position;
+
+		/**
+		 * The replacement bytes.
+		 */
+		private byte[] bytes;
+
+		/**
+		 * Constructs an edit.
+		 * @param tree the mod tree the edit belongs to
+		 * @param position the absolute file position of the block
+		 * @param bytes the replacement bytes
+		 */
+		public Edit(ModTree tree, long position, byte[] bytes) {
+			this.tree = tree;
+			this.position = position;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Returns the file position right behind the block.
+		 * @return the end position
+		 */
+		public long getEnd() {
+			return this.position + this.bytes.length;
+		}
+
+	}
+
+}
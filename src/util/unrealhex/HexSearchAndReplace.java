@@ -2,17 +2,16 @@ package util.unrealhex;
 
 import static model.modtree.ModTree.logger;
 import io.model.upk.ObjectEntry;
+import io.upk.ExportTableWriter;
+import io.upk.UpkWriteBatch;
 
-import java.io.FileNotFoundException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,6 +24,7 @@ import model.modtree.ModTree;
 import model.modtree.ModTreeNode;
 import model.upk.UpkFile;
 import ui.ApplyStatus;
+import util.properties.UpkModderProperties;
 
 /**
  * Utility class for consolidating hex and performing apply/revert operations to upks
@@ -34,6 +34,56 @@ public class HexSearchAndReplace {
 	
 	// TODO: wrong logger is used here (statically imported from ModTree), create own logger instance
 	
+	/**
+	 * Enumeration of single pattern search algorithms usable by {@link #findFilePosition(byte[], ModTree)}.
+	 */
+	public enum SearchAlgorithm {
+		/** Knuth-Morris-Pratt, see {@link KMPMatch} */
+		KMP,
+		/** Boyer-Moore-Horspool, see {@link BMHMatch} */
+		BMH
+	}
+	
+	/**
+	 * The configuration property key selecting the search algorithm.
+	 */
+	public static final String SEARCH_ALGORITHM_PROPERTY = "search.algorithm";
+	
+	/**
+	 * The algorithm used for single pattern searches, <code>null</code> until
+	 * read from the configuration.
+	 */
+	private static SearchAlgorithm searchAlgorithm;
+	
+	/**
+	 * Returns the algorithm used for single pattern searches. Unless set
+	 * explicitly it is read once from the '<code>search.algorithm</code>'
+	 * configuration property and defaults to {@link SearchAlgorithm#BMH}.
+	 * @return the search algorithm
+	 */
+	public static synchronized SearchAlgorithm getSearchAlgorithm() {
+		if (searchAlgorithm == null) {
+			searchAlgorithm = SearchAlgorithm.BMH;
+			String property = UpkModderProperties.getConfigProperty(SEARCH_ALGORITHM_PROPERTY);
+			if (property != null) {
+				try {
+					searchAlgorithm = SearchAlgorithm.valueOf(property.trim().toUpperCase());
+				} catch (IllegalArgumentException ex) {
+					logger.log(Level.INFO, "Unknown search algorithm: " + property, ex);
+				}
+			}
+		}
+		return searchAlgorithm;
+	}
+	
+	/**
+	 * Sets the algorithm used for single pattern searches.
+	 * @param algorithm the search algorithm
+	 */
+	public static synchronized void setSearchAlgorithm(SearchAlgorithm algorithm) {
+		searchAlgorithm = algorithm;
+	}
+	
 	/**
 	 * Parses the tree and finds any hex that is part of a [BEFORE] block
 	 * Each block is returned as a separate byte[] in the list
@@ -54,64 +104,172 @@ public class HexSearchAndReplace {
 		return consolidateHex(tree, ModContextType.AFTER_HEX);
 	}
 	
+	/**
+	 * Parses the tree and finds any hex that is part of a [CODE] block, i.e.
+	 * the byte code without headers. Each block is returned as a separate
+	 * byte[] in the list
+	 * @param tree the tree to extract hex from
+	 * @return List of byte arrays containing hex, or null if a reference
+	 *  could not be resolved
+	 */
+	public static List<byte[]> consolidateCodeHex(ModTree tree) {
+		return consolidateHex(tree, ModContextType.HEX_CODE);
+	}
+	
 	/**
 	 * Parses the tree and finds any hex that is part of any context block.
 	 * Can perform "on the fly" replacement of reference names into reference values using the current target upk within the supplied tree.
-	 * Each block is returned as a separate byte[] in the list
+	 * Each block is returned as a separate byte[] in the list.
+	 * The blocks are cached on the tree until it is re-parsed or its target upk changes.
 	 * @param tree the tree to extract hex from
 	 * @param context the context to search for
-	 * @return List of byte arrays containing hex, or null if there is none
+	 * @return unmodifiable List of byte arrays containing hex, or null if there is none
 	 */
 	protected static List<byte[]> consolidateHex(ModTree tree, ModContextType context) {
+		List<byte[]> hexBlocks = tree.getHexBlocks(context);
+		if (hexBlocks != null) {
+			return hexBlocks;
+		}
+		UpkFile upk = tree.getTargetUpk();
+		hexBlocks = consolidateHex(tree, context, upk);
+		if (hexBlocks == null) {
+			// unresolved references are not cached
+			return null;
+		}
+		return tree.putHexBlocks(context, upk, hexBlocks);
+	}
+	
+	/**
+	 * Consolidates the hex of the specified context into blocks of contiguous
+	 * lines, resolving references against the specified upk.
+	 * @param tree the ModTree to consolidate the hex of
+	 * @param context the context to consolidate
+	 * @param upk the upk used for resolving references, may be <code>null</code>
+	 * @return the consolidated blocks or <code>null</code> if a reference
+	 *  could not be resolved
+	 */
+	private static List<byte[]> consolidateHex(ModTree tree, ModContextType context, UpkFile upk) {
 		List<byte[]> hexBlocks = new ArrayList<>();
-		List<Byte> currentBlock = new ArrayList<>();
+		ByteArrayOutputStream currentBlock = new ByteArrayOutputStream(256);
 		Enumeration<ModTreeNode> lines = tree.getRoot().children();
 		while (lines.hasMoreElements()) {
 			ModTreeNode line = lines.nextElement();
 			if (line.getContextFlag(context)) {
-				if (line.isValidHexLine()) {
-					String hex = line.toHexStringArray()[1];
-					String[] tokens = hex.split("\\s+");
-					// TODO: @Amineri, idea for further simplification, split at pipe character and parse non-reference token chains using HexStringLibrary.convertStringToByteArray()
-					for (String token : tokens) {
-//						if (token.startsWith("{|") && (upk != null)) {
-//						if ((tree.getTargetUpk() != null) && token.matches("^([{<]\\|)")) {
-						if ((tree.getTargetUpk() != null) && (token.startsWith("{|") || token.startsWith("<|"))) {
-							String contents = token.substring(2, token.length() - 2);
-							int value = token.startsWith("{|")
-									? tree.getTargetUpk().findRefByName(contents)
-									: tree.getTargetUpk().findVFRefByName(contents);
+				// tokenize the line's characters in place, code ends at the first comment
+				String text = line.getFullText();
+				int codeEnd = text.indexOf("//");
+				if (codeEnd < 0) {
+					codeEnd = text.length();
+				}
+				// skip leading and trailing whitespace (like String.trim())
+				int start = 0;
+				while ((start < codeEnd) && (text.charAt(start) <= ' ')) {
+					start++;
+				}
+				while ((codeEnd > start) && (text.charAt(codeEnd - 1) <= ' ')) {
+					codeEnd--;
+				}
+				if (isValidHexCode(text, start, codeEnd)) {
+					int tokenStart = start;
+					while (tokenStart < codeEnd) {
+						int tokenEnd = tokenStart;
+						while ((tokenEnd < codeEnd) && !isWhitespace(text.charAt(tokenEnd))) {
+							tokenEnd++;
+						}
+						if (tokenEnd - tokenStart == 2 && hexValue(text.charAt(tokenStart)) >= 0 && hexValue(text.charAt(tokenStart + 1)) >= 0) {
+							currentBlock.write((hexValue(text.charAt(tokenStart)) << 4) | hexValue(text.charAt(tokenStart + 1)));
+						} else if ((upk != null) && (tokenEnd - tokenStart >= 4)) {
+							// {|name|} or <|name|> reference token
+							String contents = text.substring(tokenStart + 2, tokenEnd - 2);
+							int value = (text.charAt(tokenStart) == '{')
+									? upk.findRefByName(contents)
+									: upk.findVFRefByName(contents);
 							if (value == 0) {
 								return null;
 							}
-							byte[] bytes = HexStringLibrary.convertIntToByteArray(value);
-							for (byte b : bytes) {
-								currentBlock.add(b);
-							}
+							// write little endian int
+							currentBlock.write(value);
+							currentBlock.write(value >> 8);
+							currentBlock.write(value >> 16);
+							currentBlock.write(value >> 24);
 						} else {
-							try {
-								currentBlock.add((byte) Integer.parseInt(token, 16));
-							} catch (NumberFormatException x) {
-								return null;
-							}
+							return null;
 						}
+						// skip single delimiter
+						tokenStart = tokenEnd + 1;
 					}
 				}
 			} else { // found line without required context. if current block is
 						// non-empty stop adding to it and start a new block
-				if (!currentBlock.isEmpty()) {
-					hexBlocks.add(HexStringLibrary.convertByteListToByteArray(currentBlock));
-					currentBlock.clear();
+				if (currentBlock.size() > 0) {
+					hexBlocks.add(currentBlock.toByteArray());
+					currentBlock.reset();
 				}
 			}
 		}
 		return hexBlocks;
 	}
+	
+	/**
+	 * Returns whether the specified range of characters consists of hex tokens only,
+	 * i.e. two-digit hex values and <code>{|name|}</code> or <code>&lt;|name|&gt;</code> reference tokens,
+	 * separated by single whitespace characters. Same rules as {@link ModTreeNode#isValidHexLine()}.
+	 * @param text the text to check
+	 * @param start the start index of the range, inclusive
+	 * @param end the end index of the range, exclusive
+	 * @return true if the range is valid hex code
+	 */
+	private static boolean isValidHexCode(String text, int start, int end) {
+		int tokenStart = start;
+		do {
+			int tokenEnd = tokenStart;
+			while ((tokenEnd < end) && !isWhitespace(text.charAt(tokenEnd))) {
+				tokenEnd++;
+			}
+			int length = tokenEnd - tokenStart;
+			if (length == 2 && hexValue(text.charAt(tokenStart)) >= 0 && hexValue(text.charAt(tokenStart + 1)) >= 0) {
+				// valid hex token
+			} else if (length >= 4
+					&& ((text.startsWith("{|", tokenStart) && text.startsWith("|}", tokenEnd - 2))
+						|| (text.startsWith("<|", tokenStart) && text.startsWith("|>", tokenEnd - 2)))) {
+				// valid reference token
+			} else {
+				return false;
+			}
+			tokenStart = tokenEnd + 1;
+		} while (tokenStart <= end);
+		return true;
+	}
+	
+	/**
+	 * Returns whether the specified character is a whitespace character as matched by the regular expression <code>\s</code>.
+	 * @param c the character to check
+	 * @return true if the character is whitespace
+	 */
+	private static boolean isWhitespace(char c) {
+		return (c == ' ') || (c == '\t') || (c == '\n') || (c == '\u000B') || (c == '\f') || (c == '\r');
+	}
+	
+	/**
+	 * Returns the value of the specified hex digit.
+	 * @param c the hex digit character
+	 * @return the digit value or -1 if the character is no hex digit
+	 */
+	private static int hexValue(char c) {
+		if ((c >= '0') && (c <= '9')) {
+			return c - '0';
+		} else if ((c >= 'A') && (c <= 'F')) {
+			return c - 'A' + 10;
+		} else if ((c >= 'a') && (c <= 'f')) {
+			return c - 'a' + 10;
+		}
+		return -1;
+	}
 
 	/**
 	 * Finds the specified hex within the target upk stored within the given tree.
 	 * Scope of the search is limited to the function in the associated tree.
-	 * The entire search hex is loaded into memory, so this is not appropriate for extreme cases.
+	 * The search is performed on the upk's shared read-only file mapping, no bytes are copied.
 	 * The largest upk in XCOM is ~44MB, and the largest modded is ~19 MB, 
 	 *						so there should be no problems for this application.
 	 * @param pattern hex to search for
@@ -127,18 +285,6 @@ public class HexSearchAndReplace {
 		// retrieve function name from tree
 		String targetFunction = tree.getFunctionName().trim();
 		
-		// retrieve objectlist index from upk -- this is the same as references but is not named such here
-		int objectIndex = tree.getTargetUpk().findRefByName(targetFunction);
-		if(objectIndex == 0)
-			return -1;
-		
-		// retrieve object entry
-		ObjectEntry functionEntry = tree.getTargetUpk().getHeader().getObjectList().get(objectIndex);
-		
-		// retrieve file position/length of function hex in upk
-		long functPos = functionEntry.getUpkPos();
-		long functLength = functionEntry.getUpkSize();
-		
 		//testing method that uses fewer file reads
 		// method below occasionally fails, incorrectly reporting the wrong position, but not indicating failure
 //		ByteBuffer fileBuf = ByteBuffer.allocate((int) functLength); // read entire target
@@ -157,18 +303,23 @@ public class HexSearchAndReplace {
 //			return findIndex + functPos;
 //		}
 		
-		// read search area fully and use KMPMatch to search for the pattern
-		// tested by performing "test status" on entire Long War project with no errors
-		ByteBuffer fileBuf = ByteBuffer.allocate((int) functLength);  // allocate enough space to read entire search space
-		
-		// open channel to upk for read-only to read in search space
-		try (SeekableByteChannel sbc = Files.newByteChannel(tree.getTargetUpk().getPath(), StandardOpenOption.READ)) {
-			sbc.position(functPos);
-			sbc.read(fileBuf);
-			
+		// search the function's range of the shared file mapping using the configured algorithm
+		// KMPMatch tested by performing "test status" on entire Long War project with no errors
+		ByteBuffer fileBuf = acquireFunctionBuffer(tree.getTargetUpk(), targetFunction);
+		if (fileBuf == null) {
+			return -1;
+		}
+		// retrieve file position of function hex in upk
+		long functPos = fileBuf.position();
+		try {
+			if (getSearchAlgorithm() == SearchAlgorithm.KMP) {
+				replaceOffset = KMPMatch.indexOf(fileBuf, pattern);
+			} else {
+				replaceOffset = BMHMatch.indexOf(fileBuf, pattern);
+			}
+		} finally {
+			tree.getTargetUpk().releaseBuffer();
 		}
-		byte[] searchSpace = fileBuf.array();
-		replaceOffset = KMPMatch.indexOf(searchSpace, pattern);
 		if (replaceOffset >=0) {
 			replaceOffset += functPos;
 		}
@@ -201,6 +352,74 @@ public class HexSearchAndReplace {
 		return replaceOffset;
 	}
 	
+	/**
+	 * Finds all of the specified hex blocks within the target upk stored within the given tree
+	 * in a single pass over the function's bytes.
+	 * Scope of the search is limited to the function in the associated tree.
+	 * @param patterns hex blocks to search for
+	 * @param tree provides function to limit scope of search
+	 * @return file offsets of the first occurrence of each block, -1 for blocks not found
+	 * @throws IOException
+	 */
+	public static long[] findFilePositions(List<byte[]> patterns, ModTree tree) throws IOException {
+		long[] filePositions = new long[patterns.size()];
+		Arrays.fill(filePositions, -1L);
+		
+		ByteBuffer fileBuf = acquireFunctionBuffer(tree.getTargetUpk(), tree.getFunctionName().trim());
+		if (fileBuf == null) {
+			return filePositions;
+		}
+		long functPos = fileBuf.position();
+		
+		int[] offsets;
+		try {
+			offsets = new AhoCorasickMatch(patterns).indexOf(fileBuf);
+		} finally {
+			tree.getTargetUpk().releaseBuffer();
+		}
+		for (int i = 0; i < offsets.length; i++) {
+			if (offsets[i] >= 0) {
+				filePositions[i] = offsets[i] + functPos;
+			}
+		}
+		return filePositions;
+	}
+	
+	/**
+	 * Acquires the upk's shared file mapping with its position and limit set to the
+	 * range of the specified object. The caller must release the buffer using
+	 * {@link UpkFile#releaseBuffer()} afterwards unless <code>null</code> is returned.
+	 * @param upk the upk containing the object
+	 * @param objectName the full name of the object
+	 * @return the mapped view of the object's bytes or <code>null</code> if
+	 *  the object does not exist
+	 * @throws IOException if the file could not be mapped or the object exceeds the file
+	 */
+	private static ByteBuffer acquireFunctionBuffer(UpkFile upk, String objectName) throws IOException {
+		// acquire first, this reloads the header if the file has been changed by other means
+		ByteBuffer fileBuf = upk.acquireBuffer();
+		try {
+			// retrieve objectlist index from upk -- this is the same as references but is not named such here
+			int objectIndex = upk.findRefByName(objectName);
+			if (objectIndex == 0) {
+				upk.releaseBuffer();
+				return null;
+			}
+			ObjectEntry entry = upk.getHeader().getObjectList().get(objectIndex);
+			long functPos = entry.getUpkPos();
+			long functLength = entry.getUpkSize();
+			if (functPos + functLength > fileBuf.capacity()) {
+				throw new IOException("Object exceeds file bounds: " + objectName);
+			}
+			fileBuf.limit((int) (functPos + functLength));
+			fileBuf.position((int) functPos);
+			return fileBuf;
+		} catch (IOException | RuntimeException e) {
+			upk.releaseBuffer();
+			throw e;
+		}
+	}
+	
 	/**
 	 * Branches on the three current type of apply operations (stored in the currTree)
 	 * 1) Basic same-size search and replace
@@ -263,6 +482,11 @@ public class HexSearchAndReplace {
 			}
 		} catch (IOException ex) {
 			logger.log(Level.SEVERE, "File error", ex);
+		} finally {
+			// cached states may not notice in-place changes by modification time alone
+			if (currTree.getTargetUpk() != null) {
+				ModStatusCache.invalidate(currTree.getTargetUpk().getPath());
+			}
 		}
 		return false;
 	}
@@ -276,6 +500,26 @@ public class HexSearchAndReplace {
 	 * @throws java.io.IOException
 	 */
 	protected static boolean searchAndReplace(boolean apply, ModTree currTree) throws IOException {
+		UpkWriteBatch batch = new UpkWriteBatch();
+		if (searchAndReplace(apply, currTree, batch)) {
+			batch.flush();
+			currTree.getTargetUpk().updateFingerprint();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Searches the associated UPK file for the byte data of the <code>BEFORE</code> or AFTER
+	 * block(s) and records the overwrites using the byte data of the <code>AFTER</code> or BEFORE block(s)
+	 * in the specified write batch. Nothing is written until the batch is flushed.
+	 * @param apply true if applying (BEFORE->AFTER), false if reverting (AFTER->BEFORE)
+	 * @param currTree the tree to which the changes are made
+	 * @param batch the write batch to add the changes to
+	 * @return true if all blocks were found and added to the batch, false otherwise
+	 * @throws java.io.IOException
+	 */
+	public static boolean searchAndReplace(boolean apply, ModTree currTree, UpkWriteBatch batch) throws IOException {
 		List<byte[]> patterns;
 		List<byte[]> replacements;
 		if(apply) {
@@ -291,9 +535,10 @@ public class HexSearchAndReplace {
 			return false;
 		}
 
-		// everything matches, time to make the change(s)
+		// everything matches, time to record the change(s)
+		Path upkPath = currTree.getTargetUpk().getPath();
 		for(int i = 0 ; i < filePositions.length; i++) {
-			HexSearchAndReplace.applyHexChange(replacements.get(i), currTree.getTargetUpk(), filePositions[i]);
+			batch.add(upkPath, filePositions[i], replacements.get(i));
 		}
 		return true;
 	}
@@ -326,36 +571,17 @@ public class HexSearchAndReplace {
 				return null;
 			}
 		}
-		// try and find each pattern blocks position
+		// try and find each pattern blocks position in a single pass
+		filePositions = HexSearchAndReplace.findFilePositions(patterns, currTree);
 		for (int j = 0; j < patterns.size(); j++) {
-			long filePos = HexSearchAndReplace.findFilePosition(patterns.get(j), currTree);
-			if (filePos == -1) {
+			if (filePositions[j] == -1) {
 				logger.log(Level.INFO, "Block " + j + " FIND not found");
 				return null;
-			} else {
-				filePositions[j]= filePos;
 			}
 		}
 		return filePositions;
 	}
 
-	/**
-	 * Unchecked primitive write operation that writes changes to target upk.
-	 * Should only be called after other error-checking operations have taken place.
-	 * @param hex the byte array to be written 
-	 * @param upk the file to be written to
-	 * @param filePos the absolute file position within the file to write to
-	 * @throws IOException
-	 */
-	private static void applyHexChange(byte[] hex, UpkFile upk, long filePos) throws IOException {
-		// allocate buffer as large as we need and wrap the hex to write
-		ByteBuffer fileBuf = ByteBuffer.wrap(hex);
-		try (SeekableByteChannel sbc = Files.newByteChannel(upk.getPath(), StandardOpenOption.WRITE)) {
-			sbc.position(filePos);
-			sbc.write(fileBuf);
-		}
-	}
-	
 	/**
 	 * Performs non-destructive testing on the supplied tree to determine its current application status.
 	 * Measured relative to its associated target upk (stored internally to the tree)
@@ -388,14 +614,20 @@ public class HexSearchAndReplace {
 		boolean foundSomeAfter = false;  // will be true if any AFTER blocks are found
 		boolean missingSomeAfter = false;
 		long beforePos, afterPos;
+		
+		// find all BEFORE and AFTER blocks in a single pass
+		List<byte[]> allHex = new ArrayList<>(beforeHex);
+		allHex.addAll(afterHex);
+		long[] filePositions;
+		try {
+			filePositions = findFilePositions(allHex, tree);
+		} catch (IOException ex) {
+			logger.log(Level.SEVERE, "IO Exception: ", ex);
+			return ApplyStatus.APPLY_ERROR;
+		}
 		for (int i = 0 ; i < beforeHex.size() ; i ++ ) {
-			try {
-				beforePos = findFilePosition(beforeHex.get(i), tree);
-				afterPos = findFilePosition(afterHex.get(i), tree);
-			} catch (IOException ex) {
-				logger.log(Level.SEVERE, "IO Exception: ", ex);
-				return ApplyStatus.APPLY_ERROR;
-			}
+			beforePos = filePositions[i];
+			afterPos = filePositions[beforeHex.size() + i];
 			
 			if ((beforePos < 0) && (afterPos < 0)) {
 				// both blocks not found, return error
@@ -765,232 +997,17 @@ public class HexSearchAndReplace {
 	
 	/**
 	 * Resizes and replaces the function defined in tree.
-	 * Creates find/replace blocks
-	 * Verifies that tree has only one replacement block
-	 * Verifies size change
-	 * Find file position for change
-	 * Invokes copyAndReplace function
-	 * If size altered, adjusts object list positions in new upk file
+	 * Plans the single resize operation using a {@link ResizePlan} and executes it,
+	 * see {@link ResizePlan#add(boolean, ModTree)} for the performed checks.
 	 * @param apply flag indicating apply or revert. true if apply, false if revert
 	 * @param tree model of the function to be replaced/resized
 	 * @return
 	 */
 	public static boolean resizeAndReplace(boolean apply, ModTree tree) {
-		boolean success = true;
-		
-		if(tree.getFileVersion() < 4) {
-			logger.log(Level.INFO, "Modfile version does not support resize operations");
-			return false;
-		}
-		
-		int currentObjectIndex = tree.getTargetUpk().findRefByName(tree.getFunctionName());
-		if(currentObjectIndex < 0) {
-			logger.log(Level.INFO, "Cannot resize import objects");
-			return false;
-		} else if(currentObjectIndex == 0) {
-			logger.log(Level.INFO, "Function not found in upk");
-			return false;
-		}
-
-		int resizeAmount;
-		if(apply) {
-			resizeAmount = tree.getResizeAmount();
-		} else {
-			resizeAmount = - tree.getResizeAmount();
-		}
-		
-		//Create find/replace blocks
-		List<byte[]> findHexList;
-		List<byte[]> replaceHexList;
-		if(apply) {
-			findHexList = consolidateHex(tree, ModContextType.BEFORE_HEX);
-			replaceHexList = consolidateHex(tree, ModContextType.AFTER_HEX);
-		} else {
-			findHexList = consolidateHex(tree, ModContextType.AFTER_HEX);
-			replaceHexList = consolidateHex(tree, ModContextType.BEFORE_HEX);
-		}
-		
-		// Verify that tree has only one replacement block
-		if(findHexList.size()!= 1 || replaceHexList.size() != 1) {
-			logger.log(Level.INFO, "Resize operation requires exactly 1 BEFORE and 1 AFTER block");
-			return false;
-		}
-		
-		byte[] findHex = findHexList.get(0);
-		byte[] replaceHex = replaceHexList.get(0);
-		
-		// Verify size change
-		if(findHex.length + resizeAmount != replaceHex.length) {
-			logger.log(Level.INFO, "Mismatch in expected size difference between FIND/REPLACE blocks\n"
-					+ "    FIND size: " + Integer.toHexString(findHex.length) + "\n"
-					+ "    Request resize: " + Integer.toHexString(resizeAmount) + "\n"
-					+ "    REPLACE size: " + Integer.toHexString(replaceHex.length) + "\n");
-			return false;
-		}
-		
-		// Find file position for change
-		long filePosition;
-		try {
-			filePosition = findFilePosition(findHex, tree);
-		} catch(IOException ex) {
-			logger.log(Level.SEVERE, "IO Error finding file position", ex);
-			return false;
-		}
-		
-		// verify found file position
-		if(filePosition == -1) {
-			logger.log(Level.SEVERE, "FIND hex not found");
-			return false;
-		}
-		
-		long startTime = System.currentTimeMillis();
-		
-		// Invoke copyAndReplace function
-		Path newPath = copyAndReplaceUpk((int) filePosition, findHex, replaceHex , tree.getTargetUpk());
-		if(!Files.exists(newPath)){
-			logger.log(Level.INFO, "Failure during copyAndReplace");
-			return false;
-		}
-		logger.log(Level.INFO, "Resize: inserted new hex, took " + (System.currentTimeMillis() - startTime) + "ms");
-
-
-		startTime = System.currentTimeMillis();
-
-		
-		try (SeekableByteChannel sbc = Files.newByteChannel(tree.getTargetUpk().getPath(), StandardOpenOption.WRITE)) {
-			ByteBuffer intBuf = ByteBuffer.allocate(4);
-			intBuf.order(ByteOrder.LITTLE_ENDIAN);
-			
-			// update changed object/function's ObjectEntry size in file
-			ObjectEntry currObjectEntry = tree.getTargetUpk().getHeader().getObjectList().get(currentObjectIndex);
-			long objectListPos = currObjectEntry.getObjectEntryPos();
-			int objectSize = currObjectEntry.getUpkSize();
-			intBuf.putInt(objectSize + resizeAmount);
-			intBuf.rewind();
-			sbc.position(objectListPos + 32); // set file position -- 32 writes to the 8th word in the ObjectEntry, object size
-			sbc.write(intBuf);		// write buffer
-			
-			// update changes object/function's ObjectEntry size in memory
-			currObjectEntry.setUpkSize(objectSize + resizeAmount);
-		
-			// If size altered, adjusts object list positions in new upk file
-			if(resizeAmount != 0) {
-				for(int i = 1 ; i < tree.getTargetUpk().getHeader().getObjectListSize() ; i++) { // for every object in the object list
-
-					currObjectEntry = tree.getTargetUpk().getHeader().getObjectList().get(i);
-					// check if object is after the inserted file position 
-					if(currObjectEntry.getUpkPos() > filePosition) {
-						// update Object Entry's position in file
-						intBuf.clear();
-						intBuf.putInt(currObjectEntry.getUpkPos() + resizeAmount);
-						intBuf.rewind();
-						objectListPos = currObjectEntry.getObjectEntryPos();
-						sbc.position(objectListPos + 36); // set file position -- 36 writes to the 9th word in the ObjectEntry, object position
-						sbc.write(intBuf);		// write buffer
-						
-						// update Object Entry's position in memory
-						currObjectEntry.setUpkPos(currObjectEntry.getUpkPos() + resizeAmount);
-					}
-				}
-			}
-		} catch(IOException ex) {
-			logger.log(Level.SEVERE, "IO Failure when attempting to update Object Entries", ex);
-			return false;
-		}
-		
-		logger.log(Level.INFO, "Resize: rewrote object table, took " + (System.currentTimeMillis() - startTime) + "ms");
-		return success;
+		ResizePlan plan = new ResizePlan(tree.getTargetUpk());
+		return plan.add(apply, tree) && plan.execute();
 	}
 	
-	/**
-	 * Primitive file copy operation with replacement.
-	 * Resizing is allowed (oldHex can be a different size than newHex)
-	 * Verifies that oldHex is at filePosition.
-	 * Renames UpkFile upk to .bak version
-	 * Creates new File to copy into
-	 * Copies all hex from start of file to filePosition from old File to new File
-	 * Writes newHex to newFile
-	 * Copies all hex from end of oldHex from old File to newFile
-	 * @param filePosition
-	 * @param findHex
-	 * @param replaceHex
-	 * @param upk the upk file to make the modification to
-	 * @return The newly created File, or null if the operation failed
-	 */
-	private static Path copyAndReplaceUpk(int filePosition, byte[] findHex, byte[] replaceHex , UpkFile upk) {
-		
-		Path origPath = upk.getPath();
-		
-		// verify that oldHex is at FilePosition 
-		ByteBuffer fileBuf = ByteBuffer.allocate(findHex.length);
-		try (SeekableByteChannel sbc = Files.newByteChannel(origPath, StandardOpenOption.READ)) {
-			sbc.position(filePosition);
-			sbc.read(fileBuf);
-		} catch(IOException ex) {
-			logger.log(Level.SEVERE, "Failed to read upk file", ex);
-			return null;
-		}
-		if(!Arrays.equals(findHex, fileBuf.array())) {
-			logger.log(Level.INFO, "Find hex not found");
-			return null;
-		}
-		
-		// Rename upk to .bak version
-		// verify that filename ends with ".upk"
-		String origFilename = origPath.toAbsolutePath().toString();
-		if (!origFilename.endsWith(".upk")) {
-			logger.log(Level.INFO, "Target file not valid upk");
-			return null;
-		}
-		String backupFileName = origFilename.replace(".upk", ".bak");
-		Path backupPath = Paths.get(backupFileName);
-		
-		try {
-			Files.copy(origPath, backupPath, StandardCopyOption.REPLACE_EXISTING);
-		} catch(IOException ex) {
-			logger.log(Level.INFO, "Failed to create backup file", ex);
-			return null;
-		} catch(Exception ex) {
-			logger.log(Level.INFO, "Failed to create backup file", ex);
-			return null;
-		}
-//		try {
-//			// create new file with same name as original upk
-//			Files.createFile(origPath);
-//		} catch(IOException ex) {
-//			logger.log(Level.SEVERE, "Could not create new upk file", ex);
-//			return null;
-//		}
-		
-		// benchmark comparisons : http://java.dzone.com/articles/file-copy-java-%E2%80%93-benchmark
-		// NIO copy method
-		try (FileChannel source = FileChannel.open(backupPath, StandardOpenOption.READ);
-				FileChannel destination = FileChannel.open(origPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
-
-			// copy all hex from start to filePosition from backup file to new file
-			destination.transferFrom(source, 0, filePosition);
-			destination.position(filePosition);
-
-			// Write replacement bytes to new File
-			ByteBuffer replaceHexBuf = ByteBuffer.wrap(replaceHex);
-			destination.write(replaceHexBuf);
-			filePosition += findHex.length;
-
-			// Copy remaining bytes from backup file to new file
-			source.position(filePosition);
-			destination.transferFrom(source, destination.size(), Long.MAX_VALUE);
-			
-		} catch (FileNotFoundException ex) {
-			logger.log(Level.SEVERE, "File not found during copy", ex);
-			return null;
-		} catch (IOException ex) {
-			logger.log(Level.SEVERE, "IO Error during file copy", ex);
-			return null;
-		}
-
-		return origPath;
-	}
-
 	/**
 	 * Alters the object table entry specified in the ModTree to alter the object's type
 	 * @param apply whether the change is being applied or reverted
@@ -1092,32 +1109,17 @@ public class HexSearchAndReplace {
 			return false;
 		}
 		
-		// change the file entries
-		try (SeekableByteChannel sbc = Files.newByteChannel(tree.getTargetUpk().getPath(), StandardOpenOption.WRITE)) {
-			ByteBuffer intBuf = ByteBuffer.allocate(4);
-			intBuf.order(ByteOrder.LITTLE_ENDIAN);
-			long objectListPos = currentObjEntry.getObjectEntryPos();
-			
-			// update changed object/function's ObjectEntry size in file
-			intBuf.putInt(replaceTypeIdx);
-			intBuf.rewind();
-			sbc.position(objectListPos + 0); // set file position -- 0 writes to the 0th word in the ObjectEntry, object type
-			sbc.write(intBuf);		// write buffer
-			intBuf.clear();
-			
-			intBuf.putInt(replaceSize);
-			intBuf.rewind();
-			sbc.position(objectListPos + 32); // set file position -- 32 writes to the 8th word in the ObjectEntry, object size
-			sbc.write(intBuf);		// write buffer
-			
-			//update data in memory model of UPK
-			currentObjEntry.setType(replaceTypeIdx);
-			currentObjEntry.setUpkSize(replaceSize);
-			
+		// change the file entries, the writer also updates the memory model of UPK
+		ExportTableWriter writer = new ExportTableWriter();
+		writer.setType(currentObjEntry, replaceTypeIdx);
+		writer.setUpkSize(currentObjEntry, replaceSize);
+		try {
+			writer.write(tree.getTargetUpk().getPath());
 		} catch(IOException ex) {
 			logger.log(Level.SEVERE, "IO Exception while writing data", ex);
 			return false;
 		}
+		tree.getTargetUpk().updateFingerprint();
 		
 		return true;
 	}
@@ -1401,73 +1403,38 @@ public class HexSearchAndReplace {
 			}
 		}
 		
-		// change the file entries
-		try (SeekableByteChannel sbc = Files.newByteChannel(tree.getTargetUpk().getPath(), StandardOpenOption.WRITE)) {
-			ByteBuffer intBuf = ByteBuffer.allocate(4);
-			intBuf.order(ByteOrder.LITTLE_ENDIAN);
-			long objectListPos = currentObjEntry.getObjectEntryPos();
-			
-			//update each entry that has changed
-			if(findType != 0) {
-				intBuf.putInt(replaceType);
-				intBuf.rewind();
-				sbc.position(objectListPos + 0);
-				sbc.write(intBuf);
-				intBuf.clear();
-				currentObjEntry.setType(replaceType);
-			}
-			
-			if(findParent != 0) {
-				intBuf.putInt(replaceParent);
-				intBuf.rewind();
-				sbc.position(objectListPos + 4);
-				sbc.write(intBuf);
-				intBuf.clear();
-				currentObjEntry.setParent(replaceParent);
-			}
-			
-			if(findOuter != 0) {
-				intBuf.putInt(replaceOuter);
-				intBuf.rewind();
-				sbc.position(objectListPos + 8);
-				sbc.write(intBuf);
-				intBuf.clear();
-				currentObjEntry.setOuter(replaceOuter);
-			}
-
-			if(findNameIdx != -1) {
-				intBuf.putInt(replaceNameIdx);
-				intBuf.rewind();
-				sbc.position(objectListPos + 12);
-				sbc.write(intBuf);
-				intBuf.clear();
-				currentObjEntry.setNamePtr(replaceNameIdx);
-				// fix search table in UpkFile
-				tree.getTargetUpk().getHeader().objectListStrings.set(objectIdx, replaceNameString + "@" + tree.getFunctionName());
-			}
-
-			if(findSize != -1) {
-				intBuf.putInt(replaceSize);
-				intBuf.rewind();
-				sbc.position(objectListPos + 32);
-				sbc.write(intBuf);
-				intBuf.clear();
-				currentObjEntry.setUpkSize(replaceSize);
-			}
-
-			if(findPos != -1) {
-				intBuf.putInt(replacePos);
-				intBuf.rewind();
-				sbc.position(objectListPos + 36);
-				sbc.write(intBuf);
-				intBuf.clear();
-				currentObjEntry.setUpkPos(replacePos);
-			}
-
+		// change the file entries, the writer also updates the memory model of UPK
+		ExportTableWriter writer = new ExportTableWriter();
+		//update each entry that has changed
+		if(findType != 0) {
+			writer.setType(currentObjEntry, replaceType);
+		}
+		if(findParent != 0) {
+			writer.setParent(currentObjEntry, replaceParent);
+		}
+		if(findOuter != 0) {
+			writer.setOuter(currentObjEntry, replaceOuter);
+		}
+		if(findNameIdx != -1) {
+			writer.setNamePtr(currentObjEntry, replaceNameIdx);
+		}
+		if(findSize != -1) {
+			writer.setUpkSize(currentObjEntry, replaceSize);
+		}
+		if(findPos != -1) {
+			writer.setUpkPos(currentObjEntry, replacePos);
+		}
+		try {
+			writer.write(tree.getTargetUpk().getPath());
 		} catch(IOException ex) {
 			logger.log(Level.SEVERE, "IO Exception while writing data", ex);
 			return false;
 		}
+		tree.getTargetUpk().updateFingerprint();
+		if(findNameIdx != -1) {
+			// fix search table in UpkFile
+			tree.getTargetUpk().getHeader().objectListStrings.set(objectIdx, replaceNameString + "@" + tree.getFunctionName());
+		}
 		
 		return true;
 	}
@@ -1,5 +1,7 @@
 package util.unrealhex;
 
+import java.nio.ByteBuffer;
+
 /**
  * Source that implements quick KMP matching algorithm.
  * Original source code from : http://stackoverflow.com/questions/1507780/searching-for-a-sequence-of-bytes-in-a-binary-file-with-java
@@ -33,6 +35,35 @@ public class KMPMatch {
         return -1;
     }
 
+    /**
+     * Finds the first occurrence of the pattern in the remaining bytes of the
+     * specified buffer, i.e. between its position and limit. The buffer's
+     * position is not modified.
+	 * @param data byte buffer to search within
+	 * @param pattern byte array to search with
+	 * @return the index relative to the buffer's position, or -1 if not found
+     */
+    public static int indexOf(ByteBuffer data, byte[] pattern) {
+        int[] failure = computeFailure(pattern);
+
+        int j = 0;
+        int start = data.position();
+        int end = data.limit();
+        if (start == end) return -1;
+
+        for (int i = start; i < end; i++) {
+            byte b = data.get(i);
+            while (j > 0 && pattern[j] != b) {
+                j = failure[j - 1];
+            }
+            if (pattern[j] == b) { j++; }
+            if (j == pattern.length) {
+                return i - start - pattern.length + 1;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Computes the failure function using a boot-strapping process,
      * where the pattern is matched against itself.
@@ -0,0 +1,362 @@
+package util.unrealhex;
+
+import static model.modtree.ModTree.logger;
+import io.upk.Fingerprint;
+import io.upk.UpkHeaderCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+
+import ui.ApplyStatus;
+
+/**
+ * Persistent per-project cache of tested mod file states.<br>
+ * Each status is stored together with a hash of the mod file's contents and
+ * the fingerprint (GUID, file size and modification time) of the UPK file it
+ * was tested against. A cached status is only used while both still match,
+ * so status scans only need to test mod files or packages that changed.
+ * As file modification times may be too coarse to tell apart changes made
+ * right after testing, states tested against a package are discarded
+ * whenever mod files are applied to or reverted from it.
+ *
+ * @author XMS
+ */
+public class ModStatusCache {
+
+	/**
+	 * The default cache directory, shared with the {@link UpkHeaderCache}.
+	 */
+	public static final Path DEFAULT_CACHE_DIRECTORY = UpkHeaderCache.DEFAULT_CACHE_DIRECTORY;
+
+	/**
+	 * The magic number identifying cache files ('UPKS').
+	 */
+	private static final int MAGIC = 0x55504B53;
+
+	/**
+	 * The cache file format version.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The cache directory, <code>null</code> if caching is disabled.
+	 */
+	private static Path cacheDirectory = DEFAULT_CACHE_DIRECTORY;
+
+	/**
+	 * The caches mapped to the normalized paths of their project files.
+	 */
+	private static final Map<Path, ModStatusCache> caches = new HashMap<>();
+
+	/**
+	 * Returns the directory cache files are stored in.
+	 * @return the cache directory or <code>null</code> if caching is disabled
+	 */
+	public static synchronized Path getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	/**
+	 * Sets the directory cache files are stored in. Already loaded caches are discarded.
+	 * @param directory the cache directory or <code>null</code> to disable caching
+	 */
+	public static synchronized void setCacheDirectory(Path directory) {
+		cacheDirectory = directory;
+		caches.clear();
+	}
+
+	/**
+	 * Returns the status cache of the specified project, loading it from
+	 * its cache file if necessary.
+	 * @param projectFile the project XML file path
+	 * @return the shared cache instance
+	 */
+	public static synchronized ModStatusCache forProject(Path projectFile) {
+		Path key = projectFile.toAbsolutePath().normalize();
+		ModStatusCache cache = caches.get(key);
+		if (cache == null) {
+			cache = new ModStatusCache(getCachePath(key));
+			cache.load();
+			caches.put(key, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Discards the states tested against the specified UPK file from all
+	 * loaded caches, e.g. because the file has been modified in place.
+	 * @param upkPath the *.upk file path
+	 */
+	public static void invalidate(Path upkPath) {
+		List<ModStatusCache> loaded;
+		synchronized (ModStatusCache.class) {
+			loaded = new ArrayList<>(caches.values());
+		}
+		Path key = upkPath.toAbsolutePath().normalize();
+		for (ModStatusCache cache : loaded) {
+			if (cache.remove(key)) {
+				cache.save();
+			}
+		}
+	}
+
+	/**
+	 * Returns the hash of the specified mod file contents.
+	 * @param modBytes the mod file contents
+	 * @return the hash
+	 */
+	public static byte[] hash(byte[] modBytes) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(modBytes);
+		} catch (NoSuchAlgorithmException ex) {
+			// every Java platform is required to support SHA-1
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * The cache file path, <code>null</code> if caching is disabled.
+	 */
+	private Path cachePath;
+
+	/**
+	 * The cached states mapped to the normalized mod file paths.
+	 */
+	private Map<Path, CacheEntry> entries = new LinkedHashMap<>();
+
+	/**
+	 * Flag denoting whether entries changed since loading or saving.
+	 */
+	private boolean modified;
+
+	/**
+	 * Constructs an empty status cache.
+	 * @param cachePath the cache file path, <code>null</code> if the cache shall not be persisted
+	 */
+	private ModStatusCache(Path cachePath) {
+		this.cachePath = cachePath;
+	}
+
+	/**
+	 * Returns the cached status of the specified mod file if its contents and
+	 * the UPK file it was tested against did not change since.
+	 * @param modPath the mod file path
+	 * @param modHash the hash of the current mod file contents
+	 * @return the cached status or <code>null</code> if there is no valid cached status
+	 */
+	public synchronized ApplyStatus get(Path modPath, byte[] modHash) {
+		CacheEntry entry = this.entries.get(modPath.toAbsolutePath().normalize());
+		if ((entry == null) || !Arrays.equals(entry.modHash, modHash)) {
+			return null;
+		}
+		try {
+			if (!entry.fingerprint.equals(Fingerprint.of(entry.upkPath))) {
+				return null;
+			}
+		} catch (IOException ex) {
+			return null;
+		}
+		return entry.status;
+	}
+
+	/**
+	 * Stores the tested status of the specified mod file.
+	 * @param modPath the mod file path
+	 * @param modHash the hash of the tested mod file contents
+	 * @param upkPath the path of the UPK file the mod file was tested against
+	 * @param fingerprint the fingerprint of the UPK file taken before testing
+	 * @param status the tested status
+	 */
+	public synchronized void put(Path modPath, byte[] modHash, Path upkPath, Fingerprint fingerprint, ApplyStatus status) {
+		this.entries.put(modPath.toAbsolutePath().normalize(), new CacheEntry(modHash, upkPath, fingerprint, status));
+		this.modified = true;
+	}
+
+	/**
+	 * Discards the cached states tested against the specified UPK file.
+	 * @param upkPath the normalized *.upk file path
+	 * @return true if any state has been discarded, false otherwise
+	 */
+	private synchronized boolean remove(Path upkPath) {
+		boolean removed = false;
+		for (Iterator<CacheEntry> iter = this.entries.values().iterator(); iter.hasNext();) {
+			if (iter.next().upkPath.toAbsolutePath().normalize().equals(upkPath)) {
+				iter.remove();
+				removed = true;
+			}
+		}
+		this.modified |= removed;
+		return removed;
+	}
+
+	/**
+	 * Discards all cached states, e.g. because UPK file associations changed.
+	 */
+	public synchronized void clear() {
+		this.modified |= !this.entries.isEmpty();
+		this.entries.clear();
+	}
+
+	/**
+	 * Writes the cache file if entries changed. Entries of mod files which
+	 * no longer exist are dropped.
+	 */
+	public synchronized void save() {
+		if ((this.cachePath == null) || !this.modified) {
+			return;
+		}
+		try {
+			Files.createDirectories(this.cachePath.getParent());
+			// write to temporary file first so readers never see partial files
+			Path tempPath = Files.createTempFile(this.cachePath.getParent(), this.cachePath.getFileName().toString(), ".tmp");
+			try {
+				try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+					dos.writeInt(MAGIC);
+					dos.writeInt(VERSION);
+					Map<Path, CacheEntry> existing = new LinkedHashMap<>();
+					for (Entry<Path, CacheEntry> entry : this.entries.entrySet()) {
+						if (Files.exists(entry.getKey())) {
+							existing.put(entry.getKey(), entry.getValue());
+						}
+					}
+					dos.writeInt(existing.size());
+					for (Entry<Path, CacheEntry> entry : existing.entrySet()) {
+						dos.writeUTF(entry.getKey().toString());
+						entry.getValue().write(dos);
+					}
+				}
+				Files.move(tempPath, this.cachePath, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tempPath);
+			}
+			this.modified = false;
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.INFO, "Could not store status cache " + this.cachePath, e);
+		}
+	}
+
+	/**
+	 * Reads the cache file, if present.
+	 */
+	private void load() {
+		if ((this.cachePath == null) || !Files.exists(this.cachePath)) {
+			return;
+		}
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.cachePath)))) {
+			if ((dis.readInt() != MAGIC) || (dis.readInt() != VERSION)) {
+				logger.log(Level.FINE, "Status cache " + this.cachePath + " is out of date");
+				return;
+			}
+			int count = dis.readInt();
+			for (int i = 0; i < count; i++) {
+				Path modPath = Paths.get(dis.readUTF());
+				this.entries.put(modPath, CacheEntry.read(dis));
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.INFO, "Could not load status cache " + this.cachePath, e);
+			this.entries.clear();
+		}
+	}
+
+	/**
+	 * Returns the cache file path of the specified project.
+	 * @param projectFile the normalized project XML file path
+	 * @return the cache file path or <code>null</code> if caching is disabled
+	 */
+	private static Path getCachePath(Path projectFile) {
+		Path directory = getCacheDirectory();
+		if (directory == null) {
+			return null;
+		}
+		// include hash of absolute path to tell apart equally named projects
+		int pathHash = projectFile.toString().hashCode();
+		return directory.resolve(projectFile.getFileName() + "_" + Integer.toHexString(pathHash) + ".sts");
+	}
+
+	/**
+	 * A single cached mod file status.
+	 */
+	private static class CacheEntry {
+
+		/**
+		 * The hash of the tested mod file contents.
+		 */
+		private byte[] modHash;
+
+		/**
+		 * The path of the UPK file the mod file was tested against.
+		 */
+		private Path upkPath;
+
+		/**
+		 * The fingerprint of the UPK file.
+		 */
+		private Fingerprint fingerprint;
+
+		/**
+		 * The tested status.
+		 */
+		private ApplyStatus status;
+
+		/**
+		 * Constructs a cache entry.
+		 * @param modHash the hash of the tested mod file contents
+		 * @param upkPath the path of the UPK file the mod file was tested against
+		 * @param fingerprint the fingerprint of the UPK file
+		 * @param status the tested status
+		 */
+		public CacheEntry(byte[] modHash, Path upkPath, Fingerprint fingerprint, ApplyStatus status) {
+			this.modHash = modHash;
+			this.upkPath = upkPath;
+			this.fingerprint = fingerprint;
+			this.status = status;
+		}
+
+		/**
+		 * Writes the entry to the specified stream.
+		 * @param dos the stream to write to
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void write(DataOutputStream dos) throws IOException {
+			dos.writeInt(this.modHash.length);
+			dos.write(this.modHash);
+			dos.writeUTF(this.upkPath.toString());
+			this.fingerprint.write(dos);
+			dos.writeUTF(this.status.name());
+		}
+
+		/**
+		 * Reads an entry from the specified stream.
+		 * @param dis the stream to read from
+		 * @return the entry
+		 * @throws IOException if an I/O error occurs
+		 */
+		public static CacheEntry read(DataInputStream dis) throws IOException {
+			byte[] modHash = new byte[dis.readInt()];
+			dis.readFully(modHash);
+			Path upkPath = Paths.get(dis.readUTF());
+			Fingerprint fingerprint = Fingerprint.read(dis);
+			return new CacheEntry(modHash, upkPath, fingerprint, ApplyStatus.valueOf(dis.readUTF()));
+		}
+
+	}
+
+}
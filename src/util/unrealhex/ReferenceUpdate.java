@@ -667,8 +667,13 @@ public class ReferenceUpdate {
 				// FIXME: don't muck about in the document, keep changes to the tree and propagate them to the document via tree model listeners registered on the tree by the document
 //				tree.getDocument().remove(offset, originalLine.length());
 				
-				((ModTreeNode) line.getChildAt(0)).setText(newLine);
-				((ModTreeNode) line.getChildAt(1)).setText(newComment);
+				if (line.getChildAt(1) == null) {
+					// line without comment
+					((ModTreeNode) line.getChildAt(0)).setText(newLine + newComment);
+				} else {
+					((ModTreeNode) line.getChildAt(0)).setText(newLine);
+					((ModTreeNode) line.getChildAt(1)).setText(newComment);
+				}
 				// arbitrary default AttributeSet
 				//AttributeSet as = new SimpleAttributeSet(); 
 				//StyleConstants.setForeground((MutableAttributeSet) as, Color.BLACK);
@@ -0,0 +1,727 @@
+package util.unrealhex;
+
+import static model.modtree.ModTree.logger;
+import io.model.upk.ObjectEntry;
+import io.upk.ExportTableWriter;
+import io.upk.UpkJournal;
+import io.upk.UpkJournal.Record;
+import io.upk.UpkJournal.RecordType;
+import io.upk.UpkJournal.Transaction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+
+import model.modtree.ModContext.ModContextType;
+import model.modtree.ModTree;
+import model.upk.UpkFile;
+import util.properties.UpkModderProperties;
+
+/**
+ * Plan of resizing replacements to be made to a single UPK file at once.<br>
+ * All insertions and deletions are collected and verified first. On
+ * execution the file is streamed once with all splices applied, afterwards
+ * the object table entries of resized and shifted objects are rewritten in
+ * a single buffered pass using the cumulative size change of all preceding
+ * splices.<br>
+ * In {@link Mode#RELOCATE} mode resized objects are instead copied to the
+ * end of the file with all splices applied and only their object table
+ * entries are redirected. Each relocation is recorded in the package's
+ * {@link UpkJournal} so a later reverse resize restores the original entry
+ * and truncates the appended bytes without requiring a backup file.
+ *
+ * @author XMS
+ */
+public class ResizePlan {
+
+	/**
+	 * Enumeration of the ways resizing replacements are written.
+	 */
+	public enum Mode {
+		/** Rewrite the whole file with all splices applied, journaling the splices. */
+		REWRITE,
+		/** Append resized objects to the end of the file, journaling the changes. */
+		RELOCATE
+	}
+
+	/**
+	 * The configuration property key selecting the resize mode.
+	 */
+	public static final String RESIZE_MODE_PROPERTY = "resize.mode";
+
+	/**
+	 * The byte offset of the object file size inside an object entry.
+	 */
+	private static final int ENTRY_SIZE_OFFSET = 32;
+
+	/**
+	 * The resize mode, <code>null</code> until read from the configuration.
+	 */
+	private static Mode resizeMode;
+
+	/**
+	 * Returns the way resizing replacements are written. Unless set
+	 * explicitly it is read once from the '<code>resize.mode</code>'
+	 * configuration property and defaults to {@link Mode#REWRITE}.
+	 * @return the resize mode
+	 */
+	public static synchronized Mode getResizeMode() {
+		if (resizeMode == null) {
+			resizeMode = Mode.REWRITE;
+			String property = UpkModderProperties.getConfigProperty(RESIZE_MODE_PROPERTY);
+			if (property != null) {
+				try {
+					resizeMode = Mode.valueOf(property.trim().toUpperCase());
+				} catch (IllegalArgumentException ex) {
+					logger.log(Level.INFO, "Unknown resize mode: " + property, ex);
+				}
+			}
+		}
+		return resizeMode;
+	}
+
+	/**
+	 * Sets the way resizing replacements are written.
+	 * @param mode the resize mode
+	 */
+	public static synchronized void setResizeMode(Mode mode) {
+		resizeMode = mode;
+	}
+
+	/**
+	 * Comparator sorting splices by ascending file position.
+	 */
+	private static final Comparator<Splice> POSITION_ORDER = new Comparator<Splice>() {
+		@Override
+		public int compare(Splice s1, Splice s2) {
+			return Long.compare(s1.position, s2.position);
+		}
+	};
+
+	/**
+	 * The UPK file to modify.
+	 */
+	private UpkFile upk;
+
+	/**
+	 * The planned splices.
+	 */
+	private List<Splice> splices = new ArrayList<>();
+
+	/**
+	 * Constructs an empty resize plan for the specified UPK file.
+	 * @param upk the UPK file to modify
+	 */
+	public ResizePlan(UpkFile upk) {
+		this.upk = upk;
+	}
+
+	/**
+	 * Returns whether there are no planned splices.
+	 * @return <code>true</code> if the plan is empty
+	 */
+	public boolean isEmpty() {
+		return this.splices.isEmpty();
+	}
+
+	/**
+	 * Verifies the resize operation defined in the specified tree and adds it
+	 * to the plan.
+	 * Verifies that tree has only one replacement block
+	 * Verifies size change
+	 * Finds file position for change
+	 * Verifies that the change does not overlap any previously planned change
+	 * @param apply flag indicating apply or revert. true if apply, false if revert
+	 * @param tree model of the function to be replaced/resized
+	 * @return true if the operation was added, false otherwise
+	 */
+	public boolean add(boolean apply, ModTree tree) {
+		if(tree.getFileVersion() < 4) {
+			logger.log(Level.INFO, "Modfile version does not support resize operations");
+			return false;
+		}
+		if(tree.getTargetUpk() != this.upk) {
+			logger.log(Level.INFO, "Modfile does not target " + this.upk.getPath());
+			return false;
+		}
+
+		int currentObjectIndex = this.upk.findRefByName(tree.getFunctionName());
+		if(currentObjectIndex < 0) {
+			logger.log(Level.INFO, "Cannot resize import objects");
+			return false;
+		} else if(currentObjectIndex == 0) {
+			logger.log(Level.INFO, "Function not found in upk");
+			return false;
+		}
+
+		int resizeAmount;
+		if(apply) {
+			resizeAmount = tree.getResizeAmount();
+		} else {
+			resizeAmount = - tree.getResizeAmount();
+		}
+
+		//Create find/replace blocks
+		List<byte[]> findHexList;
+		List<byte[]> replaceHexList;
+		if(apply) {
+			findHexList = HexSearchAndReplace.consolidateHex(tree, ModContextType.BEFORE_HEX);
+			replaceHexList = HexSearchAndReplace.consolidateHex(tree, ModContextType.AFTER_HEX);
+		} else {
+			findHexList = HexSearchAndReplace.consolidateHex(tree, ModContextType.AFTER_HEX);
+			replaceHexList = HexSearchAndReplace.consolidateHex(tree, ModContextType.BEFORE_HEX);
+		}
+
+		// Verify that tree has only one replacement block
+		if(findHexList.size()!= 1 || replaceHexList.size() != 1) {
+			logger.log(Level.INFO, "Resize operation requires exactly 1 BEFORE and 1 AFTER block");
+			return false;
+		}
+
+		byte[] findHex = findHexList.get(0);
+		byte[] replaceHex = replaceHexList.get(0);
+
+		// Verify size change
+		if(findHex.length + resizeAmount != replaceHex.length) {
+			logger.log(Level.INFO, "Mismatch in expected size difference between FIND/REPLACE blocks\n"
+					+ "    FIND size: " + Integer.toHexString(findHex.length) + "\n"
+					+ "    Request resize: " + Integer.toHexString(resizeAmount) + "\n"
+					+ "    REPLACE size: " + Integer.toHexString(replaceHex.length) + "\n");
+			return false;
+		}
+
+		// Find file position for change
+		long filePosition;
+		try {
+			filePosition = HexSearchAndReplace.findFilePosition(findHex, tree);
+		} catch(IOException ex) {
+			logger.log(Level.SEVERE, "IO Error finding file position", ex);
+			return false;
+		}
+
+		// verify found file position
+		if(filePosition == -1) {
+			logger.log(Level.SEVERE, "FIND hex not found");
+			return false;
+		}
+
+		// verify that no other planned change touches the same bytes
+		Splice splice = new Splice(currentObjectIndex, filePosition, findHex, replaceHex);
+		for (Splice other : this.splices) {
+			if (((splice.position < other.getEnd()) && (other.position < splice.getEnd()))
+					|| (splice.position == other.position)) {
+				logger.log(Level.INFO, "FIND hex overlaps previously planned resize of "
+						+ this.upk.getRefName(other.objectIndex));
+				return false;
+			}
+		}
+		this.splices.add(splice);
+		return true;
+	}
+
+	/**
+	 * Executes all planned splices using the configured {@link Mode} and
+	 * clears the plan.
+	 * @return true if the file was modified successfully, false otherwise
+	 */
+	public boolean execute() {
+		if (this.splices.isEmpty()) {
+			return true;
+		}
+		List<Splice> sortedSplices = new ArrayList<>(this.splices);
+		Collections.sort(sortedSplices, POSITION_ORDER);
+		this.splices.clear();
+
+		// release file mapping, the file is about to be modified
+		this.upk.invalidateBuffer();
+
+		if (getResizeMode() == Mode.RELOCATE) {
+			return this.relocateObjects(sortedSplices);
+		}
+
+		// journal all splices before the file is rewritten
+		UpkJournal journal = UpkJournal.get(this.upk.getPath());
+		Transaction tx;
+		try {
+			tx = journal.begin("Resize " + sortedSplices.size() + " blocks");
+			for (Splice splice : sortedSplices) {
+				journal.recordSplice(tx, splice.position, splice.findHex, splice.replaceHex);
+			}
+			journal.flush();
+		} catch (IOException ex) {
+			logger.log(Level.SEVERE, "IO Failure when attempting to journal resize", ex);
+			return false;
+		}
+
+		long startTime = System.currentTimeMillis();
+		if (!this.spliceFile(sortedSplices)) {
+			logger.log(Level.INFO, "Failure during copyAndReplace");
+			try {
+				journal.abort(tx);
+			} catch (IOException ex) {
+				logger.log(Level.SEVERE, "IO Failure when attempting to journal resize", ex);
+			}
+			return false;
+		}
+		logger.log(Level.INFO, "Resize: inserted new hex, took " + (System.currentTimeMillis() - startTime) + "ms");
+
+		startTime = System.currentTimeMillis();
+		try {
+			this.rewriteObjectTable(sortedSplices, journal, tx);
+			journal.commit(tx);
+		} catch(IOException ex) {
+			logger.log(Level.SEVERE, "IO Failure when attempting to update Object Entries", ex);
+			try {
+				journal.rollback(tx);
+			} catch (IOException ex2) {
+				logger.log(Level.SEVERE, "IO Failure when attempting to roll back resize", ex2);
+			}
+			return false;
+		}
+		logger.log(Level.INFO, "Resize: rewrote object table, took " + (System.currentTimeMillis() - startTime) + "ms");
+		// the object entries in memory have been updated along with the file
+		this.upk.updateFingerprint();
+		return true;
+	}
+
+	/**
+	 * Applies the specified splices by relocating each resized object to the
+	 * end of the file. A relocation undoing a previously journaled relocation
+	 * is rolled back instead.
+	 * @param sortedSplices the splices sorted by file position
+	 * @return true if all objects were relocated, false otherwise
+	 */
+	private boolean relocateObjects(List<Splice> sortedSplices) {
+		long startTime = System.currentTimeMillis();
+
+		// group splices by object, preserving file order
+		Map<Integer, List<Splice>> objectSplices = new LinkedHashMap<>();
+		for (Splice splice : sortedSplices) {
+			List<Splice> splices = objectSplices.get(splice.objectIndex);
+			if (splices == null) {
+				splices = new ArrayList<>();
+				objectSplices.put(splice.objectIndex, splices);
+			}
+			splices.add(splice);
+		}
+
+		UpkJournal journal = UpkJournal.get(this.upk.getPath());
+		for (Entry<Integer, List<Splice>> entry : objectSplices.entrySet()) {
+			ObjectEntry objectEntry = this.upk.getHeader().getObjectList().get(entry.getKey());
+			try {
+				byte[] objectBytes = this.spliceObject(objectEntry, entry.getValue());
+				if (objectBytes == null) {
+					logger.log(Level.INFO, "Find hex not found");
+					return false;
+				}
+				if (!this.rollbackRelocation(journal, objectEntry, objectBytes)) {
+					this.relocateObject(journal, entry.getKey(), objectBytes);
+				}
+			} catch (IOException ex) {
+				logger.log(Level.SEVERE, "IO Failure when attempting to relocate "
+						+ this.upk.getRefName(entry.getKey()), ex);
+				return false;
+			}
+		}
+		logger.log(Level.INFO, "Resize: relocated " + objectSplices.size() + " objects, took "
+				+ (System.currentTimeMillis() - startTime) + "ms");
+		// the object entries in memory have been updated along with the file
+		this.upk.updateFingerprint();
+		return true;
+	}
+
+	/**
+	 * Reads the data of the specified object and applies the specified
+	 * splices to it.
+	 * @param entry the object entry
+	 * @param splices the splices inside the object sorted by file position
+	 * @return the resized object data or <code>null</code> if the FIND hex
+	 *  of a splice is not present
+	 * @throws IOException if an I/O error occurs
+	 */
+	private byte[] spliceObject(ObjectEntry entry, List<Splice> splices) throws IOException {
+		ByteBuffer objectBuf = ByteBuffer.allocate(entry.getUpkSize());
+		try (FileChannel fc = FileChannel.open(this.upk.getPath(), StandardOpenOption.READ)) {
+			while (objectBuf.hasRemaining()) {
+				if (fc.read(objectBuf, entry.getUpkPos() + objectBuf.position()) < 0) {
+					throw new IOException("Unexpected end of file inside object data");
+				}
+			}
+		}
+		byte[] objectBytes = objectBuf.array();
+
+		ByteBuffer resizedBuf = ByteBuffer.allocate(objectBytes.length + this.getSizeChange(splices));
+		int objectPos = 0;
+		for (Splice splice : splices) {
+			int offset = (int) (splice.position - entry.getUpkPos());
+			if ((offset < objectPos) || (offset + splice.findHex.length > objectBytes.length)
+					|| !Arrays.equals(splice.findHex, Arrays.copyOfRange(objectBytes, offset, offset + splice.findHex.length))) {
+				return null;
+			}
+			resizedBuf.put(objectBytes, objectPos, offset - objectPos);
+			resizedBuf.put(splice.replaceHex);
+			objectPos = offset + splice.findHex.length;
+		}
+		resizedBuf.put(objectBytes, objectPos, objectBytes.length - objectPos);
+		return resizedBuf.array();
+	}
+
+	/**
+	 * Rolls back the journaled relocation of the specified object if the
+	 * object data at its previous position equals the specified data, i.e.
+	 * if the current resize exactly reverts the relocation.
+	 * @param journal the package journal
+	 * @param entry the object entry
+	 * @param objectBytes the resized object data
+	 * @return true if a relocation was rolled back, false otherwise
+	 * @throws IOException if an I/O error occurs
+	 */
+	private boolean rollbackRelocation(UpkJournal journal, ObjectEntry entry, byte[] objectBytes) throws IOException {
+		long entryPos = (long) entry.getObjectEntryPos() + ENTRY_SIZE_OFFSET;
+		List<Transaction> transactions = journal.getTransactions();
+		for (int i = transactions.size() - 1; i >= 0; i--) {
+			Transaction tx = transactions.get(i);
+			List<Record> records = tx.getRecords();
+			if (records.isEmpty() || (records.get(0).getType() != RecordType.APPEND)) {
+				// not a relocation
+				continue;
+			}
+			for (Record record : records) {
+				if ((record.getType() != RecordType.WRITE) || (record.getPosition() != entryPos)
+						|| (record.getNewBytes().length != 8)) {
+					continue;
+				}
+				ByteBuffer newBuf = ByteBuffer.wrap(record.getNewBytes()).order(ByteOrder.LITTLE_ENDIAN);
+				if ((newBuf.getInt() != entry.getUpkSize()) || (newBuf.getInt() != entry.getUpkPos())) {
+					// entry has been changed since
+					return false;
+				}
+				ByteBuffer oldBuf = ByteBuffer.wrap(record.getOldBytes()).order(ByteOrder.LITTLE_ENDIAN);
+				int oldSize = oldBuf.getInt();
+				int oldPos = oldBuf.getInt();
+				if ((oldSize != objectBytes.length) || !this.matches(oldPos, objectBytes)) {
+					return false;
+				}
+				journal.rollback(tx);
+				ExportTableWriter writer = new ExportTableWriter();
+				writer.setUpkSize(entry, oldSize);
+				writer.setUpkPos(entry, oldPos);
+				writer.apply();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Appends the specified object data to the end of the file and redirects
+	 * the object entry to it. The changes are recorded in the journal first.
+	 * @param journal the package journal
+	 * @param objectIndex the object table index of the resized object
+	 * @param objectBytes the resized object data
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void relocateObject(UpkJournal journal, int objectIndex, byte[] objectBytes) throws IOException {
+		ObjectEntry entry = this.upk.getHeader().getObjectList().get(objectIndex);
+		try (FileChannel fc = FileChannel.open(this.upk.getPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long oldLength = fc.size();
+			long newLength = oldLength + objectBytes.length;
+			if (newLength > Integer.MAX_VALUE) {
+				throw new IOException("File too large for object relocation");
+			}
+
+			Transaction tx = journal.begin("Relocate " + this.upk.getRefName(objectIndex));
+			try {
+				journal.recordAppend(tx, oldLength, newLength);
+				journal.flush();
+
+				ByteBuffer objectBuf = ByteBuffer.wrap(objectBytes);
+				while (objectBuf.hasRemaining()) {
+					fc.write(objectBuf, oldLength + objectBuf.position());
+				}
+				fc.force(false);
+
+				// the writer journals the redirected size and position words
+				ExportTableWriter writer = new ExportTableWriter();
+				writer.setUpkSize(entry, objectBytes.length);
+				writer.setUpkPos(entry, (int) oldLength);
+				writer.write(this.upk.getPath(), journal, tx);
+				// the commit record must not reach the device before the data
+				fc.force(false);
+			} catch (IOException ex) {
+				try {
+					journal.rollback(tx);
+				} catch (IOException ex2) {
+					ex.addSuppressed(ex2);
+				}
+				throw ex;
+			}
+			journal.commit(tx);
+		}
+	}
+
+	/**
+	 * Returns whether the file contains the specified bytes at the specified position.
+	 * @param position the file position
+	 * @param bytes the expected bytes
+	 * @return true if the bytes are present, false otherwise
+	 * @throws IOException if an I/O error occurs
+	 */
+	private boolean matches(long position, byte[] bytes) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(bytes.length);
+		try (FileChannel fc = FileChannel.open(this.upk.getPath(), StandardOpenOption.READ)) {
+			while (buf.hasRemaining()) {
+				if (fc.read(buf, position + buf.position()) < 0) {
+					return false;
+				}
+			}
+		}
+		return Arrays.equals(bytes, buf.array());
+	}
+
+	/**
+	 * Returns the total size change of the specified splices.
+	 * @param splices the splices
+	 * @return the size change
+	 */
+	private int getSizeChange(List<Splice> splices) {
+		int sizeChange = 0;
+		for (Splice splice : splices) {
+			sizeChange += splice.replaceHex.length - splice.findHex.length;
+		}
+		return sizeChange;
+	}
+
+	/**
+	 * Streams the UPK file once into a new file with all specified splices
+	 * applied. Verifies that the FIND hex of each splice is present first.
+	 * The new file is written next to the original and atomically moved over
+	 * it once complete, so a crash leaves either the original or the new file
+	 * in place. No backup copy is kept, the splices are journaled instead.
+	 * @param sortedSplices the splices sorted by file position
+	 * @return true if the file was rewritten, false otherwise
+	 */
+	private boolean spliceFile(List<Splice> sortedSplices) {
+		Path origPath = this.upk.getPath();
+
+		// verify that FIND hex is at each file position
+		try (FileChannel source = FileChannel.open(origPath, StandardOpenOption.READ)) {
+			for (Splice splice : sortedSplices) {
+				ByteBuffer findBuf = ByteBuffer.allocate(splice.findHex.length);
+				while (findBuf.hasRemaining()) {
+					if (source.read(findBuf, splice.position + findBuf.position()) < 0) {
+						break;
+					}
+				}
+				if (!Arrays.equals(splice.findHex, findBuf.array())) {
+					logger.log(Level.INFO, "Find hex not found");
+					return false;
+				}
+			}
+		} catch (IOException ex) {
+			logger.log(Level.SEVERE, "Failed to read upk file", ex);
+			return false;
+		}
+
+		// verify that filename ends with ".upk"
+		String origFilename = origPath.toAbsolutePath().toString();
+		if (!origFilename.endsWith(".upk")) {
+			logger.log(Level.INFO, "Target file not valid upk");
+			return false;
+		}
+		Path tempPath = origPath.resolveSibling(origPath.getFileName() + ".tmp");
+
+		// stream into a temporary file, the original stays intact until it is replaced
+		try (FileChannel source = FileChannel.open(origPath, StandardOpenOption.READ);
+				FileChannel destination = FileChannel.open(tempPath, StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long sourcePos = 0L;
+			for (Splice splice : sortedSplices) {
+				// copy all hex up to the splice, then the replacement bytes
+				transferFully(source, sourcePos, splice.position - sourcePos, destination);
+				ByteBuffer replaceBuf = ByteBuffer.wrap(splice.replaceHex);
+				while (replaceBuf.hasRemaining()) {
+					destination.write(replaceBuf);
+				}
+				sourcePos = splice.getEnd();
+			}
+			// copy remaining bytes
+			transferFully(source, sourcePos, source.size() - sourcePos, destination);
+			destination.force(true);
+		} catch (IOException ex) {
+			logger.log(Level.SEVERE, "IO Error during file copy", ex);
+			deleteQuietly(tempPath);
+			return false;
+		}
+
+		try {
+			try {
+				Files.move(tempPath, origPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tempPath, origPath, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ex) {
+			logger.log(Level.SEVERE, "Could not replace " + origPath + " by rewritten file", ex);
+			deleteQuietly(tempPath);
+			return false;
+		}
+		// the replacement must reach the device before the transaction is committed
+		forceDirectory(origPath.toAbsolutePath().getParent());
+		return true;
+	}
+
+	/**
+	 * Forces changes of the specified directory, e.g. a replaced file, to
+	 * the storage device. Platforms not supporting to open directories are
+	 * ignored.
+	 * @param dir the directory
+	 */
+	private static void forceDirectory(Path dir) {
+		try (FileChannel fc = FileChannel.open(dir, StandardOpenOption.READ)) {
+			fc.force(true);
+		} catch (IOException ex) {
+			logger.log(Level.FINE, "Could not force directory " + dir, ex);
+		}
+	}
+
+	/**
+	 * Deletes the specified file if it exists, logging failures.
+	 * @param path the file to delete
+	 */
+	private static void deleteQuietly(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException ex) {
+			logger.log(Level.INFO, "Could not delete " + path, ex);
+		}
+	}
+
+	/**
+	 * Updates the sizes of resized objects and the positions of shifted
+	 * objects both in the file and in memory using an {@link ExportTableWriter}.
+	 * @param sortedSplices the applied splices sorted by file position
+	 * @param journal the package journal
+	 * @param tx the transaction to record the changes in
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void rewriteObjectTable(List<Splice> sortedSplices, UpkJournal journal, Transaction tx) throws IOException {
+		List<ObjectEntry> objectList = this.upk.getHeader().getObjectList();
+		int numObjects = objectList.size();
+
+		// cumulative size changes of all splices up to each splice
+		long[] splicePositions = new long[sortedSplices.size()];
+		int[] shifts = new int[sortedSplices.size()];
+		int[] sizeChanges = new int[numObjects];
+		int shift = 0;
+		for (int i = 0; i < sortedSplices.size(); i++) {
+			Splice splice = sortedSplices.get(i);
+			int sizeChange = splice.replaceHex.length - splice.findHex.length;
+			shift += sizeChange;
+			splicePositions[i] = splice.position;
+			shifts[i] = shift;
+			sizeChanges[splice.objectIndex] += sizeChange;
+		}
+
+		ExportTableWriter writer = new ExportTableWriter();
+		for (int i = 1; i < numObjects; i++) {
+			ObjectEntry entry = objectList.get(i);
+			if (sizeChanges[i] != 0) {
+				writer.setUpkSize(entry, entry.getUpkSize() + sizeChanges[i]);
+			}
+			// objects after a splice are shifted by the size changes of all preceding splices
+			int spliceIdx = Arrays.binarySearch(splicePositions, entry.getUpkPos());
+			if (spliceIdx < 0) {
+				spliceIdx = -spliceIdx - 1;
+			}
+			if ((spliceIdx > 0) && (shifts[spliceIdx - 1] != 0)) {
+				writer.setUpkPos(entry, entry.getUpkPos() + shifts[spliceIdx - 1]);
+			}
+		}
+		writer.write(this.upk.getPath(), journal, tx);
+	}
+
+	/**
+	 * Transfers the specified number of bytes from the specified position of
+	 * the source channel to the current position of the destination channel.
+	 * @param source the source channel
+	 * @param position the source position
+	 * @param count the number of bytes to transfer
+	 * @param destination the destination channel
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void transferFully(FileChannel source, long position, long count, FileChannel destination) throws IOException {
+		while (count > 0) {
+			long transferred = source.transferTo(position, count, destination);
+			if (transferred <= 0) {
+				throw new IOException("Unexpected end of file at " + position);
+			}
+			position += transferred;
+			count -= transferred;
+		}
+	}
+
+	/**
+	 * A single planned replacement of bytes by a differently sized sequence.
+	 */
+	private static class Splice {
+
+		/**
+		 * The object table index of the resized object.
+		 */
+		private int objectIndex;
+
+		/**
+		 * The absolute file position of the replaced bytes.
+		 */
+		private long position;
+
+		/**
+		 * The bytes to be replaced.
+		 */
+		private byte[] findHex;
+
+		/**
+		 * The replacement bytes.
+		 */
+		private byte[] replaceHex;
+
+		/**
+		 * Constructs a splice.
+		 * @param objectIndex the object table index of the resized object
+		 * @param position the absolute file position of the replaced bytes
+		 * @param findHex the bytes to be replaced
+		 * @param replaceHex the replacement bytes
+		 */
+		public Splice(int objectIndex, long position, byte[] findHex, byte[] replaceHex) {
+			this.objectIndex = objectIndex;
+			this.position = position;
+			this.findHex = findHex;
+			this.replaceHex = replaceHex;
+		}
+
+		/**
+		 * Returns the file position right behind the replaced bytes.
+		 * @return the end position
+		 */
+		public long getEnd() {
+			return this.position + this.findHex.length;
+		}
+
+	}
+
+}
@@ -0,0 +1,160 @@
+package UPKmodder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.upk.DisabledHeaderCache;
+import io.upk.SyntheticUpk;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import model.upk.UpkFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the batch daemon and client.
+ *
+ * @author XMS
+ */
+public class BatchDaemonTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public DisabledHeaderCache headerCache = new DisabledHeaderCache();
+
+	private Path tempDir;
+	private Path upkPath;
+	private Path modPath;
+	private BatchDaemon daemon;
+	private Thread serverThread;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = temporaryFolder.getRoot().toPath();
+		upkPath = tempDir.resolve("Test.upk");
+		SyntheticUpk.write(upkPath, 100, 50, 10);
+		BatchDaemon.setTokenDirectory(tempDir);
+
+		UpkFile upk = new UpkFile(upkPath);
+		modPath = tempDir.resolve("A.upk_mod");
+		Files.write(modPath, SyntheticUpk.createModText(upk.getRefName(10), SyntheticUpk.getObjectHex(10, 2, 4), SyntheticUpk.getFillHex(0xEE, 4)).getBytes());
+
+		Path configPath = tempDir.resolve("upk_config.ini");
+		Files.write(configPath, ("UPKFILE=Test.upk\nFILE=" + upkPath + " :: GUID=" + SyntheticUpk.GUID_TEXT + "\n").getBytes());
+		UpkConfigData configData = new UpkConfigData();
+		configData.upkConfig = configPath.toString();
+		configData.m_iPort = 0;
+		daemon = new BatchDaemon(configData);
+		daemon.start();
+		serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					daemon.serve();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		serverThread.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		daemon.stop();
+		serverThread.join(10000);
+		BatchDaemon.setTokenDirectory(BatchDaemon.DEFAULT_TOKEN_DIRECTORY);
+	}
+
+	@Test
+	public void testRequests() throws Exception {
+		byte[] original = Files.readAllBytes(upkPath);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BatchClient client = new BatchClient(daemon.getPort(), new PrintStream(bytes, true), new PrintStream(new ByteArrayOutputStream()));
+
+		assertEquals(BatchEngine.EXIT_OK, client.run(new String[] { "-C", "-w", "-i", modPath.toString() }));
+		assertTrue(new String(bytes.toByteArray()).startsWith("APPLY\tAFTER_HEX_PRESENT\t" + modPath + "\n"));
+		assertFalse(Arrays.equals(original, Files.readAllBytes(upkPath)));
+
+		// restoring the package by other means is noticed
+		Files.write(upkPath, original);
+		Files.setLastModifiedTime(upkPath, FileTime.fromMillis(Files.getLastModifiedTime(upkPath).toMillis() + 2000));
+		bytes.reset();
+		assertEquals(BatchEngine.EXIT_OK, client.run(new String[] { "-C", "-S", "-i", modPath.toString() }));
+		assertTrue(new String(bytes.toByteArray()).startsWith("STATUS\tBEFORE_HEX_PRESENT\t"));
+
+		assertEquals(BatchEngine.EXIT_USAGE, client.run(new String[] { "-C" }));
+		assertEquals(BatchEngine.EXIT_OK, client.stopDaemon());
+		serverThread.join(10000);
+		assertFalse(serverThread.isAlive());
+		assertArrayEquals(original, Files.readAllBytes(upkPath));
+		assertFalse(Files.exists(BatchDaemon.getTokenPath(daemon.getPort())));
+	}
+
+	@Test
+	public void testInvalidRequests() throws Exception {
+		Path tokenPath = BatchDaemon.getTokenPath(daemon.getPort());
+		if (tokenPath.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenPath)));
+		}
+		String token = new String(Files.readAllBytes(tokenPath), BatchDaemon.CHARSET);
+
+		// requests without the token are rejected
+		List<String> response = send("STOP");
+		assertEquals("EXIT\t" + BatchEngine.EXIT_FAILURE, response.get(response.size() - 1));
+		response = send("0000\tSTOP");
+		assertEquals("EXIT\t" + BatchEngine.EXIT_FAILURE, response.get(response.size() - 1));
+		assertTrue(serverThread.isAlive());
+
+		// a failing request does not stop the daemon
+		response = send(token + "\tRUN\t\u0000\t-S\t-i\t" + modPath);
+		assertEquals("EXIT\t" + BatchEngine.EXIT_FAILURE, response.get(response.size() - 1));
+		assertTrue(serverThread.isAlive());
+
+		response = send(token + "\tSTOP");
+		assertEquals("EXIT\t" + BatchEngine.EXIT_OK, response.get(response.size() - 1));
+		serverThread.join(10000);
+		assertFalse(serverThread.isAlive());
+	}
+
+	/**
+	 * Sends the specified raw request line and returns the response lines.
+	 */
+	private List<String> send(String request) throws Exception {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+			Writer writer = new OutputStreamWriter(socket.getOutputStream(), BatchDaemon.CHARSET);
+			writer.write(request + "\n");
+			writer.flush();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), BatchDaemon.CHARSET));
+			List<String> lines = new ArrayList<>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+			return lines;
+		}
+	}
+
+}
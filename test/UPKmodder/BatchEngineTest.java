@@ -0,0 +1,234 @@
+package UPKmodder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.upk.DisabledHeaderCache;
+import io.upk.SyntheticUpk;
+import io.upk.UpkFileLoader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import model.upk.UpkFile;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import parser.unrealhex.OperandTable;
+import ui.ApplyStatus;
+
+/**
+ * Tests for the headless batch engine.
+ *
+ * @author XMS
+ */
+public class BatchEngineTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public DisabledHeaderCache headerCache = new DisabledHeaderCache();
+
+	private Path tempDir;
+	private Path upkPath;
+	private Path modDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = temporaryFolder.getRoot().toPath();
+		upkPath = tempDir.resolve("Test.upk");
+		SyntheticUpk.write(upkPath, 100, 50, 10);
+
+		UpkFile upk = new UpkFile(upkPath);
+		modDir = Files.createDirectories(tempDir.resolve("mods"));
+		Files.write(modDir.resolve("A.upk_mod"), createModText(upk, 10).getBytes());
+		Files.write(Files.createDirectories(modDir.resolve("sub")).resolve("B.upk_mod"), createModText(upk, 20).getBytes());
+		Files.write(Files.createDirectories(modDir.resolve("__disabled")).resolve("C.upk_mod"), createModText(upk, 30).getBytes());
+		Files.write(modDir.resolve("__D.upk_mod"), createModText(upk, 40).getBytes());
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+		// tests do not run in the application directory
+		OperandTable.preload(Paths.get("Config/operand_data.ini"));
+	}
+
+	@Test
+	public void testApplyAndRevertDirectory() throws Exception {
+		byte[] original = Files.readAllBytes(upkPath);
+
+		BatchEngine engine = createEngine("-S", "-i", modDir.toString());
+		assertEquals(BatchEngine.EXIT_OK, engine.run());
+		assertResults(engine.getResults(), "STATUS", ApplyStatus.BEFORE_HEX_PRESENT);
+
+		engine = createEngine("-w", "-T", "2", "-i", modDir.toString());
+		assertEquals(BatchEngine.EXIT_OK, engine.run());
+		assertResults(engine.getResults(), "APPLY", ApplyStatus.AFTER_HEX_PRESENT);
+		assertFalse(Arrays.equals(original, Files.readAllBytes(upkPath)));
+
+		// excluded mod files are left alone
+		engine = createEngine("-S", "-i", modDir.resolve("__disabled").resolve("C.upk_mod").toString());
+		assertEquals(BatchEngine.EXIT_OK, engine.run());
+		assertResults(engine.getResults(), "STATUS", ApplyStatus.BEFORE_HEX_PRESENT);
+
+		engine = createEngine("-r", "-i", modDir.toString());
+		assertEquals(BatchEngine.EXIT_OK, engine.run());
+		assertResults(engine.getResults(), "REVERT", ApplyStatus.BEFORE_HEX_PRESENT);
+		assertArrayEquals(original, Files.readAllBytes(upkPath));
+	}
+
+	@Test
+	public void testRollback() throws Exception {
+		byte[] original = Files.readAllBytes(upkPath);
+		assertEquals(BatchEngine.EXIT_OK, createEngine("-w", "-i", modDir.toString()).run());
+		assertFalse(Arrays.equals(original, Files.readAllBytes(upkPath)));
+
+		// both mod files target the same package, its changes are rolled back once
+		BatchEngine engine = createEngine("-R", "5", "-i", modDir.toString());
+		assertEquals(BatchEngine.EXIT_OK, engine.run());
+		assertEquals(1, engine.getResults().size());
+		assertEquals("ROLLBACK", engine.getResults().get(0).getOperation());
+		assertEquals("ROLLED_BACK", engine.getResults().get(0).getResult());
+		assertArrayEquals(original, Files.readAllBytes(upkPath));
+
+		engine = createEngine("-S", "-i", modDir.toString());
+		assertEquals(BatchEngine.EXIT_OK, engine.run());
+		assertResults(engine.getResults(), "STATUS", ApplyStatus.BEFORE_HEX_PRESENT);
+	}
+
+	@Test
+	public void testUpdateReferencesAmbiguous() throws Exception {
+		Path modPath = modDir.resolve("A.upk_mod");
+		Path outPath = tempDir.resolve("A.out");
+		// another version of the package is configured, the target is ambiguous
+		byte[] otherVersion = Files.readAllBytes(upkPath);
+		otherVersion[0x45] = 0x7F;
+		Path otherPath = tempDir.resolve("Other.upk");
+		Files.write(otherPath, otherVersion);
+		UpkConfigData configData = parse("-U", "-i", modPath.toString(), "-o", outPath.toString());
+		Files.write(Paths.get(configData.upkConfig), ("NUM_UPKS=2\nUPKFILE=Test.upk\nFILE=" + upkPath + " :: GUID=" + SyntheticUpk.GUID_TEXT + "\n"
+				+ "UPKFILE=Test.upk\nFILE=" + otherPath + " :: GUID=7F" + SyntheticUpk.GUID_TEXT.substring(2) + "\n").getBytes());
+		BatchEngine engine = new BatchEngine(configData, new UpkFileLoader(configData), new PrintStream(new ByteArrayOutputStream()));
+		assertEquals(BatchEngine.EXIT_FAILURE, engine.run());
+		assertEquals("FAILED", engine.getResults().get(0).getResult());
+		assertFalse(Files.exists(outPath));
+		assertTrue(engine.getResults().get(0).toString().endsWith("\tseveral configured versions of Test.upk"));
+	}
+
+	@Test
+	public void testSummary() throws Exception {
+		Files.write(modDir.resolve("Missing.upk_mod"), "MODFILEVERSION=4\nUPKFILE=Missing.upk\nGUID=UNSPECIFIED\n".getBytes());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		UpkConfigData configData = parse("-S", "-i", modDir.toString());
+		BatchEngine engine = new BatchEngine(configData, new UpkFileLoader(configData), new PrintStream(bytes, true));
+		assertEquals(BatchEngine.EXIT_FAILURE, engine.run());
+
+		String[] lines = new String(bytes.toByteArray()).trim().split("\\r?\\n");
+		assertEquals(4, lines.length);
+		assertTrue(lines[0].startsWith("STATUS\tBEFORE_HEX_PRESENT\t"));
+		assertTrue(lines[1].startsWith("STATUS\tUNKNOWN\t" + modDir.resolve("Missing.upk_mod") + "\t"));
+		assertTrue(lines[2].startsWith("STATUS\tBEFORE_HEX_PRESENT\t"));
+		assertTrue(lines[3].startsWith("SUMMARY\tfiles=3\tsucceeded=2\tfailed=1\t"));
+	}
+
+	@Test
+	public void testVerboseOutputSeparated() throws Exception {
+		ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+		PrintStream err = new PrintStream(errBytes, true);
+		UpkConfigData configData = parse("-v", "-S", "-i", modDir.toString());
+		BatchEngine engine = new BatchEngine(configData, new UpkFileLoader(configData, err), new PrintStream(outBytes, true), err);
+		assertEquals(BatchEngine.EXIT_OK, engine.run());
+
+		String[] lines = new String(outBytes.toByteArray()).trim().split("\\r?\\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[2].startsWith("SUMMARY\t"));
+		assertTrue(new String(errBytes.toByteArray()).contains("Read " + upkPath + "."));
+	}
+
+	@Test
+	public void testTagReferences() throws Exception {
+		Path tagDir = Files.createDirectories(tempDir.resolve("tagmods"));
+		Files.write(tagDir.resolve("A.upk_mod"), createCodeModText("0B").getBytes());
+		Files.write(Files.createDirectories(tagDir.resolve("sub")).resolve("B.upk_mod"), createCodeModText("0F 00 10 A0 00 00 26").getBytes());
+		Path outDir = tempDir.resolve("tagged");
+		assertEquals(BatchEngine.EXIT_USAGE, createEngine("-t", "-i", tagDir.toString()).run());
+
+		BatchEngine engine = createEngine("-t", "-i", tagDir.toString(), "-o", outDir.toString());
+		assertEquals(BatchEngine.EXIT_OK, engine.run());
+		assertEquals(2, engine.getResults().size());
+		for (BatchEngine.Result result : engine.getResults()) {
+			assertEquals("TAG", result.getOperation());
+			assertEquals("TAGGED", result.getResult());
+		}
+		List<String> lines = Files.readAllLines(outDir.resolve("sub").resolve("B.upk_mod.tagged"), Charset.defaultCharset());
+		assertEquals(2, lines.size());
+		assertEquals("0F 00 {{ 10 A0 00 00 }} 26 ", lines.get(0));
+		assertEquals("0B ", lines.get(1));
+	}
+
+	@Test
+	public void testTagReferencesUndecodable() throws Exception {
+		Path modPath = tempDir.resolve("E.upk_mod");
+		Files.write(modPath, createCodeModText("0F 00 10 A0 00 00 26 01").getBytes());
+		Path outPath = tempDir.resolve("E.tagged");
+
+		BatchEngine engine = createEngine("-t", "-i", modPath.toString(), "-o", outPath.toString());
+		assertEquals(BatchEngine.EXIT_FAILURE, engine.run());
+		assertEquals(1, engine.getResults().size());
+		assertEquals("FAILED", engine.getResults().get(0).getResult());
+		// undecodable remainder is still written untagged
+		assertEquals("0F 00 {{ 10 A0 00 00 }} 26 01 ", Files.readAllLines(outPath, Charset.defaultCharset()).get(0));
+	}
+
+	private BatchEngine createEngine(String... args) throws Exception {
+		UpkConfigData configData = parse(args);
+		return new BatchEngine(configData, new UpkFileLoader(configData), new PrintStream(new ByteArrayOutputStream()));
+	}
+
+	private UpkConfigData parse(String... args) throws Exception {
+		Path configPath = tempDir.resolve("upk_config.ini");
+		Files.write(configPath, ("NUM_UPKS=1\nUPKFILE=Test.upk\nFILE=" + upkPath + " :: GUID=" + SyntheticUpk.GUID_TEXT + "\n").getBytes());
+		UpkConfigData configData = new CommandLineArgHandler().Init(args, new UpkConfigData());
+		configData.upkConfig = configPath.toString();
+		return configData;
+	}
+
+	private static void assertResults(List<BatchEngine.Result> results, String operation, ApplyStatus status) {
+		assertFalse(results.isEmpty());
+		for (BatchEngine.Result result : results) {
+			assertEquals(operation, result.getOperation());
+			assertEquals(status.name(), result.getResult());
+			assertTrue(result.isSuccess());
+		}
+	}
+
+	/**
+	 * Creates a mod file text replacing the specified byte code by a single
+	 * <code>EX_Nothing</code> token.
+	 */
+	private static String createCodeModText(String code) {
+		return SyntheticUpk.createModText("Foo", code, "0B");
+	}
+
+	/**
+	 * Creates a mod file text replacing four bytes of the specified export
+	 * object by bytes of value <code>0xEE</code>.
+	 */
+	private static String createModText(UpkFile upk, int objectIdx) {
+		return SyntheticUpk.createModText(upk.getRefName(objectIdx), SyntheticUpk.getObjectHex(objectIdx, 2, 4), SyntheticUpk.getFillHex(0xEE, 4));
+	}
+
+}
@@ -0,0 +1,23 @@
+package io.upk;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * Test rule disabling the persistent header cache for the duration of each
+ * test, so tests neither read nor write the application's cache directory.
+ *
+ * @author XMS
+ */
+public class DisabledHeaderCache extends ExternalResource {
+
+	@Override
+	protected void before() {
+		UpkHeaderCache.setCacheDirectory(null);
+	}
+
+	@Override
+	protected void after() {
+		UpkHeaderCache.setCacheDirectory(UpkHeaderCache.DEFAULT_CACHE_DIRECTORY);
+	}
+
+}
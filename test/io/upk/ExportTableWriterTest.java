@@ -0,0 +1,64 @@
+package io.upk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.model.upk.ObjectEntry;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import model.upk.UpkFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for bulk object table writes.
+ *
+ * @author XMS
+ */
+public class ExportTableWriterTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public DisabledHeaderCache headerCache = new DisabledHeaderCache();
+
+	private Path upkPath;
+
+	@Before
+	public void setUp() throws Exception {
+		upkPath = temporaryFolder.getRoot().toPath().resolve("Test.upk");
+		SyntheticUpk.write(upkPath, 100, 50, 10);
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		UpkFile upk = new UpkFile(upkPath);
+		List<ObjectEntry> objectList = upk.getHeader().getObjectList();
+		ExportTableWriter writer = new ExportTableWriter();
+		writer.setUpkSize(objectList.get(3), 0x1234);
+		writer.setUpkPos(objectList.get(40), 0x5678);
+		writer.setType(objectList.get(40), -7);
+		writer.setOuter(objectList.get(12), 5);
+		writer.write(upkPath);
+		assertTrue(writer.isEmpty());
+
+		assertEquals(0x1234, objectList.get(3).getUpkSize());
+		assertEquals(0x5678, objectList.get(40).getUpkPos());
+		assertEquals(-7, objectList.get(40).getType());
+		assertEquals(5, objectList.get(12).getOuter());
+
+		List<ObjectEntry> writtenList = new UpkFile(upkPath).getHeader().getObjectList();
+		for (int i = 1; i < objectList.size(); i++) {
+			assertEquals(objectList.get(i).getType(), writtenList.get(i).getType());
+			assertEquals(objectList.get(i).getOuter(), writtenList.get(i).getOuter());
+			assertEquals(objectList.get(i).getUpkSize(), writtenList.get(i).getUpkSize());
+			assertEquals(objectList.get(i).getUpkPos(), writtenList.get(i).getUpkPos());
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+package io.upk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Test helper writing small synthetic *.upk files featuring a valid name,
+ * import and export table layout.<br>
+ * Name <i>i</i> is <code>"Name" + i</code>, export <i>i</i> is named by
+ * name <i>i</i> and owned by export <i>i / 2</i>, import <i>i</i> is named by
+ * name <i>i</i> and owned by import <i>i - 1</i>. The object data of export
+ * <i>i</i> consists of {@link #OBJECT_SIZE} bytes of value
+ * <code>(i * 31 + j) & 0xFF</code>.
+ *
+ * @author XMS
+ */
+public class SyntheticUpk {
+
+	/**
+	 * The byte size of each object's data.
+	 */
+	public static final int OBJECT_SIZE = 16;
+
+	/**
+	 * The GUID of synthetic files.
+	 */
+	public static final byte[] GUID = {
+		1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16
+	};
+
+	/**
+	 * The GUID of synthetic files as hex text.
+	 */
+	public static final String GUID_TEXT = "01 02 03 04 05 06 07 08 09 0A 0B 0C 0D 0E 0F 10";
+
+	/**
+	 * The header of mod files targeting synthetic files named <code>Test.upk</code>.
+	 */
+	public static final String MOD_HEADER = "MODFILEVERSION=4\nUPKFILE=Test.upk\nGUID=" + GUID_TEXT + "\n";
+
+	/**
+	 * Returns the hex text of the specified bytes of the specified export
+	 * object's data.
+	 * @param objectIdx the export index
+	 * @param from the index of the first byte
+	 * @param count the number of bytes
+	 * @return the space-separated hex text
+	 */
+	public static String getObjectHex(int objectIdx, int from, int count) {
+		StringBuilder hex = new StringBuilder();
+		for (int j = from; j < from + count; j++) {
+			hex.append(String.format("%02X ", (objectIdx * 31 + j) & 0xFF));
+		}
+		return hex.toString().trim();
+	}
+
+	/**
+	 * Returns the hex text of the specified number of bytes of the specified value.
+	 * @param value the byte value
+	 * @param count the number of bytes
+	 * @return the space-separated hex text
+	 */
+	public static String getFillHex(int value, int count) {
+		StringBuilder hex = new StringBuilder();
+		for (int j = 0; j < count; j++) {
+			hex.append(String.format("%02X ", value & 0xFF));
+		}
+		return hex.toString().trim();
+	}
+
+	/**
+	 * Returns the text of a mod file replacing the specified code of the
+	 * specified function of <code>Test.upk</code>.
+	 * @param function the function name
+	 * @param before the hex text of the [BEFORE_HEX] code block
+	 * @param after the hex text of the [AFTER_HEX] code block
+	 * @return the mod file text
+	 */
+	public static String createModText(String function, String before, String after) {
+		return createModText(function, 0, before, after);
+	}
+
+	/**
+	 * Returns the text of a mod file replacing the specified code of the
+	 * specified function of <code>Test.upk</code> and resizing the function.
+	 * @param function the function name
+	 * @param resize the resize amount, omitted if <code>0</code>
+	 * @param before the hex text of the [BEFORE_HEX] code block
+	 * @param after the hex text of the [AFTER_HEX] code block
+	 * @return the mod file text
+	 */
+	public static String createModText(String function, int resize, String before, String after) {
+		return MOD_HEADER + "FUNCTION=" + function + "\n"
+				+ ((resize != 0) ? "RESIZE=" + ((resize < 0) ? "-" : "") + Integer.toHexString(Math.abs(resize)) + "\n" : "")
+				+ "[BEFORE_HEX]\n[CODE]\n" + before + "\n[/CODE]\n[/BEFORE_HEX]\n"
+				+ "[AFTER_HEX]\n[CODE]\n" + after + "\n[/CODE]\n[/AFTER_HEX]\n";
+	}
+
+	/**
+	 * Writes a synthetic *.upk file to the specified path.
+	 * @param path the file path
+	 * @param numNames the number of name entries
+	 * @param numExports the number of export entries
+	 * @param numImports the number of import entries
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void write(Path path, int numNames, int numExports, int numImports) throws IOException {
+		int nameLength = 0;
+		for (int i = 0; i < numNames; i++) {
+			nameLength += 4 + ("Name" + i).length() + 9;
+		}
+		int exportLength = 0;
+		for (int i = 1; i <= numExports; i++) {
+			exportLength += 4 * (17 + (i % 3));
+		}
+		int namePos = 0x100;
+		int importPos = namePos + nameLength;
+		int exportPos = importPos + numImports * 28;
+		int dataPos = exportPos + exportLength;
+
+		ByteBuffer buf = ByteBuffer.allocate(dataPos + numExports * OBJECT_SIZE);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		buf.position(0x19);
+		buf.putInt(numNames).putInt(namePos).putInt(numExports).putInt(exportPos).putInt(numImports).putInt(importPos);
+		buf.position(0x45);
+		buf.put(GUID);
+
+		buf.position(namePos);
+		for (int i = 0; i < numNames; i++) {
+			byte[] str = ("Name" + i).getBytes();
+			buf.putInt(str.length + 1).put(str).put(new byte[9]);
+		}
+		for (int i = 1; i <= numImports; i++) {
+			buf.putInt((i % 5 == 0) ? 1 : 0).putInt(0).putInt(2).putInt(0)
+					.putInt(-(i - 1)).putInt(i % numNames).putInt(0);
+		}
+		for (int i = 1; i <= numExports; i++) {
+			int[] ints = new int[17 + (i % 3)];
+			ints[0] = -1;
+			ints[2] = i / 2;
+			ints[3] = i % numNames;
+			ints[8] = OBJECT_SIZE;
+			ints[9] = dataPos + (i - 1) * OBJECT_SIZE;
+			ints[11] = i % 3;
+			for (int value : ints) {
+				buf.putInt(value);
+			}
+		}
+		for (int i = 1; i <= numExports; i++) {
+			for (int j = 0; j < OBJECT_SIZE; j++) {
+				buf.put((byte) (i * 31 + j));
+			}
+		}
+		Files.write(path, buf.array());
+	}
+
+}
@@ -0,0 +1,57 @@
+package io.upk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import UPKmodder.UpkConfigData;
+
+/**
+ * Tests for the concurrent UPK file loader.
+ *
+ * @author XMS
+ */
+public class UpkFileLoaderTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public DisabledHeaderCache headerCache = new DisabledHeaderCache();
+
+	private Path tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = temporaryFolder.getRoot().toPath();
+	}
+
+	@Test
+	public void testCompletionAfterLastResult() throws Exception {
+		StringBuilder config = new StringBuilder("NUM_UPKS=4\n");
+		for (int i = 0; i < 4; i++) {
+			Path upkPath = tempDir.resolve("Test" + i + ".upk");
+			SyntheticUpk.write(upkPath, 20, 10, 5);
+			config.append("UPKFILE=Test").append(i).append(".upk\nFILE=").append(upkPath).append(" :: GUID=").append(SyntheticUpk.GUID_TEXT).append("\n");
+		}
+		Path configPath = tempDir.resolve("upk_config.ini");
+		Files.write(configPath, config.toString().getBytes());
+		UpkConfigData configData = new UpkConfigData();
+		configData.upkConfig = configPath.toString();
+
+		for (int run = 0; run < 20; run++) {
+			UpkFileLoader loader = new UpkFileLoader(configData);
+			assertTrue(loader.getCompletion().get().isEmpty());
+			// every result is available once the completion is done
+			assertEquals(4, loader.getLoadedUpks().size());
+		}
+	}
+
+}
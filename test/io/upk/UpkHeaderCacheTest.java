@@ -0,0 +1,76 @@
+package io.upk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import model.upk.UpkFile;
+import model.upk.UpkHeader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the persistent header cache.
+ *
+ * @author XMS
+ */
+public class UpkHeaderCacheTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private Path tempDir;
+	private Path upkPath;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = temporaryFolder.getRoot().toPath();
+		upkPath = tempDir.resolve("Test.upk");
+		SyntheticUpk.write(upkPath, 300, 200, 50);
+		UpkHeaderCache.setCacheDirectory(tempDir.resolve("cache"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		UpkHeaderCache.setCacheDirectory(UpkHeaderCache.DEFAULT_CACHE_DIRECTORY);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		assertNull(UpkHeaderCache.load(upkPath));
+		UpkHeader parsed = new UpkFile(upkPath).getHeader();
+		// storing the cache must not resolve names eagerly
+		assertNull(parsed.getObjectList().get(42).getName());
+		
+		UpkHeader cached = UpkHeaderCache.load(upkPath);
+		assertNotNull(cached);
+		assertArrayEquals(parsed.getGUID(), cached.getGUID());
+		assertEquals(parsed.nameListStrings, cached.nameListStrings);
+		assertEquals(parsed.objectListStrings, cached.objectListStrings);
+		assertEquals(parsed.importListStrings, cached.importListStrings);
+		for (int i = 1; i < parsed.getObjectListSize(); i++) {
+			assertEquals(parsed.getObjectList().get(i).getObjectEntryPos(), cached.getObjectList().get(i).getObjectEntryPos());
+			assertEquals(parsed.getObjectList().get(i).getUpkPos(), cached.getObjectList().get(i).getUpkPos());
+		}
+		assertEquals(42, new UpkFile(upkPath).findRefByName(parsed.objectListStrings.get(42)));
+	}
+
+	@Test
+	public void testInvalidation() throws Exception {
+		new UpkFile(upkPath);
+		assertNotNull(UpkHeaderCache.load(upkPath));
+		
+		Files.setLastModifiedTime(upkPath, FileTime.fromMillis(Files.getLastModifiedTime(upkPath).toMillis() - 10000L));
+		assertNull(UpkHeaderCache.load(upkPath));
+	}
+
+}
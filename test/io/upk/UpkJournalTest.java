@@ -0,0 +1,201 @@
+package io.upk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.upk.UpkJournal.Transaction;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the UPK modification journal.
+ *
+ * @author XMS
+ */
+public class UpkJournalTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private Path tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = temporaryFolder.getRoot().toPath();
+	}
+
+	@Test
+	public void testRollbackBatches() throws Exception {
+		Path path = tempDir.resolve("Test.upk");
+		byte[] original = createBytes(16);
+		Files.write(path, original);
+
+		UpkWriteBatch batch = new UpkWriteBatch();
+		batch.add(path, 2, new byte[] { 1, 1, 1 });
+		batch.flush();
+		byte[] first = Files.readAllBytes(path);
+		batch.add(path, 3, new byte[] { 2, 2 });
+		batch.add(path, 12, new byte[] { 3 });
+		batch.flush();
+
+		UpkJournal journal = UpkJournal.get(path);
+		assertEquals(2, journal.getTransactions().size());
+		assertEquals(1, journal.rollback(1));
+		assertArrayEquals(first, Files.readAllBytes(path));
+		assertEquals(1, journal.rollback(5));
+		assertArrayEquals(original, Files.readAllBytes(path));
+		assertEquals(0, journal.getTransactions().size());
+	}
+
+	@Test
+	public void testRollbackSplicesInPlace() throws Exception {
+		Path path = tempDir.resolve("Splice.upk");
+		byte[] original = createBytes(32);
+		Files.write(path, original);
+
+		// grow bytes 2..4 to 5 bytes, shrink bytes 10..14 to 1 byte
+		UpkJournal journal = UpkJournal.get(path);
+		Transaction tx = journal.begin("Splice");
+		byte[] grown = { 9, 9, 9, 9, 9 };
+		byte[] shrunk = { 8 };
+		journal.recordSplice(tx, 2, copy(original, 2, 2), grown);
+		journal.recordSplice(tx, 10, copy(original, 10, 4), shrunk);
+		journal.flush();
+		// size changes of both splices cancel out
+		ByteBuffer spliced = ByteBuffer.allocate(original.length);
+		spliced.put(original, 0, 2).put(grown).put(original, 4, 6).put(shrunk).put(original, 14, original.length - 14);
+		Files.write(path, spliced.array());
+		journal.commit(tx);
+
+		journal.rollback(tx);
+		assertArrayEquals(original, Files.readAllBytes(path));
+	}
+
+	@Test
+	public void testRecoverUncommitted() throws Exception {
+		Path path = tempDir.resolve("Crash.upk");
+		byte[] original = createBytes(16);
+		Files.write(path, original);
+
+		// simulate a crash after writing but before committing
+		UpkJournal crashed = new UpkJournal(path);
+		Transaction tx = crashed.begin("Crash");
+		crashed.recordAppend(tx, 16, 20);
+		crashed.recordWrite(tx, 4, copy(original, 4, 2), new byte[] { 7, 7 });
+		crashed.flush();
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			fc.write(ByteBuffer.wrap(new byte[] { 7, 7 }), 4);
+			fc.write(ByteBuffer.wrap(new byte[] { 5, 5 }), 16);
+		}
+
+		UpkJournal recovering = new UpkJournal(path);
+		assertEquals(1, recovering.recover());
+		assertArrayEquals(original, Files.readAllBytes(path));
+		assertEquals(0, recovering.recover());
+	}
+
+	@Test
+	public void testTornRecordCutOff() throws Exception {
+		Path path = tempDir.resolve("Torn.upk");
+		byte[] original = createBytes(16);
+		Files.write(path, original);
+		write(path, 2, new byte[] { 1, 1 }, "First");
+
+		// simulate a crash while appending the next record
+		UpkJournal journal = new UpkJournal(path);
+		Files.write(journal.getJournalPath(), new byte[] { 0, 0, 0, 40, 1, 2, 3 }, StandardOpenOption.APPEND);
+		byte[] first = Files.readAllBytes(path);
+
+		write(path, 8, new byte[] { 2, 2 }, "Second");
+		List<Transaction> transactions = new UpkJournal(path).getTransactions();
+		assertEquals(2, transactions.size());
+		assertEquals("First", transactions.get(0).getDescription());
+		assertEquals("Second", transactions.get(1).getDescription());
+
+		UpkJournal reopened = new UpkJournal(path);
+		assertEquals(1, reopened.rollback(1));
+		assertArrayEquals(first, Files.readAllBytes(path));
+		assertEquals(1, reopened.rollback(1));
+		assertArrayEquals(original, Files.readAllBytes(path));
+	}
+
+	@Test
+	public void testCorruptRecordIgnored() throws Exception {
+		Path path = tempDir.resolve("Corrupt.upk");
+		Files.write(path, createBytes(16));
+		write(path, 2, new byte[] { 1, 1 }, "First");
+
+		UpkJournal journal = new UpkJournal(path);
+		byte[] garbage = new byte[64];
+		Arrays.fill(garbage, (byte) 0xFF);
+		Files.write(journal.getJournalPath(), garbage, StandardOpenOption.APPEND);
+
+		assertEquals(0, journal.recover());
+		assertEquals(1, journal.getTransactions().size());
+	}
+
+	@Test
+	public void testCheckpointKeepsRecentTransactions() throws Exception {
+		Path path = tempDir.resolve("Checkpoint.upk");
+		byte[] original = createBytes(64);
+		Files.write(path, original);
+
+		UpkJournal journal = new UpkJournal(path, 512L);
+		List<byte[]> states = new ArrayList<>();
+		states.add(original);
+		for (int i = 0; i < 20; i++) {
+			write(journal, path, (i * 3) % 56, new byte[] { (byte) i, (byte) i, (byte) i, (byte) i, (byte) i, (byte) i, (byte) i, (byte) i }, "Write " + i);
+			states.add(Files.readAllBytes(path));
+			assertTrue(Files.size(journal.getJournalPath()) <= 512L + 128L);
+		}
+
+		// only the most recent transactions remain and can be rolled back in order
+		int kept = new UpkJournal(path).getTransactions().size();
+		assertTrue((kept > 0) && (kept < 20));
+		UpkJournal reopened = new UpkJournal(path);
+		assertEquals(kept, reopened.rollback(20));
+		assertArrayEquals(states.get(20 - kept), Files.readAllBytes(path));
+	}
+
+	private static void write(Path path, long position, byte[] bytes, String description) throws Exception {
+		write(new UpkJournal(path), path, position, bytes, description);
+	}
+
+	private static void write(UpkJournal journal, Path path, long position, byte[] bytes, String description) throws Exception {
+		byte[] oldBytes = copy(Files.readAllBytes(path), (int) position, bytes.length);
+		Transaction tx = journal.begin(description);
+		journal.recordWrite(tx, position, oldBytes, bytes);
+		journal.flush();
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			fc.write(ByteBuffer.wrap(bytes), position);
+		}
+		journal.commit(tx);
+	}
+
+	private static byte[] createBytes(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i + 100);
+		}
+		return bytes;
+	}
+
+	private static byte[] copy(byte[] bytes, int from, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(bytes, from, copy, 0, length);
+		return copy;
+	}
+
+}
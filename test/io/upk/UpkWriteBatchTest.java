@@ -0,0 +1,64 @@
+package io.upk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for batched in-place writes.
+ *
+ * @author XMS
+ */
+public class UpkWriteBatchTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private Path tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = temporaryFolder.getRoot().toPath();
+	}
+
+	@Test
+	public void testFlushWritesAllEdits() throws Exception {
+		Path first = tempDir.resolve("First.upk");
+		Path second = tempDir.resolve("Second.upk");
+		Files.write(first, new byte[16]);
+		Files.write(second, new byte[8]);
+
+		UpkWriteBatch batch = new UpkWriteBatch();
+		batch.add(first, 12, new byte[] { 1, 2, 3, 4 });
+		batch.add(second, 0, new byte[] { 5 });
+		batch.add(first, 0, new byte[] { 6, 7 });
+		assertEquals(3, batch.size());
+		batch.flush();
+		assertTrue(batch.isEmpty());
+
+		assertArrayEquals(new byte[] { 6, 7, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3, 4 }, Files.readAllBytes(first));
+		assertArrayEquals(new byte[] { 5, 0, 0, 0, 0, 0, 0, 0 }, Files.readAllBytes(second));
+	}
+
+	@Test
+	public void testSamePositionKeepsAddOrder() throws Exception {
+		Path path = tempDir.resolve("Test.upk");
+		Files.write(path, new byte[4]);
+
+		UpkWriteBatch batch = new UpkWriteBatch();
+		batch.add(path, 1, new byte[] { 1, 1 });
+		batch.add(path, 1, new byte[] { 2 });
+		batch.flush();
+
+		assertArrayEquals(new byte[] { 0, 2, 1, 0 }, Files.readAllBytes(path));
+	}
+
+}
@@ -0,0 +1,60 @@
+package model.upk;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the name hash index.
+ *
+ * @author XMS
+ */
+public class NameIndexTest {
+
+	@Test
+	public void testGet() {
+		List<String> names = Arrays.asList("", "Foo@Bar", "Baz@Bar", "Foo@Bar", "Qux");
+		NameIndex index = new NameIndex(names);
+		for (int i = 0; i < names.size(); i++) {
+			assertEquals(names.indexOf(names.get(i)), index.get(names.get(i)));
+		}
+		assertEquals(-1, index.get("Missing"));
+	}
+
+	@Test
+	public void testRename() {
+		NameIndex index = new NameIndex(Arrays.asList("", "Foo@Bar", "Baz@Bar", "Qux"));
+		assertEquals(true, index.remove("Baz@Bar", 2));
+		index.put("Quux@Bar", 2);
+		assertEquals(-1, index.get("Baz@Bar"));
+		assertEquals(2, index.get("Quux@Bar"));
+		
+		// renaming to an existing name keeps the first occurrence
+		assertEquals(true, index.remove("Qux", 3));
+		index.put("Foo@Bar", 3);
+		assertEquals(1, index.get("Foo@Bar"));
+		assertEquals(-1, index.get("Qux"));
+		
+		// removing a duplicate name requires a rebuild
+		assertEquals(false, index.remove("Foo@Bar", 1));
+	}
+
+	@Test
+	public void testManyRenames() {
+		NameIndex index = new NameIndex(Arrays.asList("", "Foo@Bar"));
+		String name = "Foo@Bar";
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(true, index.remove(name, 1));
+			name = "Name" + i;
+			index.put(name, 1);
+			assertEquals(-1, index.get("Missing"));
+		}
+		assertEquals(1, index.get(name));
+		assertEquals(0, index.get(""));
+		assertEquals(-1, index.get("Foo@Bar"));
+	}
+
+}
@@ -0,0 +1,88 @@
+package model.upk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import io.upk.DisabledHeaderCache;
+import io.upk.SyntheticUpk;
+import io.upk.UpkWriteBatch;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the shared file mapping of UPK files.
+ *
+ * @author XMS
+ */
+public class UpkFileMappingTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public DisabledHeaderCache headerCache = new DisabledHeaderCache();
+
+	private Path upkPath;
+
+	@Before
+	public void setUp() throws Exception {
+		upkPath = temporaryFolder.getRoot().toPath().resolve("Test.upk");
+		SyntheticUpk.write(upkPath, 100, 50, 10);
+	}
+
+	@Test
+	public void testReplacedFile() throws Exception {
+		UpkFile upk = new UpkFile(upkPath);
+		ByteBuffer buffer = upk.acquireBuffer();
+		try {
+			assertEquals(Files.size(upkPath), buffer.capacity());
+		} finally {
+			upk.releaseBuffer();
+		}
+		assertEquals(51, upk.getHeader().getObjectListSize());
+
+		// another process replaces the package by a smaller one
+		FileTime modified = Files.getLastModifiedTime(upkPath);
+		SyntheticUpk.write(upkPath, 50, 20, 5);
+		Files.setLastModifiedTime(upkPath, FileTime.fromMillis(modified.toMillis() + 2000));
+
+		buffer = upk.acquireBuffer();
+		try {
+			assertEquals(Files.size(upkPath), buffer.capacity());
+			assertEquals(21, upk.getHeader().getObjectListSize());
+		} finally {
+			upk.releaseBuffer();
+		}
+	}
+
+	@Test
+	public void testOwnWriteKeepsHeader() throws Exception {
+		UpkFile upk = new UpkFile(upkPath);
+		UpkHeader header = upk.getHeader();
+		int position = header.getObjectList().get(10).getUpkPos();
+
+		FileTime modified = Files.getLastModifiedTime(upkPath);
+		UpkWriteBatch batch = new UpkWriteBatch();
+		batch.add(upkPath, position, new byte[] { 1, 2, 3, 4 });
+		batch.flush();
+		Files.setLastModifiedTime(upkPath, FileTime.fromMillis(modified.toMillis() + 2000));
+		upk.updateFingerprint();
+
+		// the header is still valid, it is not parsed again
+		ByteBuffer buffer = upk.acquireBuffer();
+		try {
+			assertSame(header, upk.getHeader());
+			assertEquals(1, buffer.get(position));
+		} finally {
+			upk.releaseBuffer();
+		}
+	}
+
+}
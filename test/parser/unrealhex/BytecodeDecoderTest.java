@@ -0,0 +1,131 @@
+package parser.unrealhex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.unrealhex.BytecodeDecoder.DecodeException;
+import parser.unrealhex.Operand.OperandToken.OperandTokenType;
+
+/**
+ * Tests for decoding byte code.
+ *
+ * @author XMS
+ */
+public class BytecodeDecoderTest {
+
+	private Operand[] operands;
+
+	@Before
+	public void setUp() {
+		operands = new Operand[256];
+		for (String line : new String[] {
+				"00 1 R ; LocalVar ; <R1> ; local variable",
+				"04 1 G ; Return ; return <G1> ; return",
+				"07 1 J G ; JumpIfNot ; if(<G1>) ; conditional jump",
+				"0A 1 C ; Case ; case <C> ; case",
+				"0F 1 G G ; Let ; <G1> = <G2> ; Let, assignment",
+				"16 1 ; EndFunctParams ; ) ; end function parameters",
+				"1B 1 NR 4 P 1 ; VirtualFunct ; <NR1>(<P> ; virtual function",
+				"1F 1 N ; Constant(string) ; string constant",
+				"25 1 ; Constant(zero) ; int zero const" }) {
+			Operand operand = Operand.parse(line);
+			operands[Integer.parseInt(operand.getOpcode(), 16)] = operand;
+		}
+	}
+
+	@Test
+	public void testEvents() throws Exception {
+		// LocalVar = "AB"
+		String events = decode("0F 00 10 A0 00 00 1F 41 42 00", 14);
+		assertEquals("<0F@0 1@0 <00@1 1@1 R@2+4 >00@6:9 <1F@6 1@6 N@7+3 >1F@10:4 >0F@10:14 ", events);
+	}
+
+	@Test
+	public void testIndeterminateParameters() throws Exception {
+		// VirtualFunct(0, 0)
+		String events = decode("1B 05 00 00 00 00 00 00 00 25 25 16", 12);
+		assertEquals("<1B@0 1@0 NR@1+4 4@5+4 <25@9 1@9 >25@10:1 <25@10 1@10 >25@11:1 1@11 >1B@12:12 ", events);
+	}
+
+	@Test
+	public void testCase() throws Exception {
+		assertEquals("<0A@0 1@0 C@1+2 >0A@3:3 ", decode("0A FF FF", 3));
+		assertEquals("<0A@0 1@0 C@1+2 <25@3 1@3 >25@4:1 >0A@4:4 ", decode("0A 10 00 25", 4));
+	}
+
+	@Test
+	public void testDecodeFromBuffer() throws Exception {
+		ByteBuffer buffer = ByteBuffer.wrap(BytecodeDecoder.toBytes("EE EE 07 08 00 25 04 25"));
+		buffer.position(2);
+		BytecodeDecoder decoder = new BytecodeDecoder(buffer, operands);
+		assertEquals(4, decoder.decodeObject(new BytecodeDecoder.Adapter()));
+		assertEquals(8, decoder.getShort(1));
+		assertEquals(4, decoder.getPosition());
+		assertEquals(2, decoder.decode(new BytecodeDecoder.Adapter()));
+		assertEquals(2, buffer.position());
+	}
+
+	@Test
+	public void testMalformed() {
+		assertFails("0F 00 10 A0", 2);
+		assertFails("1F 41 42", 3);
+		assertFails("1B 05 00 00 00 00 00 00 00 25", 10);
+		assertFails("0F 00 10 A0 00 00 EE", 6);
+	}
+
+	@Test
+	public void testToBytes() {
+		assertArrayEquals(new byte[] { 0x0F, 0x00, (byte) 0xA0, 0x16 }, BytecodeDecoder.toBytes(" 0f 00\tA0\n16 "));
+		assertArrayEquals(new byte[0], BytecodeDecoder.toBytes(""));
+		try {
+			BytecodeDecoder.toBytes("0F 001");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private String decode(String hex, int memorySize) throws DecodeException {
+		final StringBuilder sb = new StringBuilder();
+		BytecodeDecoder decoder = new BytecodeDecoder(ByteBuffer.wrap(BytecodeDecoder.toBytes(hex)), operands);
+		int size = decoder.decode(new BytecodeDecoder.Listener() {
+			@Override
+			public void startOperand(int offset, Operand operand) {
+				sb.append('<').append(operand.getOpcode()).append('@').append(offset).append(' ');
+			}
+
+			@Override
+			public void token(int offset, int length, OperandTokenType type) {
+				String symbol = (type.getSymbol() != null) ? type.getSymbol() : String.valueOf(length);
+				sb.append(symbol).append('@').append(offset);
+				if (length != 1) {
+					sb.append('+').append(length);
+				}
+				sb.append(' ');
+			}
+
+			@Override
+			public void endOperand(int offset, Operand operand, int memorySize) {
+				sb.append('>').append(operand.getOpcode()).append('@').append(offset).append(':').append(memorySize).append(' ');
+			}
+		});
+		assertEquals(memorySize, size);
+		return sb.toString();
+	}
+
+	private void assertFails(String hex, int offset) {
+		try {
+			new BytecodeDecoder(ByteBuffer.wrap(BytecodeDecoder.toBytes(hex)), operands).decode(new BytecodeDecoder.Adapter());
+			fail(hex);
+		} catch (DecodeException e) {
+			assertEquals(offset, e.getOffset());
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package parser.unrealhex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import parser.unrealhex.Operand.OperandToken;
+import parser.unrealhex.Operand.OperandToken.OperandTokenType;
+
+/**
+ * Tests for parsing operand descriptors from operand data lines.
+ *
+ * @author XMS
+ */
+public class OperandTest {
+
+	@Test
+	public void testParse() {
+		Operand operand = Operand.parse("1b 1 NR 4 P 1 	; VirtualFunct ; <NR1>(<P> ; virtual function");
+		assertEquals("1B", operand.getOpcode());
+		assertEquals("VirtualFunct", operand.getName());
+		assertEquals("virtual function", operand.getDescription());
+		assertEquals(5, operand.getTokenCount());
+		assertEquals(OperandTokenType.ABSOLUTE_SKIP, operand.getToken(0).getType());
+		assertEquals(1, operand.getToken(0).getSize());
+		assertEquals(OperandTokenType.NAME_REFERENCE, operand.getToken(1).getType());
+		assertEquals(4, operand.getToken(1).getSize());
+		assertEquals(4, operand.getToken(2).getSize());
+		assertEquals(OperandTokenType.INDETERMINATE_16, operand.getToken(3).getType());
+		assertEquals("1 NR 4 P 1", join(operand.getTokens()));
+	}
+
+	@Test
+	public void testAllTokenTypes() {
+		Operand operand = Operand.parse("12 1 G S0 R 1 G ; ClassContext ; class.<G1>.<G2> ; ClassContext");
+		assertEquals("1 G S0 R 1 G", join(operand.getTokens()));
+		assertEquals(OperandTokenType.CONTEXT_SKIP, operand.getToken(2).getType());
+		assertEquals(OperandTokenType.CASE, OperandToken.parse("C").getType());
+		assertEquals(OperandTokenType.JUMP, OperandToken.parse("J").getType());
+		assertEquals(OperandTokenType.INDETERMINATE_00, OperandToken.parse("N").getType());
+		assertEquals(OperandTokenType.OBJECT_SKIP, OperandToken.parse("s1").getType());
+		assertEquals(OperandTokenType.PARAMETER_SKIP, OperandToken.parse("S2").getType());
+		// fixed tokens are shared
+		assertSame(OperandToken.parse("G"), OperandToken.parse("G"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownToken() {
+		Operand.parse("00 1 X ; Foo ; <X> ; unknown token");
+	}
+
+	private static String join(OperandToken[] tokens) {
+		StringBuilder sb = new StringBuilder();
+		for (OperandToken token : tokens) {
+			sb.append(token).append(' ');
+		}
+		return sb.toString().trim();
+	}
+
+}
@@ -0,0 +1,112 @@
+package parser.unrealhex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.unrealhex.BytecodeDecoder.DecodeException;
+
+/**
+ * Tests for tagging the references of byte code.
+ *
+ * @author XMS
+ */
+public class ReferenceParserTest {
+
+	private ReferenceParser parser;
+
+	@Before
+	public void setUp() throws Exception {
+		Operand[] operands = new Operand[256];
+		for (String line : Files.readAllLines(Paths.get("Config/operand_data.ini"), Charset.defaultCharset())) {
+			if (!line.split(";", 2)[0].trim().isEmpty()) {
+				Operand operand = Operand.parse(line);
+				operands[Integer.parseInt(operand.getOpcode(), 16)] = operand;
+			}
+		}
+		parser = new ReferenceParser(operands);
+	}
+
+	@Test
+	public void testParseString() {
+		assertEquals("07 DA 01 9B 38 3A 35 {{ 36 00 00 00 }} {{ 38 00 00 00 }} 00 00 10 00 {{ 0F A0 00 00 }} 35 {{ 3B 00 00 00 }} {{ 3C 00 00 00 }} 00 00 01 {{ AE 9F 00 00 }} 38 3A 24 00 16 ",
+				parser.parseString("07 DA 01 9B 38 3A 35 36 00 00 00 38 00 00 00 00 00 10 00 0F A0 00 00 35 3B 00 00 00 3C 00 00 00 00 00 01 AE 9F 00 00 38 3A 24 00 16"));
+		assertEquals("55 35 {{ 97 9F 00 00 }} {{ 98 9F 00 00 }} 00 00 1A 00 {{ 10 A0 00 00 }} 01 {{ BF 9F 00 00 }} 7D 00 1B << 82 0D 00 00 >> 00 00 00 00 35 {{ 36 00 00 00 }} {{ 38 00 00 00 }} 00 00 10 00 {{ 0F A0 00 00 }} 35 {{ 3B 00 00 00 }} {{ 3C 00 00 00 }} 00 00 01 {{ AE 9F 00 00 }} 35 {{ 33 00 00 00 }} {{ 38 00 00 00 }} 00 00 10 00 {{ 0F A0 00 00 }} 35 {{ 3B 00 00 00 }} {{ 3C 00 00 00 }} 00 00 01 {{ AE 9F 00 00 }} 16 16 ",
+				parser.parseString("55 35 97 9F 00 00 98 9F 00 00 00 00 1A 00 10 A0 00 00 01 BF 9F 00 00 7D 00 1B 82 0D 00 00 00 00 00 00 35 36 00 00 00 38 00 00 00 00 00 10 00 0F A0 00 00 35 3B 00 00 00 3C 00 00 00 00 00 01 AE 9F 00 00 35 33 00 00 00 38 00 00 00 00 00 10 00 0F A0 00 00 35 3B 00 00 00 3C 00 00 00 00 00 01 AE 9F 00 00 16 16"));
+		assertEquals("07 45 03 19 19 2E {{ FE 2C 00 00 }} 19 12 20 {{ 4F FE FF FF }} 0A 00 {{ D8 F9 FF FF }} 00 1C {{ F6 FB FF FF }} 16 09 00 {{ 98 F9 FF FF }} 00 01 {{ 98 F9 FF FF }} 09 00 {{ F0 2C 00 00 }} 00 01 {{ F0 2C 00 00 }} 01 00 {{ F0 2C 00 00 }} 00 28 ",
+				parser.parseString("07 45 03 19 19 2E FE 2C 00 00 19 12 20 4F FE FF FF 0A 00 D8 F9 FF FF 00 1C F6 FB FF FF 16 09 00 98 F9 FF FF 00 01 98 F9 FF FF 09 00 F0 2C 00 00 00 01 F0 2C 00 00 01 00 F0 2C 00 00 00 28"));
+	}
+
+	@Test
+	public void testParseToWriter() throws Exception {
+		// many functions worth of byte code streamed in one go
+		ByteBuffer code = ByteBuffer.allocate(5 * 10000);
+		for (int i = 0; i < 10000; i++) {
+			code.put(new byte[] { 0x00, (byte) i, 0x01, 0x00, 0x00 });
+		}
+		code.position(5);
+		StringWriter out = new StringWriter();
+		try (Writer writer = new BufferedWriter(out)) {
+			parser.parse(code, writer);
+		}
+		assertEquals(9999 * "00 {{ 00 01 00 00 }} ".length(), out.toString().length());
+		assertEquals("00 {{ 01 01 00 00 }} 00 {{ 02 01 00 00 }} ", out.toString().substring(0, 42));
+		assertEquals(5, code.position());
+	}
+
+	@Test
+	public void testMalformed() {
+		// undecodable remainder is mirrored
+		assertEquals("0F 00 {{ 10 A0 00 00 }} 26 01 ", parser.parseString("0F 00 10 A0 00 00 26 01"));
+	}
+
+	@Test
+	public void testMalformedToWriter() throws Exception {
+		StringWriter out = new StringWriter();
+		try {
+			parser.parseString("0F 00 10 A0 00 00 26 01", out);
+			fail();
+		} catch (DecodeException e) {
+			// undecodable remainder is mirrored before failing
+			assertEquals("0F 00 {{ 10 A0 00 00 }} 26 01 ", out.toString());
+		}
+	}
+
+	@Test
+	public void testOutputFailure() throws Exception {
+		Appendable failing = new Appendable() {
+			@Override
+			public Appendable append(CharSequence csq) throws IOException {
+				throw new IOException("disk full");
+			}
+
+			@Override
+			public Appendable append(CharSequence csq, int start, int end) throws IOException {
+				throw new IOException("disk full");
+			}
+
+			@Override
+			public Appendable append(char c) throws IOException {
+				throw new IOException("disk full");
+			}
+		};
+		try {
+			parser.parseString("0F 00 10 A0 00 00 26", failing);
+			fail();
+		} catch (IOException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package util.unrealhex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Aho-Corasick multi-pattern matcher.
+ *
+ * @author XMS
+ */
+public class AhoCorasickMatchTest {
+
+	@Test
+	public void testOverlappingPatterns() {
+		byte[] data = { 1, 2, 3, 1, 2, 3, 4, 0x0B, 0x0B, 0x0B };
+		List<byte[]> patterns = Arrays.asList(
+				new byte[] { 2, 3, 4 },
+				new byte[] { 1, 2, 3 },
+				new byte[] { 3 },
+				new byte[] { 0x0B, 0x0B },
+				new byte[] { 4, 5 },
+				new byte[] { 1, 2, 3 });
+		assertArrayEquals(new int[] { 4, 0, 2, 7, -1, 0 }, new AhoCorasickMatch(patterns).indexOf(data));
+	}
+
+	@Test
+	public void testAgainstKMP() {
+		Random random = new Random(4711L);
+		for (int n = 0; n < 500; n++) {
+			// small alphabet to provoke many partial matches
+			byte[] data = new byte[random.nextInt(400)];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = (byte) (random.nextInt(3) * 0x7F);
+			}
+			List<byte[]> patterns = new ArrayList<>();
+			for (int k = random.nextInt(6) + 1; k > 0; k--) {
+				byte[] pattern = new byte[random.nextInt(8) + 1];
+				if ((data.length > pattern.length) && random.nextBoolean()) {
+					System.arraycopy(data, random.nextInt(data.length - pattern.length), pattern, 0, pattern.length);
+				} else {
+					for (int i = 0; i < pattern.length; i++) {
+						pattern[i] = (byte) (random.nextInt(3) * 0x7F);
+					}
+				}
+				patterns.add(pattern);
+			}
+			int[] indices = new AhoCorasickMatch(patterns).indexOf(data);
+			for (int k = 0; k < patterns.size(); k++) {
+				assertEquals(KMPMatch.indexOf(data, patterns.get(k)), indices[k]);
+			}
+		}
+	}
+
+	@Test
+	public void testBufferRange() {
+		ByteBuffer buf = ByteBuffer.wrap(new byte[] { 7, 7, 1, 2, 7, 1, 2 });
+		buf.position(3);
+		buf.limit(6);
+		List<byte[]> patterns = Arrays.asList(new byte[] { 1, 2 }, new byte[] { 2, 7 });
+		assertArrayEquals(new int[] { -1, 0 }, new AhoCorasickMatch(patterns).indexOf(buf));
+		assertEquals(3, buf.position());
+	}
+
+}
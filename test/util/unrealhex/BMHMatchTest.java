@@ -0,0 +1,51 @@
+package util.unrealhex;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Boyer-Moore-Horspool matcher. Results have to be identical
+ * to those of {@link KMPMatch}.
+ *
+ * @author XMS
+ */
+public class BMHMatchTest {
+
+	@Test
+	public void testAgainstKMP() {
+		Random random = new Random(815L);
+		for (int n = 0; n < 2000; n++) {
+			int alphabet = random.nextInt(4) + 1;
+			byte[] data = new byte[random.nextInt(300)];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = (byte) (random.nextInt(alphabet) * 0x55 - 0x80);
+			}
+			byte[] pattern = new byte[random.nextInt(12) + 1];
+			if ((data.length > pattern.length) && random.nextBoolean()) {
+				System.arraycopy(data, random.nextInt(data.length - pattern.length), pattern, 0, pattern.length);
+			} else {
+				for (int i = 0; i < pattern.length; i++) {
+					pattern[i] = (byte) (random.nextInt(alphabet) * 0x55 - 0x80);
+				}
+			}
+			assertEquals(KMPMatch.indexOf(data, pattern), BMHMatch.indexOf(data, pattern));
+		}
+	}
+
+	@Test
+	public void testBufferRange() {
+		ByteBuffer buf = ByteBuffer.wrap(new byte[] { 1, 2, 3, 1, 2, 3, 1, 2 });
+		buf.position(2);
+		buf.limit(7);
+		assertEquals(1, BMHMatch.indexOf(buf, new byte[] { 1, 2, 3 }));
+		assertEquals(1, KMPMatch.indexOf(buf, new byte[] { 1, 2, 3 }));
+		assertEquals(-1, BMHMatch.indexOf(buf, new byte[] { 2, 3, 1, 2 }));
+		assertEquals(-1, KMPMatch.indexOf(buf, new byte[] { 2, 3, 1, 2 }));
+		assertEquals(2, buf.position());
+	}
+
+}
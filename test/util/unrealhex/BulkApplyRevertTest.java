@@ -0,0 +1,134 @@
+package util.unrealhex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import io.upk.DisabledHeaderCache;
+import io.upk.SyntheticUpk;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import model.modtree.ModTree;
+import model.upk.UpkFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ui.ApplyStatus;
+
+/**
+ * Tests for bulk applying/reverting mod files.
+ *
+ * @author XMS
+ */
+public class BulkApplyRevertTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public DisabledHeaderCache headerCache = new DisabledHeaderCache();
+
+	private Path upkPath;
+	private UpkFile upk;
+
+	@Before
+	public void setUp() throws Exception {
+		upkPath = temporaryFolder.getRoot().toPath().resolve("Test.upk");
+		SyntheticUpk.write(upkPath, 100, 50, 10);
+		upk = new UpkFile(upkPath);
+	}
+
+	@Test
+	public void testApplyRevert() throws Exception {
+		byte[] original = Files.readAllBytes(upkPath);
+		ModTree first = createModTree(10, 2, 4);
+		ModTree second = createModTree(12, 0, 3);
+
+		BulkApplyRevert bulk = new BulkApplyRevert(true);
+		bulk.add(first);
+		bulk.add(second);
+		Map<ModTree, ApplyStatus> results = bulk.execute();
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, results.get(first));
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, results.get(second));
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, HexSearchAndReplace.testFileStatus(first));
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, HexSearchAndReplace.testFileStatus(second));
+
+		bulk = new BulkApplyRevert(false);
+		bulk.add(first);
+		bulk.add(second);
+		results = bulk.execute();
+		assertEquals(ApplyStatus.BEFORE_HEX_PRESENT, results.get(first));
+		assertEquals(ApplyStatus.BEFORE_HEX_PRESENT, results.get(second));
+		assertArrayEquals(original, Files.readAllBytes(upkPath));
+	}
+
+	@Test
+	public void testConflictingEditsAreSkipped() throws Exception {
+		byte[] original = Files.readAllBytes(upkPath);
+		ModTree first = createModTree(10, 2, 4);
+		ModTree conflicting = createModTree(10, 4, 4);
+		ModTree independent = createModTree(12, 0, 3);
+
+		BulkApplyRevert bulk = new BulkApplyRevert(true);
+		bulk.add(first);
+		bulk.add(conflicting);
+		bulk.add(independent);
+		Map<ModTree, ApplyStatus> results = bulk.execute();
+		assertEquals(ApplyStatus.BEFORE_HEX_PRESENT, results.get(first));
+		assertEquals(ApplyStatus.BEFORE_HEX_PRESENT, results.get(conflicting));
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, results.get(independent));
+
+		byte[] applied = Files.readAllBytes(upkPath);
+		int objectPos = upk.getHeader().getObjectList().get(12).getUpkPos();
+		for (int i = 0; i < 3; i++) {
+			original[objectPos + i] = (byte) 0xEE;
+		}
+		assertArrayEquals(original, applied);
+	}
+
+	@Test
+	public void testChainedModFiles() throws Exception {
+		byte[] original = Files.readAllBytes(upkPath);
+		ModTree first = createModTree(14, 0, 3);
+		ModTree chained = createModTree(14, "EE EE EE", "DD DD DD");
+
+		BulkApplyRevert bulk = new BulkApplyRevert(true);
+		bulk.add(first);
+		bulk.add(chained);
+		Map<ModTree, ApplyStatus> results = bulk.execute();
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, results.get(first));
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, results.get(chained));
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, HexSearchAndReplace.testFileStatus(chained));
+
+		bulk = new BulkApplyRevert(false);
+		bulk.add(first);
+		bulk.add(chained);
+		results = bulk.execute();
+		assertEquals(ApplyStatus.BEFORE_HEX_PRESENT, results.get(first));
+		assertEquals(ApplyStatus.BEFORE_HEX_PRESENT, results.get(chained));
+		assertArrayEquals(original, Files.readAllBytes(upkPath));
+	}
+
+	/**
+	 * Creates a mod tree replacing the specified bytes of the specified
+	 * export object by <code>0xEE</code> bytes.
+	 */
+	private ModTree createModTree(int objectIdx, int from, int count) {
+		return createModTree(objectIdx, SyntheticUpk.getObjectHex(objectIdx, from, count), SyntheticUpk.getFillHex(0xEE, count));
+	}
+
+	/**
+	 * Creates a mod tree replacing the specified hex of the specified export
+	 * object.
+	 */
+	private ModTree createModTree(int objectIdx, String before, String after) {
+		ModTree tree = new ModTree(SyntheticUpk.createModText(upk.getRefName(objectIdx), before, after), true);
+		tree.setTargetUpk(upk);
+		return tree;
+	}
+
+}
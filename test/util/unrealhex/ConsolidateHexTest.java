@@ -0,0 +1,115 @@
+package util.unrealhex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import io.upk.SyntheticUpk;
+
+import java.util.List;
+
+import model.modtree.ModContext.ModContextType;
+import model.modtree.ModTree;
+import model.modtree.ModTreeNode;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for consolidating the hex blocks of mod trees and caching them.
+ *
+ * @author XMS
+ */
+public class ConsolidateHexTest {
+
+	private static final String MOD_TEXT = SyntheticUpk.MOD_HEADER + "FUNCTION=Foo\n"
+			+ "[BEFORE_HEX]\n[CODE]\n0B 2D 00 // comment\n\t1c 00\n1D  00\n[/CODE]\n[/BEFORE_HEX]\n"
+			+ "[AFTER_HEX]\n[CODE]\n0B 0B 0B\n[/CODE]\n[/AFTER_HEX]\n";
+
+	private ModTree tree;
+
+	@Before
+	public void setUp() {
+		tree = new ModTree(MOD_TEXT, true);
+	}
+
+	@Test
+	public void testConsolidateHex() {
+		List<byte[]> before = HexSearchAndReplace.consolidateBeforeHex(tree);
+		assertEquals(1, before.size());
+		assertArrayEquals(new byte[] { 0x0B, 0x2D, 0x00, 0x1C, 0x00 }, before.get(0));
+
+		List<byte[]> after = HexSearchAndReplace.consolidateAfterHex(tree);
+		assertEquals(1, after.size());
+		assertArrayEquals(new byte[] { 0x0B, 0x0B, 0x0B }, after.get(0));
+	}
+
+	@Test
+	public void testUnresolvedReference() {
+		tree = new ModTree(MOD_TEXT.replace("0B 2D 00", "0B {|Foo|} 00"), true);
+		assertNull(HexSearchAndReplace.consolidateBeforeHex(tree));
+		assertNull(tree.getHexBlocks(ModContextType.BEFORE_HEX));
+	}
+
+	@Test
+	public void testCacheReuse() {
+		List<byte[]> before = HexSearchAndReplace.consolidateBeforeHex(tree);
+		assertSame(before, HexSearchAndReplace.consolidateBeforeHex(tree));
+		assertSame(before, tree.getHexBlocks(ModContextType.BEFORE_HEX));
+	}
+
+	@Test
+	public void testSetRootInvalidates() {
+		List<byte[]> before = HexSearchAndReplace.consolidateBeforeHex(tree);
+		tree.setRoot(tree.getRoot());
+		assertNull(tree.getHexBlocks(ModContextType.BEFORE_HEX));
+		assertNotSame(before, HexSearchAndReplace.consolidateBeforeHex(tree));
+	}
+
+	@Test
+	public void testSetTextInvalidates() {
+		HexSearchAndReplace.consolidateBeforeHex(tree);
+		ModTreeNode leaf = findLeaf("0B 2D 00");
+		leaf.setText(leaf.getText().replace("0B 2D 00", "0B 2E 00"));
+		assertNull(tree.getHexBlocks(ModContextType.BEFORE_HEX));
+
+		List<byte[]> before = HexSearchAndReplace.consolidateBeforeHex(tree);
+		assertArrayEquals(new byte[] { 0x0B, 0x2E, 0x00, 0x1C, 0x00 }, before.get(0));
+	}
+
+	@Test
+	public void testParseTextInvalidates() {
+		HexSearchAndReplace.consolidateBeforeHex(tree);
+		tree.parseText(MOD_TEXT.replace("0B 2D 00", "0B 2F 00"), true);
+		assertNull(tree.getHexBlocks(ModContextType.BEFORE_HEX));
+
+		List<byte[]> before = HexSearchAndReplace.consolidateBeforeHex(tree);
+		assertArrayEquals(new byte[] { 0x0B, 0x2F, 0x00, 0x1C, 0x00 }, before.get(0));
+	}
+
+	@Test
+	public void testSetTargetUpkInvalidates() {
+		HexSearchAndReplace.consolidateBeforeHex(tree);
+		tree.setTargetUpk(null);
+		assertNull(tree.getHexBlocks(ModContextType.BEFORE_HEX));
+	}
+
+	/**
+	 * Returns the first leaf of the tree whose text contains the specified string.
+	 */
+	private ModTreeNode findLeaf(String text) {
+		ModTreeNode root = tree.getRoot();
+		for (int i = 0; i < root.getChildNodeCount(); i++) {
+			ModTreeNode line = root.getChildNodeAt(i);
+			for (int j = 0; j < line.getChildNodeCount(); j++) {
+				ModTreeNode leaf = line.getChildNodeAt(j);
+				if (leaf.getText().contains(text)) {
+					return leaf;
+				}
+			}
+		}
+		throw new AssertionError("no leaf containing " + text);
+	}
+
+}
@@ -207,7 +207,7 @@ public class HexSearchAndReplaceTest {
 	/**
 	 * Test of resizeAndReplace method, of class HexSearchAndReplace.
 	 * This is a potentially destructive test. Test upk should manually be replaced after each test.
-	 * It applies and then reverts with a resize, which should leave a backup and upk identical to the originals.
+	 * It applies and then reverts with a resize, which should leave the upk identical to the original.
 	 */
 	@Test
 	public void testResizeAndReplace() {
@@ -0,0 +1,97 @@
+package util.unrealhex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import io.upk.Fingerprint;
+import io.upk.SyntheticUpk;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ui.ApplyStatus;
+
+/**
+ * Tests for the persistent mod file status cache.
+ *
+ * @author XMS
+ */
+public class ModStatusCacheTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private Path tempDir;
+	private Path upkPath;
+	private Path modPath;
+	private Path projectPath;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = temporaryFolder.getRoot().toPath();
+		upkPath = tempDir.resolve("Test.upk");
+		SyntheticUpk.write(upkPath, 10, 5, 2);
+		modPath = tempDir.resolve("Test.upk_mod");
+		Files.write(modPath, "MODFILEVERSION=4".getBytes());
+		projectPath = tempDir.resolve("project.xml");
+		ModStatusCache.setCacheDirectory(tempDir.resolve("cache"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ModStatusCache.setCacheDirectory(ModStatusCache.DEFAULT_CACHE_DIRECTORY);
+	}
+
+	@Test
+	public void testStatusIsPersisted() throws Exception {
+		byte[] modHash = ModStatusCache.hash(Files.readAllBytes(modPath));
+		ModStatusCache cache = ModStatusCache.forProject(projectPath);
+		assertNull(cache.get(modPath, modHash));
+		cache.put(modPath, modHash, upkPath, Fingerprint.of(upkPath), ApplyStatus.AFTER_HEX_PRESENT);
+		cache.save();
+
+		// discard loaded caches
+		ModStatusCache.setCacheDirectory(tempDir.resolve("cache"));
+		cache = ModStatusCache.forProject(projectPath);
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, cache.get(modPath, modHash));
+	}
+
+	@Test
+	public void testChangedInputsInvalidateStatus() throws Exception {
+		byte[] modHash = ModStatusCache.hash(Files.readAllBytes(modPath));
+		ModStatusCache cache = ModStatusCache.forProject(projectPath);
+		cache.put(modPath, modHash, upkPath, Fingerprint.of(upkPath), ApplyStatus.BEFORE_HEX_PRESENT);
+		assertEquals(ApplyStatus.BEFORE_HEX_PRESENT, cache.get(modPath, modHash));
+
+		// changed mod file contents
+		assertNull(cache.get(modPath, ModStatusCache.hash("MODFILEVERSION=3".getBytes())));
+
+		// changed package
+		FileTime modified = Files.getLastModifiedTime(upkPath);
+		Files.setLastModifiedTime(upkPath, FileTime.fromMillis(modified.toMillis() + 2000L));
+		assertNull(cache.get(modPath, modHash));
+	}
+
+	@Test
+	public void testInvalidatePackage() throws Exception {
+		byte[] modHash = ModStatusCache.hash(Files.readAllBytes(modPath));
+		ModStatusCache cache = ModStatusCache.forProject(projectPath);
+		cache.put(modPath, modHash, upkPath, Fingerprint.of(upkPath), ApplyStatus.BEFORE_HEX_PRESENT);
+		cache.save();
+
+		// package modified in place within the modification time granularity
+		ModStatusCache.invalidate(tempDir.resolve("sub").resolve("..").resolve("Test.upk"));
+		assertNull(cache.get(modPath, modHash));
+
+		// discard loaded caches
+		ModStatusCache.setCacheDirectory(tempDir.resolve("cache"));
+		assertNull(ModStatusCache.forProject(projectPath).get(modPath, modHash));
+	}
+
+}
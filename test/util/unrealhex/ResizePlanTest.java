@@ -0,0 +1,164 @@
+package util.unrealhex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.model.upk.ObjectEntry;
+import io.upk.DisabledHeaderCache;
+import io.upk.SyntheticUpk;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import model.modtree.ModTree;
+import model.upk.UpkFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ui.ApplyStatus;
+
+/**
+ * Tests for batched resize operations.
+ *
+ * @author XMS
+ */
+public class ResizePlanTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public DisabledHeaderCache headerCache = new DisabledHeaderCache();
+
+	private Path tempDir;
+	private Path upkPath;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = temporaryFolder.getRoot().toPath();
+		upkPath = tempDir.resolve("Test.upk");
+		SyntheticUpk.write(upkPath, 100, 50, 10);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ResizePlan.setResizeMode(ResizePlan.Mode.REWRITE);
+	}
+
+	@Test
+	public void testPlanMatchesSequentialResizes() throws Exception {
+		Path sequentialPath = tempDir.resolve("Sequential.upk");
+		Files.copy(upkPath, sequentialPath, StandardCopyOption.REPLACE_EXISTING);
+		UpkFile sequentialUpk = new UpkFile(sequentialPath);
+		assertTrue(HexSearchAndReplace.resizeAndReplace(true, createModTree(sequentialUpk, 10, 2, 3)));
+		assertTrue(HexSearchAndReplace.resizeAndReplace(true, createModTree(sequentialUpk, 20, 4, -2)));
+
+		UpkFile upk = new UpkFile(upkPath);
+		ModTree grown = createModTree(upk, 10, 2, 3);
+		ModTree shrunk = createModTree(upk, 20, 4, -2);
+		ResizePlan plan = new ResizePlan(upk);
+		assertTrue(plan.add(true, shrunk));
+		assertTrue(plan.add(true, grown));
+		assertTrue(plan.execute());
+
+		assertArrayEquals(Files.readAllBytes(sequentialPath), Files.readAllBytes(upkPath));
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, HexSearchAndReplace.testFileStatus(grown));
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, HexSearchAndReplace.testFileStatus(shrunk));
+
+		// in-memory entries match the rewritten object table
+		List<ObjectEntry> written = new UpkFile(upkPath).getHeader().getObjectList();
+		List<ObjectEntry> updated = upk.getHeader().getObjectList();
+		for (int i = 1; i < written.size(); i++) {
+			assertEquals(written.get(i).getUpkPos(), updated.get(i).getUpkPos());
+			assertEquals(written.get(i).getUpkSize(), updated.get(i).getUpkSize());
+		}
+		assertEquals(SyntheticUpk.OBJECT_SIZE + 3, updated.get(10).getUpkSize());
+		assertEquals(SyntheticUpk.OBJECT_SIZE - 2, updated.get(20).getUpkSize());
+		assertEquals(written.get(11).getUpkPos(), written.get(10).getUpkPos() + SyntheticUpk.OBJECT_SIZE + 3);
+	}
+
+	@Test
+	public void testRollbackWithoutBackup() throws Exception {
+		byte[] original = Files.readAllBytes(upkPath);
+		UpkFile upk = new UpkFile(upkPath);
+		ResizePlan plan = new ResizePlan(upk);
+		assertTrue(plan.add(true, createModTree(upk, 10, 2, 3)));
+		assertTrue(plan.add(true, createModTree(upk, 20, 4, -2)));
+		assertTrue(plan.execute());
+		assertFalse(Files.exists(tempDir.resolve("Test.bak")));
+
+		assertEquals(1, upk.rollback(1));
+		assertArrayEquals(original, Files.readAllBytes(upkPath));
+		assertEquals(SyntheticUpk.OBJECT_SIZE, upk.getHeader().getObjectList().get(10).getUpkSize());
+	}
+
+	@Test
+	public void testRewriteReplacesOriginal() throws Exception {
+		byte[] original = Files.readAllBytes(upkPath);
+		// stale leftover of an interrupted rewrite
+		Path tempPath = tempDir.resolve("Test.upk.tmp");
+		Files.write(tempPath, new byte[] { 1, 2, 3 });
+
+		UpkFile upk = new UpkFile(upkPath);
+		ResizePlan plan = new ResizePlan(upk);
+		assertTrue(plan.add(true, createModTree(upk, 10, 2, 3)));
+		assertTrue(plan.execute());
+
+		assertFalse(Files.exists(tempPath));
+		assertFalse(Files.exists(tempDir.resolve("Test.bak")));
+		assertEquals(original.length + 3, Files.size(upkPath));
+	}
+
+	@Test
+	public void testOverlappingResizesAreRejected() throws Exception {
+		UpkFile upk = new UpkFile(upkPath);
+		ResizePlan plan = new ResizePlan(upk);
+		assertTrue(plan.add(true, createModTree(upk, 10, 2, 3)));
+		assertFalse(plan.add(true, createModTree(upk, 10, 2, 1)));
+	}
+
+	@Test
+	public void testRelocateAndRevert() throws Exception {
+		ResizePlan.setResizeMode(ResizePlan.Mode.RELOCATE);
+		byte[] original = Files.readAllBytes(upkPath);
+		UpkFile upk = new UpkFile(upkPath);
+		ModTree tree = createModTree(upk, 10, 2, 3);
+		int oldPos = upk.getHeader().getObjectList().get(10).getUpkPos();
+
+		assertTrue(HexSearchAndReplace.resizeAndReplace(true, tree));
+		assertEquals(original.length + SyntheticUpk.OBJECT_SIZE + 3, Files.size(upkPath));
+		assertEquals(ApplyStatus.AFTER_HEX_PRESENT, HexSearchAndReplace.testFileStatus(tree));
+		ObjectEntry written = new UpkFile(upkPath).getHeader().getObjectList().get(10);
+		assertEquals(original.length, written.getUpkPos());
+		assertEquals(SyntheticUpk.OBJECT_SIZE + 3, written.getUpkSize());
+		assertEquals(original.length, upk.getHeader().getObjectList().get(10).getUpkPos());
+		// neighbouring objects are not moved
+		assertEquals(upk.getHeader().getObjectList().get(11).getUpkPos(), oldPos + SyntheticUpk.OBJECT_SIZE);
+
+		assertTrue(HexSearchAndReplace.resizeAndReplace(false, tree));
+		assertArrayEquals(original, Files.readAllBytes(upkPath));
+		assertEquals(oldPos, upk.getHeader().getObjectList().get(10).getUpkPos());
+		assertEquals(ApplyStatus.BEFORE_HEX_PRESENT, HexSearchAndReplace.testFileStatus(tree));
+		assertFalse(Files.exists(tempDir.resolve("Test.bak")));
+	}
+
+	/**
+	 * Creates a mod tree replacing four bytes of the specified export object
+	 * by <code>4 + resize</code> bytes of value <code>0xEE</code>.
+	 */
+	private static ModTree createModTree(UpkFile upk, int objectIdx, int from, int resize) {
+		String modText = SyntheticUpk.createModText(upk.getRefName(objectIdx), resize,
+				SyntheticUpk.getObjectHex(objectIdx, from, 4), SyntheticUpk.getFillHex(0xEE, 4 + resize));
+		ModTree tree = new ModTree(modText, true);
+		tree.setTargetUpk(upk);
+		return tree;
+	}
+
+}